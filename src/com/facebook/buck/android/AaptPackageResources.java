@@ -40,6 +40,7 @@ import com.facebook.buck.rules.Sha1HashCode;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.step.AbstractExecutionStep;
+import com.facebook.buck.step.ConditionalStep;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
@@ -47,8 +48,11 @@ import com.facebook.buck.step.fs.MkdirAndSymlinkFileStep;
 import com.facebook.buck.step.fs.MkdirStep;
 import com.facebook.buck.util.HumanReadableException;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Functions;
+import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -280,14 +284,36 @@ public class AaptPackageResources extends AbstractBuildRule
         packageType.isCrunchPngFiles()));
 
     if (!filteredResourcesProvider.getResDirectories().isEmpty()) {
-      generateAndCompileRDotJavaFiles(steps, buildableContext);
+      // Only generate, compile and dex the R.java files again if the resource IDs have changed.
+      ImmutableList.Builder<Path> rDotJavaOutputs = ImmutableList.<Path>builder()
+          .add(getPathToGeneratedRDotJavaSrcFiles())
+          .add(getPathToCompiledRDotJavaFiles())
+          .add(getPathToRDotJavaClassesTxt());
+      if (rDotJavaNeedsDexing) {
+        rDotJavaOutputs.add(getPathToRDotJavaDex());
+      }
+      RDotTxtChangedStep rDotTxtChanged = new RDotTxtChangedStep(
+          rDotTxtDir.resolve("R.txt"),
+          resourceDeps,
+          getRDotJavaSettings(),
+          rDotJavaNeedsDexing
+              ? Optional.of(DX_OPTIONS)
+              : Optional.<EnumSet<DxStep.Option>>absent(),
+          getPathToRDotJavaStamp(),
+          rDotJavaOutputs.build());
+      steps.add(rDotTxtChanged);
+
+      generateAndCompileRDotJavaFiles(steps, buildableContext, rDotTxtChanged);
       if (rDotJavaNeedsDexing) {
         Path rDotJavaDexDir = getPathToRDotJavaDexFiles();
-        steps.add(new MakeCleanDirectoryStep(rDotJavaDexDir));
-        steps.add(new DxStep(
-                getPathToRDotJavaDex(),
-                Collections.singleton(getPathToCompiledRDotJavaFiles()),
-                DX_OPTIONS));
+        steps.add(new ConditionalStep(rDotTxtChanged, new MakeCleanDirectoryStep(rDotJavaDexDir)));
+        steps.add(
+            new ConditionalStep(
+                rDotTxtChanged,
+                new DxStep(
+                    getPathToRDotJavaDex(),
+                    Collections.singleton(getPathToCompiledRDotJavaFiles()),
+                    DX_OPTIONS)));
 
         final EstimateLinearAllocStep estimateLinearAllocStep = new EstimateLinearAllocStep(
             getPathToCompiledRDotJavaFiles());
@@ -305,6 +331,11 @@ public class AaptPackageResources extends AbstractBuildRule
               }
             });
       }
+
+      steps.add(new MkdirStep(getPathToRDotJavaStamp().getParent()));
+      steps.add(rDotTxtChanged.createWriteStampStep());
+      // Keep the stamp with the outputs it describes when they are fetched from the cache.
+      buildableContext.recordArtifact(getPathToRDotJavaStamp());
     }
 
 
@@ -319,12 +350,25 @@ public class AaptPackageResources extends AbstractBuildRule
     return steps.build();
   }
 
+  /**
+   * @return the options that the {@code R.java} files are compiled with, and which javac compiles
+   *     them.
+   */
+  private String getRDotJavaSettings() {
+    JavacOptions rDotJavaOptions = RDotJava.createJavacOptionsForRDotJavaFiles(javacOptions);
+    ImmutableList.Builder<String> settings = ImmutableList.builder();
+    rDotJavaOptions.appendOptionsToList(settings, Functions.<Path>identity());
+    settings.add(rDotJavaOptions.describeJavac());
+    return Joiner.on(' ').join(settings.build());
+  }
+
   private void generateAndCompileRDotJavaFiles(
       ImmutableList.Builder<Step> steps,
-      BuildableContext buildableContext) {
+      BuildableContext buildableContext,
+      Supplier<Boolean> rDotTxtChanged) {
     // Merge R.txt of HasAndroidRes and generate the resulting R.java files per package.
     Path rDotJavaSrc = getPathToGeneratedRDotJavaSrcFiles();
-    steps.add(new MakeCleanDirectoryStep(rDotJavaSrc));
+    steps.add(new ConditionalStep(rDotTxtChanged, new MakeCleanDirectoryStep(rDotJavaSrc)));
 
     Path rDotTxtDir = getPathToRDotTxtDir();
     MergeAndroidResourcesStep mergeStep = MergeAndroidResourcesStep.createStepForUberRDotJava(
@@ -332,7 +376,7 @@ public class AaptPackageResources extends AbstractBuildRule
         rDotTxtDir.resolve("R.txt"),
         shouldWarnIfMissingResource,
         rDotJavaSrc);
-    steps.add(mergeStep);
+    steps.add(new ConditionalStep(rDotTxtChanged, mergeStep));
 
     if (shouldBuildStringSourceMap) {
       // Make sure we have an output directory
@@ -353,18 +397,24 @@ public class AaptPackageResources extends AbstractBuildRule
 
     // Create the path where the R.java files will be compiled.
     Path rDotJavaBin = getPathToCompiledRDotJavaFiles();
-    steps.add(new MakeCleanDirectoryStep(rDotJavaBin));
+    steps.add(new ConditionalStep(rDotTxtChanged, new MakeCleanDirectoryStep(rDotJavaBin)));
 
     JavacStep javacStep = RDotJava.createJavacStepForUberRDotJavaFiles(
         ImmutableSet.copyOf(getResolver().getAllPaths(mergeStep.getRDotJavaFiles())),
         rDotJavaBin,
         javacOptions,
         getBuildTarget());
-    steps.add(javacStep);
+    steps.add(new ConditionalStep(rDotTxtChanged, javacStep));
 
     Path rDotJavaClassesTxt = getPathToRDotJavaClassesTxt();
-    steps.add(new MakeCleanDirectoryStep(rDotJavaClassesTxt.getParent()));
-    steps.add(new AccumulateClassNamesStep(Optional.of(rDotJavaBin), rDotJavaClassesTxt));
+    steps.add(
+        new ConditionalStep(
+            rDotTxtChanged,
+            new MakeCleanDirectoryStep(rDotJavaClassesTxt.getParent())));
+    steps.add(
+        new ConditionalStep(
+            rDotTxtChanged,
+            new AccumulateClassNamesStep(Optional.of(rDotJavaBin), rDotJavaClassesTxt)));
 
     // Ensure the generated R.txt, R.java, and R.class files are also recorded.
     buildableContext.recordArtifactsInDirectory(rDotTxtDir);
@@ -506,6 +556,15 @@ public class AaptPackageResources extends AbstractBuildRule
         .resolve("classes.txt");
   }
 
+  /**
+   * Records the {@code R.txt} that the {@code R.java} files and everything built from them were
+   * last generated from. It lives outside of all of those directories, as they are cleaned when
+   * they are generated again.
+   */
+  private Path getPathToRDotJavaStamp() {
+    return BuildTargets.getBinPath(getBuildTarget(), "__%s_rdotjava_stamp__").resolve("stamp");
+  }
+
   private Path getPathToRDotJavaDex() {
     return getPathToRDotJavaDexFiles().resolve("classes.dex.jar");
   }
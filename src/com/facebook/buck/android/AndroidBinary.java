@@ -53,6 +53,7 @@ import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
 import com.facebook.buck.step.fs.MkdirStep;
 import com.facebook.buck.util.Optionals;
 import com.facebook.buck.zip.RepackZipEntriesStep;
+import com.facebook.buck.zip.ZipStep;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
@@ -102,8 +103,14 @@ public class AndroidBinary extends AbstractBuildRule implements
    */
   static final String SECONDARY_DEX_SUBDIR = "assets/secondary-program-dex-jars";
 
+  /**
+   * The alignment of uncompressed entries in the final APK, in bytes, as {@code zipalign 4}.
+   */
+  private static final int ZIPALIGN_ALIGNMENT = 4;
+
   private final Optional<Path> proguardJarOverride;
   private final String proguardMaxHeapSize;
+  private final boolean proguardUseWorker;
 
   /**
    * This list of package types is taken from the set of targets that the default build.xml provides
@@ -195,6 +202,7 @@ public class AndroidBinary extends AbstractBuildRule implements
       SourcePathResolver resolver,
       Optional<Path> proguardJarOverride,
       String proguardMaxHeapSize,
+      boolean proguardUseWorker,
       SourcePath manifest,
       String target,
       Keystore keystore,
@@ -216,6 +224,7 @@ public class AndroidBinary extends AbstractBuildRule implements
     super(params, resolver);
     this.proguardJarOverride = proguardJarOverride;
     this.proguardMaxHeapSize = proguardMaxHeapSize;
+    this.proguardUseWorker = proguardUseWorker;
     this.manifest = manifest;
     this.target = target;
     this.keystore = keystore;
@@ -421,24 +430,18 @@ public class AndroidBinary extends AbstractBuildRule implements
         /* debugMode */ false);
     steps.add(apkBuilderCommand);
 
-
-    Path apkToAlign;
-    // Optionally, compress the resources file in the .apk.
-    if (this.isCompressResources()) {
-      Path compressedApkPath = getCompressedResourcesApkPath();
-      apkToAlign = compressedApkPath;
-      RepackZipEntriesStep arscComp = new RepackZipEntriesStep(
-          signedApkPath,
-          compressedApkPath,
-          ImmutableSet.of("resources.arsc"));
-      steps.add(arscComp);
-    } else {
-      apkToAlign = signedApkPath;
-    }
-
+    // Align the .apk, and optionally compress the resources file in it, in a single pass. Every
+    // other entry is copied across as it is, without being recompressed.
     Path apkPath = getApkPath();
-    ZipalignStep zipalign = new ZipalignStep(apkToAlign, apkPath);
-    steps.add(zipalign);
+    RepackZipEntriesStep alignApk = new RepackZipEntriesStep(
+        signedApkPath,
+        apkPath,
+        this.isCompressResources()
+            ? ImmutableSet.of("resources.arsc")
+            : ImmutableSet.<String>of(),
+        ZipStep.MAX_COMPRESSION_LEVEL,
+        ZIPALIGN_ALIGNMENT);
+    steps.add(alignApk);
 
     // Inform the user where the APK can be found.
     EchoStep success = new EchoStep(
@@ -583,7 +586,8 @@ public class AndroidBinary extends AbstractBuildRule implements
           classNamesToHashesSupplier,
           secondaryDexDirectoriesBuilder,
           steps,
-          primaryDexPath);
+          primaryDexPath,
+          buildableContext);
     } else if (!ExopackageMode.enabledForSecondaryDexes(exopackageModes)) {
       secondaryDexDirectoriesBuilder.addAll(preDexMerge.get().getSecondaryDexDirectories());
     }
@@ -600,9 +604,11 @@ public class AndroidBinary extends AbstractBuildRule implements
         new AbstractExecutionStep("collect_all_class_names") {
           @Override
           public int execute(ExecutionContext context) {
+            // Most of the jars are unchanged from one build to the next, so don't read them again.
+            Path indexDir = context.getProjectFilesystem().resolve(SplitZipStep.CLASS_INDEX_PATH);
             for (Path path : classPathEntriesToDex) {
               Optional<ImmutableSortedMap<String, HashCode>> hashes =
-                  AccumulateClassNamesStep.calculateClassHashes(context, path);
+                  AccumulateClassNamesStep.calculateClassHashes(context, path, indexDir);
               if (!hashes.isPresent()) {
                 return 1;
               }
@@ -645,11 +651,6 @@ public class AndroidBinary extends AbstractBuildRule implements
     return Paths.get(getUnsignedApkPath().replaceAll("\\.unsigned\\.apk$", ".signed.apk"));
   }
 
-  /** The APK at this path will have compressed resources, but will not be zipaligned. */
-  private Path getCompressedResourcesApkPath() {
-    return Paths.get(getUnsignedApkPath().replaceAll("\\.unsigned\\.apk$", ".compressed.apk"));
-  }
-
   private Path getBinPath(String format) {
     return BuildTargets.getBinPath(getBuildTarget(), format);
   }
@@ -708,8 +709,10 @@ public class AndroidBinary extends AbstractBuildRule implements
         .getPathToGeneratedProguardConfigDir();
     // Run ProGuard on the classpath entries.
     ProGuardObfuscateStep.create(
+        getBuildTarget(),
         proguardJarOverride,
         proguardMaxHeapSize,
+        proguardUseWorker,
         proguardConfigDir.resolve("proguard.txt"),
         proguardConfigsBuilder.build(),
         sdkProguardConfig,
@@ -736,6 +739,7 @@ public class AndroidBinary extends AbstractBuildRule implements
    *     of {@link PreDexMerge#getSecondaryDexDirectories()}.
    * @param steps List of steps to add to.
    * @param primaryDexPath Output path for the primary dex file.
+   * @param buildableContext Records the outputs which must survive a fetch from the cache.
    */
   @VisibleForTesting
   void addDexingSteps(
@@ -743,7 +747,8 @@ public class AndroidBinary extends AbstractBuildRule implements
       Supplier<Map<String, HashCode>> classNamesToHashesSupplier,
       ImmutableSet.Builder<Path> secondaryDexDirectories,
       ImmutableList.Builder<Step> steps,
-      Path primaryDexPath) {
+      Path primaryDexPath,
+      BuildableContext buildableContext) {
     final Supplier<Set<Path>> primaryInputsToDex;
     final Optional<Path> secondaryDexDir;
     final Optional<Supplier<Multimap<Path, Path>>> secondaryOutputToInputs;
@@ -783,6 +788,12 @@ public class AndroidBinary extends AbstractBuildRule implements
       // yield a dex artifact too large for dexopt or the dx method limit to handle.
       Path zipSplitReportDir = getBinPath("__%s_split_zip_report__");
       steps.add(new MakeCleanDirectoryStep(zipSplitReportDir));
+      // Unlike the other outputs of the split, this is kept from one build to the next, so it is
+      // recorded to come back with the rest of the outputs when they are fetched from the cache.
+      Path secondaryDexAssignmentsPath = getBinPath("__%s_secondary_dex_assignments__.txt");
+      if (dexSplitMode.useLinearAllocSplitDex() && dexSplitMode.useStableSecondaryDexes()) {
+        buildableContext.recordArtifact(secondaryDexAssignmentsPath);
+      }
       SplitZipStep splitZipCommand = new SplitZipStep(
           classpathEntriesToDex,
           secondaryJarMeta,
@@ -796,7 +807,8 @@ public class AndroidBinary extends AbstractBuildRule implements
           dexSplitMode.getPrimaryDexClassesFile().transform(getResolver().getPathFunction()),
           dexSplitMode.getSecondaryDexHeadClassesFile().transform(getResolver().getPathFunction()),
           dexSplitMode.getSecondaryDexTailClassesFile().transform(getResolver().getPathFunction()),
-          zipSplitReportDir);
+          zipSplitReportDir,
+          secondaryDexAssignmentsPath);
       steps.add(splitZipCommand);
 
       // Add the secondary dex directory that has yet to be created, but will be by the
@@ -856,6 +868,7 @@ public class AndroidBinary extends AbstractBuildRule implements
         secondaryOutputToInputs,
         hashInputJarsToDexStep,
         successDir,
+        /* mergeTreeDir */ Optional.<Path>absent(),
         Optional.<Integer>absent(),
         dxOptions);
     steps.add(smartDexingCommand);
@@ -190,6 +190,7 @@ public class AndroidBinaryDescription implements Description<AndroidBinaryDescri
         new SourcePathResolver(resolver),
         proGuardConfig.getProguardJarOverride(),
         proGuardConfig.getProguardMaxHeapSize(),
+        proGuardConfig.getProguardUseWorker(),
         args.manifest,
         args.target,
         (Keystore) keystore,
@@ -233,7 +234,8 @@ public class AndroidBinaryDescription implements Description<AndroidBinaryDescri
         args.primaryDexScenarioFile,
         args.primaryDexScenarioOverflowAllowed.or(false),
         args.secondaryDexHeadClassesFile,
-        args.secondaryDexTailClassesFile);
+        args.secondaryDexTailClassesFile,
+        args.useStableSecondaryDexes.or(false));
   }
 
   private PackageType getPackageType(Arg args) {
@@ -271,6 +273,7 @@ public class AndroidBinaryDescription implements Description<AndroidBinaryDescri
     @Hint(isDep = false) public Optional<Set<BuildTarget>> noDx;
     public Optional<Boolean> useSplitDex;
     public Optional<Boolean> useLinearAllocSplitDex;
+    public Optional<Boolean> useStableSecondaryDexes;
     public Optional<Boolean> minimizePrimaryDexSize;
     public Optional<Boolean> disablePreDex;
     // TODO(natthu): mark this as deprecated.
@@ -50,6 +50,7 @@ public class AndroidInstrumentationApk extends AndroidBinary {
       SourcePathResolver resolver,
       Optional<Path> proGuardJarOverride,
       String proGuardMaxHeapSize,
+      boolean proGuardUseWorker,
       SourcePath manifest,
       AndroidBinary apkUnderTest,
       ImmutableSortedSet<JavaLibrary> rulesToExcludeFromDex,
@@ -59,6 +60,7 @@ public class AndroidInstrumentationApk extends AndroidBinary {
         resolver,
         proGuardJarOverride,
         proGuardMaxHeapSize,
+        proGuardUseWorker,
         manifest,
         apkUnderTest.getTarget(),
         apkUnderTest.getKeystore(),
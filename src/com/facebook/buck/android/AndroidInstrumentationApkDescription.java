@@ -139,6 +139,7 @@ public class AndroidInstrumentationApkDescription
         new SourcePathResolver(resolver),
         proGuardConfig.getProguardJarOverride(),
         proGuardConfig.getProguardMaxHeapSize(),
+        proGuardConfig.getProguardUseWorker(),
         args.manifest,
         apkUnderTest,
         rulesToExcludeFromDex,
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.facebook.buck.rules.ImmutableSha1HashCode;
+import com.facebook.buck.rules.Sha1HashCode;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plan for merging a large number of pre-dexed files into one dex file as a tree of smaller
+ * merges, rather than as a single merge of all of them. The merges at each level of the tree are
+ * independent of each other, so they can run in parallel.
+ * <p>
+ * Each intermediate merge is named after the hashes of its inputs, so it can be kept from one
+ * build to the next and only needs to be redone when one of its inputs changes. To make it likely
+ * that a change to one input only affects the merges above it, inputs are grouped by their
+ * contents rather than their position: a group ends after any input whose hash is divisible by the
+ * fan-in. Adding or removing an input therefore only changes the group it is in, rather than
+ * shifting every group after it.
+ */
+class DexMergeTree {
+
+  /**
+   * How many inputs to merge at a time, on average.
+   */
+  static final int DEFAULT_FAN_IN = 8;
+
+  private final ImmutableList<ImmutableMap<Path, ImmutableList<Path>>> levels;
+  private final ImmutableList<Path> rootInputs;
+  private final ImmutableMap<Path, Sha1HashCode> intermediateHashes;
+
+  private DexMergeTree(
+      ImmutableList<ImmutableMap<Path, ImmutableList<Path>>> levels,
+      ImmutableList<Path> rootInputs,
+      ImmutableMap<Path, Sha1HashCode> intermediateHashes) {
+    this.levels = levels;
+    this.rootInputs = rootInputs;
+    this.intermediateHashes = intermediateHashes;
+  }
+
+  /**
+   * @param inputs the pre-dexed files to merge, in the order they should be merged.
+   * @param inputHashes hashes of the contents of each of {@code inputs}.
+   * @param workDir where to put the intermediate merges.
+   * @param fanIn how many inputs to merge at a time, on average.
+   * @param mergeSettings describes how the merges are run, e.g. the dx options and version, so
+   *     that intermediates made with other settings are not reused.
+   */
+  static DexMergeTree plan(
+      List<Path> inputs,
+      Map<Path, Sha1HashCode> inputHashes,
+      Path workDir,
+      int fanIn,
+      String mergeSettings) {
+    Preconditions.checkArgument(fanIn > 1, "Must merge more than one input at a time.");
+
+    Map<Path, Sha1HashCode> hashes = Maps.newHashMap(inputHashes);
+    // Plain maps, so that two groups with the same contents don't trip up the builders.
+    Map<Path, Sha1HashCode> intermediateHashes = Maps.newLinkedHashMap();
+    ImmutableList.Builder<ImmutableMap<Path, ImmutableList<Path>>> levels = ImmutableList.builder();
+
+    List<Path> nodes = ImmutableList.copyOf(inputs);
+    int level = 0;
+    while (nodes.size() > fanIn) {
+      List<List<Path>> groups = groupByContents(nodes, hashes, level, fanIn);
+      if (groups.size() == nodes.size()) {
+        // Unlucky hashes: make sure the tree still gets smaller.
+        groups = Lists.partition(nodes, fanIn);
+      }
+
+      Map<Path, ImmutableList<Path>> merges = Maps.newLinkedHashMap();
+      ImmutableList.Builder<Path> nextNodes = ImmutableList.builder();
+      for (List<Path> group : groups) {
+        if (group.size() == 1) {
+          // Nothing to merge, so just pass the input up to the next level.
+          nextNodes.add(group.get(0));
+          continue;
+        }
+        Sha1HashCode hash = hashGroup(group, hashes, mergeSettings);
+        Path output = workDir.resolve(hash.getHash() + ".dex");
+        merges.put(output, ImmutableList.copyOf(group));
+        hashes.put(output, hash);
+        intermediateHashes.put(output, hash);
+        nextNodes.add(output);
+      }
+      levels.add(ImmutableMap.copyOf(merges));
+      nodes = nextNodes.build();
+      level++;
+    }
+
+    return new DexMergeTree(
+        levels.build(),
+        ImmutableList.copyOf(nodes),
+        ImmutableMap.copyOf(intermediateHashes));
+  }
+
+  private static List<List<Path>> groupByContents(
+      List<Path> nodes,
+      Map<Path, Sha1HashCode> hashes,
+      int level,
+      int fanIn) {
+    List<List<Path>> groups = Lists.newArrayList();
+    List<Path> group = Lists.newArrayList();
+    for (Path node : nodes) {
+      group.add(node);
+      // Mix in the level, so that inputs passed up unmerged are grouped differently next time.
+      int boundaryHash = Hashing.murmur3_32().newHasher()
+          .putInt(level)
+          .putString(getHash(node, hashes).getHash(), Charsets.UTF_8)
+          .hash()
+          .asInt();
+      if ((boundaryHash & Integer.MAX_VALUE) % fanIn == 0) {
+        groups.add(group);
+        group = Lists.newArrayList();
+      }
+    }
+    if (!group.isEmpty()) {
+      groups.add(group);
+    }
+    return groups;
+  }
+
+  private static Sha1HashCode hashGroup(
+      List<Path> group,
+      Map<Path, Sha1HashCode> hashes,
+      String mergeSettings) {
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putString(mergeSettings, Charsets.UTF_8);
+    for (Path node : group) {
+      hasher.putString(getHash(node, hashes).getHash(), Charsets.UTF_8);
+    }
+    return ImmutableSha1HashCode.of(hasher.hash().toString());
+  }
+
+  private static Sha1HashCode getHash(Path node, Map<Path, Sha1HashCode> hashes) {
+    return Preconditions.checkNotNull(hashes.get(node), "No hash for %s.", node);
+  }
+
+  /**
+   * @return the intermediate merges to run, leaves first, as the outputs of each merge mapped to
+   *     its inputs. All the merges in a level depend only on those in earlier levels.
+   */
+  ImmutableList<ImmutableMap<Path, ImmutableList<Path>>> getLevels() {
+    return levels;
+  }
+
+  /**
+   * @return the inputs of the final merge: no more than the fan-in, and a mixture of intermediate
+   *     merges and original inputs.
+   */
+  ImmutableList<Path> getRootInputs() {
+    return rootInputs;
+  }
+
+  /**
+   * @return the hash of the inputs of each intermediate merge, by the path of its output.
+   */
+  ImmutableMap<Path, Sha1HashCode> getIntermediateHashes() {
+    return intermediateHashes;
+  }
+}
@@ -46,7 +46,8 @@ class DexSplitMode implements RuleKeyAppendable {
       /* primaryDexScenarioFile */ Optional.<SourcePath>absent(),
       /* isPrimaryDexScenarioOverflowAllowed */ false,
       /* secondaryDexHeadClassesFile */ Optional.<SourcePath>absent(),
-      /* secondaryDexTailClassesFile */ Optional.<SourcePath>absent());
+      /* secondaryDexTailClassesFile */ Optional.<SourcePath>absent(),
+      /* useStableSecondaryDexes */ false);
 
   private final boolean shouldSplitDex;
   private final DexStore dexStore;
@@ -115,7 +116,11 @@ class DexSplitMode implements RuleKeyAppendable {
    */
   private final Optional<SourcePath> secondaryDexTailClassesFile;
 
-
+  /**
+   * Whether classes should stay in the same secondary dex from one build to the next where
+   * possible, so that a small change only affects a few secondary dexes.
+   */
+  private final boolean useStableSecondaryDexes;
 
   /**
    *
@@ -135,6 +140,8 @@ class DexSplitMode implements RuleKeyAppendable {
    *     in the first secondary dexes.
    * @param secondaryDexTailClassesFile Path to a file containing a list of classes that are put
    *     in the last secondary dexes.
+   * @param useStableSecondaryDexes If true, and {@code useLinearAllocSplitDex} is too, classes
+   *     are put back in the same secondary dex as in the previous build where they still fit.
    * @param useLinearAllocSplitDex If true, {@link com.facebook.buck.dalvik.DalvikAwareZipSplitter}
    *     will be used. Also, {@code linearAllocHardLimit} must have a positive value in this case.
    */
@@ -149,7 +156,8 @@ class DexSplitMode implements RuleKeyAppendable {
       Optional<SourcePath> primaryDexScenarioFile,
       boolean isPrimaryDexScenarioOverflowAllowed,
       Optional<SourcePath> secondaryDexHeadClassesFile,
-      Optional<SourcePath> secondaryDexTailClassesFile) {
+      Optional<SourcePath> secondaryDexTailClassesFile,
+      boolean useStableSecondaryDexes) {
     this.shouldSplitDex = shouldSplitDex;
     this.dexSplitStrategy = dexSplitStrategy;
     this.dexStore = dexStore;
@@ -161,7 +169,7 @@ class DexSplitMode implements RuleKeyAppendable {
     this.isPrimaryDexScenarioOverflowAllowed = isPrimaryDexScenarioOverflowAllowed;
     this.secondaryDexHeadClassesFile = secondaryDexHeadClassesFile;
     this.secondaryDexTailClassesFile = secondaryDexTailClassesFile;
-
+    this.useStableSecondaryDexes = useStableSecondaryDexes;
   }
 
   public DexStore getDexStore() {
@@ -207,6 +215,10 @@ class DexSplitMode implements RuleKeyAppendable {
     return secondaryDexTailClassesFile;
   }
 
+  public boolean useStableSecondaryDexes() {
+    return useStableSecondaryDexes;
+  }
+
 
   /**
    * @return All {@link SourcePath}s referenced by this object, for use in
@@ -232,6 +244,7 @@ class DexSplitMode implements RuleKeyAppendable {
     builder.setReflectively(
         key + ".isPrimaryDexScenarioOverflowAllowed",
         isPrimaryDexScenarioOverflowAllowed);
+    builder.setReflectively(key + ".useStableSecondaryDexes", useStableSecondaryDexes);
     return builder;
   }
 }
@@ -16,10 +16,14 @@
 
 package com.facebook.buck.android;
 
+import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.shell.ShellStep;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.util.Verbosity;
+import com.facebook.buck.worker.ImmutableWorkerJvm;
+import com.facebook.buck.worker.WorkerJvm;
+import com.facebook.buck.worker.WorkerResult;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
@@ -27,9 +31,13 @@ import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 
 import java.io.IOException;
+import java.net.URISyntaxException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.EnumSet;
 import java.util.Set;
 
@@ -59,6 +67,11 @@ public class DxStep extends ShellStep {
     /**
      * Execute DX in-process instead of fork/execing.
      * This only works with custom dx.
+     * <p>
+     * If the {@code buck.dx_use_workers} property is set, DX is instead run in a pool of
+     * long-lived worker JVMs, which stay warm from one build to the next when Buck runs as a
+     * daemon. Each worker runs one DX job at a time, so jobs can't interfere with each other
+     * through DX's static state, and a worker is replaced once a job leaves its heap too full.
      */
     RUN_IN_PROCESS,
     ;
@@ -72,10 +85,25 @@ public class DxStep extends ShellStep {
     }
   };
 
+  private static final Supplier<Boolean> DEFAULT_USE_WORKERS = new Supplier<Boolean>() {
+    @Override
+    public Boolean get() {
+      return Boolean.getBoolean("buck.dx_use_workers");
+    }
+  };
+
+  /** The entry point of the dexer, which bypasses the {@code dx} dispatcher. */
+  private static final String DEXER_MAIN_CLASS = "com.android.dx.command.dexer.Main";
+
+  /** The heap available to each worker, and how full a job may leave it before it's replaced. */
+  private static final String WORKER_MAX_HEAP = "-Xmx1024M";
+  private static final long WORKER_MAX_USED_HEAP_BYTES = 768L * 1024 * 1024;
+
   private final Path outputDexFile;
   private final Set<Path> filesToDex;
   private final Set<Option> options;
   private final Supplier<String> getPathToCustomDx;
+  private final Supplier<Boolean> useWorkers;
 
   /**
    * @param outputDexFile path to the file where the generated classes.dex should go.
@@ -99,10 +127,17 @@ public class DxStep extends ShellStep {
   @VisibleForTesting
   DxStep(Path outputDexFile, Iterable<Path> filesToDex, EnumSet<Option> options,
       Supplier<String> getPathToCustomDx) {
+    this(outputDexFile, filesToDex, options, getPathToCustomDx, DEFAULT_USE_WORKERS);
+  }
+
+  @VisibleForTesting
+  DxStep(Path outputDexFile, Iterable<Path> filesToDex, EnumSet<Option> options,
+      Supplier<String> getPathToCustomDx, Supplier<Boolean> useWorkers) {
     this.outputDexFile = outputDexFile;
     this.filesToDex = ImmutableSet.copyOf(filesToDex);
     this.options = Sets.immutableEnumSet(options);
     this.getPathToCustomDx = getPathToCustomDx;
+    this.useWorkers = useWorkers;
 
     Preconditions.checkArgument(
         !options.contains(Option.RUN_IN_PROCESS) ||
@@ -114,15 +149,7 @@ public class DxStep extends ShellStep {
   protected ImmutableList<String> getShellCommandInternal(ExecutionContext context) {
     ImmutableList.Builder<String> builder = ImmutableList.builder();
 
-    AndroidPlatformTarget androidPlatformTarget = context.getAndroidPlatformTarget();
-    String dx = androidPlatformTarget.getDxExecutable().toString();
-
-    if (options.contains(Option.USE_CUSTOM_DX_IF_AVAILABLE)) {
-      String customDx = getPathToCustomDx.get();
-      dx = customDx != null ? customDx : dx;
-    }
-
-    builder.add(dx);
+    builder.add(getDxExecutable(context, options, getPathToCustomDx));
 
     // Add the Xmx override, but not for in-process dexing, since the dexer won't understand it.
     // Also, if DX works in-process, it probably wouldn't need an enlarged Xmx.
@@ -159,6 +186,45 @@ public class DxStep extends ShellStep {
     return builder.build();
   }
 
+  private static String getDxExecutable(
+      ExecutionContext context,
+      Set<Option> options,
+      Supplier<String> getPathToCustomDx) {
+    String dx = context.getAndroidPlatformTarget().getDxExecutable().toString();
+    if (options.contains(Option.USE_CUSTOM_DX_IF_AVAILABLE)) {
+      String customDx = getPathToCustomDx.get();
+      dx = customDx != null ? customDx : dx;
+    }
+    return dx;
+  }
+
+  /**
+   * @return a description of which dx a {@link DxStep} with the given options runs, and how, for
+   *     use in keys of dx outputs which are kept from one build to the next.
+   */
+  public static String getDxVersion(ExecutionContext context, Set<Option> options)
+      throws IOException {
+    StringBuilder version = new StringBuilder();
+    for (Option option : Sets.newTreeSet(options)) {
+      version.append(option).append(' ');
+    }
+    if (options.contains(Option.RUN_IN_PROCESS)) {
+      // The dexer is bundled with Buck.
+      version.append("in-process dx ").append(com.android.dx.Version.VERSION);
+      return version.toString();
+    }
+
+    Path dx = Paths.get(getDxExecutable(context, options, DEFAULT_GET_CUSTOM_DX));
+    version.append(dx);
+    // The dx script in the SDK runs the dx.jar next to it.
+    for (Path file : ImmutableList.of(dx, dx.resolveSibling("lib").resolve("dx.jar"))) {
+      if (file.toFile().isFile()) {
+        version.append(' ').append(Files.hash(file.toFile(), Hashing.sha1()));
+      }
+    }
+    return version.toString();
+  }
+
   @Override
   public int execute(ExecutionContext context) throws InterruptedException {
     if (options.contains(Option.RUN_IN_PROCESS)) {
@@ -168,7 +234,7 @@ public class DxStep extends ShellStep {
     }
   }
 
-  private int executeInProcess(ExecutionContext context) {
+  private int executeInProcess(ExecutionContext context) throws InterruptedException {
     ImmutableList<String> argv = getShellCommandInternal(context);
 
     // The first arguments should be ".../dx --dex" ("...\dx --dex on Windows).  Strip them off
@@ -177,6 +243,10 @@ public class DxStep extends ShellStep {
     Preconditions.checkState(argv.get(1).equals("--dex"));
     ImmutableList<String> args = argv.subList(2, argv.size());
 
+    if (useWorkers.get()) {
+      return executeInWorker(context, args);
+    }
+
     try {
       return new com.android.dx.command.dexer.Main().run(
           args.toArray(new String[args.size()]),
@@ -189,6 +259,46 @@ public class DxStep extends ShellStep {
     }
   }
 
+  private int executeInWorker(ExecutionContext context, ImmutableList<String> args)
+      throws InterruptedException {
+    WorkerJvm jvm = ImmutableWorkerJvm.builder()
+        // The dexer is bundled with Buck, so the worker loads it from wherever Buck did.
+        .setClasspath(ImmutableList.of(getDexerClasspath()))
+        .setMainClass(DEXER_MAIN_CLASS)
+        .setJvmArgs(ImmutableList.of(WORKER_MAX_HEAP))
+        .setWorkingDirectory(context.getProjectDirectoryRoot().toAbsolutePath())
+        .setMaxUsedHeapBytes(WORKER_MAX_USED_HEAP_BYTES)
+        .build();
+
+    WorkerResult result;
+    try {
+      result = context.getWorkerProcessPool().run(jvm, args);
+    } catch (IOException e) {
+      context.logError(e, "Unable to run dx in a worker.");
+      return 1;
+    }
+
+    Verbosity verbosity = context.getVerbosity();
+    boolean failed = result.getExitCode() != 0;
+    if (!result.getStdout().isEmpty() && (failed || shouldPrintStdout(verbosity))) {
+      context.postEvent(ConsoleEvent.info("%s", result.getStdout()));
+    }
+    if (!result.getStderr().isEmpty() && (failed || shouldPrintStderr(verbosity))) {
+      context.postEvent(ConsoleEvent.warning("%s", result.getStderr()));
+    }
+    return result.getExitCode();
+  }
+
+  private static Path getDexerClasspath() {
+    try {
+      return Paths.get(
+          com.android.dx.command.dexer.Main.class.getProtectionDomain().getCodeSource()
+              .getLocation().toURI());
+    } catch (URISyntaxException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   @Override
   protected boolean shouldPrintStderr(Verbosity verbosity) {
     return verbosity.shouldPrintSelectCommandOutput();
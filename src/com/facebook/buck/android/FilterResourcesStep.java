@@ -21,6 +21,7 @@ import com.facebook.buck.log.Logger;
 import com.facebook.buck.shell.BashStep;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
+import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.DefaultFilteredDirectoryCopier;
 import com.facebook.buck.util.Escaper;
@@ -28,26 +29,44 @@ import com.facebook.buck.util.FilteredDirectoryCopier;
 import com.facebook.buck.util.Filters;
 import com.facebook.buck.util.Filters.Density;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.ImmutableProcessExecutorParams;
+import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.Verbosity;
+import com.facebook.buck.util.concurrent.MoreFutures;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -240,16 +259,20 @@ public class FilterResourcesStep implements Step {
    * Any drawables found by this step didn't have equivalents in the target density. If they are of
    * a higher density, we can replicate what Android does and downscale them at compile-time.
    */
-  private void scaleUnmatchedDrawables(ExecutionContext context)
+  private void scaleUnmatchedDrawables(final ExecutionContext context)
       throws IOException, InterruptedException {
     ProjectFilesystem filesystem = context.getProjectFilesystem();
     Filters.Density targetDensity = Filters.Density.ORDERING.max(targetDensities);
 
-    // Go over all the images that remain after filtering.
+    // Go over all the images that remain after filtering, working out which to scale. If two
+    // images would be scaled to the same destination, the later one wins, as it always has.
     Preconditions.checkNotNull(drawableFinder);
     Collection<Path> drawables = drawableFinder.findDrawables(
         inResDirToOutResDirMap.values(),
         context.getProjectFilesystem());
+    Map<Path, Path> destinationToSource = Maps.newLinkedHashMap();
+    final Map<Path, Double> destinationToFactor = Maps.newHashMap();
+    List<Path> scaledDrawables = Lists.newArrayList();
     for (Path drawable : drawables) {
       if (drawable.toString().endsWith(".9.png")) {
         // Skip nine-patch for now.
@@ -276,26 +299,60 @@ public class FilterResourcesStep implements Step {
           continue;
         }
 
-        // Make sure destination folder exists and perform downscaling.
+        // Make sure destination folder exists before downscaling.
         filesystem.createParentDirs(destination);
-        Preconditions.checkNotNull(imageScaler);
-        imageScaler.scale(factor, drawable, destination, context);
+        destinationToSource.remove(destination);
+        destinationToSource.put(destination, drawable);
+        destinationToFactor.put(destination, factor);
+        scaledDrawables.add(drawable);
+      }
+    }
 
-        // Delete source file.
-        if (!filesystem.deleteFileAtPath(drawable)) {
-          throw new HumanReadableException("Cannot delete file: " + drawable);
-        }
+    // Scaling is done by an external tool, one image at a time, so scale many images at once.
+    List<Callable<Void>> scalings = Lists.newArrayList();
+    for (final Map.Entry<Path, Path> entry : destinationToSource.entrySet()) {
+      scalings.add(
+          new Callable<Void>() {
+            @Override
+            public Void call() throws IOException, InterruptedException {
+              Preconditions.checkNotNull(imageScaler).scale(
+                  Preconditions.checkNotNull(destinationToFactor.get(entry.getKey())),
+                  entry.getValue(),
+                  entry.getKey(),
+                  context);
+              return null;
+            }
+          });
+    }
+    runInParallel(context.getHelperExecutor(), scalings);
 
-        // Delete newly-empty directories to prevent missing resources errors in apkbuilder.
-        Path parent = drawable.getParent();
-        if (filesystem.listFiles(parent).length == 0 && !filesystem.deleteFileAtPath(parent)) {
-          throw new HumanReadableException("Cannot delete directory: " + parent);
-        }
+    for (Path drawable : scaledDrawables) {
+      // Delete source file.
+      if (!filesystem.deleteFileAtPath(drawable)) {
+        throw new HumanReadableException("Cannot delete file: " + drawable);
+      }
 
+      // Delete newly-empty directories to prevent missing resources errors in apkbuilder.
+      Path parent = drawable.getParent();
+      if (filesystem.listFiles(parent).length == 0 && !filesystem.deleteFileAtPath(parent)) {
+        throw new HumanReadableException("Cannot delete directory: " + parent);
       }
     }
   }
 
+  private static void runInParallel(
+      ListeningExecutorService executor,
+      List<Callable<Void>> tasks)
+      throws IOException, InterruptedException {
+    try {
+      MoreFutures.getAll(executor, tasks);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.propagateIfInstanceOf(e.getCause(), InterruptedException.class);
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
   public interface DrawableFinder {
     public Set<Path> findDrawables(Collection<Path> dirs, ProjectFilesystem filesystem)
         throws IOException;
@@ -332,6 +389,11 @@ public class FilterResourcesStep implements Step {
 
   public interface ImageScaler {
     public boolean isAvailable(ExecutionContext context) throws IOException, InterruptedException;
+    /**
+     * @return The name and version of the tool doing the scaling, which changes whenever the
+     *     scaled images might.
+     */
+    public String getVersion(ExecutionContext context) throws IOException, InterruptedException;
     public void scale(double factor, Path source, Path destination, ExecutionContext context)
         throws IOException, InterruptedException;
   }
@@ -345,6 +407,9 @@ public class FilterResourcesStep implements Step {
 
     private static final ImageMagickScaler instance = new ImageMagickScaler();
 
+    @Nullable
+    private volatile String version;
+
     public static ImageMagickScaler getInstance() {
       return instance;
     }
@@ -370,6 +435,22 @@ public class FilterResourcesStep implements Step {
       }
     }
 
+    @Override
+    public String getVersion(ExecutionContext context) throws IOException, InterruptedException {
+      if (version == null) {
+        ProcessExecutor.Result result = context.getProcessExecutor().launchAndExecute(
+            ImmutableProcessExecutorParams.builder()
+                .setCommand(ImmutableList.of("convert", "-version"))
+                .build());
+        if (result.getExitCode() != 0 || !result.getStdout().isPresent()) {
+          throw new HumanReadableException("Cannot find the version of ImageMagick's convert.");
+        }
+        // The first line is something like "Version: ImageMagick 6.9.0-0 Q16 x86_64 2014-12-07".
+        version = Splitter.on('\n').trimResults().split(result.getStdout().get()).iterator().next();
+      }
+      return version;
+    }
+
     @Override
     public void scale(double factor, Path source, Path destination, ExecutionContext context)
         throws IOException, InterruptedException {
@@ -385,6 +466,109 @@ public class FilterResourcesStep implements Step {
     }
   }
 
+  /**
+   * {@link ImageScaler} which keeps the images scaled by another {@link ImageScaler}, keyed by the
+   * contents of the source image, the scale factor and the version of the scaler, so that an image
+   * only needs to be scaled again when one of them changes. Scaled images are shared by every
+   * target in the project, and are deleted once they haven't been used for {@link #MAX_AGE_DAYS}.
+   */
+  public static class CachingImageScaler implements ImageScaler {
+
+    private static final Path DEFAULT_CACHE_DIR =
+        BuckConstant.BUCK_OUTPUT_PATH.resolve("scaled_drawables");
+
+    @VisibleForTesting
+    static final long MAX_AGE_DAYS = 30;
+
+    private final ImageScaler delegate;
+    private final Path cacheDir;
+    private final AtomicBoolean pruned = new AtomicBoolean();
+
+    @VisibleForTesting
+    CachingImageScaler(ImageScaler delegate, Path cacheDir) {
+      this.delegate = delegate;
+      this.cacheDir = cacheDir;
+    }
+
+    public CachingImageScaler(ImageScaler delegate) {
+      this(delegate, DEFAULT_CACHE_DIR);
+    }
+
+    @Override
+    public boolean isAvailable(ExecutionContext context) throws IOException, InterruptedException {
+      return delegate.isAvailable(context);
+    }
+
+    @Override
+    public String getVersion(ExecutionContext context) throws IOException, InterruptedException {
+      return delegate.getVersion(context);
+    }
+
+    @Override
+    public void scale(double factor, Path source, Path destination, ExecutionContext context)
+        throws IOException, InterruptedException {
+      ProjectFilesystem filesystem = context.getProjectFilesystem();
+      if (pruned.compareAndSet(false, true)) {
+        pruneUnusedImages(filesystem);
+      }
+
+      // Keep the extension, as it determines the format of the scaled image.
+      String cacheKey = String.format(
+          "%s.%s",
+          Hashing.sha1().newHasher()
+              .putUnencodedChars(delegate.getVersion(context))
+              .putUnencodedChars(filesystem.computeSha1(source))
+              .putLong(Math.round(factor * 1000))
+              .hash(),
+          com.google.common.io.Files.getFileExtension(source.getFileName().toString()));
+      Path cachedImage = cacheDir.resolve(cacheKey);
+      if (filesystem.exists(cachedImage)) {
+        try {
+          Files.setLastModifiedTime(
+              filesystem.resolve(cachedImage),
+              FileTime.fromMillis(System.currentTimeMillis()));
+          filesystem.copyFile(cachedImage, destination);
+          return;
+        } catch (NoSuchFileException e) {
+          // Another build pruned the image in the meantime, so scale it again.
+        }
+      }
+
+      delegate.scale(factor, source, destination, context);
+
+      // Copy to a unique temporary file first, so that other threads scaling the same image
+      // never see a partially written one.
+      filesystem.mkdirs(cacheDir);
+      Path tempImage = Files.createTempFile(filesystem.resolve(cacheDir), cacheKey, ".tmp");
+      filesystem.copyFile(destination, tempImage);
+      filesystem.move(tempImage, cachedImage, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Deletes the images which haven't been used for {@link #MAX_AGE_DAYS}, as images made by an
+     * older scaler, or from sources which have since changed, are never used again.
+     */
+    @VisibleForTesting
+    void pruneUnusedImages(ProjectFilesystem filesystem) throws IOException {
+      Path absoluteCacheDir = filesystem.resolve(cacheDir);
+      if (!Files.isDirectory(absoluteCacheDir)) {
+        return;
+      }
+      long oldestToKeep = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(MAX_AGE_DAYS);
+      try (DirectoryStream<Path> images = Files.newDirectoryStream(absoluteCacheDir)) {
+        for (Path image : images) {
+          try {
+            if (Files.getLastModifiedTime(image).toMillis() < oldestToKeep) {
+              Files.delete(image);
+            }
+          } catch (NoSuchFileException e) {
+            // Another build pruned it first.
+          }
+        }
+      }
+    }
+  }
+
   /**
    * Helper class for interpreting the resource_filter argument to android_binary().
    */
@@ -490,7 +674,9 @@ public class FilterResourcesStep implements Step {
           DefaultFilteredDirectoryCopier.getInstance(),
           resourceFilter.getDensities(),
           DefaultDrawableFinder.getInstance(),
-          resourceFilter.shouldDownscale() ? ImageMagickScaler.getInstance() : null);
+          resourceFilter.shouldDownscale()
+              ? new CachingImageScaler(ImageMagickScaler.getInstance())
+              : null);
     }
   }
 }
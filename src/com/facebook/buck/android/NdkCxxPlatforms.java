@@ -16,9 +16,12 @@
 
 package com.facebook.buck.android;
 
+import com.facebook.buck.cxx.ArchiveStyle;
+import com.facebook.buck.cxx.CompilerType;
 import com.facebook.buck.cxx.CxxPlatform;
 import com.facebook.buck.cxx.DebugPathSanitizer;
 import com.facebook.buck.cxx.GnuLinker;
+import com.facebook.buck.cxx.HeaderMode;
 import com.facebook.buck.cxx.ImmutableCxxPlatform;
 import com.facebook.buck.cxx.Linker;
 import com.facebook.buck.cxx.Tool;
@@ -269,6 +272,10 @@ public class NdkCxxPlatforms {
             "--as-needed"
         )
         .setAr(getTool(ndkRoot, targetConfiguration, host, "ar", version))
+        .setArchiveStyle(ArchiveStyle.NORMAL)
+        .setHeaderMode(HeaderMode.SYMLINK_TREE)
+        .setCompilerType(CompilerType.GCC)
+        .setSplitDwarf(false)
         .setDebugPathSanitizer(
             Optional.of(
                 new DebugPathSanitizer(
@@ -36,18 +36,20 @@ import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
 import com.facebook.buck.step.fs.MkdirStep;
-import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicates;
+import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
 
 import java.io.IOException;
 import java.nio.file.Path;
@@ -55,6 +57,7 @@ import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -137,6 +140,7 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
     private final Path jarfilesDir;
     private final Path scratchDir;
     private final Path successDir;
+    private final Path mergeTreeDir;
     private final Path metadataSubdir;
     private final Path jarfilesSubdir;
     private final Path metadataFile;
@@ -148,6 +152,7 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
       jarfilesDir = workDir.resolve("jarfiles");
       scratchDir = workDir.resolve("scratch");
       successDir = workDir.resolve("success");
+      mergeTreeDir = workDir.resolve("merge_tree");
       // These directories must use SECONDARY_DEX_SUBDIR because that mirrors the paths that
       // they will appear at in the APK.
       metadataSubdir = metadataDir.resolve(AndroidBinary.SECONDARY_DEX_SUBDIR);
@@ -213,6 +218,7 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
         Optional.of(Suppliers.ofInstance(sortResult.secondaryOutputToInputs)),
         sortResult.dexInputHashesProvider,
         paths.successDir,
+        Optional.of(paths.mergeTreeDir),
         /* numThreads */ Optional.<Integer>absent(),
         DX_MERGE_OPTIONS));
 
@@ -255,35 +261,50 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
   private void addStepsForSingleDex(
       ImmutableList.Builder<Step> steps,
       final BuildableContext buildableContext) {
-    // For single-dex apps with pre-dexing, we just add the steps directly.
-    Iterable<Path> filesToDex = FluentIterable.from(preDexDeps)
-        .transform(
-            new Function<DexProducedFromJavaLibrary, Path>() {
-              @Override
-              @Nullable
-              public Path apply(DexProducedFromJavaLibrary preDex) {
-                if (preDex.hasOutput()) {
-                  return preDex.getPathToDex();
-                } else {
-                  return null;
-                }
-              }
-            })
+    // For single-dex apps with pre-dexing, we just merge all of the pre-dexed files.
+    Iterable<DexWithClasses> dexFilesToMerge = FluentIterable.from(preDexDeps)
+        .transform(DexWithClasses.TO_DEX_WITH_CLASSES)
         .filter(Predicates.notNull());
 
     // If this APK has Android resources, then the generated R.class files also need to be dexed.
     Optional<DexWithClasses> rDotJavaDexWithClasses =
         aaptPackageResources.getRDotJavaDexWithClasses();
     if (rDotJavaDexWithClasses.isPresent()) {
-      filesToDex = Iterables.concat(
-          filesToDex,
-          Collections.singleton(rDotJavaDexWithClasses.get().getPathToDexFile()));
+      dexFilesToMerge = Iterables.concat(
+          dexFilesToMerge,
+          Collections.singleton(rDotJavaDexWithClasses.get()));
+    }
+
+    ImmutableSet.Builder<Path> filesToDex = ImmutableSet.builder();
+    final ImmutableMap.Builder<Path, Sha1HashCode> dexInputHashes = ImmutableMap.builder();
+    for (DexWithClasses dexWithClasses : dexFilesToMerge) {
+      filesToDex.add(dexWithClasses.getPathToDexFile());
+      dexInputHashes.put(dexWithClasses.getPathToDexFile(), dexWithClasses.getClassesHash());
     }
 
+    Path workDir = BuildTargets.getBinPath(getBuildTarget(), "_%s_output");
+    Path successDir = workDir.resolve("success");
+    steps.add(new MkdirStep(successDir));
+
     buildableContext.recordArtifact(primaryDexPath);
 
-    // This will combine the pre-dexed files and the R.class files into a single classes.dex file.
-    steps.add(new DxStep(primaryDexPath, filesToDex, DX_MERGE_OPTIONS));
+    // This will combine the pre-dexed files and the R.class files into a single classes.dex file,
+    // reusing the intermediate merges of any groups of files which haven't changed.
+    steps.add(new SmartDexingStep(
+        primaryDexPath,
+        Suppliers.<Set<Path>>ofInstance(filesToDex.build()),
+        /* secondaryOutputDir */ Optional.<Path>absent(),
+        /* secondaryInputsToDex */ Optional.<Supplier<Multimap<Path, Path>>>absent(),
+        new SmartDexingStep.DexInputHashesProvider() {
+          @Override
+          public ImmutableMap<Path, Sha1HashCode> getDexInputHashes() {
+            return dexInputHashes.build();
+          }
+        },
+        successDir,
+        Optional.of(workDir.resolve("merge_tree")),
+        /* numThreads */ Optional.<Integer>absent(),
+        DX_MERGE_OPTIONS));
 
     buildableContext.addMetadata(
         SECONDARY_DEX_DIRECTORIES_KEY,
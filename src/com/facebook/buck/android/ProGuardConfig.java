@@ -48,4 +48,12 @@ public class ProGuardConfig {
     return delegate.getValue("tools", "proguard-max-heap-size").or("1024M");
   }
 
+  /**
+   * @return Whether ProGuard should be run in a long-lived worker JVM, rather than in a fresh JVM
+   *     for every build.
+   */
+  public boolean getProguardUseWorker() {
+    return delegate.getBooleanValue("tools", "proguard-use-worker", false);
+  }
+
 }
@@ -16,18 +16,25 @@
 
 package com.facebook.buck.android;
 
+import com.facebook.buck.event.ConsoleEvent;
+import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.rules.BuildableContext;
 import com.facebook.buck.shell.ShellStep;
 import com.facebook.buck.step.AbstractExecutionStep;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.fs.TouchStep;
+import com.facebook.buck.util.Verbosity;
+import com.facebook.buck.worker.ImmutableWorkerJvm;
+import com.facebook.buck.worker.WorkerJvm;
+import com.facebook.buck.worker.WorkerResult;
 import com.facebook.buck.zip.CustomZipOutputStream;
 import com.facebook.buck.zip.ZipOutputStreams;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -43,6 +50,8 @@ import java.util.zip.ZipEntry;
 
 public final class ProGuardObfuscateStep extends ShellStep {
 
+  private static final String PROGUARD_MAIN_CLASS = "proguard.ProGuard";
+
   static enum SdkProguardType {
     DEFAULT,
     OPTIMIZED,
@@ -53,17 +62,23 @@ public final class ProGuardObfuscateStep extends ShellStep {
   private final Path pathToProGuardCommandLineArgsFile;
   private final Optional<Path> proguardJarOverride;
   private final String proguardMaxHeapSize;
+  private final boolean proguardUseWorker;
+  private final Supplier<Boolean> shouldRun;
 
   /**
    * Create steps that write out ProGuard's command line arguments to a text file and then run
    * ProGuard using those arguments. We write the arguments to a file to avoid blowing out
    * exec()'s ARG_MAX limit.
    *
+   * @param buildTarget the rule running ProGuard, whose outputs are cached separately from those
+   *     of any other rule.
    * @param steps Where to append the generated steps.
    */
   public static void create(
+      BuildTarget buildTarget,
       Optional<Path> proguardJarOverride,
       String proguardMaxHeapSize,
+      boolean proguardUseWorker,
       Path generatedProGuardConfig,
       Set<Path> customProguardConfigs,
       SdkProguardType sdkProguardConfig,
@@ -86,38 +101,64 @@ public final class ProGuardObfuscateStep extends ShellStep {
         proguardDirectory,
         pathToProGuardCommandLineArgsFile);
 
+    ProGuardOutputCacheStep cacheStep = new ProGuardOutputCacheStep(
+        buildTarget,
+        pathToProGuardCommandLineArgsFile,
+        proguardJarOverride,
+        ImmutableList.<Path>builder()
+            .addAll(inputAndOutputEntries.keySet())
+            .addAll(additionalLibraryJarsForProguard)
+            .addAll(customProguardConfigs)
+            .add(generatedProGuardConfig)
+            .build(),
+        ImmutableList.<Path>builder()
+            .addAll(inputAndOutputEntries.values())
+            .add(commandLineHelperStep.getConfigurationTxt())
+            .add(commandLineHelperStep.getMappingTxt())
+            .build());
+
     ProGuardObfuscateStep proGuardStep = new ProGuardObfuscateStep(
         inputAndOutputEntries,
         pathToProGuardCommandLineArgsFile,
         proguardJarOverride,
-        proguardMaxHeapSize);
+        proguardMaxHeapSize,
+        proguardUseWorker,
+        cacheStep);
 
     buildableContext.recordArtifact(commandLineHelperStep.getConfigurationTxt());
     buildableContext.recordArtifact(commandLineHelperStep.getMappingTxt());
 
     steps.add(
         commandLineHelperStep,
+        cacheStep,
         proGuardStep,
         // Some proguard configs can propagate the "-dontobfuscate" flag which disables
         // obfuscation and prevents the mapping.txt file from being generated.  So touch it
         // here to guarantee it's around when we go to cache this rule.
-        new TouchStep(commandLineHelperStep.getMappingTxt()));
+        new TouchStep(commandLineHelperStep.getMappingTxt()),
+        cacheStep.createSaveStep());
   }
 
   /**
    * @param inputAndOutputEntries Map of input/output pairs to proguard. The key represents an
    *     input jar (-injars); the value an output jar (-outjars).
    * @param pathToProGuardCommandLineArgsFile Path to file containing arguments to ProGuard.
+   * @param proguardUseWorker Whether to run ProGuard in a long-lived worker JVM.
+   * @param shouldRun Whether ProGuard needs to run, or its outputs are already in place.
    */
   private ProGuardObfuscateStep(
       Map<Path, Path> inputAndOutputEntries,
       Path pathToProGuardCommandLineArgsFile,
       Optional<Path> proguardJarOverride,
-      String proguardMaxHeapSize) {
+      String proguardMaxHeapSize,
+      boolean proguardUseWorker,
+      Supplier<Boolean> shouldRun) {
     this.inputAndOutputEntries = ImmutableMap.copyOf(inputAndOutputEntries);
     this.pathToProGuardCommandLineArgsFile = pathToProGuardCommandLineArgsFile;
     this.proguardJarOverride = proguardJarOverride;
     this.proguardMaxHeapSize = proguardMaxHeapSize;
+    this.proguardUseWorker = proguardUseWorker;
+    this.shouldRun = shouldRun;
   }
 
   @Override
@@ -128,26 +169,29 @@ public final class ProGuardObfuscateStep extends ShellStep {
   @Override
   protected ImmutableList<String> getShellCommandInternal(ExecutionContext context) {
     // Run ProGuard as a standalone executable JAR file.
-    Path proguardJar;
-    if (proguardJarOverride.isPresent()) {
-      proguardJar =
-          context.getProjectFilesystem().getPathForRelativePath(proguardJarOverride.get());
-    } else {
-      AndroidPlatformTarget androidPlatformTarget = context.getAndroidPlatformTarget();
-      proguardJar = androidPlatformTarget.getProguardJar();
-    }
-
     ImmutableList.Builder<String> args = ImmutableList.builder();
     args.add("java")
         .add("-Xmx" + proguardMaxHeapSize)
-        .add("-jar").add(proguardJar.toString())
+        .add("-jar").add(getProguardJar(context, proguardJarOverride).toString())
         .add("@" + pathToProGuardCommandLineArgsFile);
     return args.build();
   }
 
+  static Path getProguardJar(ExecutionContext context, Optional<Path> proguardJarOverride) {
+    if (proguardJarOverride.isPresent()) {
+      return context.getProjectFilesystem().getPathForRelativePath(proguardJarOverride.get());
+    } else {
+      AndroidPlatformTarget androidPlatformTarget = context.getAndroidPlatformTarget();
+      return androidPlatformTarget.getProguardJar();
+    }
+  }
+
   @Override
   public int execute(ExecutionContext context) throws InterruptedException {
-    int exitCode = super.execute(context);
+    if (!shouldRun.get()) {
+      return 0;
+    }
+    int exitCode = proguardUseWorker ? executeInWorker(context) : super.execute(context);
 
     // proguard has a peculiar behaviour when multiple -injars/outjars pairs are specified in which
     // any -injars that would have been fully stripped away will not produce their matching -outjars
@@ -161,6 +205,35 @@ public final class ProGuardObfuscateStep extends ShellStep {
     return exitCode;
   }
 
+  private int executeInWorker(ExecutionContext context) throws InterruptedException {
+    WorkerJvm jvm = ImmutableWorkerJvm.builder()
+        .setClasspath(ImmutableList.of(getProguardJar(context, proguardJarOverride)))
+        .setMainClass(PROGUARD_MAIN_CLASS)
+        .setJvmArgs(ImmutableList.of("-Xmx" + proguardMaxHeapSize))
+        .setWorkingDirectory(context.getProjectDirectoryRoot().toAbsolutePath())
+        .build();
+
+    WorkerResult result;
+    try {
+      result = context.getWorkerProcessPool().run(
+          jvm,
+          ImmutableList.of("@" + pathToProGuardCommandLineArgsFile));
+    } catch (IOException e) {
+      context.logError(e, "Unable to run ProGuard in a worker.");
+      return 1;
+    }
+
+    Verbosity verbosity = context.getVerbosity();
+    boolean failed = result.getExitCode() != 0;
+    if (!result.getStdout().isEmpty() && failed && verbosity.shouldPrintOutput()) {
+      context.postEvent(ConsoleEvent.info("%s", result.getStdout()));
+    }
+    if (!result.getStderr().isEmpty() && (failed || shouldPrintStderr(verbosity))) {
+      context.postEvent(ConsoleEvent.warning("%s", result.getStderr()));
+    }
+    return result.getExitCode();
+  }
+
   private int ensureAllOutputsExist(ExecutionContext context) {
     for (Path outputJar : inputAndOutputEntries.values()) {
       File outputJarFile = outputJar.toFile();
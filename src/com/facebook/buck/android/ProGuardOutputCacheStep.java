@@ -0,0 +1,300 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargets;
+import com.facebook.buck.step.AbstractExecutionStep;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+/**
+ * Looks for the outputs of an earlier run of ProGuard with the same inputs, and copies them into
+ * place if there are any. The outputs of ProGuard live in a directory which is cleaned whenever
+ * the resources change, so without this, a build which only changes resources runs ProGuard over
+ * the whole app again.
+ * <p>
+ * The inputs are hashed from ProGuard's command line, which names every setting, config and jar
+ * that it uses, together with the contents of the jars and configs that can change from one build
+ * to the next, and the ProGuard jar itself. Each build target has its own cache, given by
+ * {@link #getCacheDir(BuildTarget)}. The outputs of each run are kept in a directory in it named
+ * after that hash, with the same layout as in the project, and only the most recently used few
+ * are kept.
+ * <p>
+ * Cached outputs are never changed in place. They are only added by moving a complete set into
+ * place, and only removed by moving them out of the way before deleting them. A build that finds
+ * cached outputs gone, even part way through copying them, treats that as a cache miss.
+ */
+class ProGuardOutputCacheStep extends AbstractExecutionStep implements Supplier<Boolean> {
+
+  /**
+   * How many sets of outputs to keep for each build target. More than one, so that switching back
+   * and forth between two versions of the code doesn't need ProGuard to run either.
+   */
+  private static final int MAX_CACHED_OUTPUTS = 2;
+
+  /** Prefixes of directories which hold outputs that are being added or removed. */
+  private static final String TEMP_PREFIX = "tmp-";
+  private static final String EVICTED_PREFIX = "old-";
+
+  private final BuildTarget buildTarget;
+  private final Path commandLineArgsFile;
+  private final Optional<Path> proguardJarOverride;
+  private final ImmutableList<Path> inputs;
+  private final ImmutableList<Path> outputs;
+
+  @Nullable private Path cacheDir;
+  @Nullable private Boolean shouldRunProGuard;
+
+  /**
+   * @param inputs the jars, directories and configs read by ProGuard whose contents may change.
+   * @param outputs everything written by ProGuard, relative to the project root.
+   */
+  ProGuardOutputCacheStep(
+      BuildTarget buildTarget,
+      Path commandLineArgsFile,
+      Optional<Path> proguardJarOverride,
+      Iterable<Path> inputs,
+      Iterable<Path> outputs) {
+    super("check_proguard_cache");
+    this.buildTarget = buildTarget;
+    this.commandLineArgsFile = commandLineArgsFile;
+    this.proguardJarOverride = proguardJarOverride;
+    this.inputs = ImmutableList.copyOf(inputs);
+    this.outputs = ImmutableList.copyOf(outputs);
+  }
+
+  @Override
+  public int execute(ExecutionContext context) {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    try {
+      Hasher hasher = Hashing.sha1().newHasher();
+      hasher.putString(filesystem.computeSha1(commandLineArgsFile), Charsets.UTF_8);
+      hasher.putBytes(
+          com.google.common.io.Files.hash(
+              ProGuardObfuscateStep.getProguardJar(context, proguardJarOverride).toFile(),
+              Hashing.sha1()).asBytes());
+      for (Path input : inputs) {
+        hashContents(filesystem, input, hasher);
+      }
+      cacheDir = getCacheDir(buildTarget).resolve(hasher.hash().toString());
+      shouldRunProGuard = !copyCachedOutputs(filesystem, cacheDir);
+    } catch (IOException e) {
+      context.logError(e, "Error looking for cached ProGuard outputs.");
+      return 1;
+    }
+    return 0;
+  }
+
+  /**
+   * @return where the outputs of ProGuard for {@code buildTarget} are cached.
+   */
+  static Path getCacheDir(BuildTarget buildTarget) {
+    return BuildTargets.getBinPath(buildTarget, "__%s_proguard_cache__");
+  }
+
+  /**
+   * @return whether all of the outputs were copied out of {@code dir}.
+   */
+  private boolean copyCachedOutputs(ProjectFilesystem filesystem, Path dir) throws IOException {
+    try {
+      for (Path output : outputs) {
+        if (!filesystem.isFile(dir.resolve(output))) {
+          return false;
+        }
+      }
+      for (Path output : outputs) {
+        filesystem.createParentDirs(output);
+        filesystem.copyFile(dir.resolve(output), output);
+      }
+      markAsUsed(filesystem, dir);
+      return true;
+    } catch (NoSuchFileException e) {
+      // Evicted by another build while being copied. ProGuard will overwrite what was copied.
+      return false;
+    }
+  }
+
+  private static void markAsUsed(ProjectFilesystem filesystem, Path dir) throws IOException {
+    Files.setLastModifiedTime(
+        filesystem.resolve(dir),
+        FileTime.fromMillis(System.currentTimeMillis()));
+  }
+
+  private static void hashContents(ProjectFilesystem filesystem, Path path, Hasher hasher)
+      throws IOException {
+    hasher.putString(path.toString(), Charsets.UTF_8);
+    if (filesystem.isFile(path)) {
+      hasher.putString(filesystem.computeSha1(path), Charsets.UTF_8);
+    } else if (filesystem.isDirectory(filesystem.resolve(path))) {
+      for (Path file : ImmutableSortedSet.copyOf(filesystem.getFilesUnderPath(path))) {
+        hasher.putString(file.toString(), Charsets.UTF_8);
+        hasher.putString(filesystem.computeSha1(file), Charsets.UTF_8);
+      }
+    }
+  }
+
+  /**
+   * @return whether ProGuard needs to run, because there are no cached outputs for its inputs.
+   *     Only valid once this step has run.
+   */
+  @Override
+  public Boolean get() {
+    return Preconditions.checkNotNull(shouldRunProGuard, "%s has not run yet.", getShortName());
+  }
+
+  /**
+   * @return a {@link Step} that adds the outputs of ProGuard to the cache, if it had to run, to be
+   *     run once all of them have been written.
+   */
+  Step createSaveStep() {
+    return new SaveStep();
+  }
+
+  private class SaveStep extends AbstractExecutionStep {
+
+    SaveStep() {
+      super("save_proguard_cache");
+    }
+
+    @Override
+    public int execute(ExecutionContext context) {
+      if (!get()) {
+        return 0;
+      }
+      ProjectFilesystem filesystem = context.getProjectFilesystem();
+      Path finalDir = Preconditions.checkNotNull(cacheDir);
+      // Fill in a temporary directory first, so that a build which is interrupted doesn't leave a
+      // partial set of outputs behind for the next one to use.
+      Path tempDir = finalDir.resolveSibling(TEMP_PREFIX + UUID.randomUUID());
+      try {
+        for (Path output : outputs) {
+          filesystem.createParentDirs(tempDir.resolve(output));
+          filesystem.copyFile(output, tempDir.resolve(output));
+        }
+        // Whatever is there is incomplete, or ProGuard wouldn't have run.
+        evict(filesystem, finalDir);
+        try {
+          filesystem.move(tempDir, finalDir, StandardCopyOption.ATOMIC_MOVE);
+          markAsUsed(filesystem, finalDir);
+        } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+          // Another build saved the same outputs first.
+          filesystem.rmdir(tempDir);
+        }
+        evictOldOutputs(filesystem, finalDir);
+      } catch (IOException e) {
+        context.logError(e, "Error caching ProGuard outputs in %s.", finalDir);
+        return 1;
+      }
+      return 0;
+    }
+
+    private void evictOldOutputs(ProjectFilesystem filesystem, Path savedDir) throws IOException {
+      // Skips the temporary directories of saves and evictions which are still in progress.
+      ImmutableSortedSet<Path> mostRecentlyUsedFirst =
+          filesystem.getSortedMatchingDirectoryContents(savedDir.getParent(), "[0-9a-f]*");
+      // Times are only so precise, so make sure to keep what was just saved.
+      int numKept = 1;
+      for (Path cached : mostRecentlyUsedFirst) {
+        if (cached.equals(filesystem.resolve(savedDir))) {
+          continue;
+        } else if (numKept < MAX_CACHED_OUTPUTS) {
+          numKept++;
+        } else {
+          evict(filesystem, cached);
+        }
+      }
+    }
+
+    /**
+     * Moves {@code dir} out of the way before deleting it, so that no other build can find part of
+     * it left behind.
+     */
+    private void evict(ProjectFilesystem filesystem, Path dir) throws IOException {
+      Path evictedDir = dir.resolveSibling(EVICTED_PREFIX + UUID.randomUUID());
+      try {
+        filesystem.move(dir, evictedDir, StandardCopyOption.ATOMIC_MOVE);
+      } catch (NoSuchFileException e) {
+        // Already evicted.
+        return;
+      }
+      filesystem.rmdir(evictedDir);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof SaveStep && getCacheStep().equals(((SaveStep) obj).getCacheStep());
+    }
+
+    @Override
+    public int hashCode() {
+      return getCacheStep().hashCode();
+    }
+
+    private ProGuardOutputCacheStep getCacheStep() {
+      return ProGuardOutputCacheStep.this;
+    }
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    } else if (!(obj instanceof ProGuardOutputCacheStep)) {
+      return false;
+    }
+
+    ProGuardOutputCacheStep that = (ProGuardOutputCacheStep) obj;
+    return Objects.equal(this.buildTarget, that.buildTarget) &&
+        Objects.equal(this.commandLineArgsFile, that.commandLineArgsFile) &&
+        Objects.equal(this.proguardJarOverride, that.proguardJarOverride) &&
+        Objects.equal(this.inputs, that.inputs) &&
+        Objects.equal(this.outputs, that.outputs);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(
+        buildTarget,
+        commandLineArgsFile,
+        proguardJarOverride,
+        inputs,
+        outputs);
+  }
+}
@@ -66,11 +66,19 @@ public class RDotJava {
         Optional.<Path>absent(),
         /* transitive classpath */ ImmutableSet.<Path>of(),
         /* declared classpath */ ImmutableSet.<Path>of(),
-        JavacOptions.builder(javacOptions)
-            .setAnnotationProcessingParams(AnnotationProcessingParams.EMPTY)
-            .build(),
+        createJavacOptionsForRDotJavaFiles(javacOptions),
         buildTarget,
         BuildDependencies.FIRST_ORDER_ONLY,
         Optional.<JavacStep.SuggestBuildRules>absent());
   }
+
+  /**
+   * @return the options that {@code R.java} files are compiled with: {@code javacOptions} without
+   *     any annotation processors.
+   */
+  static JavacOptions createJavacOptionsForRDotJavaFiles(JavacOptions javacOptions) {
+    return JavacOptions.builder(javacOptions)
+        .setAnnotationProcessingParams(AnnotationProcessingParams.EMPTY)
+        .build();
+  }
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.step.AbstractExecutionStep;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.EnumSet;
+
+import javax.annotation.Nullable;
+
+/**
+ * Works out whether the {@code R.java} files generated from an {@code R.txt}, and the classes and
+ * dex compiled from them, need to be generated again. Most changes to resources, such as editing a
+ * string, don't change the resource IDs in {@code R.txt}, and so don't need to change them either.
+ * <p>
+ * The {@code R.txt}, the symbols of the resource dependencies, {@code settings} and the dx in use
+ * are hashed together, and compared with the hash saved in {@code stampFile} when the outputs were
+ * last generated. The outputs are out of date if the hashes differ, or if any of them are missing.
+ * When they are out of date, the stamp file is deleted, and it should only be written again by
+ * {@link #createWriteStampStep()} once all of the outputs have been generated.
+ * <p>
+ * This only saves work within the rule that runs it. That rule's key still changes along with its
+ * resources, so the rules that depend on it are built again all the same: {@link PreDexMerge},
+ * for example, merges the dexed {@code R} classes in again even when they haven't changed.
+ */
+class RDotTxtChangedStep extends AbstractExecutionStep implements Supplier<Boolean> {
+
+  private final Path rDotTxt;
+  private final ImmutableList<HasAndroidResourceDeps> resourceDeps;
+  private final String settings;
+  private final Optional<EnumSet<DxStep.Option>> dxOptions;
+  private final Path stampFile;
+  private final ImmutableList<Path> outputs;
+
+  @Nullable private String hash;
+  @Nullable private Boolean isChanged;
+
+  /**
+   * @param settings anything else which affects the outputs, such as the javac options and which
+   *     javac compiles them.
+   * @param dxOptions how the compiled {@code R.java} files are dexed, if they are. The dx that
+   *     these select is only known once the step runs.
+   */
+  RDotTxtChangedStep(
+      Path rDotTxt,
+      ImmutableList<HasAndroidResourceDeps> resourceDeps,
+      String settings,
+      Optional<EnumSet<DxStep.Option>> dxOptions,
+      Path stampFile,
+      ImmutableList<Path> outputs) {
+    super("check_r_txt_changed");
+    this.rDotTxt = rDotTxt;
+    this.resourceDeps = resourceDeps;
+    this.settings = settings;
+    this.dxOptions = dxOptions;
+    this.stampFile = stampFile;
+    this.outputs = outputs;
+  }
+
+  @Override
+  public int execute(ExecutionContext context) {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    try {
+      Hasher hasher = Hashing.sha1().newHasher();
+      hasher.putString(filesystem.computeSha1(rDotTxt), Charsets.UTF_8);
+      hasher.putString(
+          HasAndroidResourceDeps.ABI_HASHER.apply(resourceDeps).getHash(),
+          Charsets.UTF_8);
+      hasher.putString(settings, Charsets.UTF_8);
+      if (dxOptions.isPresent()) {
+        hasher.putString(DxStep.getDxVersion(context, dxOptions.get()), Charsets.UTF_8);
+      }
+      hash = hasher.hash().toString();
+
+      Optional<String> previousHash = filesystem.readFileIfItExists(stampFile);
+      boolean allOutputsExist = true;
+      for (Path output : outputs) {
+        allOutputsExist &= filesystem.exists(output);
+      }
+      isChanged = !allOutputsExist || !previousHash.equals(Optional.of(hash));
+
+      if (isChanged) {
+        filesystem.deleteFileAtPath(stampFile);
+      }
+    } catch (IOException e) {
+      context.logError(e, "Error checking whether %s has changed.", rDotTxt);
+      return 1;
+    }
+    return 0;
+  }
+
+  /**
+   * @return whether the outputs need to be generated again. Only valid once this step has run.
+   */
+  @Override
+  public Boolean get() {
+    return Preconditions.checkNotNull(isChanged, "%s has not run yet.", getShortName());
+  }
+
+  /**
+   * @return a {@link Step} that records that the outputs are up to date, to be run once all of
+   *     them have been generated.
+   */
+  Step createWriteStampStep() {
+    return new AbstractExecutionStep("write_r_txt_stamp") {
+      @Override
+      public int execute(ExecutionContext context) {
+        try {
+          context.getProjectFilesystem().writeContentsToPath(
+              Preconditions.checkNotNull(hash),
+              stampFile);
+        } catch (IOException e) {
+          context.logError(e, "Error writing %s.", stampFile);
+          return 1;
+        }
+        return 0;
+      }
+    };
+  }
+}
@@ -21,6 +21,7 @@ import static com.facebook.buck.rules.BuildableProperties.Kind.LIBRARY;
 import static com.facebook.buck.rules.BuildableProperties.Kind.TEST;
 
 import com.android.common.annotations.Nullable;
+import com.facebook.buck.java.JUnitRunnerOptions;
 import com.facebook.buck.java.JavaTest;
 import com.facebook.buck.java.JavacOptions;
 import com.facebook.buck.java.TestType;
@@ -85,7 +86,8 @@ public class RobolectricTest extends JavaTest {
       ImmutableSet<BuildRule> sourceTargetsUnderTest,
       Optional<Path> resourcesRoot,
       Optional<DummyRDotJava> optionalDummyRDotJava,
-      Optional<Long> testRuleTimeoutMs) {
+      Optional<Long> testRuleTimeoutMs,
+      JUnitRunnerOptions junitRunnerOptions) {
     super(
         buildRuleParams,
         resolver,
@@ -100,7 +102,8 @@ public class RobolectricTest extends JavaTest {
         vmArgs,
         sourceTargetsUnderTest,
         resourcesRoot,
-        testRuleTimeoutMs);
+        testRuleTimeoutMs,
+        junitRunnerOptions);
     this.optionalDummyRDotJava = optionalDummyRDotJava;
   }
 
@@ -19,6 +19,7 @@ package com.facebook.buck.android;
 import com.facebook.buck.android.AndroidLibraryGraphEnhancer.ResourceDependencyMode;
 import com.facebook.buck.java.AnnotationProcessingParams;
 import com.facebook.buck.java.ImmutableJavacOptions;
+import com.facebook.buck.java.JUnitRunnerOptions;
 import com.facebook.buck.java.JavaLibraryDescription;
 import com.facebook.buck.java.JavaTestDescription;
 import com.facebook.buck.java.JavacOptions;
@@ -43,12 +44,15 @@ public class RobolectricTestDescription implements Description<RobolectricTestDe
 
   private final JavacOptions templateOptions;
   private final Optional<Long> testRuleTimeoutMs;
+  private final JUnitRunnerOptions junitRunnerOptions;
 
   public RobolectricTestDescription(
       JavacOptions templateOptions,
-      Optional<Long> testRuleTimeoutMs) {
+      Optional<Long> testRuleTimeoutMs,
+      JUnitRunnerOptions junitRunnerOptions) {
     this.templateOptions = templateOptions;
     this.testRuleTimeoutMs = testRuleTimeoutMs;
+    this.junitRunnerOptions = junitRunnerOptions;
   }
 
   @Override
@@ -118,7 +122,8 @@ public class RobolectricTestDescription implements Description<RobolectricTestDe
             resolver),
         args.resourcesRoot,
         dummyRDotJava,
-        testRuleTimeoutMs);
+        testRuleTimeoutMs,
+        junitRunnerOptions);
   }
 
   @SuppressFieldNotInitialized
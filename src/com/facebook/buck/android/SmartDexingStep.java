@@ -23,6 +23,7 @@ import com.facebook.buck.step.DefaultStepRunner;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepFailedException;
+import com.facebook.buck.step.fs.MoveStep;
 import com.facebook.buck.step.fs.RmStep;
 import com.facebook.buck.step.fs.WriteFileStep;
 import com.facebook.buck.step.fs.XzStep;
@@ -43,13 +44,16 @@ import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.List;
@@ -77,6 +81,7 @@ public class SmartDexingStep implements Step {
   private final Optional<Path> secondaryOutputDir;
   private final DexInputHashesProvider dexInputHashesProvider;
   private final Path successDir;
+  private final Optional<Path> mergeTreeDir;
   private final Optional<Integer> numThreads;
   private final EnumSet<DxStep.Option> dxOptions;
 
@@ -91,6 +96,9 @@ public class SmartDexingStep implements Step {
    *     Note that for each output file (key), a separate dx invocation will be started with the
    *     corresponding jar files (value) as the input.
    * @param successDir Directory where success artifacts are written.
+   * @param mergeTreeDir If the inputs are already dexed, the directory where intermediate merges
+   *     are kept, so that outputs with many inputs can be merged as a tree of smaller merges in
+   *     parallel. See {@link DexMergeTree}.
    * @param numThreads Number of threads to use when invoking dx commands.  If absent, a
    *     reasonable default will be selected based on the number of available processors.
    */
@@ -101,6 +109,7 @@ public class SmartDexingStep implements Step {
       final Optional<Supplier<Multimap<Path, Path>>> secondaryInputsToDex,
       DexInputHashesProvider dexInputHashesProvider,
       Path successDir,
+      Optional<Path> mergeTreeDir,
       Optional<Integer> numThreads,
       EnumSet<Option> dxOptions) {
     this.outputToInputsSupplier = Suppliers.memoize(
@@ -118,6 +127,7 @@ public class SmartDexingStep implements Step {
     this.secondaryOutputDir = secondaryOutputDir;
     this.dexInputHashesProvider = dexInputHashesProvider;
     this.successDir = successDir;
+    this.mergeTreeDir = mergeTreeDir;
     this.numThreads = numThreads;
     this.dxOptions = dxOptions;
   }
@@ -131,7 +141,12 @@ public class SmartDexingStep implements Step {
     ProjectFilesystem projectFilesystem = context.getProjectFilesystem();
     try {
       Multimap<Path, Path> outputToInputs = outputToInputsSupplier.get();
-      runDxCommands(context, outputToInputs);
+      Map<Path, Sha1HashCode> dexInputHashes =
+          Maps.newHashMap(dexInputHashesProvider.getDexInputHashes());
+      Multimap<Path, Path> outputToDxInputs = mergeTreeDir.isPresent()
+          ? runIntermediateMerges(context, outputToInputs, dexInputHashes)
+          : outputToInputs;
+      runDxCommands(context, outputToDxInputs, dexInputHashes);
       if (secondaryOutputDir.isPresent()) {
         removeExtraneousSecondaryArtifacts(
             secondaryOutputDir.get(),
@@ -146,17 +161,98 @@ public class SmartDexingStep implements Step {
     return 0;
   }
 
-  private void runDxCommands(ExecutionContext context, Multimap<Path, Path> outputToInputs)
+  private void runDxCommands(
+      ExecutionContext context,
+      Multimap<Path, Path> outputToInputs,
+      Map<Path, Sha1HashCode> dexInputHashes)
       throws StepFailedException, IOException, InterruptedException {
     try (DefaultStepRunner stepRunner =
              new DefaultStepRunner(context, numThreads.or(determineOptimalThreadCount()))) {
       // Invoke dx commands in parallel for maximum thread utilization.  In testing, dx revealed
       // itself to be CPU (and not I/O) bound making it a good candidate for parallelization.
-      List<Step> dxSteps = generateDxCommands(context.getProjectFilesystem(), outputToInputs);
+      List<Step> dxSteps =
+          generateDxCommands(context.getProjectFilesystem(), outputToInputs, dexInputHashes);
       stepRunner.runStepsInParallelAndWait(dxSteps);
     }
   }
 
+  /**
+   * Merges the inputs of each output as a {@link DexMergeTree}, a level at a time, skipping any
+   * intermediate merges left by an earlier build whose inputs haven't changed since.
+   *
+   * @param dexInputHashes updated with the hashes of the intermediate merges.
+   * @return the inputs that are left to merge into each output.
+   */
+  private Multimap<Path, Path> runIntermediateMerges(
+      ExecutionContext context,
+      Multimap<Path, Path> outputToInputs,
+      Map<Path, Sha1HashCode> dexInputHashes)
+      throws StepFailedException, IOException, InterruptedException {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    Path workDir = mergeTreeDir.get();
+
+    ImmutableMultimap.Builder<Path, Path> outputToRootInputs = ImmutableMultimap.builder();
+    List<DexMergeTree> trees = Lists.newArrayList();
+    String mergeSettings = DxStep.getDxVersion(context, dxOptions);
+    int numLevels = 0;
+    for (Path output : outputToInputs.keySet()) {
+      DexMergeTree tree = DexMergeTree.plan(
+          ImmutableList.copyOf(outputToInputs.get(output)),
+          dexInputHashes,
+          workDir,
+          DexMergeTree.DEFAULT_FAN_IN,
+          mergeSettings);
+      trees.add(tree);
+      outputToRootInputs.putAll(output, tree.getRootInputs());
+      dexInputHashes.putAll(tree.getIntermediateHashes());
+      numLevels = Math.max(numLevels, tree.getLevels().size());
+    }
+
+    filesystem.mkdirs(workDir);
+    Set<Path> intermediates = Sets.newHashSet();
+    try (DefaultStepRunner stepRunner =
+             new DefaultStepRunner(context, numThreads.or(determineOptimalThreadCount()))) {
+      for (int level = 0; level < numLevels; level++) {
+        List<Step> mergeSteps = Lists.newArrayList();
+        for (DexMergeTree tree : trees) {
+          if (level >= tree.getLevels().size()) {
+            continue;
+          }
+          for (Map.Entry<Path, ImmutableList<Path>> merge :
+              tree.getLevels().get(level).entrySet()) {
+            Path intermediate = merge.getKey();
+            if (intermediates.add(intermediate) && !filesystem.exists(intermediate)) {
+              mergeSteps.add(createIntermediateMergeStep(merge.getValue(), intermediate));
+            }
+          }
+        }
+        stepRunner.runStepsInParallelAndWait(mergeSteps);
+      }
+    }
+
+    // Intermediate merges are only ever reused by the next build, so drop the ones it won't use.
+    Path normalizedRoot = filesystem.getRootPath().normalize();
+    for (Path path : filesystem.getDirectoryContents(workDir)) {
+      if (!intermediates.contains(normalizedRoot.relativize(path.normalize()))) {
+        filesystem.rmdir(path);
+      }
+    }
+
+    return outputToRootInputs.build();
+  }
+
+  private Step createIntermediateMergeStep(List<Path> inputs, Path output) {
+    // Intermediate merges are reused just because they exist, so only put one in place once it
+    // is complete.
+    String fileName = output.getFileName().toString();
+    Path tempOutput = output.resolveSibling(
+        fileName.substring(0, fileName.length() - ".dex".length()) + ".tmp.dex");
+    return new CompositeStep(
+        ImmutableList.of(
+            new DxStep(tempOutput, inputs, dxOptions),
+            new MoveStep(tempOutput, output, StandardCopyOption.REPLACE_EXISTING)));
+  }
+
   /**
    * Prune the secondary output directory of any files that we didn't generate.  This is
    * needed because we crudely add all files in this directory to the final APK, but the number
@@ -208,11 +304,10 @@ public class SmartDexingStep implements Step {
    */
   private List<Step> generateDxCommands(
       ProjectFilesystem filesystem,
-      Multimap<Path, Path> outputToInputs) throws IOException {
+      Multimap<Path, Path> outputToInputs,
+      Map<Path, Sha1HashCode> dexInputHashes) throws IOException {
     ImmutableList.Builder<DxPseudoRule> pseudoRules = ImmutableList.builder();
 
-    ImmutableMap<Path, Sha1HashCode> dexInputHashes = dexInputHashesProvider.getDexInputHashes();
-
     for (Path outputFile : outputToInputs.keySet()) {
       pseudoRules.add(
           new DxPseudoRule(
@@ -18,12 +18,15 @@ package com.facebook.buck.android;
 
 import com.facebook.buck.dalvik.DalvikAwareZipSplitterFactory;
 import com.facebook.buck.dalvik.DefaultZipSplitterFactory;
+import com.facebook.buck.dalvik.SharedDalvikStatsCache;
 import com.facebook.buck.dalvik.ZipSplitter;
 import com.facebook.buck.dalvik.ZipSplitterFactory;
 import com.facebook.buck.dalvik.firstorder.FirstOrderHelper;
+import com.facebook.buck.dalvik.firstorder.FirstOrderIndex;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
+import com.facebook.buck.util.BuckConstant;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Function;
@@ -32,6 +35,8 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
@@ -41,7 +46,6 @@ import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 
 import org.objectweb.asm.Type;
-import org.objectweb.asm.tree.ClassNode;
 
 import java.io.BufferedWriter;
 import java.io.File;
@@ -108,6 +112,18 @@ public class SplitZipStep implements Step {
         }
       };
 
+  /**
+   * Where the linear alloc estimates for classes are kept from one build to the next.
+   */
+  private static final Path DALVIK_STATS_CACHE_PATH =
+      BuckConstant.BUCK_OUTPUT_PATH.resolve("dalvik_stats_cache");
+
+  /**
+   * Where what is known about the classes in each jar is kept from one build to the next, keyed
+   * by the hash of the jar.
+   */
+  static final Path CLASS_INDEX_PATH = BuckConstant.BUCK_OUTPUT_PATH.resolve("class_index");
+
   @VisibleForTesting
   static final Pattern CLASS_FILE_PATTERN = Pattern.compile("^([\\w/$]+)\\.class");
 
@@ -120,6 +136,7 @@ public class SplitZipStep implements Step {
   private final Optional<Path> proguardMappingFile;
   private final DexSplitMode dexSplitMode;
   private final Path pathToReportDir;
+  private final Path secondaryDexAssignmentsPath;
 
   private final Optional<Path> primaryDexScenarioFile;
   private final Optional<Path> primaryDexClassesFile;
@@ -142,6 +159,8 @@ public class SplitZipStep implements Step {
    * @param proguardFullConfigFile Path to the full generated ProGuard configuration, generated
    *     by the -printconfiguration flag.  This is part of the *output* of ProGuard.
    * @param proguardMappingFile Path to the mapping file generated by ProGuard's obfuscation.
+   * @param secondaryDexAssignmentsPath Path to the file used to keep classes in the same secondary
+   *     jar from one build to the next, if {@code dexSplitMode} asks for that.
    */
   public SplitZipStep(
       Set<Path> inputPathsToSplit,
@@ -156,7 +175,8 @@ public class SplitZipStep implements Step {
       Optional<Path> primaryDexClassesFile,
       Optional<Path> secondaryDexHeadClassesFile,
       Optional<Path> secondaryDexTailClassesFile,
-      Path pathToReportDir) {
+      Path pathToReportDir,
+      Path secondaryDexAssignmentsPath) {
     this.inputPathsToSplit = ImmutableSet.copyOf(inputPathsToSplit);
     this.secondaryJarMetaPath = secondaryJarMetaPath;
     this.primaryJarPath = primaryJarPath;
@@ -170,6 +190,7 @@ public class SplitZipStep implements Step {
     this.secondaryDexHeadClassesFile = secondaryDexHeadClassesFile;
     this.secondaryDexTailClassesFile = secondaryDexTailClassesFile;
     this.pathToReportDir = pathToReportDir;
+    this.secondaryDexAssignmentsPath = secondaryDexAssignmentsPath;
 
     Preconditions.checkArgument(
         proguardFullConfigFile.isPresent() == proguardMappingFile.isPresent(),
@@ -182,8 +203,9 @@ public class SplitZipStep implements Step {
       Set<Path> inputJarPaths = FluentIterable.from(inputPathsToSplit)
           .transform(context.getProjectFilesystem().getAbsolutifier())
           .toSet();
-      Supplier<ImmutableList<ClassNode>> classes =
-          ClassNodeListSupplier.createMemoized(inputJarPaths);
+      Supplier<FirstOrderIndex> classes = createFirstOrderIndexSupplier(
+          inputJarPaths,
+          context.getProjectFilesystem().resolve(CLASS_INDEX_PATH));
       ProguardTranslatorFactory translatorFactory =
           ProguardTranslatorFactory.create(context, proguardFullConfigFile, proguardMappingFile);
       Predicate<String> requiredInPrimaryZip =
@@ -193,17 +215,28 @@ public class SplitZipStep implements Step {
       final ImmutableSet<String> secondaryHeadSet = getSecondaryHeadSet(context, translatorFactory);
       final ImmutableSet<String> secondaryTailSet = getSecondaryTailSet(context, translatorFactory);
 
+      ProjectFilesystem projectFilesystem = context.getProjectFilesystem();
       ZipSplitterFactory zipSplitterFactory;
       if (dexSplitMode.useLinearAllocSplitDex()) {
+        Optional<File> secondaryDexAssignmentsFile = dexSplitMode.useStableSecondaryDexes()
+            ? Optional.of(projectFilesystem.getFileForRelativePath(secondaryDexAssignmentsPath))
+            : Optional.<File>absent();
         zipSplitterFactory = new DalvikAwareZipSplitterFactory(
             dexSplitMode.getLinearAllocHardLimit(),
-            wantedInPrimaryZip);
+            wantedInPrimaryZip,
+            secondaryDexAssignmentsFile);
       } else {
         zipSplitterFactory = new DefaultZipSplitterFactory(ZIP_SIZE_SOFT_LIMIT,
             ZIP_SIZE_HARD_LIMIT);
       }
 
-      ProjectFilesystem projectFilesystem = context.getProjectFilesystem();
+      // Estimating the linear alloc size of every class is slow, so reuse the estimates for
+      // classes which haven't changed since an earlier build.
+      Path dalvikStatsCachePath = projectFilesystem.resolve(DALVIK_STATS_CACHE_PATH);
+      if (dexSplitMode.useLinearAllocSplitDex()) {
+        SharedDalvikStatsCache.getShared().loadIfNeeded(dalvikStatsCachePath);
+      }
+
       File primaryJarFile = primaryJarPath.toFile();
       outputFiles = zipSplitterFactory.newInstance(
           projectFilesystem,
@@ -219,6 +252,10 @@ public class SplitZipStep implements Step {
           projectFilesystem.getFileForRelativePath(pathToReportDir))
           .execute();
 
+      if (dexSplitMode.useLinearAllocSplitDex()) {
+        SharedDalvikStatsCache.getShared().saveIfNeeded(dalvikStatsCachePath);
+      }
+
       try (BufferedWriter secondaryMetaInfoWriter = Files.newWriter(secondaryJarMetaPath.toFile(),
           Charsets.UTF_8)) {
         writeMetaList(secondaryMetaInfoWriter, outputFiles, dexSplitMode.getDexStore());
@@ -235,7 +272,7 @@ public class SplitZipStep implements Step {
   Predicate<String> createRequiredInPrimaryZipPredicate(
       ExecutionContext context,
       ProguardTranslatorFactory translatorFactory,
-      Supplier<ImmutableList<ClassNode>> classesSupplier)
+      Supplier<FirstOrderIndex> classesSupplier)
       throws IOException {
     final Function<String, String> deobfuscate = translatorFactory.createDeobfuscationFunction();
     final ImmutableSet<String> primaryDexClassNames =
@@ -275,7 +312,7 @@ public class SplitZipStep implements Step {
   private ImmutableSet<String> getRequiredPrimaryDexClassNames(
       ExecutionContext context,
       ProguardTranslatorFactory translatorFactory,
-      Supplier<ImmutableList<ClassNode>> classesSupplier)
+      Supplier<FirstOrderIndex> classesSupplier)
       throws IOException {
     ImmutableSet.Builder<String> builder = ImmutableSet.builder();
 
@@ -352,7 +389,7 @@ public class SplitZipStep implements Step {
   private ImmutableSet<String> getWantedPrimaryDexEntries(
       ExecutionContext context,
       ProguardTranslatorFactory translatorFactory,
-      Supplier<ImmutableList<ClassNode>> classesSupplier)
+      Supplier<FirstOrderIndex> classesSupplier)
       throws IOException {
     ImmutableSet.Builder<String> builder = ImmutableSet.builder();
 
@@ -367,6 +404,26 @@ public class SplitZipStep implements Step {
         .toSet();
   }
 
+  /**
+   * Indexing the classes means reading every input jar, so only do it if there is a scenario file
+   * which needs the index, and only for the jars which have changed since an earlier build.
+   */
+  private static Supplier<FirstOrderIndex> createFirstOrderIndexSupplier(
+      final Set<Path> inputJarPaths,
+      final Path indexDir) {
+    return Suppliers.memoize(
+        new Supplier<FirstOrderIndex>() {
+          @Override
+          public FirstOrderIndex get() {
+            try {
+              return FirstOrderIndex.load(inputJarPaths, indexDir);
+            } catch (IOException e) {
+              throw Throwables.propagate(e);
+            }
+          }
+        });
+  }
+
   /**
    * Adds classes listed in the scenario file along with their dependencies.  This adds classes
    * plus dependencies in the order the classes appear in the scenario file.
@@ -376,7 +433,7 @@ public class SplitZipStep implements Step {
   private void addScenarioClasses(
       ExecutionContext context,
       ProguardTranslatorFactory translatorFactory,
-      Supplier<ImmutableList<ClassNode>> classesSupplier,
+      Supplier<FirstOrderIndex> classesSupplier,
       ImmutableSet.Builder<String> builder)
       throws IOException {
 
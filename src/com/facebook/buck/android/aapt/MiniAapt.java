@@ -25,16 +25,20 @@ import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.util.MoreStrings;
 import com.facebook.buck.util.XmlDomParser;
+import com.facebook.buck.util.concurrent.MoreFutures;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -47,7 +51,10 @@ import java.io.InputStream;
 import java.io.PrintWriter;
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
@@ -69,13 +76,14 @@ public class MiniAapt implements Step {
   private static final String ID_DEFINITION_PREFIX = "@+id/";
   private static final String ITEM_TAG = "item";
 
-  private static final XPathExpression ANDROID_ID_USAGE =
+  // XPathExpressions are not thread-safe, and files are parsed in parallel.
+  private static final ThreadLocal<XPathExpression> ANDROID_ID_USAGE =
       createExpression("//@*[starts-with(., '@') and " +
               "not(starts-with(., '@+')) and " +
               "not(starts-with(., '@android:')) and " +
               "not(starts-with(., '@null'))]");
 
-  private static final XPathExpression ANDROID_ID_DEFINITION =
+  private static final ThreadLocal<XPathExpression> ANDROID_ID_DEFINITION =
       createExpression("//@*[starts-with(., '@+') and " +
               "not(starts-with(., '@+android:id'))]");
 
@@ -106,12 +114,17 @@ public class MiniAapt implements Step {
     this.resourceCollector = new AaptResourceCollector();
   }
 
-  private static XPathExpression createExpression(String expressionStr) {
-    try {
-      return XPathFactory.newInstance().newXPath().compile(expressionStr);
-    } catch (XPathExpressionException e) {
-      throw new RuntimeException(e);
-    }
+  private static ThreadLocal<XPathExpression> createExpression(final String expressionStr) {
+    return new ThreadLocal<XPathExpression>() {
+      @Override
+      protected XPathExpression initialValue() {
+        try {
+          return XPathFactory.newInstance().newXPath().compile(expressionStr);
+        } catch (XPathExpressionException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
   }
 
   private static ImmutableMap<String, RType> getResourceTypes() {
@@ -136,9 +149,9 @@ public class MiniAapt implements Step {
     ImmutableSet.Builder<RDotTxtEntry> references = ImmutableSet.builder();
 
     try {
-      collectResources(filesystem, context.getBuckEventBus());
-      processXmlFilesForIds(filesystem, references);
-    } catch (IOException | XPathExpressionException | ResourceParseException e) {
+      collectResources(filesystem, context.getBuckEventBus(), context.getHelperExecutor());
+      processXmlFilesForIds(filesystem, context.getHelperExecutor(), references);
+    } catch (IOException | ResourceParseException e) {
       context.logError(e, "Error parsing resources to generate resource IDs for %s.", resDirectory);
       return 1;
     }
@@ -199,8 +212,11 @@ public class MiniAapt implements Step {
    * For files under the {@code values*} directories, see
    * {@link #processValuesFile(ProjectFilesystem, Path)}
    */
-  private void collectResources(ProjectFilesystem filesystem, BuckEventBus eventBus)
-      throws IOException, ResourceParseException {
+  private void collectResources(
+      ProjectFilesystem filesystem,
+      BuckEventBus eventBus,
+      ListeningExecutorService executor)
+      throws IOException, InterruptedException, ResourceParseException {
     Collection<Path> contents = filesystem.getDirectoryContents(resDirectory);
     for (Path dir : contents) {
       if (!filesystem.isDirectory(dir) && !filesystem.isIgnored(dir)) {
@@ -213,7 +229,7 @@ public class MiniAapt implements Step {
         if (!isAValuesDir(dirname)) {
           throw new ResourceParseException("'%s' is not a valid values directory.", dir);
         }
-        processValues(filesystem, eventBus, dir);
+        processValues(filesystem, eventBus, executor, dir);
       } else {
         processFileNamesInDirectory(filesystem, dir);
       }
@@ -248,9 +264,14 @@ public class MiniAapt implements Step {
     }
   }
 
-  void processValues(ProjectFilesystem filesystem, BuckEventBus eventBus, Path valuesDir)
-      throws IOException, ResourceParseException {
-    for (Path path : filesystem.getFilesUnderPath(valuesDir)) {
+  void processValues(
+      final ProjectFilesystem filesystem,
+      BuckEventBus eventBus,
+      ListeningExecutorService executor,
+      Path valuesDir)
+      throws IOException, InterruptedException, ResourceParseException {
+    List<Callable<PendingResources>> parses = Lists.newArrayList();
+    for (final Path path : filesystem.getFilesUnderPath(valuesDir)) {
       if (shouldIgnoreFile(path, filesystem)) {
         continue;
       }
@@ -258,7 +279,16 @@ public class MiniAapt implements Step {
         eventBus.post(ConsoleEvent.warning("MiniAapt [warning]: ignoring non-file '%s'.", path));
         continue;
       }
-      processValuesFile(filesystem, path);
+      parses.add(
+          new Callable<PendingResources>() {
+            @Override
+            public PendingResources call() throws IOException, ResourceParseException {
+              return parseValuesFile(filesystem, path);
+            }
+          });
+    }
+    for (PendingResources resources : parseInParallel(executor, parses)) {
+      resources.addTo(resourceCollector);
     }
   }
 
@@ -288,6 +318,12 @@ public class MiniAapt implements Step {
   @VisibleForTesting
   void processValuesFile(ProjectFilesystem filesystem, Path valuesFile)
       throws IOException, ResourceParseException {
+    parseValuesFile(filesystem, valuesFile).addTo(resourceCollector);
+  }
+
+  private static PendingResources parseValuesFile(ProjectFilesystem filesystem, Path valuesFile)
+      throws IOException, ResourceParseException {
+    PendingResources resources = new PendingResources();
     try (InputStream stream = filesystem.newFileInputStream(valuesFile)) {
       Document dom = parseXml(valuesFile, stream);
       Element root = dom.getDocumentElement();
@@ -314,12 +350,13 @@ public class MiniAapt implements Step {
         }
 
         RType rType = Preconditions.checkNotNull(RESOURCE_TYPES.get(resourceType));
-        addToResourceCollector(node, rType);
+        addToResources(node, rType, resources);
       }
     }
+    return resources;
   }
 
-  private void addToResourceCollector(Node node, RType rType) {
+  private static void addToResources(Node node, RType rType, PendingResources resources) {
     String resourceName = sanitizeName(extractNameAttribute(node));
     if (rType.equals(RType.STYLEABLE)) {
 
@@ -334,7 +371,7 @@ public class MiniAapt implements Step {
 
         String rawAttrName = extractNameAttribute(attrNode);
         String attrName = sanitizeName(rawAttrName);
-        resourceCollector.addResource(
+        resources.addResource(
             RType.STYLEABLE,
             IdType.INT,
             String.format(
@@ -344,27 +381,40 @@ public class MiniAapt implements Step {
             Integer.toString(count++));
 
         if (!rawAttrName.startsWith("android:")) {
-          resourceCollector.addIntResourceIfNotPresent(RType.ATTR, attrName);
+          resources.addIntResourceIfNotPresent(RType.ATTR, attrName);
         }
       }
 
-      resourceCollector.addIntArrayResourceIfNotPresent(rType, resourceName, count);
+      resources.addIntArrayResourceIfNotPresent(rType, resourceName, count);
     } else {
-      resourceCollector.addIntResourceIfNotPresent(rType, resourceName);
+      resources.addIntResourceIfNotPresent(rType, resourceName);
     }
   }
 
   void processXmlFilesForIds(
-      ProjectFilesystem filesystem,
+      final ProjectFilesystem filesystem,
+      ListeningExecutorService executor,
       ImmutableSet.Builder<RDotTxtEntry> references)
-      throws IOException, XPathExpressionException, ResourceParseException {
-    for (Path path : filesystem.getFilesUnderPath(resDirectory, ENDS_WITH_XML)) {
+      throws IOException, InterruptedException, ResourceParseException {
+    List<Callable<PendingResources>> parses = Lists.newArrayList();
+    for (final Path path : filesystem.getFilesUnderPath(resDirectory, ENDS_WITH_XML)) {
       String dirname = resDirectory.relativize(path).getName(0).toString();
       if (isAValuesDir(dirname)) {
         // Ignore files under values* directories.
         continue;
       }
-      processXmlFile(filesystem, path, references);
+      parses.add(
+          new Callable<PendingResources>() {
+            @Override
+            public PendingResources call()
+                throws IOException, XPathExpressionException, ResourceParseException {
+              return parseXmlFile(filesystem, path);
+            }
+          });
+    }
+    for (PendingResources resources : parseInParallel(executor, parses)) {
+      resources.addTo(resourceCollector);
+      references.addAll(resources.references);
     }
   }
 
@@ -374,10 +424,18 @@ public class MiniAapt implements Step {
       Path xmlFile,
       ImmutableSet.Builder<RDotTxtEntry> references)
       throws IOException, XPathExpressionException, ResourceParseException {
+    PendingResources resources = parseXmlFile(filesystem, xmlFile);
+    resources.addTo(resourceCollector);
+    references.addAll(resources.references);
+  }
+
+  private static PendingResources parseXmlFile(ProjectFilesystem filesystem, Path xmlFile)
+      throws IOException, XPathExpressionException, ResourceParseException {
+    PendingResources resources = new PendingResources();
     try (InputStream stream = filesystem.newFileInputStream(xmlFile)) {
       Document dom = parseXml(xmlFile, stream);
       NodeList nodesWithIds =
-          (NodeList) ANDROID_ID_DEFINITION.evaluate(dom, XPathConstants.NODESET);
+          (NodeList) ANDROID_ID_DEFINITION.get().evaluate(dom, XPathConstants.NODESET);
       for (int i = 0; i < nodesWithIds.getLength(); i++) {
         String resourceName = nodesWithIds.item(i).getNodeValue();
         if (!resourceName.startsWith(ID_DEFINITION_PREFIX)) {
@@ -385,13 +443,13 @@ public class MiniAapt implements Step {
         }
         Preconditions.checkState(resourceName.startsWith(ID_DEFINITION_PREFIX));
 
-        resourceCollector.addIntResourceIfNotPresent(
+        resources.addIntResourceIfNotPresent(
             RType.ID,
             resourceName.substring(ID_DEFINITION_PREFIX.length()));
       }
 
       NodeList nodesUsingIds =
-          (NodeList) ANDROID_ID_USAGE.evaluate(dom, XPathConstants.NODESET);
+          (NodeList) ANDROID_ID_USAGE.get().evaluate(dom, XPathConstants.NODESET);
       for (int i = 0; i < nodesUsingIds.getLength(); i++) {
         String resourceName = nodesUsingIds.item(i).getNodeValue();
         Preconditions.checkState(resourceName.charAt(0) == '@');
@@ -410,9 +468,30 @@ public class MiniAapt implements Step {
         RType rType = Preconditions.checkNotNull(RESOURCE_TYPES.get(rawRType));
 
 
-        references.add(new FakeRDotTxtEntry(IdType.INT, rType, sanitizeName(name)));
+        resources.references.add(new FakeRDotTxtEntry(IdType.INT, rType, sanitizeName(name)));
       }
     }
+    return resources;
+  }
+
+  /**
+   * Parses files on the threads of {@code executor}, returning the results in the same order as
+   * {@code parses}, as that is the order their resources must be added in.
+   */
+  private static List<PendingResources> parseInParallel(
+      ListeningExecutorService executor,
+      List<Callable<PendingResources>> parses)
+      throws IOException, InterruptedException, ResourceParseException {
+    try {
+      return MoreFutures.getAll(executor, parses);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.propagateIfInstanceOf(e.getCause(), ResourceParseException.class);
+      if (e.getCause() instanceof XPathExpressionException) {
+        throw new ResourceParseException("%s", e.getCause().getMessage());
+      }
+      throw Throwables.propagate(e.getCause());
+    }
   }
 
   private static Document parseXml(Path filepath, InputStream inputStream)
@@ -483,6 +562,64 @@ public class MiniAapt implements Step {
     return getShortName() + " " + resDirectory;
   }
 
+  /**
+   * Resources found in a single file. Resource IDs are handed out in the order resources are added
+   * to the {@link AaptResourceCollector}, so files are parsed in parallel, but their resources are
+   * only added to the collector afterwards, in the order the files were found.
+   */
+  private static class PendingResources {
+
+    private interface PendingResource {
+      void addTo(AaptResourceCollector resourceCollector);
+    }
+
+    private final List<PendingResource> resources = Lists.newArrayList();
+    private final List<RDotTxtEntry> references = Lists.newArrayList();
+
+    void addIntResourceIfNotPresent(final RType rType, final String name) {
+      resources.add(
+          new PendingResource() {
+            @Override
+            public void addTo(AaptResourceCollector resourceCollector) {
+              resourceCollector.addIntResourceIfNotPresent(rType, name);
+            }
+          });
+    }
+
+    void addIntArrayResourceIfNotPresent(
+        final RType rType,
+        final String name,
+        final int numValues) {
+      resources.add(
+          new PendingResource() {
+            @Override
+            public void addTo(AaptResourceCollector resourceCollector) {
+              resourceCollector.addIntArrayResourceIfNotPresent(rType, name, numValues);
+            }
+          });
+    }
+
+    void addResource(
+        final RType rType,
+        final IdType idType,
+        final String name,
+        final String idValue) {
+      resources.add(
+          new PendingResource() {
+            @Override
+            public void addTo(AaptResourceCollector resourceCollector) {
+              resourceCollector.addResource(rType, idType, name, idValue);
+            }
+          });
+    }
+
+    void addTo(AaptResourceCollector resourceCollector) {
+      for (PendingResource resource : resources) {
+        resource.addTo(resourceCollector);
+      }
+    }
+  }
+
   @SuppressWarnings("serial")
   @VisibleForTesting
   static class ResourceParseException extends Exception {
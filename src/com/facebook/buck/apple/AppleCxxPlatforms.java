@@ -16,9 +16,12 @@
 
 package com.facebook.buck.apple;
 
+import com.facebook.buck.cxx.ArchiveStyle;
+import com.facebook.buck.cxx.CompilerType;
 import com.facebook.buck.cxx.CxxPlatform;
 import com.facebook.buck.cxx.DarwinLinker;
 import com.facebook.buck.cxx.DebugPathSanitizer;
+import com.facebook.buck.cxx.HeaderMode;
 import com.facebook.buck.cxx.ImmutableCxxPlatform;
 import com.facebook.buck.cxx.SourcePathTool;
 import com.facebook.buck.cxx.Tool;
@@ -123,6 +126,10 @@ public class AppleCxxPlatforms {
             new DarwinLinker(
                 new SourcePathTool(getTool("libtool", toolSearchPaths, pathIsExecutableChecker))))
         .setAr(new SourcePathTool(getTool("ar", toolSearchPaths, pathIsExecutableChecker)))
+        .setArchiveStyle(ArchiveStyle.NORMAL)
+        .setHeaderMode(HeaderMode.SYMLINK_TREE)
+        .setCompilerType(CompilerType.CLANG)
+        .setSplitDwarf(false)
         .setDebugPathSanitizer(Optional.of(
             new DebugPathSanitizer(
                 250,
@@ -609,6 +609,7 @@ public class AppleDescriptions {
     output.deps = arg.deps;
     output.headerNamespace = arg.headerPathPrefix.or(
         Optional.of(buildTarget.getShortName()));
+    output.precompiledHeader = Optional.absent();
   }
 
 }
@@ -16,6 +16,8 @@
 
 package com.facebook.buck.cli;
 
+import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
+
 import com.android.ddmlib.AdbCommandRejectedException;
 import com.android.ddmlib.CollectingOutputReceiver;
 import com.android.ddmlib.IDevice;
@@ -30,6 +32,8 @@ import com.facebook.buck.rules.ExopackageInfo;
 import com.facebook.buck.rules.InstallableApk;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.util.NamedTemporaryFile;
+import com.facebook.buck.util.concurrent.MoreExecutors;
+import com.facebook.buck.util.concurrent.MoreFutures;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Function;
@@ -44,7 +48,9 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.io.File;
 import java.io.IOException;
@@ -56,6 +62,10 @@ import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -92,6 +102,13 @@ public class ExopackageInstaller {
 
   private static final Path NATIVE_LIBS_DIR = Paths.get("native-libs");
 
+  /**
+   * How many files to send to a device at once. Each is sent by a separate invocation of the
+   * agent, over its own forwarded port, so that a single slow adb connection doesn't leave the
+   * device idle.
+   */
+  private static final int MAX_CONCURRENT_FILE_INSTALLS = 4;
+
   @VisibleForTesting
   static final Pattern DEX_FILE_PATTERN = Pattern.compile("secondary-([0-9a-f]+)\\.[\\w.-]*");
 
@@ -110,7 +127,7 @@ public class ExopackageInstaller {
   /**
    * The next port number to use for communicating with the agent on a device.
    * This resets for every instance of ExopackageInstaller,
-   * but is incremented for every device we are installing on when using "-x".
+   * but each device we are installing on when using "-x" gets its own range of ports.
    */
   private final AtomicInteger nextAgentPort = new AtomicInteger(2828);
 
@@ -155,7 +172,8 @@ public class ExopackageInstaller {
           @Override
           public boolean call(IDevice device) throws Exception {
             try {
-              return new SingleDeviceInstaller(device, nextAgentPort.getAndIncrement()).doInstall();
+              return new SingleDeviceInstaller(device, reserveAgentPorts(nextAgentPort))
+                  .doInstall();
             } catch (Exception e) {
               throw new RuntimeException("Failed to install exopackage on " + device, e);
             }
@@ -171,6 +189,78 @@ public class ExopackageInstaller {
     return success;
   }
 
+  /**
+   * @return The first of the {@link #MAX_CONCURRENT_FILE_INSTALLS} consecutive ports reserved for
+   *     a device, so that installs to several devices at once never share a port.
+   */
+  @VisibleForTesting
+  static int reserveAgentPorts(AtomicInteger nextAgentPort) {
+    return nextAgentPort.getAndAdd(MAX_CONCURRENT_FILE_INSTALLS);
+  }
+
+  /**
+   * @return The ports to forward for sending {@code numFiles} files, out of those reserved for a
+   *     device. There is always at least one, for the metadata.
+   */
+  @VisibleForTesting
+  static ImmutableList<Integer> getAgentPorts(int firstAgentPort, int numFiles) {
+    int numPorts = Math.max(1, Math.min(MAX_CONCURRENT_FILE_INSTALLS, numFiles));
+    ImmutableList.Builder<Integer> ports = ImmutableList.builder();
+    for (int port = firstAgentPort; port < firstAgentPort + numPorts; port++) {
+      ports.add(port);
+    }
+    return ports.build();
+  }
+
+  @VisibleForTesting
+  interface FileInstaller {
+    void install(int port, Path destination, Path source) throws Exception;
+  }
+
+  /**
+   * Installs every file in {@code destinationToSource}, running as many installs at once as there
+   * are {@code freePorts}. Each install takes a port and puts it back once it is done, whether or
+   * not it succeeded, so that no two installs ever use the same port at once.
+   */
+  @VisibleForTesting
+  static void installInParallel(
+      ImmutableMap<Path, Path> destinationToSource,
+      final BlockingQueue<Integer> freePorts,
+      final FileInstaller installer) throws Exception {
+    if (destinationToSource.isEmpty()) {
+      return;
+    }
+    List<Callable<Void>> installs = Lists.newArrayList();
+    for (final Map.Entry<Path, Path> entry : destinationToSource.entrySet()) {
+      installs.add(
+          new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              int port = freePorts.take();
+              try {
+                installer.install(port, entry.getKey(), entry.getValue());
+              } finally {
+                freePorts.add(port);
+              }
+              return null;
+            }
+          });
+    }
+    ListeningExecutorService executor = listeningDecorator(
+        MoreExecutors.newMultiThreadExecutor("exopackage-install", freePorts.size()));
+    try {
+      MoreFutures.getAll(executor, installs);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      throw e;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   /**
    * Helper class to manage the state required to install on a single device.
    */
@@ -182,9 +272,10 @@ public class ExopackageInstaller {
     private final IDevice device;
 
     /**
-     * Port to use for sending files to the agent.
+     * First of the {@link #MAX_CONCURRENT_FILE_INSTALLS} consecutive ports to use for sending files
+     * to the agent.
      */
-    private final int agentPort;
+    private final int firstAgentPort;
 
     /**
      * True iff we should use the native agent.
@@ -197,9 +288,9 @@ public class ExopackageInstaller {
     @Nullable
     private String nativeAgentPath;
 
-    private SingleDeviceInstaller(IDevice device, int agentPort) {
+    private SingleDeviceInstaller(IDevice device, int firstAgentPort) {
       this.device = device;
-      this.agentPort = agentPort;
+      this.firstAgentPort = firstAgentPort;
     }
 
     boolean doInstall() throws Exception {
@@ -216,7 +307,10 @@ public class ExopackageInstaller {
       final boolean installViaSd = false;
 
       if (shouldAppBeInstalled()) {
-        try (TraceEventLogger ignored = TraceEventLogger.start(eventBus, "install_exo_apk")) {
+        try (TraceEventLogger ignored = TraceEventLogger.start(
+            eventBus,
+            "install_exo_apk",
+            ImmutableMap.of("device", device.getSerialNumber()))) {
           boolean success = adbHelper.installApkOnDevice(device, apk, installViaSd);
           if (!success) {
             return false;
@@ -554,25 +648,49 @@ public class ExopackageInstaller {
     }
 
     private void installFiles(
-        String filesType,
+        final String filesType,
         ImmutableMap<String, Path> filesToInstallByHash,
         String metadataFileContents,
         String filenameFormat,
         Path destinationDirRelativeToDataRoot) throws Exception {
-      try (TraceEventLogger ignored1 =
-               TraceEventLogger.start(eventBus, "multi_install_" + filesType)) {
-        device.createForward(agentPort, agentPort);
+      try (TraceEventLogger ignored1 = TraceEventLogger.start(
+          eventBus,
+          "multi_install_" + filesType,
+          ImmutableMap.of(
+              "device", device.getSerialNumber(),
+              "files", String.valueOf(filesToInstallByHash.size())))) {
+        ImmutableList<Integer> ports =
+            getAgentPorts(firstAgentPort, filesToInstallByHash.size());
+        BlockingQueue<Integer> freePorts = new LinkedBlockingQueue<>();
         try {
-          for (Map.Entry<String, Path> entry : filesToInstallByHash.entrySet()) {
-            Path destination = destinationDirRelativeToDataRoot.resolve(
-                String.format(filenameFormat, entry.getKey()));
-            Path source = entry.getValue();
+          for (int port : ports) {
+            device.createForward(port, port);
+            freePorts.add(port);
+          }
 
-            try (TraceEventLogger ignored2 =
-                     TraceEventLogger.start(eventBus, "install_" + filesType)) {
-              installFile(device, agentPort, destination, source);
-            }
+          ImmutableMap.Builder<Path, Path> destinationToSource = ImmutableMap.builder();
+          for (Map.Entry<String, Path> entry : filesToInstallByHash.entrySet()) {
+            destinationToSource.put(
+                destinationDirRelativeToDataRoot.resolve(
+                    String.format(filenameFormat, entry.getKey())),
+                entry.getValue());
           }
+          installInParallel(
+              destinationToSource.build(),
+              freePorts,
+              new FileInstaller() {
+                @Override
+                public void install(int port, Path destination, Path source) throws Exception {
+                  try (TraceEventLogger ignored2 = TraceEventLogger.start(
+                      eventBus,
+                      "install_" + filesType,
+                      ImmutableMap.of("device", device.getSerialNumber()))) {
+                    installFile(device, port, destination, source);
+                  }
+                }
+              });
+
+          // The metadata goes last, so that the app never sees files that aren't there yet.
           try (TraceEventLogger ignored3 =
                    TraceEventLogger.start(eventBus, "install_" + filesType + "_metadata")) {
             try (NamedTemporaryFile temp = new NamedTemporaryFile("metadata", "tmp")) {
@@ -581,27 +699,33 @@ public class ExopackageInstaller {
                   temp.get().toFile());
               installFile(
                   device,
-                  agentPort,
+                  firstAgentPort,
                   destinationDirRelativeToDataRoot.resolve("metadata.txt"),
                   temp.get());
             }
           }
         } finally {
-          try {
-            device.removeForward(agentPort, agentPort);
-          } catch (AdbCommandRejectedException e) {
-            LOG.warn(e, "Failed to remove adb forward on port %d for device %s", agentPort, device);
-            eventBus.post(
-                ConsoleEvent.warning(
-                    "Failed to remove adb forward %d. This is not necessarily a problem\n" +
-                        "because it will be recreated during the next exopackage installation.\n" +
-                        "See the log for the full exception.",
-                    agentPort));
+          for (int port : ports) {
+            removeForward(port);
           }
         }
       }
     }
 
+    private void removeForward(int port) throws Exception {
+      try {
+        device.removeForward(port, port);
+      } catch (AdbCommandRejectedException e) {
+        LOG.warn(e, "Failed to remove adb forward on port %d for device %s", port, device);
+        eventBus.post(
+            ConsoleEvent.warning(
+                "Failed to remove adb forward %d. This is not necessarily a problem\n" +
+                    "because it will be recreated during the next exopackage installation.\n" +
+                    "See the log for the full exception.",
+                port));
+      }
+    }
+
     private void installFile(
         IDevice device,
         final int port,
@@ -26,8 +26,10 @@ import com.facebook.buck.java.JUnitStep;
 import com.facebook.buck.java.JavaLibrary;
 import com.facebook.buck.java.JavaTest;
 import com.facebook.buck.json.BuildFileParseException;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargetException;
+import com.facebook.buck.model.HasBuildTarget;
 import com.facebook.buck.parser.ParserConfig;
 import com.facebook.buck.parser.TargetNodePredicateSpec;
 import com.facebook.buck.rules.ActionGraph;
@@ -37,6 +39,7 @@ import com.facebook.buck.rules.BuildEngine;
 import com.facebook.buck.rules.BuildEvent;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleSuccess;
+import com.facebook.buck.rules.CacheResult;
 import com.facebook.buck.rules.IndividualTestEvent;
 import com.facebook.buck.rules.TargetGraph;
 import com.facebook.buck.rules.TargetGraphToActionGraph;
@@ -54,6 +57,7 @@ import com.facebook.buck.test.CoverageReportFormat;
 import com.facebook.buck.test.TestCaseSummary;
 import com.facebook.buck.test.TestResultSummary;
 import com.facebook.buck.test.TestResults;
+import com.facebook.buck.test.TestTimings;
 import com.facebook.buck.test.result.groups.TestResultsGrouper;
 import com.facebook.buck.test.result.type.ResultType;
 import com.facebook.buck.util.BuckConstant;
@@ -62,6 +66,7 @@ import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.Verbosity;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
@@ -74,6 +79,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -97,6 +103,8 @@ import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 import javax.xml.parsers.DocumentBuilder;
@@ -110,7 +118,11 @@ import javax.xml.transform.stream.StreamResult;
 
 public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
 
+  private static final Logger LOG = Logger.get(TestCommand.class);
+
   public static final int TEST_FAILURES_EXIT_CODE = 42;
+
+  private static final Pattern SHARD_PATTERN = Pattern.compile("(\\d+)/(\\d+)");
   private final TargetGraphTransformer<ActionGraph> targetGraphTransformer;
 
   public TestCommand(CommandRunnerParams params) {
@@ -153,6 +165,8 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
     Iterable<TestRule> results = getCandidateRules(build.getActionGraph());
 
     results = filterTestRules(options, results);
+    TestTimings testTimings = TestTimings.load(getProjectFilesystem(), getObjectMapper());
+    results = selectShard(options, results, loadShardTimings(options));
     if (options.isDryRun()) {
       printMatchingTestRules(console, results);
     }
@@ -163,6 +177,7 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
     try (ExecutionContext testExecutionContext = ExecutionContext.builder().
         setExecutionContext(buildExecutionContext).
         setTargetDevice(options.getTargetDeviceOptional()).
+        setTestTimings(testTimings).
         build()) {
       return runTestsAndShutdownExecutor(results,
           buildContext,
@@ -318,6 +333,9 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
     Iterable<TestRule> testRules = Iterables.filter(graph.getNodes(), TestRule.class);
 
     testRules = filterTestRules(options, testRules);
+    // Only the tests in this shard need to be built.
+    TestTimings testTimings = TestTimings.load(getProjectFilesystem(), getObjectMapper());
+    testRules = selectShard(options, testRules, loadShardTimings(options));
     if (options.isDryRun()) {
       printMatchingTestRules(console, testRules);
     }
@@ -353,10 +371,15 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
       }
 
       // Once all of the rules are built, then run the tests.
-      return runTestsAndShutdownExecutor(testRules,
-          Preconditions.checkNotNull(build.getBuildContext()),
-          build.getExecutionContext(),
-          options);
+      try (ExecutionContext testExecutionContext = ExecutionContext.builder().
+          setExecutionContext(build.getExecutionContext()).
+          setTestTimings(testTimings).
+          build()) {
+        return runTestsAndShutdownExecutor(testRules,
+            Preconditions.checkNotNull(build.getBuildContext()),
+            testExecutionContext,
+            options);
+      }
     }
   }
 
@@ -438,6 +461,72 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
     return builder.build();
   }
 
+  /**
+   * @return the timings to balance shards with: those in the file given by
+   *     {@code --shard-timings}, or none at all. The timings Buck records in {@code buck-out} are
+   *     never used, as each machine running a shard has its own, different copy.
+   */
+  private TestTimings loadShardTimings(TestCommandOptions options) {
+    Optional<Path> path = options.getShardTimings();
+    if (!path.isPresent()) {
+      return TestTimings.empty();
+    }
+    ProjectFilesystem filesystem = getProjectFilesystem();
+    if (filesystem.resolve(path.get()).equals(filesystem.resolve(TestTimings.PATH))) {
+      throw new HumanReadableException(
+          "--shard-timings can't be %s, as it's rewritten by every test run.",
+          TestTimings.PATH);
+    }
+    try {
+      return TestTimings.read(filesystem, getObjectMapper(), path.get());
+    } catch (IOException e) {
+      throw new HumanReadableException(
+          "Unable to read the shard timings in %s: %s",
+          path.get(),
+          e.getMessage());
+    }
+  }
+
+  /**
+   * When running one shard of the tests, as given by {@code --shard i/n}, picks the test rules in
+   * that shard. Rules are taken in name order, and balanced using the given timings, so the shards
+   * only depend on the set of test rules and the timings. With no timings at all, test rules are
+   * dealt out to shards in turn.
+   */
+  @VisibleForTesting
+  static Iterable<TestRule> selectShard(
+      TestCommandOptions options,
+      Iterable<TestRule> testRules,
+      final TestTimings testTimings) {
+    Optional<String> shard = options.getShard();
+    if (!shard.isPresent()) {
+      return testRules;
+    }
+
+    Matcher matcher = SHARD_PATTERN.matcher(shard.get());
+    int index = 0;
+    int numShards = 0;
+    if (matcher.matches()) {
+      index = Integer.parseInt(matcher.group(1));
+      numShards = Integer.parseInt(matcher.group(2));
+    }
+    if (index < 1 || index > numShards) {
+      throw new HumanReadableException(
+          "--shard must be of the form i/n, where 1 <= i <= n, but was '%s'.",
+          shard.get());
+    }
+
+    return TestTimings.balance(
+        FluentIterable.from(testRules).toSortedList(HasBuildTarget.BUILD_TARGET_COMPARATOR),
+        new Function<TestRule, Optional<Long>>() {
+          @Override
+          public Optional<Long> apply(TestRule rule) {
+            return testTimings.getRuleTimeMillis(rule.getBuildTarget());
+          }
+        },
+        numShards).get(index - 1);
+  }
+
   private int runTestsAndShutdownExecutor(
       Iterable<TestRule> tests,
       BuildContext buildContext,
@@ -454,9 +543,9 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
   @SuppressWarnings("PMD.EmptyCatchBlock")
   private int runTests(
       Iterable<TestRule> tests,
-      BuildContext buildContext,
-      ExecutionContext executionContext,
-      StepRunner stepRunner,
+      final BuildContext buildContext,
+      final ExecutionContext executionContext,
+      final StepRunner stepRunner,
       final TestCommandOptions options)
       throws IOException, ExecutionException, InterruptedException {
 
@@ -503,13 +592,37 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
       grouper = new TestResultsGrouper(tests);
     }
 
-    TestRuleKeyFileHelper testRuleKeyFileHelper = new TestRuleKeyFileHelper(
+    final TestRuleKeyFileHelper testRuleKeyFileHelper = new TestRuleKeyFileHelper(
         executionContext.getProjectFilesystem(),
         getBuildEngine());
-    for (TestRule test : tests) {
+    final TestResultsCache testResultsCache = new TestResultsCache(
+        executionContext.getProjectFilesystem(),
+        getBuildEngine(),
+        buildContext.getArtifactCache(),
+        executionContext.getPlatform(),
+        executionContext.getEnvironment(),
+        options.getResultsCacheEnvironmentVariables());
+    // Results are only shared through the artifact cache when they're complete and were produced
+    // in the usual place, in the usual way.
+    boolean isUsingTestResultsCache =
+        options.isResultsCacheEnabled() &&
+        !options.isDryRun() &&
+        !options.isDebugEnabled() &&
+        !options.isUsingOneTimeOutputDirectories() &&
+        options.getTestSelectorList().isEmpty();
+    // Start the slowest tests first, so that they aren't left running on their own at the end.
+    final TestTimings testTimings = executionContext.getTestTimings();
+    tests = TestTimings.longestFirst(
+        tests,
+        new Function<TestRule, Optional<Long>>() {
+          @Override
+          public Optional<Long> apply(TestRule rule) {
+            return testTimings.getRuleTimeMillis(rule.getBuildTarget());
+          }
+        });
+    for (final TestRule test : tests) {
       // Determine whether the test needs to be executed.
-      boolean isTestRunRequired;
-      isTestRunRequired = isTestRunRequiredForTest(
+      boolean isTestRunRequired = isTestRunRequiredForTest(
           test,
           getBuildEngine(),
           executionContext,
@@ -517,39 +630,47 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
           options.isResultsCacheEnabled(),
           !options.getTestSelectorList().isEmpty());
 
-
-      List<Step> steps;
-      if (isTestRunRequired) {
-        getBuckEventBus().post(IndividualTestEvent.started(
-            options.getArgumentsFormattedAsBuildTargets()));
-        ImmutableList.Builder<Step> stepsBuilder = ImmutableList.builder();
-        BuildEngine cachingBuildEngine = getBuildEngine();
-        Preconditions.checkState(cachingBuildEngine.isRuleBuilt(test.getBuildTarget()));
-        List<Step> testSteps = test.runTests(
+      ListenableFuture<TestResults> testResults;
+      if (isTestRunRequired && isUsingTestResultsCache) {
+        // Look for the results in the artifact cache on the step runner's threads, as with a
+        // remote cache, doing so here would add a round-trip per test before any test is started.
+        ListenableFuture<CacheResult> cacheResult = stepRunner.runStepsAndYieldResult(
+            ImmutableList.<Step>of(),
+            new Callable<CacheResult>() {
+              @Override
+              public CacheResult call() throws InterruptedException {
+                return testResultsCache.fetch(test);
+              }
+            },
+            test.getBuildTarget());
+        testResults = Futures.transform(
+            cacheResult,
+            new AsyncFunction<CacheResult, TestResults>() {
+              @Override
+              public ListenableFuture<TestResults> apply(CacheResult cacheResult)
+                  throws Exception {
+                return runTest(
+                    test,
+                    cacheResult,
+                    buildContext,
+                    executionContext,
+                    stepRunner,
+                    options,
+                    testRuleKeyFileHelper,
+                    Optional.of(testResultsCache));
+              }
+            });
+      } else {
+        testResults = runTest(
+            test,
+            isTestRunRequired ? CacheResult.SKIP : CacheResult.LOCAL_KEY_UNCHANGED_HIT,
             buildContext,
             executionContext,
-            options.isDryRun(),
-            options.isShufflingTests(),
-            options.getTestSelectorList());
-        if (!testSteps.isEmpty()) {
-          stepsBuilder.addAll(testSteps);
-          stepsBuilder.add(testRuleKeyFileHelper.createRuleKeyInDirStep(test));
-        }
-        steps = stepsBuilder.build();
-      } else {
-        steps = ImmutableList.of();
+            stepRunner,
+            options,
+            testRuleKeyFileHelper,
+            Optional.<TestResultsCache>absent());
       }
-
-      // Always run the commands, even if the list of commands as empty. There may be zero commands
-      // because the rule is cached, but its results must still be processed.
-      ListenableFuture<TestResults> testResults =
-          stepRunner.runStepsAndYieldResult(steps,
-              getCachingStatusTransformingCallable(
-                  isTestRunRequired,
-                  test.interpretTestResults(executionContext,
-                      /*isUsingTestSelectors*/ !options.getTestSelectorList().isEmpty(),
-                      /*isDryRun*/ options.isDryRun())),
-              test.getBuildTarget());
       results.add(
         transformTestResults(testResults, grouper, test, options, printTestResults));
     }
@@ -575,6 +696,18 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
     getBuckEventBus().post(TestRunEvent.finished(
         options.getArgumentsFormattedAsBuildTargets(), completedResults));
 
+    // Only complete runs are representative of how long a test takes.
+    if (!options.isDryRun() && options.getTestSelectorList().isEmpty()) {
+      for (TestResults testResults : completedResults) {
+        testTimings.record(testResults);
+      }
+      try {
+        testTimings.save(getProjectFilesystem(), getObjectMapper());
+      } catch (IOException e) {
+        LOG.warn(e, "Unable to save test timings.");
+      }
+    }
+
     // Write out the results as XML, if requested.
     String path = options.getPathToXmlTestOutput();
     if (path != null) {
@@ -624,6 +757,62 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
     return (failures || significantAssumptionViolations) ? TEST_FAILURES_EXIT_CODE : 0;
   }
 
+  /**
+   * Runs the test, unless its results were found in a cache.
+   *
+   * @param cacheResult the result of looking for the results of the test in the caches.
+   * @param testResultsCache where to store the results of the test if it's run and passes.
+   */
+  private ListenableFuture<TestResults> runTest(
+      TestRule test,
+      CacheResult cacheResult,
+      BuildContext buildContext,
+      ExecutionContext executionContext,
+      StepRunner stepRunner,
+      TestCommandOptions options,
+      TestRuleKeyFileHelper testRuleKeyFileHelper,
+      Optional<TestResultsCache> testResultsCache)
+      throws IOException, InterruptedException {
+    boolean isTestRunRequired = !cacheResult.isSuccess();
+
+    List<Step> steps;
+    if (isTestRunRequired) {
+      getBuckEventBus().post(IndividualTestEvent.started(
+          options.getArgumentsFormattedAsBuildTargets()));
+      ImmutableList.Builder<Step> stepsBuilder = ImmutableList.builder();
+      BuildEngine cachingBuildEngine = getBuildEngine();
+      Preconditions.checkState(cachingBuildEngine.isRuleBuilt(test.getBuildTarget()));
+      List<Step> testSteps = test.runTests(
+          buildContext,
+          executionContext,
+          options.isDryRun(),
+          options.isShufflingTests(),
+          options.getTestSelectorList());
+      if (!testSteps.isEmpty()) {
+        stepsBuilder.addAll(testSteps);
+        stepsBuilder.add(testRuleKeyFileHelper.createRuleKeyInDirStep(test));
+      }
+      steps = stepsBuilder.build();
+    } else {
+      steps = ImmutableList.of();
+    }
+
+    // Always run the commands, even if the list of commands as empty. There may be zero commands
+    // because the rule is cached, but its results must still be processed.
+    ListenableFuture<TestResults> testResults =
+        stepRunner.runStepsAndYieldResult(steps,
+            getCachingStatusTransformingCallable(
+                cacheResult,
+                test.interpretTestResults(executionContext,
+                    /*isUsingTestSelectors*/ !options.getTestSelectorList().isEmpty(),
+                    /*isDryRun*/ options.isDryRun())),
+            test.getBuildTarget());
+    if (isTestRunRequired && testResultsCache.isPresent()) {
+      storePassingTestResults(testResults, test, testResultsCache.get());
+    }
+    return testResults;
+  }
+
   private ListenableFuture<TestResults> transformTestResults(
       ListenableFuture<TestResults> originalTestResults,
       @Nullable final TestResultsGrouper grouper,
@@ -690,19 +879,53 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
     return transformedTestResults;
   }
 
+  /**
+   * Once the test has run, stores its results in the cache if it passed. Failures aren't stored, so
+   * that a flaky test gets another chance the next time it's run.
+   */
+  private static void storePassingTestResults(
+      ListenableFuture<TestResults> testResults,
+      final TestRule testRule,
+      final TestResultsCache testResultsCache) {
+    Futures.addCallback(
+        testResults,
+        new FutureCallback<TestResults>() {
+          @Override
+          public void onSuccess(TestResults results) {
+            if (!results.isSuccess()) {
+              return;
+            }
+            try {
+              testResultsCache.store(testRule);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+
+          @Override
+          public void onFailure(Throwable throwable) {
+            // Nothing to store.
+          }
+        });
+  }
+
   private Callable<TestResults> getCachingStatusTransformingCallable(
-      boolean isTestRunRequired,
+      CacheResult cacheResult,
       final Callable<TestResults> originalCallable) {
-    if (isTestRunRequired) {
+    if (!cacheResult.isSuccess()) {
       return originalCallable;
     }
+    final Function<TestCaseSummary, TestCaseSummary> toCached =
+        cacheResult == CacheResult.CASSANDRA_HIT || cacheResult == CacheResult.HTTP_HIT ?
+            TestCaseSummary.TO_REMOTELY_CACHED_TRANSFORMATION :
+            TestCaseSummary.TO_CACHED_TRANSFORMATION;
     return new Callable<TestResults>() {
       @Override
       public TestResults call() throws Exception {
         TestResults originalTestResults = originalCallable.call();
         ImmutableList<TestCaseSummary> cachedTestResults = FluentIterable
             .from(originalTestResults.getTestCases())
-            .transform(TestCaseSummary.TO_CACHED_TRANSFORMATION)
+            .transform(toCached)
             .toList();
         return new TestResults(
             originalTestResults.getBuildTarget(),
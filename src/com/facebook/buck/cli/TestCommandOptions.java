@@ -23,9 +23,13 @@ import com.facebook.buck.test.CoverageReportFormat;
 import com.facebook.buck.test.selectors.TestSelectorList;
 import com.facebook.infer.annotation.SuppressFieldNotInitialized;
 import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
 
 import org.kohsuke.args4j.Option;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Set;
 
 import javax.annotation.Nullable;
@@ -33,6 +37,7 @@ import javax.annotation.Nullable;
 public class TestCommandOptions extends BuildCommandOptions {
 
   public static final String USE_RESULTS_CACHE = "use_results_cache";
+  public static final String RESULTS_CACHE_ENV = "results_cache_env";
 
   @Option(name = "--all",
           usage =
@@ -89,6 +94,23 @@ public class TestCommandOptions extends BuildCommandOptions {
           "WARNING: only works for Java tests!")
   private boolean isShufflingTests;
 
+  @Option(
+      name = "--shard",
+      usage =
+          "Only run shard i of n, given as i/n, of the matching tests. Test rules are dealt out " +
+          "to shards in name order, unless --shard-timings is given.")
+  @Nullable
+  private String shard = null;
+
+  @Option(
+      name = "--shard-timings",
+      usage =
+          "Balance --shard using the test timings in this file, such as a copy of the " +
+          "test-timings.json recorded in buck-out by an earlier run. It is only ever read, and " +
+          "every machine running a shard must be given the same file.")
+  @Nullable
+  private String shardTimings = null;
+
   @AdditionalOptions
   @SuppressFieldNotInitialized
   private TargetDeviceOptions targetDeviceOptions;
@@ -140,6 +162,19 @@ public class TestCommandOptions extends BuildCommandOptions {
     return !isResultsCacheDisabled;
   }
 
+  /**
+   * @return the environment variables which tests may depend on, so that test results cached
+   *     with one value of them aren't used for another.
+   */
+  public ImmutableSet<String> getResultsCacheEnvironmentVariables() {
+    Optional<String> variables = getBuckConfig().getValue("test", RESULTS_CACHE_ENV);
+    if (!variables.isPresent()) {
+      return ImmutableSet.of();
+    }
+    return ImmutableSet.copyOf(
+        Splitter.on(',').trimResults().omitEmptyStrings().split(variables.get()));
+  }
+
   @Override
   public boolean isDebugEnabled() {
     return isDebugEnabled;
@@ -177,6 +212,14 @@ public class TestCommandOptions extends BuildCommandOptions {
     return isShufflingTests;
   }
 
+  public Optional<String> getShard() {
+    return Optional.fromNullable(shard);
+  }
+
+  public Optional<Path> getShardTimings() {
+    return shardTimings == null ? Optional.<Path>absent() : Optional.of(Paths.get(shardTimings));
+  }
+
   public boolean shouldExcludeWin() {
     return testLabelOptions.shouldExcludeWin();
   }
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.rules.ArtifactCache;
+import com.facebook.buck.rules.BuildEngine;
+import com.facebook.buck.rules.CacheResult;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.TestRule;
+import com.facebook.buck.util.environment.Platform;
+import com.facebook.buck.zip.Unzip;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Stores the output directories of test rules, including their results, in an
+ * {@link ArtifactCache}, so that a test which has already been run, on this machine or on another,
+ * doesn't need to be run again while its rule key is unchanged.
+ * <p>
+ * The rule key of a test covers its code and its runtime deps, but not the machine the test runs
+ * on, so the key used for the cache also covers the platform and the values of any environment
+ * variables the tests are configured to depend on.
+ */
+public class TestResultsCache {
+
+  private static final Logger LOG = Logger.get(TestResultsCache.class);
+
+  /**
+   * Change this whenever the way results are cached changes, so that old entries aren't used.
+   */
+  private static final String KEY_VERSION = "1";
+
+  private final ProjectFilesystem projectFilesystem;
+  private final BuildEngine buildEngine;
+  private final ArtifactCache artifactCache;
+  private final String environmentKey;
+
+  public TestResultsCache(
+      ProjectFilesystem projectFilesystem,
+      BuildEngine buildEngine,
+      ArtifactCache artifactCache,
+      Platform platform,
+      ImmutableMap<String, String> environment,
+      ImmutableSet<String> keyEnvironmentVariables) {
+    this.projectFilesystem = projectFilesystem;
+    this.buildEngine = buildEngine;
+    this.artifactCache = artifactCache;
+
+    StringBuilder environmentKey = new StringBuilder();
+    environmentKey.append("platform=").append(platform.name()).append('\n');
+    for (String name : ImmutableSortedSet.copyOf(keyEnvironmentVariables)) {
+      String value = environment.get(name);
+      environmentKey
+          .append(name)
+          .append(value == null ? "" : "=" + value)
+          .append('\n');
+    }
+    this.environmentKey = environmentKey.toString();
+  }
+
+  @VisibleForTesting
+  RuleKey getKey(TestRule testRule) {
+    Hasher hasher = Hashing.sha1().newHasher()
+        .putString("test-results:" + KEY_VERSION + "\n", Charsets.UTF_8)
+        .putString(buildEngine.getRuleKey(testRule.getBuildTarget()).toString(), Charsets.UTF_8)
+        .putString("\n", Charsets.UTF_8)
+        .putString(environmentKey, Charsets.UTF_8);
+    return new RuleKey(hasher.hash().toString());
+  }
+
+  /**
+   * Replaces the contents of the test's output directory with the cached one, if there is one.
+   *
+   * @return the result of looking up the results of the test, which is only a success if they
+   *     were fetched from the cache and unpacked.
+   */
+  public CacheResult fetch(TestRule testRule) throws InterruptedException {
+    File zip;
+    try {
+      zip = File.createTempFile(getTempFilePrefix(testRule), ".zip");
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to create a temporary file for the results of %s.", testRule);
+      return CacheResult.MISS;
+    }
+
+    try {
+      CacheResult cacheResult = artifactCache.fetch(getKey(testRule), zip);
+      if (!cacheResult.isSuccess()) {
+        return cacheResult;
+      }
+
+      // Don't let any files from an earlier run be mistaken for part of the cached results.
+      projectFilesystem.rmdir(testRule.getPathToTestOutputDirectory());
+      Unzip.extractZipFile(
+          zip.toPath().toAbsolutePath(),
+          projectFilesystem.getRootPath().toAbsolutePath(),
+          /* overwriteExistingFiles */ true);
+      LOG.debug("Fetched the results of %s from the cache (%s).", testRule, cacheResult);
+      return cacheResult;
+    } catch (IOException e) {
+      // The test will just be run instead.
+      LOG.warn(e, "Unable to unpack the cached results of %s.", testRule);
+      return CacheResult.MISS;
+    } finally {
+      zip.delete();
+    }
+  }
+
+  /**
+   * Stores the contents of the test's output directory in the cache.
+   */
+  public void store(TestRule testRule) throws InterruptedException {
+    if (!artifactCache.isStoreSupported()) {
+      return;
+    }
+
+    Path outputDirectory = testRule.getPathToTestOutputDirectory();
+    File zip = null;
+    try {
+      ImmutableSet<Path> outputs = projectFilesystem.getFilesUnderPath(outputDirectory);
+      if (outputs.isEmpty()) {
+        return;
+      }
+      zip = File.createTempFile(getTempFilePrefix(testRule), ".zip");
+      projectFilesystem.createZip(outputs, zip);
+      artifactCache.store(getKey(testRule), zip);
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to store the results of %s in the cache.", testRule);
+    } finally {
+      if (zip != null) {
+        zip.delete();
+      }
+    }
+  }
+
+  private static String getTempFilePrefix(TestRule testRule) {
+    return testRule.getBuildTarget().getFullyQualifiedName().replace('/', '_');
+  }
+}
@@ -20,6 +20,7 @@ import com.facebook.buck.rules.AbstractBuildRule;
 import com.facebook.buck.rules.BuildContext;
 import com.facebook.buck.rules.BuildRuleParams;
 import com.facebook.buck.rules.BuildableContext;
+import com.facebook.buck.rules.CacheMode;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
@@ -38,6 +39,7 @@ import java.nio.file.Path;
 public class Archive extends AbstractBuildRule {
 
   private final Tool archiver;
+  private final ArchiveStyle style;
   private final Path output;
   private final ImmutableList<SourcePath> inputs;
 
@@ -45,10 +47,12 @@ public class Archive extends AbstractBuildRule {
       BuildRuleParams params,
       SourcePathResolver resolver,
       Tool archiver,
+      ArchiveStyle style,
       Path output,
       ImmutableList<SourcePath> inputs) {
     super(params, resolver);
     this.archiver = archiver;
+    this.style = style;
     this.output = output;
     this.inputs = inputs;
   }
@@ -62,6 +66,7 @@ public class Archive extends AbstractBuildRule {
   protected RuleKey.Builder appendDetailsToRuleKey(RuleKey.Builder builder) {
     return builder
         .setReflectively("archiver", archiver)
+        .setReflectively("style", style.toString())
         .setReflectively("output", output.toString());
   }
 
@@ -73,14 +78,31 @@ public class Archive extends AbstractBuildRule {
     // Cache the archive we built.
     buildableContext.recordArtifact(output);
 
-    return ImmutableList.of(
-        new MkdirStep(output.getParent()),
-        new RmStep(output, /* shouldForceDeletion */ true),
-        new ArchiveStep(
-            archiver.getCommandPrefix(getResolver()),
-            output,
-            getResolver().getAllPaths(inputs)),
-        new ArchiveScrubberStep(output));
+    ImmutableList<String> archiverCommand = archiver.getCommandPrefix(getResolver());
+    ImmutableList<Path> inputPaths = getResolver().getAllPaths(inputs);
+    switch (style) {
+      case NORMAL:
+        return ImmutableList.of(
+            new MkdirStep(output.getParent()),
+            new RmStep(output, /* shouldForceDeletion */ true),
+            new ArchiveStep(archiverCommand, "rcs", output, inputPaths),
+            new ArchiveScrubberStep(output));
+      case THIN:
+        return ImmutableList.of(
+            new MkdirStep(output.getParent()),
+            new RmStep(output, /* shouldForceDeletion */ true),
+            new ArchiveStep(archiverCommand, "qcsDT", output, inputPaths));
+      case INCREMENTAL:
+        return ImmutableList.of(
+            new MkdirStep(output.getParent()),
+            new IncrementalArchiveStep(archiverCommand, output, inputPaths));
+    }
+    throw new IllegalStateException(String.format("unexpected archive style: %s", style));
+  }
+
+  @Override
+  public CacheMode getCacheMode() {
+    return style == ArchiveStyle.THIN ? CacheMode.DISABLED : CacheMode.ENABLED;
   }
 
   @Override
@@ -30,14 +30,20 @@ import java.nio.file.Path;
 public class ArchiveStep extends ShellStep {
 
   private final ImmutableList<String> archiver;
+  private final String operation;
   private final Path output;
   private final ImmutableList<Path> inputs;
 
+  /**
+   * @param operation the operation and modifiers to run ar with, such as {@code rcs}.
+   */
   public ArchiveStep(
       ImmutableList<String> archiver,
+      String operation,
       Path output,
       ImmutableList<Path> inputs) {
     this.archiver = archiver;
+    this.operation = operation;
     this.output = output;
     this.inputs = inputs;
   }
@@ -46,7 +52,7 @@ public class ArchiveStep extends ShellStep {
   protected ImmutableList<String> getShellCommandInternal(ExecutionContext context) {
     return ImmutableList.<String>builder()
         .addAll(archiver)
-        .add("rcs")
+        .add(operation)
         .add(output.toString())
         .addAll(Iterables.transform(inputs, Functions.toStringFunction()))
         .build();
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+/**
+ * How static libraries are written.  All but {@link #NORMAL} need GNU ar.
+ */
+public enum ArchiveStyle {
+
+  /**
+   * Rebuilt from scratch with ar, and then scrubbed of the non-deterministic metadata ar puts in
+   * the header of each member.
+   */
+  NORMAL,
+
+  /**
+   * A thin archive, which only refers to its members where they already are, rather than copying
+   * them in, written with deterministic headers.  It's no use without its members, so it isn't
+   * cached.
+   */
+  THIN,
+
+  /**
+   * Kept between builds and written with deterministic headers, with only the members which have
+   * changed since the last build being replaced in it.
+   */
+  INCREMENTAL,
+
+}
@@ -61,6 +61,7 @@ public class Archives {
       BuildTarget target,
       BuildRuleParams originalParams,
       Tool archiver,
+      ArchiveStyle style,
       Path output,
       ImmutableList<SourcePath> inputs) {
 
@@ -80,6 +81,7 @@ public class Archives {
         archiveParams,
         resolver,
         archiver,
+        style,
         output,
         inputs);
   }
@@ -19,28 +19,114 @@ package com.facebook.buck.cxx;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Performs an in-place find-and-replace on {@link ByteBuffer} objects, where the replacements are
  * of equal length to what they're replacing.
+ * <p>
+ * All of the strings to find are looked for at once, in a single pass over the bytes of the
+ * buffer, using an Aho-Corasick automaton built when the replacer is constructed. Matches don't
+ * overlap: scanning starts again after each replacement, and where several strings end at the
+ * same place, the longest is replaced.
  */
 public class ByteBufferReplacer {
 
-  private final ImmutableMap<byte[], byte[]> replacements;
+  private static final int ALPHABET_SIZE = 256;
+
+  /**
+   * The automaton's transitions, indexed by {@code state * ALPHABET_SIZE + unsigned byte}. Every
+   * transition is filled in, so that scanning never needs to follow failure links.
+   */
+  private final int[] transitions;
+
+  /**
+   * For each state, the replacement for the longest string which ends there, or null.
+   */
+  private final byte[][] matches;
 
   public ByteBufferReplacer(ImmutableMap<byte[], byte[]> replacements) {
     for (Map.Entry<byte[], byte[]> entry : replacements.entrySet()) {
       Preconditions.checkArgument(entry.getKey().length == entry.getValue().length);
+      Preconditions.checkArgument(entry.getKey().length > 0);
+    }
+
+    // Build a trie of the strings to find, where missing transitions are -1.
+    List<int[]> states = Lists.newArrayList();
+    List<byte[]> stateMatches = Lists.newArrayList();
+    addState(states, stateMatches);
+    for (Map.Entry<byte[], byte[]> entry : replacements.entrySet()) {
+      int state = 0;
+      for (byte b : entry.getKey()) {
+        int c = b & 0xFF;
+        if (states.get(state)[c] < 0) {
+          states.get(state)[c] = addState(states, stateMatches);
+        }
+        state = states.get(state)[c];
+      }
+      if (stateMatches.get(state) == null) {
+        stateMatches.set(state, entry.getValue());
+      }
+    }
+
+    // Work out the failure links breadth first, so that the links of shallower states are known
+    // by the time they are needed, and use them to fill in the missing transitions.
+    int[] failures = new int[states.size()];
+    Deque<Integer> queue = new ArrayDeque<>();
+    int[] root = states.get(0);
+    for (int c = 0; c < ALPHABET_SIZE; c++) {
+      if (root[c] < 0) {
+        root[c] = 0;
+      } else {
+        failures[root[c]] = 0;
+        queue.add(root[c]);
+      }
     }
-    this.replacements = replacements;
+    while (!queue.isEmpty()) {
+      int state = queue.remove();
+      int[] next = states.get(state);
+      int[] failureNext = states.get(failures[state]);
+      // A string ending at a shorter suffix of this state also ends here.
+      if (stateMatches.get(state) == null) {
+        stateMatches.set(state, stateMatches.get(failures[state]));
+      }
+      for (int c = 0; c < ALPHABET_SIZE; c++) {
+        if (next[c] < 0) {
+          next[c] = failureNext[c];
+        } else {
+          failures[next[c]] = failureNext[c];
+          queue.add(next[c]);
+        }
+      }
+    }
+
+    this.transitions = new int[states.size() * ALPHABET_SIZE];
+    for (int state = 0; state < states.size(); state++) {
+      System.arraycopy(
+          states.get(state),
+          0,
+          transitions,
+          state * ALPHABET_SIZE,
+          ALPHABET_SIZE);
+    }
+    this.matches = stateMatches.toArray(new byte[stateMatches.size()][]);
+  }
+
+  private static int addState(List<int[]> states, List<byte[]> stateMatches) {
+    int[] next = new int[ALPHABET_SIZE];
+    Arrays.fill(next, -1);
+    states.add(next);
+    stateMatches.add(null);
+    return states.size() - 1;
   }
 
   private static byte[] getBytes(String str, Charset charset) {
@@ -96,25 +182,21 @@ public class ByteBufferReplacer {
    * @return the number of replacements that happened.
    */
   public int replace(ByteBuffer buffer, int maxReplacements) {
-    CharSequence charSequence = new ByteBufferCharSequence(buffer);
-    int position = buffer.position();
     int numReplacements = 0;
-
-    for (Map.Entry<byte[], byte[]> entry : replacements.entrySet()) {
-      byte[] value = entry.getValue();
-
-      // Since we can't use Pattern on a byte[], we need to convert our search byte array
-      // to a string.  To do this we use ISO-8859-1 since it maps 1-to-1 in 0-0xFF range.
-      Pattern pattern = Pattern.compile(
-          new String(entry.getKey(), Charsets.ISO_8859_1),
-          Pattern.LITERAL);
-      Matcher matcher = pattern.matcher(charSequence);
-
-      while (matcher.find() && (numReplacements < maxReplacements || maxReplacements == -1)) {
-        for (int i = 0; i < value.length; i++) {
-          buffer.put(position + matcher.start() + i, value[i]);
+    int state = 0;
+
+    for (int i = buffer.position();
+         i < buffer.limit() && (numReplacements < maxReplacements || maxReplacements == -1);
+         i++) {
+      state = transitions[state * ALPHABET_SIZE + (buffer.get(i) & 0xFF)];
+      byte[] value = matches[state];
+      if (value != null) {
+        int start = i - value.length + 1;
+        for (int j = 0; j < value.length; j++) {
+          buffer.put(start + j, value[j]);
         }
         numReplacements += 1;
+        state = 0;
       }
     }
 
@@ -125,38 +207,4 @@ public class ByteBufferReplacer {
     return replace(buffer, -1);
   }
 
-  /**
-   * Provides a {@link CharSequence} view of an underlying {@link ByteBuffer} using the ISO-8859-1
-   * character encoding.
-   */
-  private class ByteBufferCharSequence implements CharSequence {
-
-    private final ByteBuffer buffer;
-
-    public ByteBufferCharSequence(ByteBuffer buffer) {
-      this.buffer = buffer;
-    }
-
-    @Override
-    public int length() {
-      return buffer.remaining();
-    }
-
-    @Override
-    public char charAt(int index) {
-      // We convert from a byte to a char here just by casting.  This should be fine, since we're
-      // performing the search via the ISO-8859-1 charset above.
-      return (char) (0xFF & buffer.get(buffer.position() + index));
-    }
-
-    @Override
-    public CharSequence subSequence(int start, int end) {
-      ByteBuffer slice = buffer.duplicate();
-      slice.position(buffer.position() + start);
-      slice.limit(buffer.position() + end);
-      return new ByteBufferCharSequence(slice);
-    }
-
-  }
-
 }
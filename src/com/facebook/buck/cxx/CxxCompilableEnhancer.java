@@ -156,6 +156,9 @@ public class CxxCompilableEnhancer {
     // If a build rule generates our input source, add that as a dependency.
     dependencies.addAll(pathResolver.filterBuildRuleInputs(ImmutableList.of(source.getPath())));
 
+    // Likewise for the precompiled header it was preprocessed against.
+    dependencies.addAll(pathResolver.filterBuildRuleInputs(source.getPrecompiledHeader().asSet()));
+
     // Pick the compiler to use.  Basically, if we're dealing with C++ sources, use the C++
     // compiler, and the C compiler for everything.
     Tool compiler;
@@ -214,6 +217,8 @@ public class CxxCompilableEnhancer {
         args.build(),
         getCompileOutputPath(target, name),
         source.getPath(),
+        source.getPrecompiledHeader(),
+        platform.getSplitDwarf(),
         platform.getDebugPathSanitizer());
   }
 
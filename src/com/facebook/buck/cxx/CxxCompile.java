@@ -16,6 +16,7 @@
 
 package com.facebook.buck.cxx;
 
+import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.rules.AbstractBuildRule;
 import com.facebook.buck.rules.BuildContext;
 import com.facebook.buck.rules.BuildRuleParams;
@@ -23,27 +24,41 @@ import com.facebook.buck.rules.BuildableContext;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.rules.SupportsInputBasedRuleKey;
+import com.facebook.buck.step.AbstractExecutionStep;
+import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.fs.MkdirStep;
+import com.facebook.buck.step.fs.RmStep;
+import com.facebook.buck.util.HumanReadableException;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
 
+import java.io.IOException;
 import java.nio.file.Path;
 
 /**
  * A build rule which compiles and assembles a C/C++ source.
  * It supports the execution of one plugin during the compilation.
+ * <p>
+ * Like ccache, its output is also cached by the contents of the (sanitized) preprocessed source
+ * rather than by how it was preprocessed, so changes upstream which don't change the preprocessed
+ * text, such as to comments or unused macros, don't need it to be compiled again.
  */
-public class CxxCompile extends AbstractBuildRule {
+public class CxxCompile extends AbstractBuildRule implements SupportsInputBasedRuleKey {
 
   private final Tool compiler;
   private final Optional<Plugin> plugin;
   private final ImmutableList<String> flags;
   private final Path output;
   private final SourcePath input;
+  private final Optional<SourcePath> precompiledHeader;
+  private final boolean splitDwarf;
   private final Optional<DebugPathSanitizer> sanitizer;
+  private final ProjectFilesystem filesystem;
 
   public CxxCompile(
       BuildRuleParams params,
@@ -53,6 +68,8 @@ public class CxxCompile extends AbstractBuildRule {
       ImmutableList<String> flags,
       Path output,
       SourcePath input,
+      Optional<SourcePath> precompiledHeader,
+      boolean splitDwarf,
       Optional<DebugPathSanitizer> sanitizer) {
     super(params, resolver);
     this.compiler = compiler;
@@ -60,7 +77,10 @@ public class CxxCompile extends AbstractBuildRule {
     this.plugin = plugin;
     this.output = output;
     this.input = input;
+    this.precompiledHeader = precompiledHeader;
+    this.splitDwarf = splitDwarf;
     this.sanitizer = sanitizer;
+    this.filesystem = params.getProjectFilesystem();
   }
 
   @Override
@@ -73,7 +93,8 @@ public class CxxCompile extends AbstractBuildRule {
     builder
         .setReflectively("compiler", compiler)
         .setReflectively("flags", flags)
-        .setReflectively("output", output.toString());
+        .setReflectively("output", output.toString())
+        .setReflectively("splitDwarf", splitDwarf);
 
     if (sanitizer.isPresent()) {
       builder.setReflectively("compilationDirectory", sanitizer.get().getCompilationDirectory());
@@ -85,31 +106,100 @@ public class CxxCompile extends AbstractBuildRule {
       builder.setReflectively("plugin-" + p.getName() + "-flags", p.getFlags());
     }
 
+    if (precompiledHeader.isPresent()) {
+      builder.setReflectively("precompiledHeader", precompiledHeader.get());
+    }
+
     return builder;
   }
 
+  @Override
+  public RuleKey getInputBasedRuleKey() {
+    RuleKey.Builder builder = getRuleKeyBuilderFactory().newInstance(this, getResolver());
+    appendDetailsToRuleKey(builder);
+
+    // Hash the file directly, rather than through the file hash cache, as it's generated by a dep
+    // which may only just have been rebuilt.
+    hashContents(builder, "input", input);
+    if (precompiledHeader.isPresent()) {
+      // The preprocessed source doesn't include what came from the precompiled header.
+      hashContents(builder, "precompiledHeader", precompiledHeader.get());
+    }
+    return builder.build().getRuleKeyWithoutDeps();
+  }
+
+  private void hashContents(RuleKey.Builder builder, String key, SourcePath source) {
+    Path path = getResolver().getPath(source);
+    try {
+      builder.setReflectively(key, filesystem.computeSha1(path));
+    } catch (IOException e) {
+      throw new HumanReadableException(e, "Error hashing %s: %s", path, e.getMessage());
+    }
+  }
+
   @Override
   public ImmutableList<Step> getBuildSteps(
       BuildContext context,
       BuildableContext buildableContext) {
 
-    ImmutableList<String> allFlags =
-        plugin.isPresent() ?
-            ImmutableList.<String>builder()
-                .addAll(flags)
-                .addAll(plugin.get().flags)
-                .build()
-            : flags;
+    ImmutableList.Builder<String> allFlags = ImmutableList.<String>builder().addAll(flags);
+    if (plugin.isPresent()) {
+      allFlags.addAll(plugin.get().flags);
+    }
+    if (precompiledHeader.isPresent()) {
+      allFlags.addAll(
+          CxxPrecompiledHeader.getUseFlags(getResolver().getPath(precompiledHeader.get())));
+    }
 
     buildableContext.recordArtifact(output);
-    return ImmutableList.of(
-        new MkdirStep(output.getParent()),
+    if (splitDwarf) {
+      allFlags.add("-gsplit-dwarf");
+    }
+
+    ImmutableList.Builder<Step> steps = ImmutableList.builder();
+    steps.add(new MkdirStep(output.getParent()));
+    if (splitDwarf) {
+      // Don't let debug info from an earlier compile pass as this one's.
+      steps.add(new RmStep(getSplitDwarfOutput(output), /* shouldForceDeletion */ true));
+    }
+    steps.add(
         new CxxCompileStep(
             compiler.getCommandPrefix(getResolver()),
-            allFlags,
+            allFlags.build(),
             output,
             getResolver().getPath(input),
             sanitizer));
+    if (splitDwarf) {
+      steps.add(createRecordSplitDwarfOutputStep(buildableContext));
+    }
+    return steps.build();
+  }
+
+  /**
+   * The compiler writes the debug info next to the object, which is left with just enough to find
+   * it, so it's kept and cached along with it. There is only any debug info to split out when
+   * compiling with {@code -g}, though, so it's only recorded if it was written.
+   */
+  private Step createRecordSplitDwarfOutputStep(final BuildableContext buildableContext) {
+    final Path splitDwarfOutput = getSplitDwarfOutput(output);
+    return new AbstractExecutionStep("record_split_dwarf_output") {
+      @Override
+      public int execute(ExecutionContext context) {
+        if (context.getProjectFilesystem().exists(splitDwarfOutput)) {
+          buildableContext.recordArtifact(splitDwarfOutput);
+        }
+        return 0;
+      }
+    };
+  }
+
+  /**
+   * @return where the compiler writes the debug info split out of the given object, which is
+   *     named after it with its extension replaced.
+   */
+  public static Path getSplitDwarfOutput(Path output) {
+    return output.resolveSibling(
+        Files.getNameWithoutExtension(output.getFileName().toString()) + ".dwo");
   }
 
   @Override
@@ -137,6 +227,10 @@ public class CxxCompile extends AbstractBuildRule {
     return input;
   }
 
+  public Optional<SourcePath> getPrecompiledHeader() {
+    return precompiledHeader;
+  }
+
   public static class Plugin {
 
     private String name;
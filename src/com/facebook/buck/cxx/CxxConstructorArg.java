@@ -42,4 +42,5 @@ public class CxxConstructorArg {
   public Optional<ImmutableList<SourcePath>> yaccSrcs;
   public Optional<ImmutableSortedSet<BuildTarget>> deps;
   public Optional<String> headerNamespace;
+  public Optional<SourcePath> precompiledHeader;
 }
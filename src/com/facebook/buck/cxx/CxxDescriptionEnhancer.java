@@ -16,7 +16,9 @@
 
 package com.facebook.buck.cxx;
 
+import com.facebook.buck.graph.AbstractBreadthFirstTraversal;
 import com.facebook.buck.io.MorePaths;
+import com.facebook.buck.java.JavaNativeLinkable;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargets;
 import com.facebook.buck.model.Flavor;
@@ -47,10 +49,15 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
 import com.google.common.io.Files;
 
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -61,10 +68,15 @@ public class CxxDescriptionEnhancer {
   public static final Flavor SHARED_FLAVOR = ImmutableFlavor.of("shared");
 
   public static final Flavor CXX_LINK_BINARY_FLAVOR = ImmutableFlavor.of("binary");
+  public static final Flavor SHARED_LIBRARY_SYMLINK_TREE_FLAVOR =
+      ImmutableFlavor.of("shared-library-symlink-tree");
 
   public static final BuildRuleType LEX_TYPE = ImmutableBuildRuleType.of("lex");
   public static final BuildRuleType YACC_TYPE = ImmutableBuildRuleType.of("yacc");
 
+  private static final BuildRuleType SHARED_LIBRARY_SYMLINK_TREE_TYPE =
+      ImmutableBuildRuleType.of("shared_library_symlink_tree");
+
   private CxxDescriptionEnhancer() {}
 
   /**
@@ -336,20 +348,21 @@ public class CxxDescriptionEnhancer {
   public static SymlinkTree createHeaderSymlinkTreeBuildRule(
       BuildRuleParams params,
       BuildRuleResolver resolver,
-      Flavor platform,
+      CxxPlatform cxxPlatform,
       ImmutableMap<Path, SourcePath> headers) {
 
     // Setup the header and symlink tree rules
     BuildTarget headerSymlinkTreeTarget =
-        createHeaderSymlinkTreeTarget(params.getBuildTarget(), platform);
+        createHeaderSymlinkTreeTarget(params.getBuildTarget(), cxxPlatform.getFlavor());
     Path headerSymlinkTreeRoot =
-        getHeaderSymlinkTreePath(params.getBuildTarget(), platform);
+        getHeaderSymlinkTreePath(params.getBuildTarget(), cxxPlatform.getFlavor());
     final SymlinkTree headerSymlinkTree = CxxPreprocessables.createHeaderSymlinkTreeBuildRule(
         new SourcePathResolver(resolver),
         headerSymlinkTreeTarget,
         params,
         headerSymlinkTreeRoot,
-        headers);
+        headers,
+        cxxPlatform.getHeaderMode());
     resolver.addToIndex(headerSymlinkTree);
 
     return headerSymlinkTree;
@@ -469,11 +482,114 @@ public class CxxDescriptionEnhancer {
     return BuildTarget.builder(target).addFlavors(CXX_LINK_BINARY_FLAVOR).build();
   }
 
+  /**
+   * @return the {@link BuildTarget} to use for the {@link BuildRule} generating the
+   *    symlink tree of shared libraries a binary is linked against.
+   */
+  public static BuildTarget createSharedLibrarySymlinkTreeTarget(BuildTarget target) {
+    return BuildTarget
+        .builder(target)
+        .addFlavors(SHARED_LIBRARY_SYMLINK_TREE_FLAVOR)
+        .build();
+  }
+
+  /**
+   * @return the {@link Path} to use for the symlink tree of shared libraries.
+   */
+  public static Path getSharedLibrarySymlinkTreePath(BuildTarget target) {
+    return BuildTargets.getGenPath(
+        createSharedLibrarySymlinkTreeTarget(target),
+        "%s");
+  }
+
+  /**
+   * @return the shared libraries, keyed by soname, found by transitively traversing the
+   *     {@link NativeLinkable} deps of the given rules, i.e. those a binary linking them as
+   *     {@link Linker.LinkableDepType#SHARED} needs at runtime.
+   */
+  public static ImmutableSortedMap<String, SourcePath> getTransitiveSharedLibraries(
+      final CxxPlatform cxxPlatform,
+      Iterable<? extends BuildRule> deps) {
+    final Map<String, SourcePath> libraries = Maps.newTreeMap();
+    new AbstractBreadthFirstTraversal<BuildRule>(deps) {
+      @Override
+      public ImmutableSet<BuildRule> visit(BuildRule rule) {
+        if (!(rule instanceof NativeLinkable)) {
+          return ImmutableSet.of();
+        }
+        if (rule instanceof JavaNativeLinkable) {
+          for (Map.Entry<String, SourcePath> entry :
+               ((JavaNativeLinkable) rule).getSharedLibraries(cxxPlatform).entrySet()) {
+            SourcePath existing = libraries.put(entry.getKey(), entry.getValue());
+            if (existing != null && !existing.equals(entry.getValue())) {
+              throw new HumanReadableException(
+                  "%s: more than one shared library has the soname %s",
+                  rule.getBuildTarget(),
+                  entry.getKey());
+            }
+          }
+        }
+        return rule.getDeps();
+      }
+    }.start();
+    return ImmutableSortedMap.copyOf(libraries);
+  }
+
+  /**
+   * Creates the symlink tree, named by soname, of the shared libraries a binary linked with
+   * {@link Linker.LinkableDepType#SHARED} loads at runtime.  It's updated in place, so that
+   * only the links to libraries which have moved are touched when the binary is rebuilt.
+   */
+  public static SymlinkTree createSharedLibrarySymlinkTreeBuildRule(
+      BuildRuleParams params,
+      BuildRuleResolver resolver,
+      CxxPlatform cxxPlatform) {
+    ImmutableMap.Builder<Path, SourcePath> links = ImmutableMap.builder();
+    for (Map.Entry<String, SourcePath> entry :
+         getTransitiveSharedLibraries(cxxPlatform, params.getDeps()).entrySet()) {
+      links.put(Paths.get(entry.getKey()), entry.getValue());
+    }
+    SymlinkTree symlinkTree = new SymlinkTree(
+        params.copyWithChanges(
+            SHARED_LIBRARY_SYMLINK_TREE_TYPE,
+            createSharedLibrarySymlinkTreeTarget(params.getBuildTarget()),
+            // Symlink trees never need to depend on anything.
+            Suppliers.ofInstance(ImmutableSortedSet.<BuildRule>of()),
+            Suppliers.ofInstance(ImmutableSortedSet.<BuildRule>of())),
+        new SourcePathResolver(resolver),
+        getSharedLibrarySymlinkTreePath(params.getBuildTarget()),
+        links.build());
+    resolver.addToIndex(symlinkTree);
+    return symlinkTree;
+  }
+
+  /**
+   * Creates the rules to build a binary, statically linking in its deps.
+   */
   public static CxxLink createBuildRulesForCxxBinaryDescriptionArg(
       BuildRuleParams params,
       BuildRuleResolver resolver,
       CxxPlatform cxxPlatform,
       CxxBinaryDescription.Arg args) {
+    return createBuildRulesForCxxBinaryDescriptionArg(
+        params,
+        resolver,
+        cxxPlatform,
+        args,
+        Linker.LinkableDepType.STATIC);
+  }
+
+  /**
+   * Creates the rules to build a binary, linking in its deps according to {@code linkStyle}.
+   * When they're linked as shared libraries, the binary looks for them in the tree set up by
+   * {@link #createSharedLibrarySymlinkTreeBuildRule}, which is left to the caller to create.
+   */
+  public static CxxLink createBuildRulesForCxxBinaryDescriptionArg(
+      BuildRuleParams params,
+      BuildRuleResolver resolver,
+      CxxPlatform cxxPlatform,
+      CxxBinaryDescription.Arg args,
+      Linker.LinkableDepType linkStyle) {
 
     ImmutableMap<String, CxxSource> srcs = parseCxxSources(params, resolver, args);
     ImmutableMap<Path, SourcePath> headers = parseHeaders(params, resolver, args);
@@ -496,7 +612,7 @@ public class CxxDescriptionEnhancer {
     SymlinkTree headerSymlinkTree = createHeaderSymlinkTreeBuildRule(
         params,
         resolver,
-        cxxPlatform.getFlavor(),
+        cxxPlatform,
         ImmutableMap.<Path, SourcePath>builder()
             .putAll(headers)
             .putAll(lexYaccSources.getCxxHeaders())
@@ -517,6 +633,19 @@ public class CxxDescriptionEnhancer {
             .putAll(lexYaccSources.getCxxSources())
             .build();
 
+    if (args.precompiledHeader.isPresent()) {
+      sources =
+          CxxPreprocessables.addPrecompiledHeader(
+              params,
+              resolver,
+              cxxPlatform,
+              cxxPreprocessorInput,
+              args.compilerFlags.or(ImmutableList.<String>of()),
+              /* pic */ false,
+              args.precompiledHeader.get(),
+              sources);
+    }
+
     // Generate whatever rules are needed to preprocess all the input sources.
     ImmutableMap<String, CxxSource> preprocessed =
         CxxPreprocessables.createPreprocessBuildRules(
@@ -541,24 +670,31 @@ public class CxxDescriptionEnhancer {
     // Generate the final link rule.  We use the top-level target as the link rule's
     // target, so that it corresponds to the actual binary we build.
     Path output = getOutputPath(params.getBuildTarget());
+    ImmutableList.Builder<String> extraLdFlags = ImmutableList.<String>builder()
+        .addAll(args.linkerFlags.or(ImmutableList.<String>of()))
+        .addAll(
+            CxxDescriptionEnhancer.getPlatformFlags(
+                args.platformLinkerFlags.get(),
+                cxxPlatform.getFlavor().toString()));
+    if (linkStyle == Linker.LinkableDepType.SHARED) {
+      extraLdFlags.addAll(
+          cxxPlatform.getLd().origin(
+              output.getParent()
+                  .relativize(getSharedLibrarySymlinkTreePath(params.getBuildTarget()))
+                  .toString()));
+    }
     CxxLink cxxLink = CxxLinkableEnhancer.createCxxLinkableBuildRule(
         cxxPlatform,
         params,
         new SourcePathResolver(resolver),
         /* extraCxxLdFlags */ ImmutableList.<String>of(),
-        /* extraLdFlags */ ImmutableList.<String>builder()
-            .addAll(args.linkerFlags.or(ImmutableList.<String>of()))
-            .addAll(
-                CxxDescriptionEnhancer.getPlatformFlags(
-                    args.platformLinkerFlags.get(),
-                    cxxPlatform.getFlavor().toString()))
-            .build(),
+        extraLdFlags.build(),
         createCxxLinkTarget(params.getBuildTarget()),
         Linker.LinkType.EXECUTABLE,
         Optional.<String>absent(),
         output,
         objects,
-        Linker.LinkableDepType.STATIC,
+        linkStyle,
         params.getDeps());
     resolver.addToIndex(cxxLink);
 
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import com.facebook.buck.rules.BuildContext;
+import com.facebook.buck.rules.BuildRuleParams;
+import com.facebook.buck.rules.BuildableContext;
+import com.facebook.buck.rules.CacheMode;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.SourcePath;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.rules.SymlinkTree;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.fs.MkdirStep;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.nio.file.Path;
+
+/**
+ * Lays out the headers of a C/C++ rule as a single clang header map, rather than a tree of
+ * symlinks, for {@link HeaderMode#HEADER_MAP}.
+ * <p>
+ * It stands in for the header symlink tree, so its root is the header map itself, which goes on
+ * the include search path like the root of a tree would.  The header map maps straight to the
+ * headers, so the preprocessor sees their real paths, and there are no paths in a tree to
+ * replace in its output.  Unlike a symlink tree, it's a single file which only refers to the
+ * headers by their paths relative to the project root, so it's cached.
+ */
+public class CxxHeaderMap extends SymlinkTree {
+
+  private final Path output;
+
+  public CxxHeaderMap(
+      BuildRuleParams params,
+      SourcePathResolver resolver,
+      Path output,
+      ImmutableMap<Path, SourcePath> links) {
+    super(params, resolver, output, links);
+    this.output = output;
+  }
+
+  @Override
+  public ImmutableList<Step> getBuildSteps(
+      BuildContext context,
+      BuildableContext buildableContext) {
+    buildableContext.recordArtifact(output);
+    return ImmutableList.of(
+        new MkdirStep(output.getParent()),
+        new HeaderMapStep(output, getResolver().getMappedPaths(getLinks())));
+  }
+
+  @Override
+  public RuleKey.Builder appendDetailsToRuleKey(RuleKey.Builder builder) {
+    return super.appendDetailsToRuleKey(builder)
+        .setReflectively("headerMap", output.toString());
+  }
+
+  @Override
+  public Optional<Path> getRootOfSymlinksDirectory() {
+    return Optional.absent();
+  }
+
+  @Override
+  public ImmutableMap<Path, SourcePath> getFullLinks() {
+    return ImmutableMap.of();
+  }
+
+  @Override
+  public CacheMode getCacheMode() {
+    return CacheMode.ENABLED;
+  }
+
+  @Override
+  public Path getPathToOutputFile() {
+    return output;
+  }
+
+}
@@ -165,7 +165,8 @@ public class CxxLibraryDescription implements
         ImmutableMap.<Path, SourcePath>builder()
             .putAll(headers)
             .putAll(lexYaccSources.getCxxHeaders())
-            .build());
+            .build(),
+        cxxPlatform.getHeaderMode());
   }
 
   /**
@@ -221,6 +222,7 @@ public class CxxLibraryDescription implements
       ImmutableList<String> compilerFlags,
       ImmutableMap<String, CxxSource> sources,
       ImmutableList<Path> frameworkSearchPaths,
+      Optional<SourcePath> precompiledHeader,
       boolean pic) {
 
     CxxHeaderSourceSpec lexYaccSources =
@@ -259,6 +261,19 @@ public class CxxLibraryDescription implements
             .putAll(lexYaccSources.getCxxSources())
             .build();
 
+    if (precompiledHeader.isPresent()) {
+      allSources =
+          CxxPreprocessables.addPrecompiledHeader(
+              params,
+              ruleResolver,
+              cxxPlatform,
+              cxxPreprocessorInputFromDependencies,
+              compilerFlags,
+              pic,
+              precompiledHeader.get(),
+              allSources);
+    }
+
     ImmutableMap<String, CxxSource> preprocessed =
         CxxPreprocessables.createPreprocessBuildRules(
             params,
@@ -294,7 +309,8 @@ public class CxxLibraryDescription implements
       ImmutableMap<Path, SourcePath> headers,
       ImmutableList<String> compilerFlags,
       ImmutableMap<String, CxxSource> sources,
-      ImmutableList<Path> frameworkSearchPaths) {
+      ImmutableList<Path> frameworkSearchPaths,
+      Optional<SourcePath> precompiledHeader) {
 
     // Create rules for compiling the non-PIC object files.
     ImmutableList<SourcePath> objects = requireObjects(
@@ -309,6 +325,7 @@ public class CxxLibraryDescription implements
         compilerFlags,
         sources,
         frameworkSearchPaths,
+        precompiledHeader,
         /* pic */ false);
 
     // Write a build rule to create the archive for this C/C++ library.
@@ -325,6 +342,7 @@ public class CxxLibraryDescription implements
         staticTarget,
         params,
         cxxPlatform.getAr(),
+        cxxPlatform.getArchiveStyle(),
         staticLibraryPath,
         objects);
 
@@ -349,7 +367,8 @@ public class CxxLibraryDescription implements
       ImmutableMap<String, CxxSource> sources,
       ImmutableList<String> linkerFlags,
       ImmutableList<Path> frameworkSearchPaths,
-      Optional<String> soname) {
+      Optional<String> soname,
+      Optional<SourcePath> precompiledHeader) {
 
     // Create rules for compiling the PIC object files.
     ImmutableList<SourcePath> objects = requireObjects(
@@ -364,6 +383,7 @@ public class CxxLibraryDescription implements
         compilerFlags,
         sources,
         frameworkSearchPaths,
+        precompiledHeader,
         /* pic */ true);
 
     // Setup the rules to link the shared library.
@@ -417,6 +437,7 @@ public class CxxLibraryDescription implements
     arg.yaccSrcs = Optional.absent();
     arg.headerNamespace = Optional.absent();
     arg.soname = Optional.absent();
+    arg.precompiledHeader = Optional.absent();
     arg.frameworkSearchPaths = Optional.of(ImmutableList.<Path>of());
     return arg;
   }
@@ -467,7 +488,8 @@ public class CxxLibraryDescription implements
         CxxDescriptionEnhancer.parseHeaders(params, resolver, args),
         args.compilerFlags.or(ImmutableList.<String>of()),
         CxxDescriptionEnhancer.parseCxxSources(params, resolver, args),
-        args.frameworkSearchPaths.get());
+        args.frameworkSearchPaths.get(),
+        args.precompiledHeader);
   }
 
   /**
@@ -506,7 +528,8 @@ public class CxxLibraryDescription implements
                     cxxPlatform.getFlavor().toString()))
             .build(),
         args.frameworkSearchPaths.get(),
-        args.soname);
+        args.soname,
+        args.precompiledHeader);
   }
 
   @Value.Immutable
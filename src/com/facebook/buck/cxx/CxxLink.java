@@ -16,26 +16,33 @@
 
 package com.facebook.buck.cxx;
 
+import com.facebook.buck.rules.AbiRule;
 import com.facebook.buck.rules.AbstractBuildRule;
 import com.facebook.buck.rules.BuildContext;
+import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleParams;
 import com.facebook.buck.rules.BuildableContext;
 import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.Sha1HashCode;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.fs.MkdirStep;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
 import java.nio.file.Path;
 
-public class CxxLink extends AbstractBuildRule {
+public class CxxLink extends AbstractBuildRule implements AbiRule {
 
   private final Tool linker;
   private final Path output;
   private final ImmutableList<SourcePath> inputs;
   private final ImmutableList<String> args;
+  private final Optional<SourcePath> debugInfoObjcopy;
 
   public CxxLink(
       BuildRuleParams params,
@@ -43,12 +50,14 @@ public class CxxLink extends AbstractBuildRule {
       Tool linker,
       Path output,
       ImmutableList<SourcePath> inputs,
-      ImmutableList<String> args) {
+      ImmutableList<String> args,
+      Optional<SourcePath> debugInfoObjcopy) {
     super(params, resolver);
     this.linker = linker;
     this.output = output;
     this.inputs = inputs;
     this.args = args;
+    this.debugInfoObjcopy = debugInfoObjcopy;
   }
 
   @Override
@@ -58,22 +67,73 @@ public class CxxLink extends AbstractBuildRule {
 
   @Override
   protected RuleKey.Builder appendDetailsToRuleKey(RuleKey.Builder builder) {
-    return builder
+    builder
         .setReflectively("linker", linker)
         .setReflectively("output", output.toString())
         .setReflectively("args", args);
+    if (debugInfoObjcopy.isPresent()) {
+      builder.setReflectively("debugInfoObjcopy", debugInfoObjcopy.get());
+    }
+    return builder;
   }
 
   @Override
   public ImmutableList<Step> getBuildSteps(
       BuildContext context, BuildableContext buildableContext) {
     buildableContext.recordArtifact(output);
-    return ImmutableList.of(
+    ImmutableList.Builder<Step> steps = ImmutableList.builder();
+    steps.add(
         new MkdirStep(output.getParent()),
         new CxxLinkStep(
             linker.getCommandPrefix(getResolver()),
             output,
             args));
+
+    // Move the debug info out into a file of its own, and leave a link to it behind in the
+    // binary, which is how debuggers find it again.
+    if (debugInfoObjcopy.isPresent()) {
+      Path objcopy = getResolver().getPath(debugInfoObjcopy.get());
+      Path debugInfo = getDebugInfoOutput(output);
+      buildableContext.recordArtifact(debugInfo);
+      steps.add(
+          new ObjcopyStep(
+              objcopy,
+              ImmutableList.of("--only-keep-debug"),
+              output,
+              debugInfo),
+          new ObjcopyStep(
+              objcopy,
+              ImmutableList.of("--strip-debug", "--add-gnu-debuglink=" + debugInfo),
+              output,
+              output));
+    }
+
+    return steps.build();
+  }
+
+  /**
+   * The output of another link can only be linked against dynamically, in which case the output
+   * of this one just refers to its symbols by name.  So for those deps, only how they're linked
+   * is considered, rather than how their objects were built, and changing the implementation of
+   * a shared library doesn't relink everything which links against it.  Anything using its
+   * headers is still relinked when they change, as the objects built from them change too.
+   */
+  @Override
+  public Sha1HashCode getAbiKeyForDeps() {
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (BuildRule dep : getDeps()) {
+      RuleKey ruleKey = dep instanceof CxxLink ? dep.getRuleKeyWithoutDeps() : dep.getRuleKey();
+      hasher.putUnencodedChars(ruleKey.toString());
+      hasher.putByte((byte) 0);
+    }
+    return Sha1HashCode.fromHashCode(hasher.hash());
+  }
+
+  /**
+   * @return where the debug info moved out of the given binary is kept.
+   */
+  public static Path getDebugInfoOutput(Path output) {
+    return output.resolveSibling(output.getFileName() + ".debug");
   }
 
   @Override
@@ -137,7 +137,8 @@ public class CxxLinkableEnhancer {
         cxxPlatform.getCxxld(),
         output,
         allInputs,
-        args);
+        args,
+        cxxPlatform.getDebugInfoObjcopy());
   }
 
 }
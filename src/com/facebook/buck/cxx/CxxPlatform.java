@@ -63,6 +63,16 @@ public interface CxxPlatform {
   Tool getAr();
   List<String> getArflags();
 
+  ArchiveStyle getArchiveStyle();
+
+  HeaderMode getHeaderMode();
+
+  /**
+   * @return which compiler {@link #getCc()}, {@link #getCxx()}, {@link #getCpp()} and
+   *     {@link #getCxxpp()} all are.
+   */
+  CompilerType getCompilerType();
+
   Optional<SourcePath> getLex();
   List<String> getLexFlags();
 
@@ -73,4 +83,16 @@ public interface CxxPlatform {
 
   Optional<DebugPathSanitizer> getDebugPathSanitizer();
 
+  /**
+   * @return whether objects are compiled with their debug info split out into {@code .dwo} files
+   *     next to them, which the linker never has to read.
+   */
+  boolean getSplitDwarf();
+
+  /**
+   * @return the objcopy with which to move the debug info of linked binaries out into separate
+   *     files, or absent if it should be left in them.
+   */
+  Optional<SourcePath> getDebugInfoObjcopy();
+
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import com.facebook.buck.rules.AbstractBuildRule;
+import com.facebook.buck.rules.BuildContext;
+import com.facebook.buck.rules.BuildRuleParams;
+import com.facebook.buck.rules.BuildableContext;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.SourcePath;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.fs.MkdirStep;
+import com.google.common.base.Functions;
+import com.google.common.base.Optional;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Ordering;
+
+import java.nio.file.Path;
+
+/**
+ * A build rule which compiles a C/C++ header into a precompiled header, which the sources of the
+ * rule it belongs to are then preprocessed and compiled against with {@code -include-pch}.
+ * <p>
+ * It is built with the same flags as those sources, since a precompiled header can only be used
+ * by compiles with the same language options, and, like any other rule, is fetched from the
+ * {@link com.facebook.buck.rules.ArtifactCache} when its {@link RuleKey} matches.
+ */
+public class CxxPrecompiledHeader extends AbstractBuildRule {
+
+  private final Tool compiler;
+  private final ImmutableList<String> flags;
+  private final Path output;
+  private final SourcePath input;
+  private final CxxHeaders includes;
+
+  public CxxPrecompiledHeader(
+      BuildRuleParams params,
+      SourcePathResolver resolver,
+      Tool compiler,
+      ImmutableList<String> flags,
+      Path output,
+      SourcePath input,
+      CxxHeaders includes) {
+    super(params, resolver);
+    this.compiler = compiler;
+    this.flags = flags;
+    this.output = output;
+    this.input = input;
+    this.includes = includes;
+  }
+
+  @Override
+  protected ImmutableCollection<Path> getInputsToCompareToOutput() {
+    return getResolver().filterInputsToCompareToOutput(input);
+  }
+
+  @Override
+  protected RuleKey.Builder appendDetailsToRuleKey(RuleKey.Builder builder) {
+    builder
+        .setReflectively("compiler", compiler)
+        .setReflectively("flags", flags)
+        .setReflectively("output", output.toString())
+        .setReflectively(
+            "includes",
+            FluentIterable.from(includes.getNameToPathMap().keySet())
+                .transform(Functions.toStringFunction())
+                .toSortedSet(Ordering.natural()));
+
+    // Any of the headers visible to the precompiled header may end up in it.
+    for (Path path : ImmutableSortedSet.copyOf(includes.getNameToPathMap().keySet())) {
+      SourcePath source = includes.getNameToPathMap().get(path);
+      builder.setReflectively("include(" + path + ")", getResolver().getPath(source));
+    }
+
+    return builder;
+  }
+
+  @Override
+  public ImmutableList<Step> getBuildSteps(
+      BuildContext context,
+      BuildableContext buildableContext) {
+    buildableContext.recordArtifact(output);
+    return ImmutableList.of(
+        new MkdirStep(output.getParent()),
+        new CxxCompileStep(
+            compiler.getCommandPrefix(getResolver()),
+            flags,
+            output,
+            getResolver().getPath(input),
+            // The compilation directory is only patched into object files.
+            Optional.<DebugPathSanitizer>absent()));
+  }
+
+  /**
+   * @return the flags with which to preprocess or compile against the given precompiled header.
+   */
+  public static ImmutableList<String> getUseFlags(Path precompiledHeader) {
+    return ImmutableList.of(
+        "-include-pch",
+        precompiledHeader.toString(),
+        // Its headers are covered by its rule key instead, as the timestamps clang checks them
+        // against don't survive a trip through the cache.
+        "-Xclang",
+        "-fno-validate-pch");
+  }
+
+  @Override
+  public Path getPathToOutputFile() {
+    return output;
+  }
+
+  public ImmutableList<String> getFlags() {
+    return flags;
+  }
+
+  public SourcePath getInput() {
+    return input;
+  }
+
+}
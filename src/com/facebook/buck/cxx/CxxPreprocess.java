@@ -16,6 +16,7 @@
 
 package com.facebook.buck.cxx;
 
+import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.rules.AbstractBuildRule;
 import com.facebook.buck.rules.BuildContext;
 import com.facebook.buck.rules.BuildRuleParams;
@@ -23,8 +24,10 @@ import com.facebook.buck.rules.BuildableContext;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.rules.SupportsDependencyFileRuleKey;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.fs.MkdirStep;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Functions;
 import com.google.common.base.Optional;
 import com.google.common.collect.FluentIterable;
@@ -34,23 +37,31 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Ordering;
 
+import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
 import java.util.Map;
 
 /**
  * A build rule which preprocesses a C/C++ source.
+ * <p>
+ * Its {@link RuleKey} covers every header it could include, but the preprocessor also writes a
+ * dep file listing the ones it did include, so it is only rebuilt when those change.
  */
-public class CxxPreprocess extends AbstractBuildRule {
+public class CxxPreprocess extends AbstractBuildRule implements SupportsDependencyFileRuleKey {
 
   private final Tool preprocessor;
   private final ImmutableList<String> flags;
   private final Path output;
   private final SourcePath input;
+  private final Optional<SourcePath> precompiledHeader;
   private final ImmutableList<Path> includeRoots;
   private final ImmutableList<Path> systemIncludeRoots;
   private final ImmutableList<Path> frameworkRoots;
   private final CxxHeaders includes;
   private final Optional<DebugPathSanitizer> sanitizer;
+  private final ProjectFilesystem filesystem;
 
   public CxxPreprocess(
       BuildRuleParams params,
@@ -59,6 +70,7 @@ public class CxxPreprocess extends AbstractBuildRule {
       ImmutableList<String> flags,
       Path output,
       SourcePath input,
+      Optional<SourcePath> precompiledHeader,
       ImmutableList<Path> includeRoots,
       ImmutableList<Path> systemIncludeRoots,
       ImmutableList<Path> frameworkRoots,
@@ -69,11 +81,13 @@ public class CxxPreprocess extends AbstractBuildRule {
     this.flags = flags;
     this.output = output;
     this.input = input;
+    this.precompiledHeader = precompiledHeader;
     this.includeRoots = includeRoots;
     this.systemIncludeRoots = systemIncludeRoots;
     this.frameworkRoots = frameworkRoots;
     this.includes = includes;
     this.sanitizer = sanitizer;
+    this.filesystem = params.getProjectFilesystem();
   }
 
   @Override
@@ -83,6 +97,25 @@ public class CxxPreprocess extends AbstractBuildRule {
 
   @Override
   protected RuleKey.Builder appendDetailsToRuleKey(RuleKey.Builder builder) {
+    appendDetailsOtherThanHeaderContents(builder);
+
+    // Hash the layout of each potentially included C/C++ header file and it's contents.
+    // We do this here, rather than returning them from `getInputsToCompareToOutput` so
+    // that we can match the contents hash up with where it was laid out in the include
+    // search path, and therefore can accurately capture header file renames.
+    for (Path path : ImmutableSortedSet.copyOf(includes.getNameToPathMap().keySet())) {
+      SourcePath source = includes.getNameToPathMap().get(path);
+      builder.setReflectively("include(" + path + ")", getResolver().getPath(source));
+    }
+
+    if (precompiledHeader.isPresent()) {
+      builder.setReflectively("precompiledHeader", precompiledHeader.get());
+    }
+
+    return builder;
+  }
+
+  private RuleKey.Builder appendDetailsOtherThanHeaderContents(RuleKey.Builder builder) {
     builder
         .setReflectively("preprocessor", preprocessor)
         .setReflectively("output", output.toString());
@@ -97,14 +130,12 @@ public class CxxPreprocess extends AbstractBuildRule {
     }
     builder.setReflectively("flags", flags);
 
-    // Hash the layout of each potentially included C/C++ header file and it's contents.
-    // We do this here, rather than returning them from `getInputsToCompareToOutput` so
-    // that we can match the contents hash up with where it was laid out in the include
-    // search path, and therefore can accurately capture header file renames.
-    for (Path path : ImmutableSortedSet.copyOf(includes.getNameToPathMap().keySet())) {
-      SourcePath source = includes.getNameToPathMap().get(path);
-      builder.setReflectively("include(" + path + ")", getResolver().getPath(source));
-    }
+    // A new header can hide one that was used before, so the names of all of them still count.
+    builder.setReflectively(
+        "includes",
+        FluentIterable.from(includes.getNameToPathMap().keySet())
+            .transform(Functions.toStringFunction())
+            .toSortedSet(Ordering.natural()));
 
     builder.setReflectively(
         "frameworkRoots",
@@ -128,12 +159,22 @@ public class CxxPreprocess extends AbstractBuildRule {
     }
     ImmutableMap<Path, Path> replacementPaths = replacementPathsBuilder.build();
 
+    ImmutableList<String> allFlags = flags;
+    if (precompiledHeader.isPresent()) {
+      allFlags = ImmutableList.<String>builder()
+          .addAll(flags)
+          .addAll(
+              CxxPrecompiledHeader.getUseFlags(getResolver().getPath(precompiledHeader.get())))
+          .build();
+    }
+
     return ImmutableList.of(
         new MkdirStep(output.getParent()),
         new CxxPreprocessStep(
             preprocessor.getCommandPrefix(getResolver()),
-            flags,
+            allFlags,
             output,
+            Optional.of(getDepFile()),
             getResolver().getPath(input),
             includeRoots,
             systemIncludeRoots,
@@ -142,6 +183,109 @@ public class CxxPreprocess extends AbstractBuildRule {
             sanitizer));
   }
 
+  @Override
+  public Optional<RuleKey> getDependencyFileRuleKey(ImmutableList<Path> inputs) {
+    for (Path path : inputs) {
+      if (!filesystem.isFile(path)) {
+        return Optional.absent();
+      }
+    }
+    RuleKey.Builder builder = getRuleKeyBuilderFactory().newInstance(this, getResolver())
+        .setReflectively("buck.inputs", getInputs().iterator());
+    appendDetailsOtherThanHeaderContents(builder)
+        .setReflectively("buck.dep_file_inputs", inputs.iterator());
+    // With a header map, the dep file lists the headers themselves rather than the names they
+    // were found by, so which header each name leads to has to be covered too.
+    for (Path path : ImmutableSortedSet.copyOf(includes.getNameToPathMap().keySet())) {
+      SourcePath source = includes.getNameToPathMap().get(path);
+      builder.setReflectively(
+          "includeLayout(" + path + ")",
+          getResolver().getPath(source).toString());
+    }
+    if (precompiledHeader.isPresent()) {
+      // Its rule key covers every header it could have used, so go by its contents instead.
+      Path path = getResolver().getPath(precompiledHeader.get());
+      try {
+        builder.setReflectively("precompiledHeader", filesystem.computeSha1(path));
+      } catch (IOException e) {
+        return Optional.absent();
+      }
+    }
+    // The contents of the headers the deps provide are already covered.
+    return Optional.of(builder.build().getRuleKeyWithoutDeps());
+  }
+
+  @Override
+  public ImmutableList<Path> getInputsAfterBuildingLocally() throws IOException {
+    Path root = filesystem.getRootPath().toAbsolutePath().normalize();
+    ImmutableSortedSet.Builder<Path> inputs = ImmutableSortedSet.naturalOrder();
+    for (String dep : parseDepFile(filesystem.readLines(getDepFile()))) {
+      Path path = Paths.get(dep).normalize();
+      if (path.isAbsolute()) {
+        // Headers from outside the project, such as the system headers, come with the toolchain.
+        if (!path.startsWith(root)) {
+          continue;
+        }
+        path = root.relativize(path);
+      }
+      inputs.add(path);
+    }
+    return inputs.build().asList();
+  }
+
+  private Path getDepFile() {
+    return output.resolveSibling(output.getFileName() + ".dep");
+  }
+
+  /**
+   * @return the prerequisites listed in a dep file written by the preprocessor, which is a
+   *     makefile rule with a single target.
+   */
+  @VisibleForTesting
+  static ImmutableList<String> parseDepFile(List<String> lines) {
+    ImmutableList.Builder<String> prerequisites = ImmutableList.builder();
+    StringBuilder token = new StringBuilder();
+    boolean seenTarget = false;
+    for (String line : lines) {
+      for (int i = 0; i < line.length(); i++) {
+        char c = line.charAt(i);
+        if (c == '\\' && i + 1 < line.length() && " #".indexOf(line.charAt(i + 1)) != -1) {
+          // An escaped space or hash, both of which turn up in the paths of header symlink trees.
+          token.append(line.charAt(i + 1));
+          i++;
+        } else if (c == '$' && i + 1 < line.length() && line.charAt(i + 1) == '$') {
+          token.append('$');
+          i++;
+        } else if (c == '\\' && i + 1 == line.length()) {
+          // A line continuation.
+          break;
+        } else if (Character.isWhitespace(c)) {
+          seenTarget = endToken(token, seenTarget, prerequisites);
+        } else {
+          token.append(c);
+        }
+      }
+      seenTarget = endToken(token, seenTarget, prerequisites);
+    }
+    return prerequisites.build();
+  }
+
+  private static boolean endToken(
+      StringBuilder token,
+      boolean seenTarget,
+      ImmutableList.Builder<String> prerequisites) {
+    if (token.length() == 0) {
+      return seenTarget;
+    }
+    String value = token.toString();
+    token.setLength(0);
+    if (seenTarget) {
+      prerequisites.add(value);
+      return true;
+    }
+    return value.endsWith(":");
+  }
+
   @Override
   public Path getPathToOutputFile() {
     return output;
@@ -38,8 +38,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * A step that preprocesses C/C++ sources.
@@ -49,6 +47,7 @@ public class CxxPreprocessStep implements Step {
   private final ImmutableList<String> preprocessor;
   private final ImmutableList<String> flags;
   private final Path output;
+  private final Optional<Path> depFile;
   private final Path input;
   private final ImmutableList<Path> includes;
   private final ImmutableList<Path> systemIncludes;
@@ -60,6 +59,7 @@ public class CxxPreprocessStep implements Step {
       ImmutableList<String> preprocessor,
       ImmutableList<String> flags,
       Path output,
+      Optional<Path> depFile,
       Path input,
       ImmutableList<Path> includes,
       ImmutableList<Path> systemIncludes,
@@ -69,6 +69,7 @@ public class CxxPreprocessStep implements Step {
     this.preprocessor = preprocessor;
     this.flags = flags;
     this.output = output;
+    this.depFile = depFile;
     this.input = input;
     this.includes = includes;
     this.systemIncludes = systemIncludes;
@@ -84,9 +85,15 @@ public class CxxPreprocessStep implements Step {
 
   @VisibleForTesting
   protected ImmutableList<String> getCommand() {
+    ImmutableList.Builder<String> depFileArgs = ImmutableList.builder();
+    if (depFile.isPresent()) {
+      // List the headers which were included, as a side effect of preprocessing.
+      depFileArgs.add("-MD", "-MF", depFile.get().toString());
+    }
     return ImmutableList.<String>builder()
         .addAll(preprocessor)
         .add("-E")
+        .addAll(depFileArgs.build())
         .addAll(flags)
         .addAll(
             MoreIterables.zipAndConcat(
@@ -104,44 +111,30 @@ public class CxxPreprocessStep implements Step {
         .build();
   }
 
+  /**
+   * @return a function which rewrites the path in a line marker, to point to the original headers
+   *     rather than the symlinks to them, and to sanitize it.
+   */
   @VisibleForTesting
-  protected static Function<String, String> createOutputLineProcessor(
+  protected static Function<String, String> createLineMarkerPathProcessor(
       final Path workingDir,
       final ImmutableMap<Path, Path> replacementPaths,
       final Optional<DebugPathSanitizer> sanitizer) {
 
     return new Function<String, String>() {
-
-      private final Pattern lineMarkers =
-          Pattern.compile("^# (?<num>\\d+) \"(?<path>[^\"]+)\"(?<rest>.*)?$");
-
       @Override
-      public String apply(String line) {
-        if (line.startsWith("# ")) {
-          Matcher m = lineMarkers.matcher(line);
-          if (m.find()) {
-            String originalPath = m.group("path");
-            String replacementPath = originalPath;
-
-            replacementPath = Optional
-                .fromNullable(replacementPaths.get(Paths.get(replacementPath)))
-                .transform(Functions.toStringFunction())
-                .or(replacementPath);
-
-            if (sanitizer.isPresent()) {
-              replacementPath = sanitizer.get().sanitize(Optional.of(workingDir), replacementPath);
-            }
-
-            if (!originalPath.equals(replacementPath)) {
-              String num = m.group("num");
-              String rest = m.group("rest");
-              return "# " + num + " \"" + replacementPath + "\"" + rest;
-            }
-          }
+      public String apply(String originalPath) {
+        String replacementPath = Optional
+            .fromNullable(replacementPaths.get(Paths.get(originalPath)))
+            .transform(Functions.toStringFunction())
+            .or(originalPath);
+
+        if (sanitizer.isPresent()) {
+          replacementPath = sanitizer.get().sanitize(Optional.of(workingDir), replacementPath);
         }
-        return line;
-      }
 
+        return replacementPath;
+      }
     };
   }
 
@@ -180,11 +173,11 @@ public class CxxPreprocessStep implements Step {
       // Open the temp file to write the intermediate output to and also fire up managed threads
       // to process the stdout and stderr lines from the preprocess command.
       try (OutputStream output = Files.newOutputStream(outputTempPath);
-           FunctionLineProcessorThread outputProcessor =
-               new FunctionLineProcessorThread(
+           LineMarkerRewritingThread outputProcessor =
+               new LineMarkerRewritingThread(
                    process.getInputStream(),
                    output,
-                   createOutputLineProcessor(
+                   createLineMarkerPathProcessor(
                        context.getProjectDirectoryRoot(),
                        replacementPaths,
                        sanitizer));
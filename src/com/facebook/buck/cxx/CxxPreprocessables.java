@@ -31,6 +31,9 @@ import com.facebook.buck.rules.ImmutableBuildRuleType;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.rules.SymlinkTree;
+import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.MoreIterables;
+import com.google.common.base.Functions;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
@@ -39,6 +42,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 
 import java.nio.file.Path;
@@ -53,6 +57,18 @@ public class CxxPreprocessables {
       ImmutableBuildRuleType.of("header_symlink_tree");
 
   private static final BuildRuleType PREPROCESS_TYPE = ImmutableBuildRuleType.of("preprocess");
+  private static final BuildRuleType PRECOMPILED_HEADER_TYPE =
+      ImmutableBuildRuleType.of("precompiled_header");
+
+  /**
+   * The types of source which can be preprocessed and compiled against a precompiled header.
+   */
+  private static final ImmutableSet<CxxSource.Type> PRECOMPILED_HEADER_LANGUAGES =
+      ImmutableSet.of(
+          CxxSource.Type.C,
+          CxxSource.Type.CXX,
+          CxxSource.Type.OBJC,
+          CxxSource.Type.OBJCXX);
 
   /**
    * Resolve the map of name to {@link SourcePath} to a map of full header name to
@@ -120,24 +136,38 @@ public class CxxPreprocessables {
    * Build the {@link SymlinkTree} rule using the original build params from a target node.
    * In particular, make sure to drop all dependencies from the original build rule params,
    * as these are modeled via {@link CxxCompile}.
+   * <p>
+   * With {@link HeaderMode#HEADER_MAP}, this is a {@link CxxHeaderMap} written next to where the
+   * root of the tree would be.
    */
   public static SymlinkTree createHeaderSymlinkTreeBuildRule(
       SourcePathResolver resolver,
       BuildTarget target,
       BuildRuleParams params,
       Path root,
-      ImmutableMap<Path, SourcePath> links) {
+      ImmutableMap<Path, SourcePath> links,
+      HeaderMode mode) {
 
-    return new SymlinkTree(
+    BuildRuleParams symlinkTreeParams =
         params.copyWithChanges(
             HEADER_SYMLINK_TREE_TYPE,
             target,
             // Symlink trees never need to depend on anything.
             Suppliers.ofInstance(ImmutableSortedSet.<BuildRule>of()),
-            Suppliers.ofInstance(ImmutableSortedSet.<BuildRule>of())),
-        resolver,
-        root,
-        links);
+            Suppliers.ofInstance(ImmutableSortedSet.<BuildRule>of()));
+
+    switch (mode) {
+      case SYMLINK_TREE:
+        return new SymlinkTree(symlinkTreeParams, resolver, root, links);
+      case HEADER_MAP:
+        return new CxxHeaderMap(
+            symlinkTreeParams,
+            resolver,
+            root.resolveSibling(root.getFileName() + ".hmap"),
+            links);
+    }
+
+    throw new IllegalStateException();
   }
 
   /**
@@ -224,6 +254,9 @@ public class CxxPreprocessables {
     // If a build rule generates our input source, add that as a dependency.
     dependencies.addAll(pathResolver.filterBuildRuleInputs(ImmutableList.of(source.getPath())));
 
+    // Likewise for the precompiled header to preprocess it against.
+    dependencies.addAll(pathResolver.filterBuildRuleInputs(source.getPrecompiledHeader().asSet()));
+
     // Depend on the rule that generates the sources and headers we're compiling.
     dependencies.addAll(
         pathResolver.filterBuildRuleInputs(
@@ -315,6 +348,7 @@ public class CxxPreprocessables {
         args.build(),
         getPreprocessOutputPath(target, source.getType(), name),
         source.getPath(),
+        source.getPrecompiledHeader(),
         ImmutableList.copyOf(preprocessorInput.getIncludeRoots()),
         ImmutableList.copyOf(preprocessorInput.getSystemIncludeRoots()),
         ImmutableList.copyOf(preprocessorInput.getFrameworkRoots()),
@@ -325,9 +359,212 @@ public class CxxPreprocessables {
     // Return the output name and source pair.
     return new AbstractMap.SimpleEntry<String, CxxSource>(
         name,
-        ImmutableCxxSource.of(
-            outputType,
-            new BuildTargetSourcePath(cxxPreprocess.getBuildTarget())));
+        ImmutableCxxSource.builder()
+            .setType(outputType)
+            .setPath(new BuildTargetSourcePath(cxxPreprocess.getBuildTarget()))
+            .setPrecompiledHeader(source.getPrecompiledHeader())
+            .build());
+  }
+
+  /**
+   * @return a {@link BuildTarget} used for the rule that precompiles the header used by sources
+   *     of the given type.
+   */
+  public static BuildTarget createPrecompiledHeaderBuildTarget(
+      BuildTarget target,
+      Flavor platform,
+      CxxSource.Type type,
+      boolean pic) {
+    return BuildTarget
+        .builder(target)
+        .addFlavors(platform)
+        .addFlavors(
+            ImmutableFlavor.of(
+                String.format(
+                    "precompiled-header-%s%s",
+                    pic ? "pic-" : "",
+                    type.toString().toLowerCase())))
+        .build();
+  }
+
+  /**
+   * Generate the build rule that precompiles the given header for sources of the given type,
+   * with the same preprocessor and compiler flags as those sources.
+   */
+  public static CxxPrecompiledHeader createPrecompiledHeaderBuildRule(
+      BuildRuleParams params,
+      BuildRuleResolver resolver,
+      CxxPlatform cxxPlatform,
+      CxxPreprocessorInput preprocessorInput,
+      ImmutableList<String> compilerFlags,
+      boolean pic,
+      CxxSource.Type type,
+      SourcePath header) {
+
+    SourcePathResolver pathResolver = new SourcePathResolver(resolver);
+
+    ImmutableSortedSet.Builder<BuildRule> dependencies = ImmutableSortedSet.naturalOrder();
+    dependencies.addAll(
+        pathResolver.filterBuildRuleInputs(
+            ImmutableList.<SourcePath>builder()
+                .add(header)
+                .addAll(preprocessorInput.getIncludes().getNameToPathMap().values())
+                .build()));
+    dependencies.addAll(
+        BuildRules.toBuildRulesFor(
+            params.getBuildTarget(),
+            resolver,
+            preprocessorInput.getRules(),
+            false));
+
+    Tool compiler;
+    ImmutableList.Builder<String> args = ImmutableList.builder();
+    args.add("-x", type.getLanguage() + "-header");
+
+    // These match the flags used to preprocess and then compile sources of this type, as a
+    // precompiled header can't be used with different language options.
+    switch (type) {
+      case C:
+        compiler = cxxPlatform.getCc();
+        args.addAll(cxxPlatform.getCppflags());
+        args.addAll(preprocessorInput.getPreprocessorFlags().get(type));
+        args.addAll(cxxPlatform.getCflags());
+        args.addAll(compilerFlags);
+        break;
+      case CXX:
+        compiler = cxxPlatform.getCxx();
+        args.addAll(cxxPlatform.getCxxppflags());
+        args.addAll(preprocessorInput.getPreprocessorFlags().get(type));
+        args.addAll(cxxPlatform.getCxxflags());
+        args.addAll(compilerFlags);
+        break;
+      case OBJC:
+        compiler = cxxPlatform.getCc();
+        args.addAll(cxxPlatform.getCppflags());
+        args.addAll(preprocessorInput.getPreprocessorFlags().get(type));
+        args.addAll(cxxPlatform.getCflags());
+        break;
+      case OBJCXX:
+        compiler = cxxPlatform.getCxx();
+        args.addAll(cxxPlatform.getCxxppflags());
+        args.addAll(preprocessorInput.getPreprocessorFlags().get(type));
+        args.addAll(cxxPlatform.getCxxflags());
+        break;
+      // $CASES-OMITTED$
+      default:
+        throw new IllegalStateException(String.format("unexpected type: %s", type));
+    }
+
+    dependencies.addAll(compiler.getBuildRules(pathResolver));
+
+    if (pic) {
+      args.add("-fPIC");
+    }
+
+    args.addAll(
+        MoreIterables.zipAndConcat(
+            Iterables.cycle("-I"),
+            Iterables.transform(
+                preprocessorInput.getIncludeRoots(),
+                Functions.toStringFunction())));
+    args.addAll(
+        MoreIterables.zipAndConcat(
+            Iterables.cycle("-isystem"),
+            Iterables.transform(
+                preprocessorInput.getSystemIncludeRoots(),
+                Functions.toStringFunction())));
+    args.addAll(
+        MoreIterables.zipAndConcat(
+            Iterables.cycle("-F"),
+            Iterables.transform(
+                preprocessorInput.getFrameworkRoots(),
+                Functions.toStringFunction())));
+
+    BuildTarget target =
+        createPrecompiledHeaderBuildTarget(
+            params.getBuildTarget(),
+            cxxPlatform.getFlavor(),
+            type,
+            pic);
+    return new CxxPrecompiledHeader(
+        params.copyWithChanges(
+            PRECOMPILED_HEADER_TYPE,
+            target,
+            Suppliers.ofInstance(dependencies.build()),
+            Suppliers.ofInstance(ImmutableSortedSet.<BuildRule>of())),
+        pathResolver,
+        compiler,
+        args.build(),
+        BuildTargets.getBinPath(target, "%s")
+            .resolve(pathResolver.getPath(header).getFileName() + ".pch"),
+        header,
+        preprocessorInput.getIncludes());
+  }
+
+  /**
+   * Generate the rules which precompile the given header for the languages of the given sources,
+   * reusing any which already exist.
+   *
+   * @return the sources, with those which can use a precompiled header set up to use one.
+   */
+  public static ImmutableMap<String, CxxSource> addPrecompiledHeader(
+      BuildRuleParams params,
+      BuildRuleResolver resolver,
+      CxxPlatform cxxPlatform,
+      CxxPreprocessorInput preprocessorInput,
+      ImmutableList<String> compilerFlags,
+      boolean pic,
+      SourcePath header,
+      ImmutableMap<String, CxxSource> sources) {
+
+    // Sources are preprocessed and compiled separately, and only clang can use a precompiled
+    // header for both.
+    if (cxxPlatform.getCompilerType() != CompilerType.CLANG) {
+      throw new HumanReadableException(
+          "%s: precompiled_header needs clang, but the compilers of platform %s are %s.",
+          params.getBuildTarget(),
+          cxxPlatform.getFlavor(),
+          cxxPlatform.getCompilerType().toString().toLowerCase());
+    }
+
+    ImmutableMap.Builder<String, CxxSource> withPrecompiledHeader = ImmutableMap.builder();
+
+    for (Map.Entry<String, CxxSource> entry : sources.entrySet()) {
+      CxxSource source = entry.getValue();
+      if (!PRECOMPILED_HEADER_LANGUAGES.contains(source.getType())) {
+        withPrecompiledHeader.put(entry);
+        continue;
+      }
+
+      BuildTarget target =
+          createPrecompiledHeaderBuildTarget(
+              params.getBuildTarget(),
+              cxxPlatform.getFlavor(),
+              source.getType(),
+              pic);
+      if (!resolver.getRuleOptional(target).isPresent()) {
+        resolver.addToIndex(
+            createPrecompiledHeaderBuildRule(
+                params,
+                resolver,
+                cxxPlatform,
+                preprocessorInput,
+                compilerFlags,
+                pic,
+                source.getType(),
+                header));
+      }
+
+      withPrecompiledHeader.put(
+          entry.getKey(),
+          ImmutableCxxSource.builder()
+              .setType(source.getType())
+              .setPath(source.getPath())
+              .setPrecompiledHeader(new BuildTargetSourcePath(target))
+              .build());
+    }
+
+    return withPrecompiledHeader.build();
   }
 
   /**
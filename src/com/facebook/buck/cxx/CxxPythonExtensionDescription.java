@@ -125,7 +125,7 @@ public class CxxPythonExtensionDescription implements
     SymlinkTree headerSymlinkTree = CxxDescriptionEnhancer.createHeaderSymlinkTreeBuildRule(
         params,
         ruleResolver,
-        cxxPlatform.getFlavor(),
+        cxxPlatform,
         ImmutableMap.<Path, SourcePath>builder()
             .putAll(headers)
             .putAll(lexYaccSources.getCxxHeaders())
@@ -145,6 +145,19 @@ public class CxxPythonExtensionDescription implements
             .putAll(lexYaccSources.getCxxSources())
             .build();
 
+    if (args.precompiledHeader.isPresent()) {
+      allSources =
+          CxxPreprocessables.addPrecompiledHeader(
+              params,
+              ruleResolver,
+              cxxPlatform,
+              cxxPreprocessorInput,
+              args.compilerFlags.or(ImmutableList.<String>of()),
+              /* pic */ true,
+              args.precompiledHeader.get(),
+              allSources);
+    }
+
     ImmutableMap<String, CxxSource> preprocessed =
         CxxPreprocessables.createPreprocessBuildRules(
             params,
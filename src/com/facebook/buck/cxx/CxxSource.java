@@ -79,4 +79,10 @@ public abstract class CxxSource {
   @Value.Parameter
   public abstract SourcePath getPath();
 
+  /**
+   * @return the precompiled header this source was preprocessed against, which it must also be
+   *     compiled with.
+   */
+  public abstract Optional<SourcePath> getPrecompiledHeader();
+
 }
@@ -46,6 +46,7 @@ public class CxxTestDescription implements
 
   private static final BuildRuleType TYPE = ImmutableBuildRuleType.of("cxx_test");
   private static final CxxTestType DEFAULT_TEST_TYPE = CxxTestType.GTEST;
+  private static final Linker.LinkableDepType DEFAULT_LINK_STYLE = Linker.LinkableDepType.STATIC;
 
   private final CxxBuckConfig cxxBuckConfig;
   private final CxxPlatform defaultCxxPlatform;
@@ -88,21 +89,34 @@ public class CxxTestDescription implements
     }
 
     // Generate the link rule that builds the test binary.
+    Linker.LinkableDepType linkStyle = args.linkStyle.or(DEFAULT_LINK_STYLE);
     CxxLink cxxLink = CxxDescriptionEnhancer.createBuildRulesForCxxBinaryDescriptionArg(
         params,
         resolver,
         cxxPlatform,
-        args);
+        args,
+        linkStyle);
 
     // Construct the actual build params we'll use, notably with an added dependency on the
     // CxxLink rule above which builds the test binary.
+    ImmutableSortedSet.Builder<BuildRule> testDeps =
+        ImmutableSortedSet.<BuildRule>naturalOrder()
+            .addAll(params.getDeclaredDeps())
+            .add(cxxLink);
+
+    // When linked against its deps as shared libraries, the test binary also needs the tree
+    // through which it finds them at runtime.
+    if (linkStyle == Linker.LinkableDepType.SHARED) {
+      testDeps.add(
+          CxxDescriptionEnhancer.createSharedLibrarySymlinkTreeBuildRule(
+              params,
+              resolver,
+              cxxPlatform));
+    }
+
     BuildRuleParams testParams =
         params.copyWithDeps(
-            Suppliers.ofInstance(
-                ImmutableSortedSet.<BuildRule>naturalOrder()
-                    .addAll(params.getDeclaredDeps())
-                    .add(cxxLink)
-                    .build()),
+            Suppliers.ofInstance(testDeps.build()),
             Suppliers.ofInstance(params.getExtraDeps()));
 
     CxxTest test;
@@ -194,6 +208,7 @@ public class CxxTestDescription implements
     public Optional<ImmutableSet<Label>> labels;
     public Optional<ImmutableSortedSet<BuildTarget>> sourceUnderTest;
     public Optional<CxxTestType> framework;
+    public Optional<Linker.LinkableDepType> linkStyle;
 
     @Override
     public ImmutableSortedSet<BuildTarget> getSourceUnderTest() {
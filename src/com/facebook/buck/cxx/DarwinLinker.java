@@ -39,9 +39,19 @@ public class DarwinLinker implements Linker {
     return ImmutableList.of("-force_load", arg);
   }
 
+  /**
+   * Libraries are named relative to the run path of whatever loads them, so that a binary finds
+   * them through the {@link #origin} it was linked with.  A bare name would be looked up in the
+   * working directory instead.
+   */
   @Override
   public Iterable<String> soname(String arg) {
-    return ImmutableList.of("-install_name", arg);
+    return ImmutableList.of("-install_name", "@rpath/" + arg);
+  }
+
+  @Override
+  public Iterable<String> origin(String dir) {
+    return ImmutableList.of("-rpath", "@executable_path/" + dir);
   }
 
 }
@@ -27,6 +27,9 @@ import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableMap;
 
@@ -53,6 +56,20 @@ public class DebugPathSanitizer {
   private final Path compilationDirectory;
   private final ImmutableBiMap<Path, Path> other;
 
+  /**
+   * Replacers for each working directory, as building one is much more expensive than running it
+   * over an object file.
+   */
+  private final LoadingCache<Path, ByteBufferReplacer> compilationDirectoryReplacers =
+      CacheBuilder.newBuilder()
+          .build(
+              new CacheLoader<Path, ByteBufferReplacer>() {
+                @Override
+                public ByteBufferReplacer load(Path workingDir) {
+                  return getCompilationDirectoryReplacer(workingDir);
+                }
+              });
+
   /**
    * @param pathSize fix paths to this size for in-place replacements.
    * @param separator the path separator used to fill paths aren't of {@code pathSize} length.
@@ -212,7 +229,7 @@ public class DebugPathSanitizer {
   // Construct the replacer, giving the expanded current directory and the desired directory.
   // We use ASCII, since all the relevant debug standards we care about (e.g. DWARF) use it.
   public void restoreCompilationDirectory(Path path, Path workingDir) throws IOException {
-    restore(path, getCompilationDirectoryReplacer(workingDir));
+    restore(path, compilationDirectoryReplacers.getUnchecked(workingDir));
   }
 
 }
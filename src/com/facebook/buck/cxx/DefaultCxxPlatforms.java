@@ -81,6 +81,8 @@ public class DefaultCxxPlatforms {
   private static final Path DEFAULT_YACC = Paths.get("/usr/bin/bison");
   private static final ImmutableList<String> DEFAULT_YACC_FLAGS = ImmutableList.of("-y");
 
+  private static final Path DEFAULT_OBJCOPY = Paths.get("/usr/bin/objcopy");
+
   private static final Optional<DebugPathSanitizer> DEBUG_PATH_SANITIZER =
       Optional.of(
           new DebugPathSanitizer(
@@ -94,6 +96,16 @@ public class DefaultCxxPlatforms {
   }
 
   public static CxxPlatform build(Platform platform, BuckConfig delegate) {
+    CompilerType compilerType = getCompilerType(platform, delegate);
+    HeaderMode headerMode =
+        delegate.getEnum("cxx", "header_mode", HeaderMode.class).or(HeaderMode.SYMLINK_TREE);
+    if (headerMode == HeaderMode.HEADER_MAP && compilerType != CompilerType.CLANG) {
+      throw new HumanReadableException(
+          "cxx.header_mode = header_map needs a clang preprocessor, but the preprocessors look " +
+          "like %s. If they are clang, set cxx.compiler_type = clang.",
+          compilerType.toString().toLowerCase());
+    }
+
     ImmutableCxxPlatform.Builder builder = ImmutableCxxPlatform.builder();
     // TODO(user, agallagher): Generalize this so we don't need all these setters.
     builder
@@ -116,15 +128,51 @@ public class DefaultCxxPlatforms {
         .addAllLdflags(getFlags("cxx", "ldflags", DEFAULT_LDFLAGS, delegate))
         .setAr(getTool("cxx", "ar", DEFAULT_AR, delegate))
         .addAllArflags(getFlags("cxx", "arflags", DEFAULT_ARFLAGS, delegate))
+        .setArchiveStyle(
+            delegate.getEnum("cxx", "archive_style", ArchiveStyle.class)
+                .or(ArchiveStyle.NORMAL))
+        .setHeaderMode(headerMode)
+        .setCompilerType(compilerType)
         .setLex(getSourcePath("cxx", "lex", DEFAULT_LEX, delegate))
         .addAllLexFlags(getFlags("cxx", "lexflags", DEFAULT_LEX_FLAGS, delegate))
         .setYacc(getSourcePath("cxx", "yacc", DEFAULT_YACC, delegate))
         .addAllYaccFlags(getFlags("cxx", "yaccflags", DEFAULT_YACC_FLAGS, delegate))
         .setSharedLibraryExtension(getSharedLibraryExtension(platform))
-        .setDebugPathSanitizer(DEBUG_PATH_SANITIZER);
+        .setDebugPathSanitizer(DEBUG_PATH_SANITIZER)
+        .setSplitDwarf(delegate.getBooleanValue("cxx", "split_dwarf", false))
+        .setDebugInfoObjcopy(getDebugInfoObjcopy(delegate));
     return builder.build();
   }
 
+  /**
+   * @return the compiler type set in the config, or else a guess: clang if all of the compilers
+   *     and preprocessors are named after it, or are left as the defaults on OS X, where those
+   *     are clang.
+   */
+  private static CompilerType getCompilerType(Platform platform, BuckConfig delegate) {
+    Optional<CompilerType> type = delegate.getEnum("cxx", "compiler_type", CompilerType.class);
+    if (type.isPresent()) {
+      return type.get();
+    }
+    for (String field : ImmutableList.of("cc", "cxx", "cpp", "cxxpp")) {
+      Optional<String> tool = delegate.getValue("cxx", field);
+      boolean isClang = tool.isPresent() ?
+          Paths.get(tool.get()).getFileName().toString().contains("clang") :
+          platform == Platform.MACOS;
+      if (!isClang) {
+        return CompilerType.GCC;
+      }
+    }
+    return CompilerType.CLANG;
+  }
+
+  private static Optional<SourcePath> getDebugInfoObjcopy(BuckConfig delegate) {
+    if (!delegate.getBooleanValue("cxx", "separate_debug_info", false)) {
+      return Optional.absent();
+    }
+    return Optional.of(getSourcePath("cxx", "objcopy", DEFAULT_OBJCOPY, delegate));
+  }
+
   private static ImmutableList<String> getFlags(
       String section,
       String field,
@@ -44,4 +44,11 @@ public class GnuLinker implements Linker {
     return ImmutableList.of("-soname", arg);
   }
 
+  @Override
+  public Iterable<String> origin(String dir) {
+    // The old style of rpath applies to the whole process, so that the dependencies of the
+    // shared libraries found there are also looked up in the same place.
+    return ImmutableList.of("-rpath", "$ORIGIN/" + dir, "--disable-new-dtags");
+  }
+
 }
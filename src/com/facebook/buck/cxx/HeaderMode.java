@@ -0,0 +1,36 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+/**
+ * How the headers of a C/C++ rule are laid out under the names they're included by.
+ */
+public enum HeaderMode {
+
+  /**
+   * A tree of symlinks to the headers, which is added to the include search path.
+   */
+  SYMLINK_TREE,
+
+  /**
+   * A single clang header map, which maps each name straight to the header, and is added to the
+   * include search path in place of a directory.  This saves the preprocessor looking through
+   * directories for each include, but needs clang.
+   */
+  HEADER_MAP,
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Updates an archive left by an earlier build in place, only replacing the members which have
+ * changed since then, or builds it from scratch if it can't be updated.
+ * <p>
+ * Member headers are written deterministically, so an archive which has been updated is the same
+ * as one built from scratch from the same inputs.  The state of the archive and its inputs as of
+ * the last build is kept next to it, and it's only updated when it is still as that build left
+ * it, and has the same inputs in the same order.  Inputs are taken to have changed when their
+ * contents have, as a modification time can stay the same across a change, for instance when a
+ * file is restored from a cache.  ar replaces members by file name, so archives with two inputs
+ * of the same name are always built from scratch.
+ */
+public class IncrementalArchiveStep implements Step {
+
+  private final ImmutableList<String> archiver;
+  private final Path output;
+  private final ImmutableList<Path> inputs;
+
+  public IncrementalArchiveStep(
+      ImmutableList<String> archiver,
+      Path output,
+      ImmutableList<Path> inputs) {
+    this.archiver = archiver;
+    this.output = output;
+    this.inputs = inputs;
+  }
+
+  @Override
+  public int execute(ExecutionContext context) throws InterruptedException {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    Path stateFile = getStateFile();
+    try {
+      ImmutableList<String> inputStates = getInputStates(filesystem);
+      Optional<ImmutableList<Path>> changed = getChangedInputs(filesystem, inputStates);
+
+      // Forget the old state first, so that an update which fails part way through isn't taken
+      // for a complete one next time.
+      filesystem.deleteFileAtPath(stateFile);
+
+      int exitCode;
+      if (!changed.isPresent()) {
+        filesystem.deleteFileAtPath(output);
+        exitCode = new ArchiveStep(archiver, "qcsD", output, inputs).execute(context);
+      } else if (!changed.get().isEmpty()) {
+        exitCode = new ArchiveStep(archiver, "rsD", output, changed.get()).execute(context);
+      } else {
+        exitCode = 0;
+      }
+      if (exitCode != 0) {
+        return exitCode;
+      }
+
+      filesystem.writeLinesToPath(
+          ImmutableList.<String>builder()
+              .add(Joiner.on(' ').join(archiver))
+              .add(getState(filesystem, output))
+              .addAll(inputStates)
+              .build(),
+          stateFile);
+    } catch (IOException e) {
+      context.logError(e, "Error updating archive %s.", output);
+      return 1;
+    }
+    return 0;
+  }
+
+  /**
+   * @return the inputs which have changed since the archive was last written, or absent if it
+   *     must be built from scratch.
+   */
+  private Optional<ImmutableList<Path>> getChangedInputs(
+      ProjectFilesystem filesystem,
+      ImmutableList<String> inputStates) throws IOException {
+    Path stateFile = getStateFile();
+    if (!filesystem.isFile(stateFile) || !filesystem.isFile(output) || !haveUniqueNames()) {
+      return Optional.absent();
+    }
+    List<String> lines = filesystem.readLines(stateFile);
+    if (lines.size() != inputs.size() + 2 ||
+        !lines.get(0).equals(Joiner.on(' ').join(archiver)) ||
+        !lines.get(1).equals(getState(filesystem, output))) {
+      return Optional.absent();
+    }
+
+    ImmutableList.Builder<Path> changed = ImmutableList.builder();
+    for (int i = 0; i < inputs.size(); i++) {
+      String previous = lines.get(i + 2);
+      if (!previous.endsWith(" " + inputs.get(i))) {
+        // The members are different, or in a different order.
+        return Optional.absent();
+      }
+      if (!previous.equals(inputStates.get(i))) {
+        changed.add(inputs.get(i));
+      }
+    }
+    return Optional.of(changed.build());
+  }
+
+  private boolean haveUniqueNames() {
+    Set<Path> names = Sets.newHashSet();
+    for (Path input : inputs) {
+      if (!names.add(input.getFileName())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private ImmutableList<String> getInputStates(ProjectFilesystem filesystem) throws IOException {
+    ImmutableList.Builder<String> states = ImmutableList.builder();
+    for (Path input : inputs) {
+      states.add(getState(filesystem, input));
+    }
+    return states.build();
+  }
+
+  private static String getState(ProjectFilesystem filesystem, Path path) throws IOException {
+    return String.format("%s %s", filesystem.computeSha1(path), path);
+  }
+
+  @VisibleForTesting
+  Path getStateFile() {
+    return output.resolveSibling(output.getFileName() + ".state");
+  }
+
+  @Override
+  public String getShortName() {
+    return "archive";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return String.format("update archive %s", output);
+  }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import com.facebook.buck.util.ManagedThread;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Copies the output of the preprocessor, rewriting the paths in its line markers, which look like
+ * {@code # 12 "path/to/header.h" 2}.
+ * <p>
+ * The output of the preprocessor can run to tens of megabytes, almost none of which are line
+ * markers, so it's copied as raw bytes, and only the paths in line markers are decoded. The same
+ * few headers come up again and again, so each path is only decoded and rewritten once. Other
+ * lines are copied as they are, except that line terminators are replaced with the platform's,
+ * and the last line is always terminated.
+ */
+class LineMarkerRewritingThread extends ManagedThread {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final byte[] NEWLINE = System.lineSeparator().getBytes(Charset.defaultCharset());
+
+  private final InputStream inputStream;
+  private final OutputStream outputStream;
+  private final Function<String, String> pathProcessor;
+  private final Charset charset = Charset.defaultCharset();
+
+  /** The rewritten path for each path seen so far, keyed by its bytes. */
+  private final Map<ByteBuffer, byte[]> rewrittenPaths = Maps.newHashMap();
+
+  LineMarkerRewritingThread(
+      InputStream inputStream,
+      OutputStream outputStream,
+      Function<String, String> pathProcessor) {
+    this.inputStream = Preconditions.checkNotNull(inputStream);
+    this.outputStream = Preconditions.checkNotNull(outputStream);
+    this.pathProcessor = Preconditions.checkNotNull(pathProcessor);
+  }
+
+  @Override
+  protected void run() throws IOException {
+    try (InputStream in = inputStream;
+         OutputStream out = new BufferedOutputStream(outputStream, BUFFER_SIZE)) {
+      rewrite(in, out);
+    }
+  }
+
+  private void rewrite(InputStream in, OutputStream out) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    // Lines starting with '#' are collected here, and every other line is copied straight out.
+    ByteArrayOutputStream marker = new ByteArrayOutputStream();
+    boolean inMarker = false;
+    boolean atLineStart = true;
+    boolean afterCarriageReturn = false;
+
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      int spanStart = 0;
+      for (int i = 0; i < read; i++) {
+        byte b = buffer[i];
+        if (afterCarriageReturn) {
+          afterCarriageReturn = false;
+          if (b == '\n') {
+            // The rest of a "\r\n", which has already been replaced.
+            spanStart = i + 1;
+            continue;
+          }
+        }
+
+        if (b == '\n' || b == '\r') {
+          if (inMarker) {
+            writeMarker(marker, out);
+            inMarker = false;
+          } else {
+            out.write(buffer, spanStart, i - spanStart);
+          }
+          out.write(NEWLINE);
+          spanStart = i + 1;
+          atLineStart = true;
+          afterCarriageReturn = b == '\r';
+        } else if (inMarker) {
+          marker.write(b);
+        } else if (atLineStart && b == '#') {
+          out.write(buffer, spanStart, i - spanStart);
+          marker.reset();
+          marker.write(b);
+          inMarker = true;
+          atLineStart = false;
+        } else {
+          atLineStart = false;
+        }
+      }
+      if (inMarker) {
+        // Collected into the marker as it went.
+        continue;
+      }
+      out.write(buffer, spanStart, read - spanStart);
+    }
+
+    if (inMarker) {
+      writeMarker(marker, out);
+      out.write(NEWLINE);
+    } else if (!atLineStart) {
+      out.write(NEWLINE);
+    }
+  }
+
+  /**
+   * Writes out a line starting with '#', rewriting the path if it's a line marker:
+   * <pre># &lt;digits&gt; "&lt;path&gt;"&lt;rest&gt;</pre>
+   */
+  private void writeMarker(ByteArrayOutputStream marker, OutputStream out) throws IOException {
+    byte[] line = marker.toByteArray();
+    int i = 1;
+    if (i >= line.length || line[i++] != ' ') {
+      out.write(line);
+      return;
+    }
+    int digitsStart = i;
+    while (i < line.length && line[i] >= '0' && line[i] <= '9') {
+      i++;
+    }
+    if (i == digitsStart ||
+        i + 1 >= line.length ||
+        line[i] != ' ' ||
+        line[i + 1] != '"') {
+      out.write(line);
+      return;
+    }
+    int pathStart = i + 2;
+    int pathEnd = pathStart;
+    while (pathEnd < line.length && line[pathEnd] != '"') {
+      pathEnd++;
+    }
+    if (pathEnd == pathStart || pathEnd == line.length) {
+      out.write(line);
+      return;
+    }
+
+    out.write(line, 0, pathStart);
+    out.write(rewritePath(Arrays.copyOfRange(line, pathStart, pathEnd)));
+    out.write(line, pathEnd, line.length - pathEnd);
+  }
+
+  private byte[] rewritePath(byte[] path) {
+    ByteBuffer key = ByteBuffer.wrap(path);
+    byte[] rewritten = rewrittenPaths.get(key);
+    if (rewritten == null) {
+      String original = new String(path, charset);
+      String replacement = pathProcessor.apply(original);
+      rewritten = original.equals(replacement) ? path : replacement.getBytes(charset);
+      rewrittenPaths.put(key, rewritten);
+    }
+    return rewritten;
+  }
+
+}
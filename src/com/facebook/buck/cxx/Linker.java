@@ -39,6 +39,12 @@ public interface Linker {
    */
   Iterable<String> soname(String soname);
 
+  /**
+   * @return the platform-specific way to specify that the output should look for the shared
+   *     libraries it depends on in the given directory, relative to the output itself.
+   */
+  Iterable<String> origin(String dir);
+
   /**
    * The various ways to link an output file.
    */
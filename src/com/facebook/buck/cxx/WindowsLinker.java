@@ -43,4 +43,10 @@ public class WindowsLinker implements Linker {
     return ImmutableList.of(arg);
   }
 
+  @Override
+  public Iterable<String> origin(String dir) {
+    // DLLs are looked up on the PATH rather than through anything recorded in the output.
+    return ImmutableList.of();
+  }
+
 }
@@ -22,12 +22,18 @@ import com.facebook.buck.java.classes.ClasspathTraversal;
 import com.facebook.buck.java.classes.ClasspathTraverser;
 import com.facebook.buck.java.classes.DefaultClasspathTraverser;
 import com.facebook.buck.java.classes.FileLike;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.util.HumanReadableException;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -37,6 +43,7 @@ import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Nullable;
@@ -62,9 +69,20 @@ import javax.annotation.Nullable;
  *     to zips as space allows. This is a simple, greedy algorithm.
  *   </li>
  * </ul>
+ * <p>
+ * As the third pass packs classes in order, a change to one class can move the boundaries of
+ * every secondary zip after it, so that they all have to be dexed and installed again. When given
+ * a file in which to keep the secondary zip each class was put in, the splitter instead puts
+ * each class back in the same secondary zip as last time, if it still fits, and only places new
+ * classes, and classes which no longer fit, in the first secondary zip with room for them. This
+ * makes for less densely packed secondary zips, but a typical edit only changes one or two of
+ * them. Packing is done from scratch if there are no previous assignments, or if there are
+ * secondary head or tail classes, whose order this would not respect.
  */
 public class DalvikAwareZipSplitter implements ZipSplitter {
 
+  private static final Logger LOG = Logger.get(DalvikAwareZipSplitter.class);
+
   private final ProjectFilesystem filesystem;
   private final Set<Path> inFiles;
   private final File outPrimary;
@@ -76,9 +94,16 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
   private final DexSplitStrategy dexSplitStrategy;
   private final ImmutableSet<String> secondaryHeadSet;
   private final ImmutableSet<String> secondaryTailSet;
+  private final Optional<File> secondaryDexAssignmentsFile;
 
   private final MySecondaryDexHelper secondaryDexWriter;
 
+  /**
+   * The secondary zip each entry which wasn't required in the primary zip was put in, or 0 for the
+   * primary zip.
+   */
+  private final Map<String, Integer> assignments = Maps.newHashMap();
+
   @Nullable
   private DalvikAwareOutputStreamHelper primaryOut;
 
@@ -86,6 +111,8 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
    * @see ZipSplitterFactory#newInstance(ProjectFilesystem, Set, File, File, String, Predicate,
    *     ImmutableSet, ImmutableSet, com.facebook.buck.dalvik.ZipSplitter.DexSplitStrategy,
    *     com.facebook.buck.dalvik.ZipSplitter.CanaryStrategy, File)
+   * @param secondaryDexAssignmentsFile where to keep the secondary zip each class was put in from
+   *     one build to the next, if classes should stay in the same secondary zip where possible.
    */
   private DalvikAwareZipSplitter(
       ProjectFilesystem filesystem,
@@ -100,7 +127,8 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
       ImmutableSet<String> secondaryTailSet,
       DexSplitStrategy dexSplitStrategy,
       ZipSplitter.CanaryStrategy canaryStrategy,
-      File reportDir) {
+      File reportDir,
+      Optional<File> secondaryDexAssignmentsFile) {
     if (linearAllocLimit <= 0) {
       throw new HumanReadableException("linear_alloc_hard_limit must be greater than zero.");
     }
@@ -116,7 +144,8 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
     this.reportDir = reportDir;
     this.dexSplitStrategy = dexSplitStrategy;
     this.linearAllocLimit = linearAllocLimit;
-    this.dalvikStatsCache = new DalvikStatsCache();
+    this.secondaryDexAssignmentsFile = secondaryDexAssignmentsFile;
+    this.dalvikStatsCache = new DalvikStatsCache(SharedDalvikStatsCache.getShared());
   }
 
   public static DalvikAwareZipSplitter splitZip(
@@ -132,7 +161,8 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
       ImmutableSet<String> secondaryTailSet,
       DexSplitStrategy dexSplitStrategy,
       ZipSplitter.CanaryStrategy canaryStrategy,
-      File reportDir) {
+      File reportDir,
+      Optional<File> secondaryDexAssignmentsFile) {
     return new DalvikAwareZipSplitter(
         filesystem,
         inFiles,
@@ -146,7 +176,8 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
         secondaryTailSet,
         dexSplitStrategy,
         canaryStrategy,
-        reportDir);
+        reportDir,
+        secondaryDexAssignmentsFile);
   }
 
   @Override
@@ -157,6 +188,7 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
     // Start out by writing the primary zip and recording which entries were added to it.
     primaryOut = newZipOutput(outPrimary);
     secondaryDexWriter.reset();
+    assignments.clear();
 
     final ImmutableMap.Builder<String, FileLike> entriesBuilder = ImmutableMap.builder();
 
@@ -188,11 +220,29 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
       }
     }
 
+    Optional<Map<String, Integer>> previousAssignments = readPreviousAssignments();
+    if (previousAssignments.isPresent()) {
+      fillSecondaryZipsStably(classpathTraverser, previousAssignments.get());
+    } else {
+      fillSecondaryZips(classpathTraverser, entries, secondaryTail);
+    }
+
+    primaryOut.close();
+    secondaryDexWriter.close();
+    writeAssignments();
+    return secondaryDexWriter.getFiles();
+  }
+
+  private void fillSecondaryZips(
+      ClasspathTraverser classpathTraverser,
+      ImmutableMap<String, FileLike> entries,
+      final Set<String> secondaryTail) throws IOException {
+    Preconditions.checkNotNull(primaryOut);
     if (secondaryHeadSet != null) {
       for (String head : secondaryHeadSet) {
         FileLike headEntry = entries.get(head);
         if ((headEntry != null) && !primaryOut.containsEntry(headEntry)) {
-          secondaryDexWriter.getOutputToWriteTo(headEntry).putEntry(headEntry);
+          putSecondaryEntry(headEntry);
         }
       }
     }
@@ -211,7 +261,7 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
         // room in the primary dex for the current entry in the traversal.
         if (dexSplitStrategy == DexSplitStrategy.MAXIMIZE_PRIMARY_DEX_SIZE &&
             primaryOut.canPutEntry(entry)) {
-          primaryOut.putEntry(entry);
+          putPrimaryEntry(entry);
         } else {
           String relativePath = entry.getRelativePath();
           if (secondaryHeadSet != null && secondaryHeadSet.contains(relativePath)) {
@@ -220,7 +270,7 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
           if (secondaryTail.contains(relativePath)) {
             return;
           }
-          secondaryDexWriter.getOutputToWriteTo(entry).putEntry(entry);
+          putSecondaryEntry(entry);
         }
       }
     });
@@ -229,13 +279,126 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
         FileLike tailEntry = entries.get(tail);
         if ((tailEntry != null) && !primaryOut.containsEntry(tailEntry) &&
             secondaryTail.contains(tail)) {
-          secondaryDexWriter.getOutputToWriteTo(tailEntry).putEntry(tailEntry);
+          putSecondaryEntry(tailEntry);
         }
       }
     }
-    primaryOut.close();
-    secondaryDexWriter.close();
-    return secondaryDexWriter.getFiles();
+  }
+
+  private void putPrimaryEntry(FileLike entry) throws IOException {
+    Preconditions.checkNotNull(primaryOut).putEntry(entry);
+    assignments.put(entry.getRelativePath(), 0);
+  }
+
+  private void putSecondaryEntry(FileLike entry) throws IOException {
+    secondaryDexWriter.getOutputToWriteTo(entry).putEntry(entry);
+    assignments.put(entry.getRelativePath(), secondaryDexWriter.getCurrentIndex());
+  }
+
+  /**
+   * Puts entries back in the secondary zips they were in last time where they still fit, and the
+   * rest in the first zip with room for them.
+   */
+  private void fillSecondaryZipsStably(
+      ClasspathTraverser classpathTraverser,
+      final Map<String, Integer> previousAssignments) throws IOException {
+    classpathTraverser.traverse(new ClasspathTraversal(inFiles, filesystem) {
+      @Override
+      public void visit(FileLike entry) throws IOException {
+        Preconditions.checkNotNull(primaryOut);
+        String relativePath = entry.getRelativePath();
+        Integer previousIndex = previousAssignments.get(relativePath);
+        if (previousIndex == null ||
+            primaryOut.containsEntry(entry) ||
+            assignments.containsKey(relativePath)) {
+          return;
+        }
+        if (previousIndex == 0) {
+          if (dexSplitStrategy == DexSplitStrategy.MAXIMIZE_PRIMARY_DEX_SIZE &&
+              primaryOut.canPutEntry(entry)) {
+            putPrimaryEntry(entry);
+          }
+          return;
+        }
+        DalvikAwareOutputStreamHelper secondaryOut = secondaryDexWriter.getOutput(previousIndex);
+        if (secondaryOut.canPutEntry(entry)) {
+          secondaryOut.putEntry(entry);
+          assignments.put(relativePath, previousIndex);
+        }
+      }
+    });
+
+    classpathTraverser.traverse(new ClasspathTraversal(inFiles, filesystem) {
+      @Override
+      public void visit(FileLike entry) throws IOException {
+        Preconditions.checkNotNull(primaryOut);
+        String relativePath = entry.getRelativePath();
+        if (primaryOut.containsEntry(entry) || assignments.containsKey(relativePath)) {
+          return;
+        }
+        if (dexSplitStrategy == DexSplitStrategy.MAXIMIZE_PRIMARY_DEX_SIZE &&
+            primaryOut.canPutEntry(entry)) {
+          putPrimaryEntry(entry);
+          return;
+        }
+        int index = 1;
+        while (index <= secondaryDexWriter.getCurrentIndex() &&
+            !secondaryDexWriter.getOutput(index).canPutEntry(entry)) {
+          index++;
+        }
+        DalvikAwareOutputStreamHelper secondaryOut = secondaryDexWriter.getOutput(index);
+        Preconditions.checkState(secondaryOut.canPutEntry(entry));
+        secondaryOut.putEntry(entry);
+        assignments.put(relativePath, index);
+      }
+    });
+  }
+
+  /**
+   * @return the assignments of entries to secondary zips from the last time this splitter ran, if
+   *     they should be used to keep entries where they were.
+   */
+  private Optional<Map<String, Integer>> readPreviousAssignments() {
+    if (!secondaryDexAssignmentsFile.isPresent() ||
+        !secondaryDexAssignmentsFile.get().exists() ||
+        (secondaryHeadSet != null && !secondaryHeadSet.isEmpty()) ||
+        (secondaryTailSet != null && !secondaryTailSet.isEmpty())) {
+      return Optional.absent();
+    }
+    File file = secondaryDexAssignmentsFile.get();
+    Map<String, Integer> previousAssignments = Maps.newHashMap();
+    try {
+      for (String line : Files.readLines(file, Charsets.UTF_8)) {
+        int space = line.indexOf(' ');
+        if (space < 0) {
+          throw new IOException("Malformed line: " + line);
+        }
+        previousAssignments.put(
+            line.substring(space + 1),
+            Integer.parseInt(line.substring(0, space)));
+      }
+    } catch (IOException | NumberFormatException e) {
+      // Just pack the secondary zips from scratch.
+      LOG.warn(e, "Unable to read secondary dex assignments from %s.", file);
+      return Optional.absent();
+    }
+    return Optional.of(previousAssignments);
+  }
+
+  private void writeAssignments() throws IOException {
+    if (!secondaryDexAssignmentsFile.isPresent()) {
+      return;
+    }
+    StringBuilder contents = new StringBuilder();
+    ImmutableSortedMap<String, Integer> sortedAssignments = ImmutableSortedMap.copyOf(assignments);
+    for (Map.Entry<String, Integer> assignment : sortedAssignments.entrySet()) {
+      contents
+          .append(assignment.getValue())
+          .append(' ')
+          .append(assignment.getKey())
+          .append('\n');
+    }
+    Files.write(contents.toString(), secondaryDexAssignmentsFile.get(), Charsets.UTF_8);
   }
 
   private DalvikAwareOutputStreamHelper newZipOutput(File file) throws FileNotFoundException {
@@ -17,6 +17,7 @@
 package com.facebook.buck.dalvik;
 
 import com.facebook.buck.io.ProjectFilesystem;
+import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableSet;
 
@@ -28,12 +29,26 @@ public class DalvikAwareZipSplitterFactory implements ZipSplitterFactory {
 
   private final long linearAllocLimit;
   private final Set<String> wantedInPrimaryZip;
+  private final Optional<File> secondaryDexAssignmentsFile;
 
   public DalvikAwareZipSplitterFactory(
       long linearAllocLimit,
       Set<String> wantedInPrimaryZip) {
+    this(linearAllocLimit, wantedInPrimaryZip, Optional.<File>absent());
+  }
+
+  /**
+   * @param secondaryDexAssignmentsFile if present, classes are kept in the same secondary dex from
+   *     one build to the next where possible, by keeping the assignment of classes to secondary
+   *     dexes in this file.
+   */
+  public DalvikAwareZipSplitterFactory(
+      long linearAllocLimit,
+      Set<String> wantedInPrimaryZip,
+      Optional<File> secondaryDexAssignmentsFile) {
     this.linearAllocLimit = linearAllocLimit;
     this.wantedInPrimaryZip = wantedInPrimaryZip;
+    this.secondaryDexAssignmentsFile = secondaryDexAssignmentsFile;
   }
 
   @Override
@@ -62,6 +77,7 @@ public class DalvikAwareZipSplitterFactory implements ZipSplitterFactory {
         secondaryTailSet,
         dexSplitStrategy,
         canaryStrategy,
-        reportDir);
+        reportDir,
+        secondaryDexAssignmentsFile);
   }
 }
@@ -18,19 +18,24 @@ package com.facebook.buck.dalvik;
 
 import com.facebook.buck.java.classes.FileLike;
 import com.google.common.collect.MapMaker;
+import com.google.common.io.ByteStreams;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.concurrent.ConcurrentMap;
 
 /**
- * Cache to memoize results from DalvikStatsTool.
+ * Cache to memoize results from DalvikStatsTool. Entries which aren't memoized yet are looked up
+ * by content in a {@link SharedDalvikStatsCache}, so unchanged classes aren't parsed again.
  */
 class DalvikStatsCache {
 
   private final ConcurrentMap<FileLike, DalvikStatsTool.Stats> cache;
+  private final SharedDalvikStatsCache sharedCache;
 
-  DalvikStatsCache() {
-    cache = new MapMaker().weakKeys().makeMap();
+  DalvikStatsCache(SharedDalvikStatsCache sharedCache) {
+    this.cache = new MapMaker().weakKeys().makeMap();
+    this.sharedCache = sharedCache;
   }
 
   DalvikStatsTool.Stats getStats(FileLike entry) {
@@ -46,8 +51,8 @@ class DalvikStatsCache {
       return stats;
     }
 
-    try {
-      stats = DalvikStatsTool.getEstimate(entry.getInput());
+    try (InputStream input = entry.getInput()) {
+      stats = sharedCache.getStats(ByteStreams.toByteArray(input));
       cache.put(entry, stats);
       return stats;
     } catch (IOException e) {
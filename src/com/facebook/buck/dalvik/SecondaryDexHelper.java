@@ -19,6 +19,7 @@ package com.facebook.buck.dalvik;
 import com.facebook.buck.java.classes.FileLike;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 
 import java.io.File;
 import java.io.IOException;
@@ -41,6 +42,7 @@ abstract class SecondaryDexHelper<ZIP_OUTPUT_STREAM_HELPER extends ZipOutputStre
   private ZIP_OUTPUT_STREAM_HELPER currentSecondaryOut;
   private boolean newSecondaryOutOnNextEntry;
   private ImmutableList.Builder<File> secondaryFiles;
+  private final List<ZIP_OUTPUT_STREAM_HELPER> secondaryOuts = Lists.newArrayList();
 
   SecondaryDexHelper(
       File outSecondaryDir,
@@ -56,6 +58,7 @@ abstract class SecondaryDexHelper<ZIP_OUTPUT_STREAM_HELPER extends ZipOutputStre
     currentSecondaryIndex = 0;
     currentSecondaryOut = null;
     secondaryFiles = ImmutableList.builder();
+    secondaryOuts.clear();
   }
 
   @Nullable
@@ -75,28 +78,58 @@ abstract class SecondaryDexHelper<ZIP_OUTPUT_STREAM_HELPER extends ZipOutputStre
       if (currentSecondaryOut != null) {
         currentSecondaryOut.close();
       }
-      currentSecondaryIndex++;
-      File newSecondaryFile = new File(
-          outSecondaryDir,
-          String.format(secondaryPattern, currentSecondaryIndex));
-      secondaryFiles.add(newSecondaryFile);
-      currentSecondaryOut = newZipOutput(newSecondaryFile);
-      newSecondaryOutOnNextEntry = false;
-      if (canaryStrategy == ZipSplitter.CanaryStrategy.INCLUDE_CANARIES) {
-        // Make sure the first class in the new secondary dex can be safely loaded.
-        FileLike canaryFile = CanaryFactory.create(currentSecondaryIndex);
-        currentSecondaryOut.putEntry(canaryFile);
-      }
+      ZIP_OUTPUT_STREAM_HELPER newSecondaryOut = startNextZipFile();
       // We've already tested for this. It really shouldn't happen.
-      Preconditions.checkState(currentSecondaryOut.canPutEntry(entry));
+      Preconditions.checkState(newSecondaryOut.canPutEntry(entry));
     }
 
+    return Preconditions.checkNotNull(currentSecondaryOut);
+  }
+
+  /**
+   * Unlike {@link #getOutputToWriteTo(FileLike)}, which fills one secondary zip at a time, this
+   * keeps every secondary zip open, so that entries can be written to them in any order.
+   *
+   * @param index the 1-based index of the secondary zip. Any missing secondary zips up to and
+   *     including this one are started.
+   */
+  ZIP_OUTPUT_STREAM_HELPER getOutput(int index) throws IOException {
+    Preconditions.checkArgument(index >= 1);
+    while (currentSecondaryIndex < index) {
+      startNextZipFile();
+    }
+    return secondaryOuts.get(index - 1);
+  }
+
+  /**
+   * @return the number of secondary zips started so far, which is also the 1-based index of the
+   *     current one.
+   */
+  int getCurrentIndex() {
+    return currentSecondaryIndex;
+  }
+
+  private ZIP_OUTPUT_STREAM_HELPER startNextZipFile() throws IOException {
+    currentSecondaryIndex++;
+    File newSecondaryFile = new File(
+        outSecondaryDir,
+        String.format(secondaryPattern, currentSecondaryIndex));
+    secondaryFiles.add(newSecondaryFile);
+    currentSecondaryOut = newZipOutput(newSecondaryFile);
+    secondaryOuts.add(currentSecondaryOut);
+    newSecondaryOutOnNextEntry = false;
+    if (canaryStrategy == ZipSplitter.CanaryStrategy.INCLUDE_CANARIES) {
+      // Make sure the first class in the new secondary dex can be safely loaded.
+      FileLike canaryFile = CanaryFactory.create(currentSecondaryIndex);
+      currentSecondaryOut.putEntry(canaryFile);
+    }
     return currentSecondaryOut;
   }
 
   void close() throws IOException {
-    if (currentSecondaryOut != null) {
-      currentSecondaryOut.close();
+    // Closing a zip which has already been closed does nothing.
+    for (ZIP_OUTPUT_STREAM_HELPER secondaryOut : secondaryOuts) {
+      secondaryOut.close();
     }
   }
 
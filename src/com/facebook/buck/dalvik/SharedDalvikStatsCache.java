@@ -0,0 +1,258 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.dalvik;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * {@link DalvikStatsTool.Stats} for classes, keyed by the hash of their contents, so that a class
+ * only needs to be parsed again when it changes. The cache returned by {@link #getShared()} lives
+ * as long as the Buck process, and can be saved to and loaded from disk, so that a fresh Buck
+ * process doesn't have to start from scratch either.
+ * <p>
+ * On disk, the cache is a table of the strings used by method references, a table of method
+ * references as indexes into the string table, and then for each class, the hash of its
+ * contents, its estimated linear alloc size, and its method references as indexes into the
+ * method reference table.
+ */
+public class SharedDalvikStatsCache {
+
+  private static final Logger LOG = Logger.get(SharedDalvikStatsCache.class);
+
+  private static final int MAGIC = 0xdac5ca7e;
+  private static final int VERSION = 1;
+  private static final int HASH_BYTES = Hashing.sha1().bits() / 8;
+
+  /**
+   * Roughly how many method references to keep in memory. The estimates for a large app, of
+   * around 60,000 classes, should fit comfortably.
+   */
+  private static final long DEFAULT_MAX_WEIGHT = 4 * 1000 * 1000;
+
+  private static final SharedDalvikStatsCache SHARED = new SharedDalvikStatsCache(
+      DEFAULT_MAX_WEIGHT);
+
+  private final Cache<HashCode, DalvikStatsTool.Stats> cache;
+  private final Set<Path> loadedPaths = Sets.newHashSet();
+  private boolean isDirty = false;
+
+  @VisibleForTesting
+  SharedDalvikStatsCache(long maxWeight) {
+    this.cache = CacheBuilder.newBuilder()
+        .maximumWeight(maxWeight)
+        .weigher(
+            new Weigher<HashCode, DalvikStatsTool.Stats>() {
+              @Override
+              public int weigh(HashCode hash, DalvikStatsTool.Stats stats) {
+                return 1 + stats.methodReferences.size();
+              }
+            })
+        .build();
+  }
+
+  public static SharedDalvikStatsCache getShared() {
+    return SHARED;
+  }
+
+  /**
+   * @param rawClass the contents of a {@code .class} file.
+   */
+  public DalvikStatsTool.Stats getStats(byte[] rawClass) throws IOException {
+    HashCode hash = Hashing.sha1().hashBytes(rawClass);
+    DalvikStatsTool.Stats stats = cache.getIfPresent(hash);
+    if (stats == null) {
+      stats = DalvikStatsTool.getEstimate(new ByteArrayInputStream(rawClass));
+      cache.put(hash, stats);
+      synchronized (this) {
+        isDirty = true;
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Adds the stats saved in {@code path} to this cache, unless they have been loaded already. A
+   * missing or unreadable file is ignored, as the stats can always be worked out again.
+   */
+  public synchronized void loadIfNeeded(Path path) {
+    if (!loadedPaths.add(path) || !Files.isRegularFile(path)) {
+      return;
+    }
+    try (DataInputStream in =
+             new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+      read(in);
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to read dalvik stats from %s.", path);
+    }
+  }
+
+  /**
+   * Saves the stats in this cache to {@code path}, if any were added since the cache was last
+   * loaded or saved.
+   */
+  public synchronized void saveIfNeeded(Path path) throws IOException {
+    if (!isDirty) {
+      return;
+    }
+    Files.createDirectories(path.getParent());
+    Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tempPath))) {
+      write(new DataOutputStream(out));
+    }
+    // Don't leave a half written cache behind for the next build to trip over.
+    Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+    isDirty = false;
+    loadedPaths.add(path);
+  }
+
+  @VisibleForTesting
+  long size() {
+    return cache.size();
+  }
+
+  private void read(DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      throw new IOException("Not a dalvik stats cache, or from a different version of Buck.");
+    }
+
+    int numStrings = in.readInt();
+    List<String> strings = Lists.newArrayListWithCapacity(numStrings);
+    for (int i = 0; i < numStrings; i++) {
+      strings.add(in.readUTF());
+    }
+
+    int numMethodReferences = in.readInt();
+    List<DalvikStatsTool.MethodReference> methodReferences =
+        Lists.newArrayListWithCapacity(numMethodReferences);
+    for (int i = 0; i < numMethodReferences; i++) {
+      methodReferences.add(
+          new DalvikStatsTool.MethodReference(
+              readString(in, strings),
+              readString(in, strings),
+              readString(in, strings)));
+    }
+
+    int numClasses = in.readInt();
+    byte[] hash = new byte[HASH_BYTES];
+    for (int i = 0; i < numClasses; i++) {
+      in.readFully(hash);
+      int estimatedLinearAllocSize = in.readInt();
+      int numClassMethodReferences = in.readInt();
+      ImmutableSet.Builder<DalvikStatsTool.MethodReference> classMethodReferences =
+          ImmutableSet.builder();
+      for (int j = 0; j < numClassMethodReferences; j++) {
+        classMethodReferences.add(methodReferences.get(in.readInt()));
+      }
+      // Stats worked out by this process are at least as good as those on disk.
+      HashCode hashCode = HashCode.fromBytes(hash);
+      if (cache.getIfPresent(hashCode) == null) {
+        cache.put(
+            hashCode,
+            new DalvikStatsTool.Stats(estimatedLinearAllocSize, classMethodReferences.build()));
+      }
+    }
+  }
+
+  @Nullable
+  private static String readString(DataInputStream in, List<String> strings) throws IOException {
+    int index = in.readInt();
+    return index < 0 ? null : strings.get(index);
+  }
+
+  private void write(DataOutputStream out) throws IOException {
+    Map<HashCode, DalvikStatsTool.Stats> entries = Maps.newLinkedHashMap(cache.asMap());
+
+    Map<String, Integer> strings = Maps.newLinkedHashMap();
+    Map<DalvikStatsTool.MethodReference, Integer> methodReferences = Maps.newLinkedHashMap();
+    for (DalvikStatsTool.Stats stats : entries.values()) {
+      for (DalvikStatsTool.MethodReference methodReference : stats.methodReferences) {
+        if (!methodReferences.containsKey(methodReference)) {
+          methodReferences.put(methodReference, methodReferences.size());
+          addString(strings, methodReference.className);
+          addString(strings, methodReference.methodName);
+          addString(strings, methodReference.methodDesc);
+        }
+      }
+    }
+
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+
+    out.writeInt(strings.size());
+    for (String string : strings.keySet()) {
+      out.writeUTF(string);
+    }
+
+    out.writeInt(methodReferences.size());
+    for (DalvikStatsTool.MethodReference methodReference : methodReferences.keySet()) {
+      writeString(out, strings, methodReference.className);
+      writeString(out, strings, methodReference.methodName);
+      writeString(out, strings, methodReference.methodDesc);
+    }
+
+    out.writeInt(entries.size());
+    for (Map.Entry<HashCode, DalvikStatsTool.Stats> entry : entries.entrySet()) {
+      out.write(entry.getKey().asBytes());
+      DalvikStatsTool.Stats stats = entry.getValue();
+      out.writeInt(stats.estimatedLinearAllocSize);
+      out.writeInt(stats.methodReferences.size());
+      for (DalvikStatsTool.MethodReference methodReference : stats.methodReferences) {
+        out.writeInt(methodReferences.get(methodReference));
+      }
+    }
+    out.flush();
+  }
+
+  private static void addString(Map<String, Integer> strings, @Nullable String string) {
+    if (string != null && !strings.containsKey(string)) {
+      strings.put(string, strings.size());
+    }
+  }
+
+  private static void writeString(
+      DataOutputStream out,
+      Map<String, Integer> strings,
+      @Nullable String string) throws IOException {
+    out.writeInt(string == null ? -1 : strings.get(string));
+  }
+}
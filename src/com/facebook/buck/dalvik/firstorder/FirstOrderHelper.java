@@ -42,16 +42,22 @@ public class FirstOrderHelper {
       Iterable<Type> scenarioTypes,
       Iterable<ClassNode> allClasses,
       ImmutableSet.Builder<String> classNamesBuilder) {
-    FirstOrderHelper helper = new FirstOrderHelper(scenarioTypes, classNamesBuilder);
-    helper.addDependencies(allClasses);
+    addTypesAndDependencies(
+        scenarioTypes,
+        FirstOrderIndex.fromClassNodes(allClasses),
+        classNamesBuilder);
   }
 
-  private ImmutableSet<String> addDependencies(Iterable<ClassNode> allClasses) {
-    for (ClassNode classNode : allClasses) {
-      FirstOrderVisitorContext context = new FirstOrderVisitorContext();
-      classNode.accept(context.classVisitor);
+  public static void addTypesAndDependencies(
+      Iterable<Type> scenarioTypes,
+      FirstOrderIndex index,
+      ImmutableSet.Builder<String> classNamesBuilder) {
+    FirstOrderHelper helper = new FirstOrderHelper(scenarioTypes, classNamesBuilder);
+    helper.addDependencies(index.getTypes());
+  }
 
-      FirstOrderTypeInfo info = context.builder.build();
+  private ImmutableSet<String> addDependencies(Iterable<FirstOrderTypeInfo> allTypes) {
+    for (FirstOrderTypeInfo info : allTypes) {
       knownTypes.put(info.type, info);
     }
 
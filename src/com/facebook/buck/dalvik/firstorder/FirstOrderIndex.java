@@ -0,0 +1,286 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.dalvik.firstorder;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Functions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.hash.Hashing;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The first order type information of all the classes in a set of jars. Working it out means
+ * parsing every class, so the information for each jar is saved in a directory, keyed by the hash
+ * of the jar, and is only worked out again when the jar changes.
+ * <p>
+ * On disk, the information for a jar is the number of classes, and then for each class, the
+ * internal names of its type, super type, interfaces and observed dependencies, followed by a
+ * checksum of all of that. The saved information is only a cache: if it can't be read or written,
+ * it is worked out from the jar instead. As every change to a jar leaves another index behind,
+ * only the {@link #MAX_INDEXES} most recently used indexes are kept.
+ */
+public class FirstOrderIndex {
+
+  private static final Logger LOG = Logger.get(FirstOrderIndex.class);
+
+  private static final int MAGIC = 0xf1257041;
+  private static final int VERSION = 2;
+  private static final String SUFFIX = ".first_order";
+
+  @VisibleForTesting
+  static final int MAX_INDEXES = 1000;
+
+  private final ImmutableList<FirstOrderTypeInfo> types;
+
+  private FirstOrderIndex(ImmutableList<FirstOrderTypeInfo> types) {
+    this.types = types;
+  }
+
+  /**
+   * @param jarPaths absolute paths of the jars to index.
+   * @param indexDir absolute path of the directory in which to keep the index of each jar.
+   */
+  public static FirstOrderIndex load(Iterable<Path> jarPaths, Path indexDir) throws IOException {
+    return load(jarPaths, indexDir, MAX_INDEXES);
+  }
+
+  @VisibleForTesting
+  static FirstOrderIndex load(Iterable<Path> jarPaths, Path indexDir, int maxIndexes)
+      throws IOException {
+    ImmutableList.Builder<FirstOrderTypeInfo> types = ImmutableList.builder();
+    ImmutableSet.Builder<Path> usedIndexPaths = ImmutableSet.builder();
+    for (Path jarPath : jarPaths) {
+      String jarHash = com.google.common.io.Files.asByteSource(jarPath.toFile())
+          .hash(Hashing.sha1())
+          .toString();
+      Path indexPath = indexDir.resolve(jarHash + SUFFIX);
+      types.addAll(loadOrIndexJar(jarPath, indexPath));
+      usedIndexPaths.add(indexPath);
+    }
+    evictLeastRecentlyUsed(indexDir, usedIndexPaths.build(), maxIndexes);
+    return new FirstOrderIndex(types.build());
+  }
+
+  /**
+   * Indexes classes which have already been loaded, without saving the index.
+   */
+  public static FirstOrderIndex fromClassNodes(Iterable<ClassNode> classNodes) {
+    ImmutableList.Builder<FirstOrderTypeInfo> types = ImmutableList.builder();
+    for (ClassNode classNode : classNodes) {
+      FirstOrderVisitorContext context = new FirstOrderVisitorContext();
+      classNode.accept(context.classVisitor);
+      types.add(context.builder.build());
+    }
+    return new FirstOrderIndex(types.build());
+  }
+
+  ImmutableList<FirstOrderTypeInfo> getTypes() {
+    return types;
+  }
+
+  private static ImmutableList<FirstOrderTypeInfo> loadOrIndexJar(Path jarPath, Path indexPath)
+      throws IOException {
+    if (Files.isRegularFile(indexPath)) {
+      try (InputStream in = new BufferedInputStream(Files.newInputStream(indexPath))) {
+        ImmutableList<FirstOrderTypeInfo> types = read(in);
+        // The modification time records when the index was last used, for eviction.
+        Files.setLastModifiedTime(indexPath, FileTime.fromMillis(System.currentTimeMillis()));
+        return types;
+      } catch (IOException e) {
+        // The index can always be worked out again.
+        LOG.warn(e, "Unable to read first order index %s, indexing again.", indexPath);
+      }
+    }
+
+    ImmutableList<FirstOrderTypeInfo> types = indexJar(jarPath);
+
+    Path tempPath = null;
+    try {
+      Files.createDirectories(indexPath.getParent());
+      tempPath = Files.createTempFile(
+          indexPath.getParent(),
+          indexPath.getFileName().toString(),
+          ".tmp");
+      try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tempPath))) {
+        write(out, types);
+      }
+      // Only ever let other builds see a complete index.
+      Files.move(tempPath, indexPath, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to write first order index %s.", indexPath);
+      if (tempPath != null) {
+        Files.deleteIfExists(tempPath);
+      }
+    }
+    return types;
+  }
+
+  /**
+   * Deletes all but the {@code maxIndexes} most recently used indexes, never deleting those just
+   * used. Other builds may be using the same indexes, but at worst they have to index a jar again.
+   */
+  private static void evictLeastRecentlyUsed(
+      Path indexDir,
+      ImmutableSet<Path> usedIndexPaths,
+      int maxIndexes) {
+    try {
+      if (!Files.isDirectory(indexDir)) {
+        return;
+      }
+      Map<Path, FileTime> lastUsed = Maps.newHashMap();
+      try (DirectoryStream<Path> indexes = Files.newDirectoryStream(indexDir, "*" + SUFFIX)) {
+        for (Path index : indexes) {
+          try {
+            lastUsed.put(index, Files.getLastModifiedTime(index));
+          } catch (NoSuchFileException e) {
+            // Evicted by another build.
+          }
+        }
+      }
+      if (lastUsed.size() <= maxIndexes) {
+        return;
+      }
+
+      List<Path> mostRecentlyUsedFirst = Lists.newArrayList(lastUsed.keySet());
+      Collections.sort(
+          mostRecentlyUsedFirst,
+          Ordering.<FileTime>natural().reverse().onResultOf(Functions.forMap(lastUsed)));
+      int numToKeep = Math.max(maxIndexes, usedIndexPaths.size());
+      int numKept = usedIndexPaths.size();
+      for (Path index : mostRecentlyUsedFirst) {
+        if (usedIndexPaths.contains(index)) {
+          continue;
+        }
+        if (numKept < numToKeep) {
+          numKept++;
+        } else {
+          Files.deleteIfExists(index);
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to evict old first order indexes from %s.", indexDir);
+    }
+  }
+
+  private static ImmutableList<FirstOrderTypeInfo> indexJar(Path jarPath) throws IOException {
+    ImmutableList.Builder<FirstOrderTypeInfo> types = ImmutableList.builder();
+    try (JarFile jarFile = new JarFile(jarPath.toFile())) {
+      for (JarEntry entry : Collections.list(jarFile.entries())) {
+        String name = entry.getName();
+        if (entry.isDirectory() || (name == null) || !name.endsWith(".class")) {
+          continue;
+        }
+
+        FirstOrderVisitorContext context = new FirstOrderVisitorContext();
+        try (InputStream stream = jarFile.getInputStream(entry)) {
+          ClassReader reader = new ClassReader(stream);
+          reader.accept(context.classVisitor, ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
+        }
+        types.add(context.builder.build());
+      }
+    }
+    return types.build();
+  }
+
+  private static ImmutableList<FirstOrderTypeInfo> read(InputStream stream) throws IOException {
+    CheckedInputStream checkedStream = new CheckedInputStream(stream, new CRC32());
+    DataInputStream in = new DataInputStream(checkedStream);
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      throw new IOException("Not a first order index, or from a different version of Buck.");
+    }
+
+    int numTypes = in.readInt();
+    ImmutableList.Builder<FirstOrderTypeInfo> types = ImmutableList.builder();
+    for (int i = 0; i < numTypes; i++) {
+      FirstOrderTypeInfo.Builder builder = FirstOrderTypeInfo.builder()
+          .setTypeInternalName(in.readUTF())
+          .setSuperTypeInternalName(in.readUTF());
+      int numInterfaces = in.readInt();
+      for (int j = 0; j < numInterfaces; j++) {
+        builder.addInterfaceTypeInternalName(in.readUTF());
+      }
+      int numDependencies = in.readInt();
+      for (int j = 0; j < numDependencies; j++) {
+        builder.addDependencyInternalName(in.readUTF());
+      }
+      types.add(builder.build());
+    }
+
+    long checksum = checkedStream.getChecksum().getValue();
+    if (in.readLong() != checksum || in.read() != -1) {
+      throw new IOException("First order index is corrupt.");
+    }
+    return types.build();
+  }
+
+  private static void write(OutputStream stream, Collection<FirstOrderTypeInfo> types)
+      throws IOException {
+    CheckedOutputStream checkedStream = new CheckedOutputStream(stream, new CRC32());
+    DataOutputStream out = new DataOutputStream(checkedStream);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(types.size());
+    for (FirstOrderTypeInfo info : types) {
+      out.writeUTF(info.type.getInternalName());
+      out.writeUTF(info.superType.getInternalName());
+      writeTypes(out, info.interfaceTypes);
+      writeTypes(out, info.observedDependencies);
+    }
+    out.flush();
+    out.writeLong(checkedStream.getChecksum().getValue());
+    out.flush();
+  }
+
+  private static void writeTypes(DataOutputStream out, Collection<Type> types)
+      throws IOException {
+    out.writeInt(types.size());
+    for (Type type : types) {
+      out.writeUTF(type.getInternalName());
+    }
+  }
+}
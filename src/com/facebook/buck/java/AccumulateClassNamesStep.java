@@ -17,10 +17,12 @@
 package com.facebook.buck.java;
 
 import com.facebook.buck.event.ThrowableConsoleEvent;
+import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.java.classes.ClasspathTraversal;
 import com.facebook.buck.java.classes.DefaultClasspathTraverser;
 import com.facebook.buck.java.classes.FileLike;
 import com.facebook.buck.java.classes.FileLikes;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.google.common.base.Function;
@@ -37,6 +39,7 @@ import com.google.common.io.ByteSource;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -48,15 +51,33 @@ import java.util.Map.Entry;
  */
 public class AccumulateClassNamesStep implements Step {
 
+  private static final Logger LOG = Logger.get(AccumulateClassNamesStep.class);
+
   /**
    * In the generated {@code classes.txt} file, each line will contain the path to a {@code .class}
    * file (without its suffix) and the SHA-1 hash of its contents, separated by this separator.
    */
   static final String CLASS_NAME_HASH_CODE_SEPARATOR = " ";
 
+  private static final String CLASS_INDEX_SUFFIX = ".classes";
+
+  /**
+   * The last line of an index of class hashes is this followed by the number of classes, so that
+   * an index which was cut short can be told apart from a complete one.
+   */
+  static final String CLASS_INDEX_TRAILER = "# classes: ";
+
   private static final Splitter CLASS_NAME_AND_HASH_SPLITTER = Splitter.on(
       CLASS_NAME_HASH_CODE_SEPARATOR);
 
+  private static final Function<Map.Entry<String, HashCode>, String> FORMAT_CLASS_NAME_AND_HASH =
+      new Function<Map.Entry<String, HashCode>, String>() {
+        @Override
+        public String apply(Entry<String, HashCode> entry) {
+          return entry.getKey() + CLASS_NAME_HASH_CODE_SEPARATOR + entry.getValue();
+        }
+      };
+
   private final Optional<Path> pathToJarOrClassesDirectory;
   private final Path whereClassNamesShouldBeWritten;
 
@@ -90,13 +111,7 @@ public class AccumulateClassNamesStep implements Step {
 
     try {
       context.getProjectFilesystem().writeLinesToPath(
-          Iterables.transform(classNames.entrySet(),
-              new Function<Map.Entry<String, HashCode>, String>() {
-            @Override
-            public String apply(Entry<String, HashCode> entry) {
-              return entry.getKey() + CLASS_NAME_HASH_CODE_SEPARATOR + entry.getValue();
-            }
-          }),
+          Iterables.transform(classNames.entrySet(), FORMAT_CLASS_NAME_AND_HASH),
           whereClassNamesShouldBeWritten);
     } catch (IOException e) {
       context.getBuckEventBus().post(ThrowableConsoleEvent.create(e,
@@ -162,6 +177,99 @@ public class AccumulateClassNamesStep implements Step {
     return Optional.of(classNamesBuilder.build());
   }
 
+  /**
+   * Like {@link #calculateClassHashes(ExecutionContext, Path)}, but the class hashes of a jar are
+   * also kept in {@code indexDir}, keyed by the hash of the jar, so that a jar which is used by
+   * many builds only has to be read by the first of them. Directories are not indexed.
+   * <p>
+   * The index is only a cache: if it can't be read or written, the class hashes are worked out
+   * from the jar instead.
+   *
+   * @return an Optional that will be absent if there was an error.
+   */
+  public static Optional<ImmutableSortedMap<String, HashCode>> calculateClassHashes(
+      ExecutionContext context, Path path, Path indexDir) {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    if (!filesystem.isFile(path)) {
+      return calculateClassHashes(context, path);
+    }
+
+    Path indexPath;
+    try {
+      indexPath = indexDir.resolve(filesystem.computeSha1(path) + CLASS_INDEX_SUFFIX);
+    } catch (IOException e) {
+      context.logError(e, "Error reading class names for %s.", path);
+      return Optional.absent();
+    }
+
+    if (filesystem.isFile(indexPath)) {
+      try {
+        Optional<ImmutableSortedMap<String, HashCode>> classNames =
+            parseClassIndex(filesystem.readLines(indexPath));
+        if (classNames.isPresent()) {
+          return classNames;
+        }
+        LOG.warn("Class names for %s in %s are incomplete, indexing again.", path, indexPath);
+      } catch (IOException e) {
+        LOG.warn(e, "Unable to read class names for %s from %s.", path, indexPath);
+      }
+    }
+
+    Optional<ImmutableSortedMap<String, HashCode>> classNames =
+        calculateClassHashes(context, path);
+    if (classNames.isPresent()) {
+      writeClassIndex(filesystem, classNames.get(), indexDir, indexPath);
+    }
+    return classNames;
+  }
+
+  /**
+   * Writes an index of class hashes, which is only moved into place once it is complete, so that
+   * builds reading it at the same time either see all of it or none of it.
+   */
+  private static void writeClassIndex(
+      ProjectFilesystem filesystem,
+      ImmutableSortedMap<String, HashCode> classNames,
+      Path indexDir,
+      Path indexPath) {
+    Path tempPath = null;
+    try {
+      filesystem.mkdirs(indexDir);
+      tempPath = filesystem.createTempFile(
+          filesystem.resolve(indexDir),
+          indexPath.getFileName().toString(),
+          ".tmp");
+      filesystem.writeLinesToPath(
+          Iterables.concat(
+              Iterables.transform(classNames.entrySet(), FORMAT_CLASS_NAME_AND_HASH),
+              Collections.singleton(CLASS_INDEX_TRAILER + classNames.size())),
+          tempPath);
+      filesystem.move(tempPath, indexPath, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      // The class names can always be worked out again.
+      LOG.warn(e, "Unable to write class names to %s.", indexPath);
+      if (tempPath != null) {
+        filesystem.deleteFileAtPath(tempPath);
+      }
+    }
+  }
+
+  /**
+   * @return the class hashes in an index, or absent if it was not written in full.
+   */
+  private static Optional<ImmutableSortedMap<String, HashCode>> parseClassIndex(
+      List<String> lines) {
+    if (lines.isEmpty() ||
+        !Iterables.getLast(lines).equals(CLASS_INDEX_TRAILER + (lines.size() - 1))) {
+      return Optional.absent();
+    }
+    try {
+      return Optional.of(parseClassHashes(lines.subList(0, lines.size() - 1)));
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      return Optional.absent();
+    }
+  }
+
   /**
    * @param lines that were written in the same format output by {@link #execute(ExecutionContext)}.
    */
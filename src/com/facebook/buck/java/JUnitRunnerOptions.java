@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.util.immutables.BuckStyleImmutable;
+
+import org.immutables.value.Value;
+
+/**
+ * How the JUnit tests of a {@code java_test()} are run. The defaults start a fresh JVM for each
+ * test rule, which runs its test classes one at a time.
+ */
+@Value.Immutable
+@BuckStyleImmutable
+public abstract class JUnitRunnerOptions {
+
+  /**
+   * The number of test classes run at once in each test JVM. Above 1, each test class is run in a
+   * class loader of its own, so that test classes can't see each other's static state.
+   */
+  @Value.Default
+  public int getThreadsPerJvm() {
+    return 1;
+  }
+
+  /**
+   * Whether tests are run in warm worker JVMs which are kept around between test rules, rather than
+   * a fresh JVM per test rule. Workers always isolate test classes from one another.
+   */
+  @Value.Default
+  public boolean isUsingWorkers() {
+    return false;
+  }
+
+  /**
+   * The number of worker JVMs the test classes of a single test rule are split over. Only used
+   * when running tests in workers.
+   */
+  @Value.Default
+  public int getShardsPerRule() {
+    return 1;
+  }
+
+  @Value.Check
+  protected void check() {
+    if (getThreadsPerJvm() < 1 || getShardsPerRule() < 1) {
+      throw new IllegalArgumentException("JUnit threads and shards must be at least 1.");
+    }
+  }
+
+  public static JUnitRunnerOptions defaults() {
+    return ImmutableJUnitRunnerOptions.builder().build();
+  }
+}
@@ -16,13 +16,20 @@
 
 package com.facebook.buck.java;
 
+import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.shell.ShellStep;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.test.TestTimings;
 import com.facebook.buck.test.selectors.TestSelectorList;
 import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.ProcessExecutor;
+import com.facebook.buck.util.concurrent.MoreExecutors;
+import com.facebook.buck.worker.ImmutableWorkerJvm;
+import com.facebook.buck.worker.WorkerJvm;
+import com.facebook.buck.worker.WorkerResult;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
@@ -32,10 +39,15 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public class JUnitStep extends ShellStep {
 
@@ -46,6 +58,15 @@ public class JUnitStep extends ShellStep {
   @VisibleForTesting
   static final String TESTNG_TEST_RUNNER_CLASS_NAME =
       "com.facebook.buck.junit.TestNGMain";
+  @VisibleForTesting
+  static final String PARALLEL_JUNIT_TEST_RUNNER_CLASS_NAME =
+      "com.facebook.buck.junit.ParallelJUnitMain";
+
+  /**
+   * Test classes may leave threads behind which keep their class loaders alive, so don't let a
+   * worker run too many test rules before replacing it with a fresh JVM.
+   */
+  private static final int MAX_TEST_RULES_PER_WORKER = 20;
 
   private static final Path TESTRUNNER_CLASSES =
       Paths.get(
@@ -69,6 +90,7 @@ public class JUnitStep extends ShellStep {
   private final boolean isDryRun;
   private final TestType type;
   private final Optional<Long> testRuleTimeoutMs;
+  private final JUnitRunnerOptions junitRunnerOptions;
 
   // Set when the junit command times out.
   private boolean hasTimedOut = false;
@@ -93,6 +115,7 @@ public class JUnitStep extends ShellStep {
    * @param testClassNames the fully qualified names of the Java tests to run
    * @param directoryForTestResults directory where test results should be written
    * @param tmpDirectory directory tests can use for local file scratch space.
+   * @param junitRunnerOptions how to run JUnit tests. Ignored for other types of test.
    */
   public JUnitStep(
       Set<Path> classpathEntries,
@@ -106,7 +129,8 @@ public class JUnitStep extends ShellStep {
       TestSelectorList testSelectorList,
       boolean isDryRun,
       TestType type,
-      Optional<Long> testRuleTimeoutMs) {
+      Optional<Long> testRuleTimeoutMs,
+      JUnitRunnerOptions junitRunnerOptions) {
     this(classpathEntries,
         testClassNames,
         vmArgs,
@@ -119,7 +143,8 @@ public class JUnitStep extends ShellStep {
         isDryRun,
         type,
         TESTRUNNER_CLASSES,
-        testRuleTimeoutMs);
+        testRuleTimeoutMs,
+        junitRunnerOptions);
   }
 
   @VisibleForTesting
@@ -136,7 +161,8 @@ public class JUnitStep extends ShellStep {
       boolean isDryRun,
       TestType type,
       Path testRunnerClasspath,
-      Optional<Long> testRuleTimeoutMs) {
+      Optional<Long> testRuleTimeoutMs,
+      JUnitRunnerOptions junitRunnerOptions) {
     this.classpathEntries = ImmutableSet.copyOf(classpathEntries);
     this.testClassNames = Iterables.unmodifiableIterable(testClassNames);
     this.vmArgs = ImmutableList.copyOf(vmArgs);
@@ -150,6 +176,7 @@ public class JUnitStep extends ShellStep {
     this.type = type;
     this.testRunnerClasspath = testRunnerClasspath;
     this.testRuleTimeoutMs = testRuleTimeoutMs;
+    this.junitRunnerOptions = junitRunnerOptions;
   }
 
   @Override
@@ -197,26 +224,46 @@ public class JUnitStep extends ShellStep {
       args.add("-verbose");
     }
 
-    // Build up the -classpath argument, starting with the classpath entries the client specified.
-    List<Path> classpath = Lists.newArrayList(classpathEntries);
-
-    // Finally, include an entry for the test runner.
-    classpath.add(testRunnerClasspath);
-
     // Add the -classpath argument.
-    args.add("-classpath").add(Joiner.on(File.pathSeparator).join(classpath));
+    args.add("-classpath").add(Joiner.on(File.pathSeparator).join(getClasspath()));
 
     // Specify the Java class whose main() method should be run. This is the class that is
     // responsible for running the tests.
-    if (TestType.JUNIT == type) {
+    if (isRunningInParallel()) {
+      args.add(PARALLEL_JUNIT_TEST_RUNNER_CLASS_NAME);
+      args.addAll(getParallelRunnerArgs(context, testClassNames));
+    } else if (TestType.JUNIT == type) {
       args.add(JUNIT_TEST_RUNNER_CLASS_NAME);
+      args.addAll(getRunnerArgs(context, testClassNames));
     } else if (TestType.TESTNG == type) {
       args.add(TESTNG_TEST_RUNNER_CLASS_NAME);
+      args.addAll(getRunnerArgs(context, testClassNames));
     } else {
       throw new IllegalArgumentException(
           "java_test: unrecognized type " + type + ", expected eg. junit or testng");
     }
 
+    return args.build();
+  }
+
+  private List<Path> getClasspath() {
+    // Build up the -classpath argument, starting with the classpath entries the client specified.
+    List<Path> classpath = Lists.newArrayList(classpathEntries);
+
+    // Finally, include an entry for the test runner.
+    classpath.add(testRunnerClasspath);
+
+    return classpath;
+  }
+
+  /**
+   * @return the arguments expected by both {@code JUnitMain} and {@code TestNGMain}.
+   */
+  private ImmutableList<String> getRunnerArgs(
+      ExecutionContext context,
+      Iterable<String> testClassNames) {
+    ImmutableList.Builder<String> args = ImmutableList.builder();
+
     // The first argument to the test runner is where the test results should be written. It is not
     // reliable to write test results to stdout or stderr because there may be output from the unit
     // tests written to those file descriptors, as well.
@@ -246,6 +293,134 @@ public class JUnitStep extends ShellStep {
     return args.build();
   }
 
+  /**
+   * @return the arguments expected by {@code ParallelJUnitMain}.
+   */
+  private ImmutableList<String> getParallelRunnerArgs(
+      ExecutionContext context,
+      Iterable<String> testClassNames) {
+    // When the JVM is shared by several test rules, the per-rule system properties can't be given
+    // on its command line, so the launcher sets them, one per line, from a single argument.
+    StringBuilder propertiesArgBuilder = new StringBuilder();
+    for (String property : getSystemProperties()) {
+      propertiesArgBuilder.append(property).append("\n");
+    }
+
+    return ImmutableList.<String>builder()
+        .add(String.valueOf(junitRunnerOptions.getThreadsPerJvm()))
+        .add(Joiner.on(File.pathSeparator).join(getClasspath()))
+        .add(propertiesArgBuilder.toString())
+        .addAll(getRunnerArgs(context, testClassNames))
+        .build();
+  }
+
+  /**
+   * @return the {@code key=value} system properties for the tests of this rule.
+   */
+  private ImmutableList<String> getSystemProperties() {
+    ImmutableList.Builder<String> properties = ImmutableList.builder();
+    properties.add(String.format("java.io.tmpdir=%s", tmpDirectory));
+    properties.add(String.format("%s=%s", BUILD_ID_PROPERTY, buildId));
+    for (String vmArg : vmArgs) {
+      if (vmArg.startsWith("-D")) {
+        properties.add(vmArg.substring("-D".length()));
+      }
+    }
+    return properties.build();
+  }
+
+  /**
+   * Whether the test classes are run by {@code ParallelJUnitMain}, each in a class loader of its
+   * own, rather than one after another in a single class loader.
+   */
+  private boolean isRunningInParallel() {
+    return TestType.JUNIT == type &&
+        (junitRunnerOptions.getThreadsPerJvm() > 1 || isUsingWorkers());
+  }
+
+  /**
+   * Whether the tests are run in reusable worker JVMs. Workers aren't used when the JVM must be
+   * configured specially for this rule, or when the rule as a whole might need to be timed out.
+   */
+  private boolean isUsingWorkers() {
+    return TestType.JUNIT == type &&
+        junitRunnerOptions.isUsingWorkers() &&
+        !isCodeCoverageEnabled &&
+        !isDebugEnabled &&
+        !testRuleTimeoutMs.isPresent();
+  }
+
+  @Override
+  public int execute(final ExecutionContext context) throws InterruptedException {
+    if (!isUsingWorkers()) {
+      return super.execute(context);
+    }
+
+    // System properties are set by the launcher, so that workers can be shared by test rules with
+    // different properties.
+    ImmutableList.Builder<String> jvmArgs = ImmutableList.builder();
+    jvmArgs.add(String.format("-Dbuck.testrunner_classes=%s", testRunnerClasspath));
+    for (String vmArg : vmArgs) {
+      if (!vmArg.startsWith("-D")) {
+        jvmArgs.add(vmArg);
+      }
+    }
+    final WorkerJvm jvm = ImmutableWorkerJvm.builder()
+        .setClasspath(ImmutableList.of(testRunnerClasspath))
+        .setMainClass(PARALLEL_JUNIT_TEST_RUNNER_CLASS_NAME)
+        .setJvmArgs(jvmArgs.build())
+        .setWorkingDirectory(context.getProjectDirectoryRoot().toAbsolutePath())
+        .setMaxRequestsPerWorker(MAX_TEST_RULES_PER_WORKER)
+        .build();
+
+    // Split the test classes over several workers, if asked to, so that the workers take about as
+    // long as each other according to how long each test class took last time.
+    int numShards = Math.max(
+        1,
+        Math.min(junitRunnerOptions.getShardsPerRule(), Iterables.size(testClassNames)));
+    Function<String, Optional<Long>> getTestClassTime = new Function<String, Optional<Long>>() {
+      @Override
+      public Optional<Long> apply(String testClassName) {
+        return context.getTestTimings().getTestCaseTimeMillis(testClassName);
+      }
+    };
+    List<Callable<WorkerResult>> shards = Lists.newArrayList();
+    for (List<String> shard : TestTimings.balance(testClassNames, getTestClassTime, numShards)) {
+      final ImmutableList<String> args = getParallelRunnerArgs(context, shard);
+      shards.add(
+          new Callable<WorkerResult>() {
+            @Override
+            public WorkerResult call() throws IOException, InterruptedException {
+              return context.getWorkerProcessPool().run(jvm, args);
+            }
+          });
+    }
+
+    ExecutorService executor = MoreExecutors.newMultiThreadExecutor(getShortName(), numShards);
+    try {
+      int exitCode = 0;
+      for (Future<WorkerResult> future : executor.invokeAll(shards)) {
+        WorkerResult result;
+        try {
+          result = future.get();
+        } catch (ExecutionException e) {
+          context.logError(e.getCause(), "Unable to run tests in a worker.");
+          exitCode = 1;
+          continue;
+        }
+        if (!result.getStderr().isEmpty() && shouldPrintStderr(context.getVerbosity())) {
+          context.postEvent(ConsoleEvent.warning("%s", result.getStderr()));
+        }
+        if (result.getExitCode() != 0) {
+          exitCode = result.getExitCode();
+        }
+      }
+      return exitCode;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   @Override
   public ImmutableMap<String, String> getEnvironmentVariables(ExecutionContext context) {
     return ImmutableMap.of("TMP", tmpDirectory.toString());
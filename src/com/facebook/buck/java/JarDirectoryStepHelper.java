@@ -24,6 +24,8 @@ import com.facebook.buck.io.DirectoryTraversal;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.zip.CustomZipOutputStream;
+import com.facebook.buck.zip.RawZipEntry;
+import com.facebook.buck.zip.RawZipFile;
 import com.facebook.buck.zip.ZipOutputStreams;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
@@ -38,7 +40,6 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
-import java.util.Enumeration;
 import java.util.Map;
 import java.util.Set;
 import java.util.jar.Attributes;
@@ -47,8 +48,6 @@ import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.logging.Level;
 import java.util.regex.Pattern;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 import javax.annotation.Nullable;
 
@@ -138,10 +137,9 @@ public class JarDirectoryStepHelper {
       Set<String> alreadyAddedEntries,
       BuckEventBus eventBus,
       Iterable<Pattern> blacklist) throws IOException {
-    try (ZipFile zip = new ZipFile(file)) {
+    try (RawZipFile zip = new RawZipFile(file.toPath())) {
       zipEntryLoop:
-      for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
-        ZipEntry entry = entries.nextElement();
+      for (RawZipEntry entry : zip.getEntries()) {
         String entryName = entry.getName();
 
         if (entryName.equals(JarFile.MANIFEST_NAME)) {
@@ -159,7 +157,9 @@ public class JarDirectoryStepHelper {
         if (!isDuplicateAllowed(entryName) && !alreadyAddedEntries.add(entryName)) {
           // Duplicate entries. Skip.
           eventBus.post(ConsoleEvent.create(
-              determineSeverity(entry), "Duplicate found when adding file to jar: %s", entryName));
+              determineSeverity(entryName),
+              "Duplicate found when adding file to jar: %s",
+              entryName));
           continue;
         }
 
@@ -171,35 +171,20 @@ public class JarDirectoryStepHelper {
           }
         }
 
-        ZipEntry newEntry = new ZipEntry(entry);
-
-        // For deflated entries, the act of re-"putting" this entry means we're re-compressing
-        // the data that we've just uncompressed.  Due to various environmental issues (e.g. a
-        // newer version of zlib, changed compression settings), we may end up with a different
-        // compressed size.  This causes an issue in java's `java.util.zip.ZipOutputStream`
-        // implementation, as it only updates the compressed size field if one of `crc`,
-        // `compressedSize`, or `size` is -1.  When we copy the entry as-is, none of these are
-        // -1, and we may end up with an incorrect compressed size, in which case, we'll get an
-        // exception.  So, for deflated entries, reset the compressed size to -1 (as the
-        // ZipEntry(String) would).
-        // See https://github.com/spearce/buck/commit/8338c1c3d4a546f577eed0c9941d9f1c2ba0a1b7.
-        if (entry.getMethod() == ZipEntry.DEFLATED) {
-          newEntry.setCompressedSize(-1);
-        }
-
-        jar.putNextEntry(newEntry);
-        InputStream inputStream = zip.getInputStream(entry);
-        ByteStreams.copy(inputStream, jar);
-        jar.closeEntry();
+        // Copy the entry without inflating and deflating it again: the data and its CRC are known
+        // to be good, and this keeps merging jars cheap.
+        zip.copyEntry(entry, jar);
       }
     }
   }
 
-  private static Level determineSeverity(ZipEntry entry) {
-    return entry.isDirectory() ? Level.FINE : Level.INFO;
+  private static Level determineSeverity(String entryName) {
+    // Directory entries are named with a trailing slash.
+    return entryName.endsWith("/") ? Level.FINE : Level.INFO;
   }
 
-  private static Manifest readManifest(ZipFile zip, ZipEntry manifestMfEntry) throws IOException {
+  private static Manifest readManifest(RawZipFile zip, RawZipEntry manifestMfEntry)
+      throws IOException {
     try (
         ByteArrayOutputStream output = new ByteArrayOutputStream((int) manifestMfEntry.getSize());
         InputStream stream = zip.getInputStream(manifestMfEntry);
@@ -231,7 +216,7 @@ public class JarDirectoryStepHelper {
           if (!isDuplicateAllowed(entryName) && !alreadyAddedEntries.add(entryName)) {
             if (!entryName.endsWith("/")) {
               eventBus.post(ConsoleEvent.create(
-                  determineSeverity(entry),
+                  determineSeverity(entryName),
                   "Duplicate found when adding directory to jar: %s", relativePath));
             }
               return;
@@ -72,6 +72,25 @@ public class JavaBuckConfig {
         .build();
   }
 
+  public JUnitRunnerOptions getJUnitRunnerOptions() {
+    ImmutableJUnitRunnerOptions.Builder options = ImmutableJUnitRunnerOptions.builder()
+        .setUsingWorkers(delegate.getBooleanValue("test", "junit_use_workers", false));
+    Optional<Long> threads = delegate.getLong("test", "junit_threads");
+    if (threads.isPresent()) {
+      options.setThreadsPerJvm(threads.get().intValue());
+    }
+    Optional<Long> shards = delegate.getLong("test", "junit_shards");
+    if (shards.isPresent()) {
+      options.setShardsPerRule(shards.get().intValue());
+    }
+    try {
+      return options.build();
+    } catch (IllegalArgumentException e) {
+      throw new HumanReadableException(
+          "test.junit_threads and test.junit_shards must be at least 1.");
+    }
+  }
+
   @VisibleForTesting
   Optional<Path> getJavacPath() {
     Optional<String> path = delegate.getValue("tools", "javac");
@@ -83,6 +83,8 @@ public class JavaTest extends DefaultJavaLibrary implements TestRule {
 
   private final Optional<Long> testRuleTimeoutMs;
 
+  private final JUnitRunnerOptions junitRunnerOptions;
+
   private static final int TEST_CLASSES_SHUFFLE_SEED = 0xFACEB00C;
 
   private static final Logger LOG = Logger.get(JavaTest.class);
@@ -104,7 +106,8 @@ public class JavaTest extends DefaultJavaLibrary implements TestRule {
       List<String> vmArgs,
       ImmutableSet<BuildRule> sourceUnderTest,
       Optional<Path> resourcesRoot,
-      Optional<Long> testRuleTimeoutMs) {
+      Optional<Long> testRuleTimeoutMs,
+      JUnitRunnerOptions junitRunnerOptions) {
     super(
         params,
         resolver,
@@ -124,6 +127,7 @@ public class JavaTest extends DefaultJavaLibrary implements TestRule {
     this.additionalClasspathEntries = addtionalClasspathEntries;
     this.testType = testType;
     this.testRuleTimeoutMs = testRuleTimeoutMs;
+    this.junitRunnerOptions = junitRunnerOptions;
   }
 
   @Override
@@ -212,7 +216,8 @@ public class JavaTest extends DefaultJavaLibrary implements TestRule {
         testSelectorList,
         isDryRun,
         testType,
-        testRuleTimeoutMs);
+        testRuleTimeoutMs,
+        junitRunnerOptions);
     steps.add(junit);
 
     return steps.build();
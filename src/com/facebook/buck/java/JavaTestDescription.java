@@ -42,12 +42,15 @@ public class JavaTestDescription implements Description<JavaTestDescription.Arg>
 
   private final JavacOptions templateOptions;
   private final Optional<Long> testRuleTimeoutMs;
+  private final JUnitRunnerOptions junitRunnerOptions;
 
   public JavaTestDescription(
       JavacOptions templateOptions,
-      Optional<Long> testRuleTimeoutMs) {
+      Optional<Long> testRuleTimeoutMs,
+      JUnitRunnerOptions junitRunnerOptions) {
     this.templateOptions = templateOptions;
     this.testRuleTimeoutMs = testRuleTimeoutMs;
+    this.junitRunnerOptions = junitRunnerOptions;
   }
 
   @Override
@@ -97,7 +100,8 @@ public class JavaTestDescription implements Description<JavaTestDescription.Arg>
             params.getBuildTarget(),
             resolver),
         args.resourcesRoot,
-        testRuleTimeoutMs);
+        testRuleTimeoutMs,
+        junitRunnerOptions);
   }
 
   public static ImmutableSet<BuildRule> validateAndGetSourcesUnderTest(
@@ -111,6 +111,22 @@ public abstract class JavacOptions implements RuleKeyAppendable {
     return new Jsr199Javac(getJavacJarPath());
   }
 
+  /**
+   * @return which compiler {@link #getJavac()} runs, down to its version, for outputs which are
+   *     reused between builds without going through a rule key.
+   */
+  public String describeJavac() {
+    Optional<Path> externalJavac = getJavacPath();
+    if (externalJavac.isPresent()) {
+      return externalJavac.get() + " " + getJavac().getVersion().getVersionString();
+    }
+    if (getJavacJarPath().isPresent()) {
+      return "jsr199 " + getJavacJarPath().get();
+    }
+    // The system compiler is the one from the JDK that Buck is running on.
+    return "jsr199 " + System.getProperty("java.version");
+  }
+
   public void appendOptionsToList(
       ImmutableList.Builder<String> optionsBuilder,
       final Function<Path, Path> pathRelativizer) {
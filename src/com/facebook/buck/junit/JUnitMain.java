@@ -16,6 +16,9 @@
 
 package com.facebook.buck.junit;
 
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Launcher for JUnit.
  * <p>
@@ -46,4 +49,22 @@ public class JUnitMain {
     runner.parseArgs(args);
     runner.runAndExit();
   }
+
+  /**
+   * Runs the tests described by {@code args} without exiting the JVM, capturing the output of
+   * each test through the given redirects. This is the entry point used by
+   * {@link ParallelJUnitMain}, which calls it reflectively from a separate class loader, so its
+   * signature must only use JDK types.
+   */
+  public static void runInProcess(
+      String[] args,
+      AtomicReference<PrintStream> stdOutRedirect,
+      AtomicReference<PrintStream> stdErrRedirect) throws Throwable {
+    CheckDependency.isPresent("junit", "org.junit.Test");
+    CheckDependency.isPresent("hamcrest", "org.hamcrest.Description");
+
+    JUnitRunner runner = new JUnitRunner(stdOutRedirect, stdErrRedirect);
+    runner.parseArgs(args);
+    runner.run();
+  }
 }
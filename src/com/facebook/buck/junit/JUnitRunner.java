@@ -39,6 +39,7 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Class that runs a set of JUnit tests and writes the results to a directory.
@@ -48,7 +49,26 @@ import java.util.List;
  * not to interfere with the results of the test.
  */
 public final class JUnitRunner extends BaseRunner {
+
+  /* @Nullable */
+  private final AtomicReference<PrintStream> stdOutRedirect;
+  /* @Nullable */
+  private final AtomicReference<PrintStream> stdErrRedirect;
+
   public JUnitRunner() {
+    this(null, null);
+  }
+
+  /**
+   * @param stdOutRedirect if non-null, the output of each test is captured by pointing this at a
+   *     buffer while the test runs, rather than by replacing {@link System#out}, which is shared by
+   *     every test running in the JVM. Likewise for {@code stdErrRedirect}.
+   */
+  public JUnitRunner(
+      /* @Nullable */ AtomicReference<PrintStream> stdOutRedirect,
+      /* @Nullable */ AtomicReference<PrintStream> stdErrRedirect) {
+    this.stdOutRedirect = stdOutRedirect;
+    this.stdErrRedirect = stdErrRedirect;
   }
 
   @Override
@@ -100,7 +120,7 @@ public final class JUnitRunner extends BaseRunner {
         Request request = Request.runner(suite);
         request = request.filterWith(filter);
 
-        jUnitCore.addListener(new TestListener(results));
+        jUnitCore.addListener(new TestListener(results, stdOutRedirect, stdErrRedirect));
         jUnitCore.run(request);
       }
 
@@ -259,6 +279,10 @@ public final class JUnitRunner extends BaseRunner {
    */
   private static class TestListener extends RunListener {
     private final List<TestResult> results;
+    /* @Nullable */
+    private final AtomicReference<PrintStream> stdOutRedirect;
+    /* @Nullable */
+    private final AtomicReference<PrintStream> stdErrRedirect;
     private PrintStream originalOut, originalErr, stdOutStream, stdErrStream;
     private ByteArrayOutputStream rawStdOutBytes, rawStdErrBytes;
     private Result result;
@@ -268,24 +292,34 @@ public final class JUnitRunner extends BaseRunner {
     // To help give a reasonable (though imprecise) guess at the runtime for unpaired failures
     private long startTime = System.currentTimeMillis();
 
-    public TestListener(List<TestResult> results) {
+    public TestListener(
+        List<TestResult> results,
+        /* @Nullable */ AtomicReference<PrintStream> stdOutRedirect,
+        /* @Nullable */ AtomicReference<PrintStream> stdErrRedirect) {
       this.results = results;
+      this.stdOutRedirect = stdOutRedirect;
+      this.stdErrRedirect = stdErrRedirect;
     }
 
     @Override
     public void testStarted(Description description) throws Exception {
       // Create an intermediate stdout/stderr to capture any debugging statements (usually in the
       // form of System.out.println) the developer is using to debug the test.
-      originalOut = System.out;
-      originalErr = System.err;
       rawStdOutBytes = new ByteArrayOutputStream();
       rawStdErrBytes = new ByteArrayOutputStream();
       stdOutStream = new PrintStream(
           rawStdOutBytes, true /* autoFlush */, ENCODING);
       stdErrStream = new PrintStream(
           rawStdErrBytes, true /* autoFlush */, ENCODING);
-      System.setOut(stdOutStream);
-      System.setErr(stdErrStream);
+      if (stdOutRedirect != null && stdErrRedirect != null) {
+        stdOutRedirect.set(stdOutStream);
+        stdErrRedirect.set(stdErrStream);
+      } else {
+        originalOut = System.out;
+        originalErr = System.err;
+        System.setOut(stdOutStream);
+        System.setErr(stdErrStream);
+      }
 
       // Prepare single-test result.
       result = new Result();
@@ -302,8 +336,13 @@ public final class JUnitRunner extends BaseRunner {
       resultListener = null;
 
       // Restore the original stdout/stderr.
-      System.setOut(originalOut);
-      System.setErr(originalErr);
+      if (stdOutRedirect != null && stdErrRedirect != null) {
+        stdOutRedirect.set(null);
+        stdErrRedirect.set(null);
+      } else {
+        System.setOut(originalOut);
+        System.setErr(originalErr);
+      }
 
       // Get the stdout/stderr written during the test as strings.
       stdOutStream.flush();
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.junit;
+
+import com.facebook.buck.util.concurrent.MoreExecutors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Launcher which runs several JUnit test classes at once in a single JVM.
+ * <p>
+ * Each test class is run by a fresh copy of {@link JUnitRunner}, JUnit, and the code under test,
+ * loaded in a class loader of its own, so that static state can't leak from one test class to
+ * another. As the JVM itself is shared, this launcher is also suitable for running in a worker JVM
+ * which is reused from one test rule to the next: the system properties it sets for a test rule,
+ * and any the tests set themselves, are put back as they were once the rule's tests have run.
+ * <p>
+ * Expected arguments are:
+ * <ul>
+ *   <li>(int) number of test classes to run at once
+ *   <li>(string) classpath of the tests, including the test runner, separated by
+ *       {@link File#pathSeparator}
+ *   <li>(string) newline separated list of {@code key=value} system properties to set
+ *   <li>(string...) the arguments expected by {@link JUnitMain}
+ * </ul>
+ * <p>
+ * IMPORTANT! This class limits itself to types that are available in both the JDK and Android
+ * Java API. The objective is to limit the set of files added to the ClassLoader that runs the test,
+ * as not to interfere with the results of the test.
+ */
+public class ParallelJUnitMain {
+
+  /**
+   * The number of {@link JUnitMain} arguments which precede the names of the test classes.
+   */
+  private static final int NUM_RUNNER_OPTIONS = 4;
+
+  /**
+   * Where {@link System#out} should go for the current thread. The holder itself is inherited by
+   * threads started while running a test class, so that their output is captured too.
+   */
+  private static final InheritableThreadLocal<AtomicReference<PrintStream>> STDOUT_REDIRECT =
+      new InheritableThreadLocal<>();
+  private static final InheritableThreadLocal<AtomicReference<PrintStream>> STDERR_REDIRECT =
+      new InheritableThreadLocal<>();
+
+  private ParallelJUnitMain() {
+    // Launcher class.
+  }
+
+  public static void main(String[] args) throws Throwable {
+    if (args.length < 3 + NUM_RUNNER_OPTIONS + 1) {
+      System.err.println(
+          "Must specify a number of threads, a classpath, system properties, and the arguments " +
+          "for the test runner.");
+      System.exit(1);
+    }
+
+    int numThreads = Math.max(1, Integer.parseInt(args[0]));
+    URL[] classpath = parseClasspath(args[1]);
+    String[] runnerOptions = Arrays.copyOfRange(args, 3, 3 + NUM_RUNNER_OPTIONS);
+    List<String> testClassNames = Arrays.asList(args).subList(3 + NUM_RUNNER_OPTIONS, args.length);
+
+    // Copy the properties rather than hold on to them, as they're changed in place.
+    Properties originalProperties = new Properties();
+    originalProperties.putAll(System.getProperties());
+    setSystemProperties(args[2]);
+
+    PrintStream originalOut = System.out;
+    PrintStream originalErr = System.err;
+    System.setOut(
+        new PrintStream(new RedirectingOutputStream(STDOUT_REDIRECT, originalOut), true, "UTF-8"));
+    System.setErr(
+        new PrintStream(new RedirectingOutputStream(STDERR_REDIRECT, originalErr), true, "UTF-8"));
+
+    ExecutorService executor = MoreExecutors.newMultiThreadExecutor(
+        new MoreExecutors.NamedThreadFactory(ParallelJUnitMain.class.getSimpleName()) {
+          @Override
+          public Thread newThread(Runnable r) {
+            // Don't let a test class which hangs keep the JVM alive.
+            Thread thread = super.newThread(r);
+            thread.setDaemon(true);
+            return thread;
+          }
+        },
+        numThreads);
+    try {
+      List<Future<Void>> results = new ArrayList<>();
+      for (String testClassName : testClassNames) {
+        results.add(
+            executor.submit(new IsolatedTestClass(classpath, runnerOptions, testClassName)));
+      }
+      for (Future<Void> result : results) {
+        try {
+          result.get();
+        } catch (ExecutionException e) {
+          // As with JUnitMain, an error in the runner itself is reported here, and the missing
+          // results for the test class are reported by Buck.
+          e.getCause().printStackTrace(originalErr);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+      System.setOut(originalOut);
+      System.setErr(originalErr);
+      System.setProperties(originalProperties);
+    }
+
+    // Exit explicitly for the same reasons as BaseRunner.runAndExit().
+    System.exit(0);
+  }
+
+  private static URL[] parseClasspath(String classpath) throws IOException {
+    List<URL> urls = new ArrayList<>();
+    for (String entry : classpath.split(File.pathSeparator)) {
+      if (!entry.isEmpty()) {
+        urls.add(new File(entry).getAbsoluteFile().toURI().toURL());
+      }
+    }
+    return urls.toArray(new URL[urls.size()]);
+  }
+
+  private static void setSystemProperties(String properties) {
+    for (String property : properties.split("\n")) {
+      if (property.isEmpty()) {
+        continue;
+      }
+      int equals = property.indexOf('=');
+      if (equals < 0) {
+        System.setProperty(property, "");
+      } else {
+        System.setProperty(property.substring(0, equals), property.substring(equals + 1));
+      }
+    }
+  }
+
+  /**
+   * Runs a single test class in a class loader of its own.
+   */
+  private static class IsolatedTestClass implements Callable<Void> {
+    private final URL[] classpath;
+    private final String[] runnerArgs;
+
+    public IsolatedTestClass(URL[] classpath, String[] runnerOptions, String testClassName) {
+      this.classpath = classpath;
+      this.runnerArgs = Arrays.copyOf(runnerOptions, runnerOptions.length + 1);
+      this.runnerArgs[runnerOptions.length] = testClassName;
+    }
+
+    @Override
+    public Void call() throws Exception {
+      // The parent of the system class loader only sees the JDK, so everything else, including
+      // JUnit and the test runner, is loaded afresh from the test classpath.
+      URLClassLoader classLoader =
+          new URLClassLoader(classpath, ClassLoader.getSystemClassLoader().getParent());
+      Thread thread = Thread.currentThread();
+      ClassLoader originalContextClassLoader = thread.getContextClassLoader();
+      thread.setContextClassLoader(classLoader);
+      AtomicReference<PrintStream> stdOut = new AtomicReference<>();
+      AtomicReference<PrintStream> stdErr = new AtomicReference<>();
+      STDOUT_REDIRECT.set(stdOut);
+      STDERR_REDIRECT.set(stdErr);
+      try {
+        Method runInProcess = classLoader.loadClass(JUnitMain.class.getName()).getMethod(
+            "runInProcess",
+            String[].class,
+            AtomicReference.class,
+            AtomicReference.class);
+        runInProcess.invoke(null, runnerArgs, stdOut, stdErr);
+      } catch (InvocationTargetException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Exception) {
+          throw (Exception) cause;
+        }
+        throw e;
+      } finally {
+        STDOUT_REDIRECT.remove();
+        STDERR_REDIRECT.remove();
+        thread.setContextClassLoader(originalContextClassLoader);
+        classLoader.close();
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Sends output to wherever the current thread's redirect points, or to a fallback stream if it
+   * doesn't point anywhere.
+   */
+  private static class RedirectingOutputStream extends OutputStream {
+    private final ThreadLocal<AtomicReference<PrintStream>> redirect;
+    private final PrintStream fallback;
+
+    public RedirectingOutputStream(
+        ThreadLocal<AtomicReference<PrintStream>> redirect,
+        PrintStream fallback) {
+      this.redirect = redirect;
+      this.fallback = fallback;
+    }
+
+    private PrintStream getTarget() {
+      AtomicReference<PrintStream> holder = redirect.get();
+      PrintStream target = holder == null ? null : holder.get();
+      return target == null ? fallback : target;
+    }
+
+    @Override
+    public void write(int b) {
+      getTarget().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      getTarget().write(b, off, len);
+    }
+
+    @Override
+    public void flush() {
+      getTarget().flush();
+    }
+  }
+}
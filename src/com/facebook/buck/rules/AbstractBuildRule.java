@@ -183,6 +183,14 @@ public abstract class AbstractBuildRule implements BuildRule {
     return ruleKeyPair;
   }
 
+  /**
+   * @return the factory for the {@link RuleKey.Builder}s of this rule, for subclasses which work
+   *     out other {@link RuleKey}s in the same way as {@link #getRuleKey()}.
+   */
+  protected final RuleKeyBuilderFactory getRuleKeyBuilderFactory() {
+    return ruleKeyBuilderFactory;
+  }
+
   @Override
   public CacheMode getCacheMode() {
     return CacheMode.ENABLED;
@@ -74,7 +74,6 @@ public class BuildInfoRecorder {
   private final BuildId buildId;
   private final String artifactExtraData;
   private final Map<String, String> metadataToWrite;
-  private final RuleKey ruleKey;
 
   /**
    * Every value in this set is a path relative to the project root.
@@ -125,7 +124,6 @@ public class BuildInfoRecorder {
         ruleKey.toString());
     metadataToWrite.put(BuildInfo.METADATA_KEY_FOR_RULE_KEY_WITHOUT_DEPS,
         rukeKeyWithoutDeps.toString());
-    this.ruleKey = ruleKey;
     this.pathsToOutputFiles = Sets.newHashSet();
     this.pathsToOutputDirectories = Sets.newHashSet();
     this.directoryTraverser = directoryTraverser;
@@ -164,9 +162,13 @@ public class BuildInfoRecorder {
   }
 
   /**
-   * Creates a zip file of the metadata and recorded artifacts and stores it in the artifact cache.
+   * Creates a zip file of the metadata and recorded artifacts and stores it in the artifact cache,
+   * under each of {@code ruleKeys}.
    */
-  public void performUploadToArtifactCache(ArtifactCache artifactCache, BuckEventBus eventBus)
+  public void performUploadToArtifactCache(
+      ImmutableSet<RuleKey> ruleKeys,
+      ArtifactCache artifactCache,
+      BuckEventBus eventBus)
       throws InterruptedException {
     // Skip all of this if caching is disabled. Although artifactCache.store() will be a noop,
     // building up the zip is wasted I/O.
@@ -213,7 +215,9 @@ public class BuildInfoRecorder {
       e.printStackTrace();
       return;
     }
-    artifactCache.store(ruleKey, zip);
+    for (RuleKey key : ruleKeys) {
+      artifactCache.store(key, zip);
+    }
     zip.delete();
   }
 
@@ -235,10 +239,13 @@ public class BuildInfoRecorder {
   }
 
   /**
-   * Fetches the artifact associated with the {@link #buildTarget} for this class and writes it to
-   * the specified {@code outputFile}.
+   * Fetches the artifact stored for the {@link #buildTarget} for this class under {@code ruleKey}
+   * and writes it to the specified {@code outputFile}.
    */
-  public CacheResult fetchArtifactForBuildable(File outputFile, ArtifactCache artifactCache)
+  public CacheResult fetchArtifactForBuildable(
+      RuleKey ruleKey,
+      File outputFile,
+      ArtifactCache artifactCache)
       throws InterruptedException {
     return artifactCache.fetch(ruleKey, outputFile);
   }
@@ -47,6 +47,14 @@ public class BuildRuleSuccess {
     FETCHED_FROM_CACHE(
         ),
 
+    /**
+     * Fetched via the {@link ArtifactCache}, using the {@link RuleKey} based on the contents of
+     * the inputs of the rule, so the metadata that came with it describes another build.
+     */
+    FETCHED_FROM_CACHE_INPUT_BASED(
+        Property.SHOULD_UPDATE_METADATA_ON_DISK
+        ),
+
     /** Computed {@link RuleKey} matches the one on disk. */
     MATCHING_RULE_KEY(
         ),
@@ -59,6 +67,19 @@ public class BuildRuleSuccess {
         Property.SHOULD_UPDATE_METADATA_ON_DISK
         ),
 
+    /**
+     * Computed dep file {@link RuleKey}, which only covers the inputs the rule used when it was
+     * last built, matches the one on disk.
+     */
+    MATCHING_DEP_FILE_RULE_KEY(
+        Property.SHOULD_UPDATE_METADATA_ON_DISK
+        ),
+
+    /** Computed {@link RuleKey} based on the contents of the inputs matches the one on disk. */
+    MATCHING_INPUT_BASED_RULE_KEY(
+        Property.SHOULD_UPDATE_METADATA_ON_DISK
+        ),
+
     ;
 
     private final EnumSet<Property> properties;
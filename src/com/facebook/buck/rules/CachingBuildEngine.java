@@ -19,6 +19,7 @@ package com.facebook.buck.rules;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.ThrowableConsoleEvent;
+import com.facebook.buck.io.MorePaths;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.step.Step;
@@ -26,11 +27,15 @@ import com.facebook.buck.step.StepRunner;
 import com.facebook.buck.util.concurrent.MoreFutures;
 import com.facebook.buck.zip.Unzip;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Functions;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.base.Throwables;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.FutureCallback;
@@ -62,6 +67,27 @@ public class CachingBuildEngine implements BuildEngine {
   @VisibleForTesting
   public static final String ABI_KEY_FOR_DEPS_ON_DISK_METADATA = "ABI_KEY_FOR_DEPS";
 
+  /**
+   * Key for {@link OnDiskBuildInfo} to identify the inputs a
+   * {@link SupportsDependencyFileRuleKey} rule used when it was last built.
+   */
+  @VisibleForTesting
+  public static final String DEP_FILE_ON_DISK_METADATA = "DEP_FILE";
+
+  /**
+   * Key for {@link OnDiskBuildInfo} to identify the dep file rule key of a
+   * {@link SupportsDependencyFileRuleKey} rule.
+   */
+  @VisibleForTesting
+  public static final String DEP_FILE_RULE_KEY_ON_DISK_METADATA = "DEP_FILE_RULE_KEY";
+
+  /**
+   * Key for {@link OnDiskBuildInfo} to identify the input based rule key of a
+   * {@link SupportsInputBasedRuleKey} rule.
+   */
+  @VisibleForTesting
+  public static final String INPUT_BASED_RULE_KEY_ON_DISK_METADATA = "INPUT_BASED_RULE_KEY";
+
   /**
    * These are the values returned by {@link #build(BuildContext, BuildRule)}.
    * This must always return the same value for the build of each target.
@@ -233,7 +259,14 @@ public class CachingBuildEngine implements BuildEngine {
 
               // Finally, upload to the artifact cache.
               if (success != null && success.shouldUploadResultingArtifact()) {
-                buildInfoRecorder.get().performUploadToArtifactCache(context.getArtifactCache(),
+                ImmutableSet.Builder<RuleKey> ruleKeys = ImmutableSet.builder();
+                ruleKeys.add(rule.getRuleKey());
+                if (rule instanceof SupportsInputBasedRuleKey) {
+                  ruleKeys.add(((SupportsInputBasedRuleKey) rule).getInputBasedRuleKey());
+                }
+                buildInfoRecorder.get().performUploadToArtifactCache(
+                    ruleKeys.build(),
+                    context.getArtifactCache(),
                     eventBus);
               }
             }
@@ -352,27 +385,89 @@ public class CachingBuildEngine implements BuildEngine {
       }
     }
 
+    // Rules with lots of possible inputs, most of which they don't read, such as the headers
+    // visible to a C/C++ source, can instead check the inputs which they actually used last time.
+    if (rule instanceof SupportsDependencyFileRuleKey) {
+      SupportsDependencyFileRuleKey depFileRule = (SupportsDependencyFileRuleKey) rule;
+      Optional<ImmutableList<String>> cachedDepFile =
+          onDiskBuildInfo.getValues(DEP_FILE_ON_DISK_METADATA);
+      Optional<RuleKey> cachedDepFileRuleKey = onDiskBuildInfo
+          .getValue(DEP_FILE_RULE_KEY_ON_DISK_METADATA)
+          .transform(RuleKey.TO_RULE_KEY);
+      if (cachedDepFile.isPresent() && cachedDepFileRuleKey.isPresent()) {
+        Optional<RuleKey> depFileRuleKey = depFileRule.getDependencyFileRuleKey(
+            FluentIterable.from(cachedDepFile.get())
+                .transform(MorePaths.TO_PATH)
+                .toList());
+        if (depFileRuleKey.equals(cachedDepFileRuleKey)) {
+          // Keep the dep file around when the rest of the metadata is updated.
+          buildInfoRecorder.addMetadata(DEP_FILE_ON_DISK_METADATA, cachedDepFile.get());
+          buildInfoRecorder.addMetadata(
+              DEP_FILE_RULE_KEY_ON_DISK_METADATA,
+              cachedDepFileRuleKey.get().toString());
+          return new BuildResult(BuildRuleSuccess.Type.MATCHING_DEP_FILE_RULE_KEY,
+              CacheResult.LOCAL_KEY_UNCHANGED_HIT);
+        }
+      }
+    }
+
+    // Rules whose output only depends on the contents of their inputs, such as compiling a
+    // preprocessed source, need not be rebuilt when those are the same, however they were made.
+    Optional<RuleKey> inputBasedRuleKey = Optional.absent();
+    if (rule instanceof SupportsInputBasedRuleKey) {
+      inputBasedRuleKey = Optional.of(((SupportsInputBasedRuleKey) rule).getInputBasedRuleKey());
+      buildInfoRecorder.addMetadata(
+          INPUT_BASED_RULE_KEY_ON_DISK_METADATA,
+          inputBasedRuleKey.get().toString());
+      Optional<RuleKey> cachedInputBasedRuleKey = onDiskBuildInfo
+          .getValue(INPUT_BASED_RULE_KEY_ON_DISK_METADATA)
+          .transform(RuleKey.TO_RULE_KEY);
+      if (inputBasedRuleKey.equals(cachedInputBasedRuleKey)) {
+        return new BuildResult(BuildRuleSuccess.Type.MATCHING_INPUT_BASED_RULE_KEY,
+            CacheResult.LOCAL_KEY_UNCHANGED_HIT);
+      }
+    }
+
     CacheResult cacheResult;
-    if (shouldTryToFetchFromCache) {
-      // Before deciding to build, check the ArtifactCache.
-      // The fetched file is now a ZIP file, so it needs to be unzipped.
-      try {
+    try {
+      if (shouldTryToFetchFromCache) {
+        // Before deciding to build, check the ArtifactCache.
+        // The fetched file is now a ZIP file, so it needs to be unzipped.
         cacheResult = tryToFetchArtifactFromBuildCacheAndOverlayOnTopOfProjectFilesystem(
             rule,
+            rule.getRuleKey(),
             buildInfoRecorder,
             context.getArtifactCache(),
             context.getProjectRoot(),
             context);
-      } catch (InterruptedException e) {
-        return new BuildResult(e);
+      } else {
+        cacheResult = CacheResult.SKIP;
       }
-    } else {
-      cacheResult = CacheResult.SKIP;
-    }
 
-    // Run the steps to build this rule since it was not found in the cache.
-    if (cacheResult.isSuccess()) {
-      return new BuildResult(BuildRuleSuccess.Type.FETCHED_FROM_CACHE, cacheResult);
+      // Run the steps to build this rule since it was not found in the cache.
+      if (cacheResult.isSuccess()) {
+        return new BuildResult(BuildRuleSuccess.Type.FETCHED_FROM_CACHE, cacheResult);
+      }
+
+      // The input based rule key doesn't change when a dep is rebuilt with the same output, so
+      // it's worth checking even when a dep was built locally.
+      if (inputBasedRuleKey.isPresent() && rule.getCacheMode() == CacheMode.ENABLED) {
+        CacheResult inputBasedCacheResult =
+            tryToFetchArtifactFromBuildCacheAndOverlayOnTopOfProjectFilesystem(
+                rule,
+                inputBasedRuleKey.get(),
+                buildInfoRecorder,
+                context.getArtifactCache(),
+                context.getProjectRoot(),
+                context);
+        if (inputBasedCacheResult.isSuccess()) {
+          return new BuildResult(
+              BuildRuleSuccess.Type.FETCHED_FROM_CACHE_INPUT_BASED,
+              inputBasedCacheResult);
+        }
+      }
+    } catch (InterruptedException e) {
+      return new BuildResult(e);
     }
 
     // The only remaining option is to build locally.
@@ -416,6 +511,7 @@ public class CachingBuildEngine implements BuildEngine {
 
   private CacheResult tryToFetchArtifactFromBuildCacheAndOverlayOnTopOfProjectFilesystem(
       BuildRule rule,
+      RuleKey ruleKey,
       BuildInfoRecorder buildInfoRecorder,
       ArtifactCache artifactCache,
       Path projectRoot,
@@ -432,7 +528,8 @@ public class CachingBuildEngine implements BuildEngine {
     // TODO(mbolin): Change ArtifactCache.fetch() so that it returns a File instead of takes one.
     // Then we could download directly from Cassandra into the on-disk cache and unzip it from
     // there.
-    CacheResult cacheResult = buildInfoRecorder.fetchArtifactForBuildable(zipFile, artifactCache);
+    CacheResult cacheResult =
+        buildInfoRecorder.fetchArtifactForBuildable(ruleKey, zipFile, artifactCache);
     if (!cacheResult.isSuccess()) {
       zipFile.delete();
       return cacheResult;
@@ -507,6 +604,20 @@ public class CachingBuildEngine implements BuildEngine {
       }
     }
 
+    if (rule instanceof SupportsDependencyFileRuleKey) {
+      SupportsDependencyFileRuleKey depFileRule = (SupportsDependencyFileRuleKey) rule;
+      ImmutableList<Path> inputs = depFileRule.getInputsAfterBuildingLocally();
+      Optional<RuleKey> depFileRuleKey = depFileRule.getDependencyFileRuleKey(inputs);
+      if (depFileRuleKey.isPresent()) {
+        buildableContext.addMetadata(
+            DEP_FILE_ON_DISK_METADATA,
+            FluentIterable.from(inputs).transform(Functions.toStringFunction()));
+        buildableContext.addMetadata(
+            DEP_FILE_RULE_KEY_ON_DISK_METADATA,
+            depFileRuleKey.get().toString());
+      }
+    }
+
     LOG.debug("Build completed: %s", rule);
   }
 
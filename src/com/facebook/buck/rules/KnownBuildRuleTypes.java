@@ -67,6 +67,7 @@ import com.facebook.buck.file.ExplodingDownloader;
 import com.facebook.buck.file.HttpDownloader;
 import com.facebook.buck.file.RemoteFileDescription;
 import com.facebook.buck.gwt.GwtBinaryDescription;
+import com.facebook.buck.java.JUnitRunnerOptions;
 import com.facebook.buck.java.JavaBinaryDescription;
 import com.facebook.buck.java.JavaBuckConfig;
 import com.facebook.buck.java.JavaLibraryDescription;
@@ -367,6 +368,7 @@ public class KnownBuildRuleTypes {
 
     JavaBuckConfig javaConfig = new JavaBuckConfig(config);
     JavacOptions defaultJavacOptions = javaConfig.getDefaultJavacOptions(processExecutor);
+    JUnitRunnerOptions junitRunnerOptions = javaConfig.getJUnitRunnerOptions();
     JavacOptions androidBinaryOptions = JavacOptions.builder(defaultJavacOptions)
         .build();
 
@@ -430,7 +432,10 @@ public class KnownBuildRuleTypes {
     builder.register(new IosPostprocessResourcesDescription());
     builder.register(new JavaBinaryDescription(defaultJavacOptions, defaultCxxPlatform));
     builder.register(new JavaLibraryDescription(defaultJavacOptions));
-    builder.register(new JavaTestDescription(defaultJavacOptions, testRuleTimeoutMs));
+    builder.register(new JavaTestDescription(
+            defaultJavacOptions,
+            testRuleTimeoutMs,
+            junitRunnerOptions));
     builder.register(new KeystoreDescription());
     builder.register(new NdkLibraryDescription(ndkVersion, ndkCxxPlatforms));
     builder.register(new OCamlBinaryDescription(ocamlBuckConfig));
@@ -457,7 +462,8 @@ public class KnownBuildRuleTypes {
     builder.register(new RemoteFileDescription(downloader));
     builder.register(new RobolectricTestDescription(
             androidBinaryOptions,
-            testRuleTimeoutMs));
+            testRuleTimeoutMs,
+            junitRunnerOptions));
     builder.register(new ShBinaryDescription());
     builder.register(new ShTestDescription());
     builder.register(
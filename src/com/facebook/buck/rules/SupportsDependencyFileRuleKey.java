@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * {@link BuildRule} with many possible inputs, of which any one build only reads a few, such as
+ * the headers visible to a C/C++ source. Once built locally, the rule can say which of them it
+ * actually read, and it need not be rebuilt while those and the rest of its definition are the
+ * same.
+ */
+public interface SupportsDependencyFileRuleKey {
+
+  /**
+   * @param inputs the possible inputs which were actually used, relative to the project root.
+   * @return a {@link RuleKey} for the definition of this rule, without its deps or the contents of
+   *     its possible inputs, combined with the contents of {@code inputs}, or absent if any of
+   *     {@code inputs} no longer exist.
+   */
+  public Optional<RuleKey> getDependencyFileRuleKey(ImmutableList<Path> inputs);
+
+  /**
+   * @return the possible inputs which were actually used by the build which just ran this rule's
+   *     steps, relative to the project root.
+   */
+  public ImmutableList<Path> getInputsAfterBuildingLocally() throws IOException;
+}
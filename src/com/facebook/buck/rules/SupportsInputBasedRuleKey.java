@@ -0,0 +1,32 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+/**
+ * {@link BuildRule} whose output only depends on the contents of its inputs, including the outputs
+ * of its deps, and not on how they were made. Such a rule can be fetched from the
+ * {@link ArtifactCache}, or need not be rebuilt, when its inputs are the same even though the
+ * {@link RuleKey}s of its deps have changed.
+ */
+public interface SupportsInputBasedRuleKey {
+
+  /**
+   * @return a {@link RuleKey} for the definition of this rule and the contents of its inputs.
+   *     Only valid once all of the deps of this rule have been built.
+   */
+  public RuleKey getInputBasedRuleKey();
+}
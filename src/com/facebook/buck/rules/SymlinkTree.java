@@ -17,7 +17,6 @@
 package com.facebook.buck.rules;
 
 import com.facebook.buck.step.Step;
-import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
 import com.facebook.buck.step.fs.SymlinkTreeStep;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableCollection;
@@ -69,9 +68,8 @@ public class SymlinkTree extends AbstractBuildRule implements AbiRule {
   public ImmutableList<Step> getBuildSteps(
       BuildContext context,
       BuildableContext buildableContext) {
-    return ImmutableList.of(
-        new MakeCleanDirectoryStep(root),
-        new SymlinkTreeStep(root, resolveLinks()));
+    // The tree is updated in place, as most of its links are usually unchanged.
+    return ImmutableList.<Step>of(new SymlinkTreeStep(root, resolveLinks()));
   }
 
   /**
@@ -25,6 +25,7 @@ import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.java.JavaPackageFinder;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.android.AndroidPlatformTarget;
+import com.facebook.buck.test.TestTimings;
 import com.facebook.buck.util.Ansi;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.ClassLoaderCache;
@@ -32,11 +33,15 @@ import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.environment.Platform;
 import com.facebook.buck.util.immutables.BuckStyleImmutable;
+import com.facebook.buck.worker.WorkerProcessPool;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.immutables.value.Value;
 
@@ -47,6 +52,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.Executors;
 
 import javax.annotation.Nullable;
 
@@ -54,6 +60,9 @@ import javax.annotation.Nullable;
 @BuckStyleImmutable
 public abstract class ExecutionContext implements Closeable {
 
+  @Nullable
+  private static ListeningExecutorService sharedHelperExecutor;
+
   @Value.Parameter
   public abstract ProjectFilesystem getProjectFilesystem();
 
@@ -101,6 +110,25 @@ public abstract class ExecutionContext implements Closeable {
   @Value.Parameter
   public abstract ClassLoaderCache getClassLoaderCache();
 
+  /**
+   * @return The pool of long-lived worker JVMs that steps may use to run Java tools without paying
+   *     for JVM startup on every invocation.
+   */
+  @Value.Parameter
+  public abstract WorkerProcessPool getWorkerProcessPool();
+
+  /**
+   * @return How long tests took when they last ran, for steps which split tests between processes.
+   */
+  @Value.Parameter
+  public abstract TestTimings getTestTimings();
+
+  /**
+   * @return A pool with a thread per core, which steps may use to split their own work between
+   *     threads. Steps running at the same time share it, rather than each starting its own.
+   */
+  @Value.Parameter
+  public abstract ListeningExecutorService getHelperExecutor();
 
   @Value.Derived
   public Verbosity getVerbosity() {
@@ -203,6 +231,23 @@ public abstract class ExecutionContext implements Closeable {
     return getBuckEventBus().getBuildId();
   }
 
+  /**
+   * @return The helper pool shared by everything in this Buck process. Its threads are daemon
+   *     threads, so that they never keep the process alive.
+   */
+  private static synchronized ListeningExecutorService getSharedHelperExecutor() {
+    if (sharedHelperExecutor == null) {
+      sharedHelperExecutor = MoreExecutors.listeningDecorator(
+          Executors.newFixedThreadPool(
+              Runtime.getRuntime().availableProcessors(),
+              new ThreadFactoryBuilder()
+                  .setNameFormat("step-helper-%d")
+                  .setDaemon(true)
+                  .build()));
+    }
+    return sharedHelperExecutor;
+  }
+
   public static class Builder {
 
     @Nullable private ProjectFilesystem projectFilesystem = null;
@@ -219,6 +264,9 @@ public abstract class ExecutionContext implements Closeable {
     @Nullable private JavaPackageFinder javaPackageFinder = null;
     @Nullable private ObjectMapper objectMapper = null;
     private ClassLoaderCache classLoaderCache = new ClassLoaderCache();
+    private WorkerProcessPool workerProcessPool = WorkerProcessPool.getShared();
+    private TestTimings testTimings = TestTimings.empty();
+    private ListeningExecutorService helperExecutor = getSharedHelperExecutor();
 
     private Builder() {}
 
@@ -237,7 +285,10 @@ public abstract class ExecutionContext implements Closeable {
           Preconditions.checkNotNull(environment),
           Preconditions.checkNotNull(javaPackageFinder),
           Preconditions.checkNotNull(objectMapper),
-          Preconditions.checkNotNull(classLoaderCache));
+          Preconditions.checkNotNull(classLoaderCache),
+          Preconditions.checkNotNull(workerProcessPool),
+          Preconditions.checkNotNull(testTimings),
+          Preconditions.checkNotNull(helperExecutor));
     }
 
     public Builder setExecutionContext(ExecutionContext executionContext) {
@@ -253,6 +304,9 @@ public abstract class ExecutionContext implements Closeable {
       setEnvironment(executionContext.getEnvironment());
       setJavaPackageFinder(executionContext.getJavaPackageFinder());
       setObjectMapper(executionContext.getObjectMapper());
+      setWorkerProcessPool(executionContext.getWorkerProcessPool());
+      setTestTimings(executionContext.getTestTimings());
+      setHelperExecutor(executionContext.getHelperExecutor());
       return this;
     }
 
@@ -332,5 +386,20 @@ public abstract class ExecutionContext implements Closeable {
       this.classLoaderCache = classLoaderCache;
       return this;
     }
+
+    public Builder setWorkerProcessPool(WorkerProcessPool workerProcessPool) {
+      this.workerProcessPool = workerProcessPool;
+      return this;
+    }
+
+    public Builder setTestTimings(TestTimings testTimings) {
+      this.testTimings = testTimings;
+      return this;
+    }
+
+    public Builder setHelperExecutor(ListeningExecutorService helperExecutor) {
+      this.helperExecutor = helperExecutor;
+      return this;
+    }
   }
 }
@@ -16,14 +16,31 @@
 
 package com.facebook.buck.step.fs;
 
+import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
 
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
 
+/**
+ * Brings a tree of symlinks up to date with a map of links, relative to the root of the tree, to
+ * their targets.
+ * <p>
+ * The tree is left in place between builds, so rather than recreating every link, this reads
+ * what's already there and only removes the entries which are no longer wanted or point
+ * elsewhere, and adds the links which are missing. Header trees can hold tens of thousands of
+ * links, almost all of which are unchanged from one build to the next.
+ */
 public class SymlinkTreeStep implements Step {
 
   private final Path root;
@@ -46,12 +63,31 @@ public class SymlinkTreeStep implements Step {
 
   @Override
   public int execute(ExecutionContext context) {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    Path absoluteRoot = filesystem.resolve(root);
+
+    Set<Path> upToDate;
+    try {
+      filesystem.mkdirs(root);
+      upToDate = removeStaleEntries(filesystem, absoluteRoot);
+    } catch (IOException e) {
+      context.logError(e, "failed updating link tree \"%s\"", absoluteRoot);
+      return 1;
+    }
+
+    // Only make each directory once, rather than once per link in it.
+    Set<Path> directories = Sets.newHashSet(absoluteRoot);
     for (ImmutableMap.Entry<Path, Path> ent : links.entrySet()) {
-      Path target = context.getProjectFilesystem().resolve(ent.getValue());
-      Path link = context.getProjectFilesystem().resolve(root.resolve(ent.getKey()));
+      if (upToDate.contains(ent.getKey())) {
+        continue;
+      }
+      Path target = filesystem.resolve(ent.getValue());
+      Path link = absoluteRoot.resolve(ent.getKey());
       try {
-        context.getProjectFilesystem().mkdirs(link.getParent());
-        context.getProjectFilesystem().createSymLink(target, link, true /* force */);
+        if (directories.add(link.getParent())) {
+          filesystem.mkdirs(link.getParent());
+        }
+        filesystem.createSymLink(target, link, false /* force */);
       } catch (IOException e) {
         String msg = String.format("failed creating linking \"%s\" -> \"%s\"", link, target);
         context.logError(e, msg);
@@ -62,6 +98,54 @@ public class SymlinkTreeStep implements Step {
     return 0;
   }
 
+  /**
+   * Deletes everything under the root which isn't a link in the map pointing at its target,
+   * along with any directories left empty.
+   *
+   * @return the links, relative to the root, which are already up to date.
+   */
+  private Set<Path> removeStaleEntries(
+      final ProjectFilesystem filesystem,
+      final Path absoluteRoot) throws IOException {
+    final Set<Path> upToDate = Sets.newHashSet();
+    Files.walkFileTree(
+        absoluteRoot,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            Path relative = absoluteRoot.relativize(file);
+            Path target = links.get(relative);
+            if (target != null &&
+                attrs.isSymbolicLink() &&
+                Files.readSymbolicLink(file).equals(filesystem.resolve(target))) {
+              upToDate.add(relative);
+            } else {
+              Files.delete(file);
+            }
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+            if (e != null) {
+              throw e;
+            }
+            if (!dir.equals(absoluteRoot) && isEmpty(dir)) {
+              Files.delete(dir);
+            }
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    return upToDate;
+  }
+
+  private static boolean isEmpty(Path dir) throws IOException {
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+      return !entries.iterator().hasNext();
+    }
+  }
+
   @Override
   public boolean equals(Object obj) {
     if (!(obj instanceof SymlinkTreeStep)) {
@@ -36,7 +36,21 @@ public class TestCaseSummary {
 
         @Override
         public TestCaseSummary apply(TestCaseSummary summary) {
-          return new TestCaseSummary(summary, /* isCached */ true);
+          return new TestCaseSummary(summary, /* isCached */ true, /* isCachedRemotely */ false);
+        }
+      };
+
+  /**
+   * Transformation to annotate TestCaseSummary marking them as being read from results cached on
+   * another machine.
+   */
+  public static final Function<TestCaseSummary, TestCaseSummary>
+      TO_REMOTELY_CACHED_TRANSFORMATION =
+      new Function<TestCaseSummary, TestCaseSummary>() {
+
+        @Override
+        public TestCaseSummary apply(TestCaseSummary summary) {
+          return new TestCaseSummary(summary, /* isCached */ true, /* isCachedRemotely */ true);
         }
       };
   public static final int MAX_STATUS_WIDTH = 7;
@@ -50,6 +64,7 @@ public class TestCaseSummary {
   private final int failureCount;
   private final long totalTime;
   private final boolean isCached;
+  private final boolean isCachedRemotely;
 
   /**
    * Creates a TestCaseSummary which is assumed to be not read from cached results
@@ -92,10 +107,14 @@ public class TestCaseSummary {
     this.failureCount = failureCount;
     this.totalTime = totalTime;
     this.isCached = false;
+    this.isCachedRemotely = false;
   }
 
-  /** Creates a copy of {@code summary} with the specified value of {@code isCached}. */
-  private TestCaseSummary(TestCaseSummary summary, boolean isCached) {
+  /**
+   * Creates a copy of {@code summary} with the specified values of {@code isCached} and
+   * {@code isCachedRemotely}.
+   */
+  private TestCaseSummary(TestCaseSummary summary, boolean isCached, boolean isCachedRemotely) {
     this.testCaseName = summary.testCaseName;
     this.testResults = summary.testResults;
     this.isSuccess = summary.isSuccess;
@@ -105,6 +124,7 @@ public class TestCaseSummary {
     this.failureCount = summary.failureCount;
     this.totalTime = summary.totalTime;
     this.isCached = isCached;
+    this.isCachedRemotely = isCachedRemotely;
   }
 
   public boolean isSuccess() {
@@ -124,6 +144,16 @@ public class TestCaseSummary {
     return totalTime;
   }
 
+  /** @return whether these results were read from an earlier run rather than by running tests */
+  public boolean isCached() {
+    return isCached;
+  }
+
+  /** @return whether these results were read from a remote cache, rather than a local one */
+  public boolean isCachedRemotely() {
+    return isCachedRemotely;
+  }
+
   /** @return a one-line, printable summary */
   public String getOneLineSummary(boolean hasPassingDependencies, Ansi ansi) {
     String statusText;
@@ -161,12 +191,20 @@ public class TestCaseSummary {
       padding += ' ';
     }
 
+    String timeText;
+    if (!isCached) {
+      timeText = TimeFormat.formatForConsole(totalTime, ansi);
+    } else {
+      timeText = ansi.asHighlightedStatusText(
+          severityLevel,
+          isCachedRemotely ? "REMOTE" : "CACHED");
+    }
+
     int passedCount = testResults.size() - failureCount - skippedCount;
     return String.format("%s%s %s %2d Passed  %2d Skipped  %2d Failed   %s",
         status,
         padding,
-        !isCached ? TimeFormat.formatForConsole(totalTime, ansi)
-                  : ansi.asHighlightedStatusText(severityLevel, "CACHED"),
+        timeText,
         passedCount,
         skippedCount,
         failureCount,
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.test;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.util.BuckConstant;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How long test rules, and the test cases within them, took when they last ran. This lets tests be
+ * scheduled so as to minimise the wall-clock time of a test run, rather than the sum of the times
+ * of the tests. Timings are kept in {@code buck-out} from one run to the next.
+ */
+public class TestTimings {
+
+  private static final Logger LOG = Logger.get(TestTimings.class);
+
+  public static final Path PATH = BuckConstant.BUCK_OUTPUT_PATH.resolve("test-timings.json");
+
+  private static final String RULES_KEY = "rules";
+  private static final String TEST_CASES_KEY = "testCases";
+
+  private final Map<String, Long> ruleTimes;
+  private final Map<String, Long> testCaseTimes;
+
+  private TestTimings(Map<String, Long> ruleTimes, Map<String, Long> testCaseTimes) {
+    this.ruleTimes = Maps.newHashMap(ruleTimes);
+    this.testCaseTimes = Maps.newHashMap(testCaseTimes);
+  }
+
+  public static TestTimings empty() {
+    return new TestTimings(ImmutableMap.<String, Long>of(), ImmutableMap.<String, Long>of());
+  }
+
+  /**
+   * @return the timings saved by an earlier run, or no timings at all if there are none, or they
+   *     can't be read.
+   */
+  public static TestTimings load(ProjectFilesystem filesystem, ObjectMapper mapper) {
+    Optional<String> contents = filesystem.readFileIfItExists(PATH);
+    if (!contents.isPresent()) {
+      return empty();
+    }
+    try {
+      return parse(mapper, contents.get());
+    } catch (IOException e) {
+      // The timings only affect the order in which tests run, so just start afresh.
+      LOG.warn(e, "Unable to read test timings from %s.", PATH);
+      return empty();
+    }
+  }
+
+  /**
+   * @return the timings in {@code path}, which, unlike {@link #load}, must exist and be readable.
+   *     This is for timings which several processes must agree on, such as ones shared between
+   *     the machines running shards of the same tests.
+   */
+  public static TestTimings read(ProjectFilesystem filesystem, ObjectMapper mapper, Path path)
+      throws IOException {
+    Optional<String> contents = filesystem.readFileIfItExists(path);
+    if (!contents.isPresent()) {
+      throw new NoSuchFileException(path.toString());
+    }
+    return parse(mapper, contents.get());
+  }
+
+  private static TestTimings parse(ObjectMapper mapper, String contents) throws IOException {
+    Map<String, Map<String, Long>> timings = mapper.readValue(
+        contents,
+        new TypeReference<Map<String, Map<String, Long>>>() {});
+    return new TestTimings(
+        getOrEmpty(timings, RULES_KEY),
+        getOrEmpty(timings, TEST_CASES_KEY));
+  }
+
+  private static Map<String, Long> getOrEmpty(Map<String, Map<String, Long>> map, String key) {
+    Map<String, Long> value = map.get(key);
+    return value == null ? ImmutableMap.<String, Long>of() : value;
+  }
+
+  public synchronized void save(ProjectFilesystem filesystem, ObjectMapper mapper)
+      throws IOException {
+    filesystem.createParentDirs(PATH);
+    filesystem.writeContentsToPath(
+        mapper.writeValueAsString(
+            ImmutableMap.of(
+                RULES_KEY, ImmutableMap.copyOf(ruleTimes),
+                TEST_CASES_KEY, ImmutableMap.copyOf(testCaseTimes))),
+        PATH);
+  }
+
+  public synchronized Optional<Long> getRuleTimeMillis(BuildTarget target) {
+    return Optional.fromNullable(ruleTimes.get(target.getFullyQualifiedName()));
+  }
+
+  public synchronized Optional<Long> getTestCaseTimeMillis(String testCaseName) {
+    return Optional.fromNullable(testCaseTimes.get(testCaseName));
+  }
+
+  /**
+   * Updates the timings with the results of running a test rule. Results which were read from the
+   * cache rather than run again, or which have no timings at all, are ignored.
+   */
+  public synchronized void record(TestResults results) {
+    long ruleTime = 0;
+    for (TestCaseSummary testCase : results.getTestCases()) {
+      if (testCase.isCached()) {
+        return;
+      }
+      ruleTime += testCase.getTotalTime();
+    }
+    if (ruleTime == 0) {
+      return;
+    }
+
+    for (TestCaseSummary testCase : results.getTestCases()) {
+      update(testCaseTimes, testCase.getTestCaseName(), testCase.getTotalTime());
+    }
+    update(ruleTimes, results.getBuildTarget().getFullyQualifiedName(), ruleTime);
+  }
+
+  private static void update(Map<String, Long> times, String key, long measuredTime) {
+    // Average with the previous timing, to smooth out the odd unusually slow or fast run.
+    Long previousTime = times.get(key);
+    times.put(key, previousTime == null ? measuredTime : (previousTime + measuredTime) / 2);
+  }
+
+  /**
+   * @return {@code items}, ordered so that the ones expected to take longest come first. Items
+   *     with no timing are expected to take the mean time of the items which do have one.
+   *     Otherwise, the order of {@code items} is preserved.
+   */
+  public static <T> ImmutableList<T> longestFirst(
+      Iterable<T> items,
+      Function<? super T, Optional<Long>> getTimeMillis) {
+    final Map<T, Long> expectedTimes = getExpectedTimes(items, getTimeMillis);
+    List<T> sorted = Lists.newArrayList(items);
+    // Collections.sort() is stable, so items with the same expected time keep their order.
+    Collections.sort(
+        sorted,
+        new Comparator<T>() {
+          @Override
+          public int compare(T a, T b) {
+            return Long.compare(expectedTimes.get(b), expectedTimes.get(a));
+          }
+        });
+    return ImmutableList.copyOf(sorted);
+  }
+
+  /**
+   * Splits {@code items} into {@code numShards} shards which are expected to take about as long as
+   * each other to run, by giving each item in turn, longest first, to the shard with the least
+   * work so far. The result only depends on the order of {@code items} and their timings, so
+   * separate processes which agree on both will agree on the shards.
+   *
+   * @return the shards, each ordered longest first. Some may be empty if there are fewer items
+   *     than shards.
+   */
+  public static <T> ImmutableList<ImmutableList<T>> balance(
+      Iterable<T> items,
+      Function<? super T, Optional<Long>> getTimeMillis,
+      int numShards) {
+    if (numShards < 1) {
+      throw new IllegalArgumentException("Must have at least one shard.");
+    }
+    Map<T, Long> expectedTimes = getExpectedTimes(items, getTimeMillis);
+
+    List<ImmutableList.Builder<T>> shards = Lists.newArrayList();
+    long[] shardTimes = new long[numShards];
+    for (int i = 0; i < numShards; i++) {
+      shards.add(ImmutableList.<T>builder());
+    }
+    for (T item : longestFirst(items, getTimeMillis)) {
+      int lightest = 0;
+      for (int i = 1; i < numShards; i++) {
+        if (shardTimes[i] < shardTimes[lightest]) {
+          lightest = i;
+        }
+      }
+      shards.get(lightest).add(item);
+      // Count every item as taking some time, so that items with no timings are spread out.
+      shardTimes[lightest] += Math.max(1, expectedTimes.get(item));
+    }
+
+    ImmutableList.Builder<ImmutableList<T>> result = ImmutableList.builder();
+    for (ImmutableList.Builder<T> shard : shards) {
+      result.add(shard.build());
+    }
+    return result.build();
+  }
+
+  private static <T> Map<T, Long> getExpectedTimes(
+      Iterable<T> items,
+      Function<? super T, Optional<Long>> getTimeMillis) {
+    Map<T, Long> knownTimes = Maps.newHashMap();
+    long totalKnownTime = 0;
+    for (T item : items) {
+      Optional<Long> time = getTimeMillis.apply(item);
+      if (time.isPresent()) {
+        knownTimes.put(item, time.get());
+        totalKnownTime += time.get();
+      }
+    }
+    long meanTime = knownTimes.isEmpty() ? 0 : totalKnownTime / knownTimes.size();
+
+    Map<T, Long> expectedTimes = Maps.newHashMap(knownTimes);
+    for (T item : items) {
+      if (!expectedTimes.containsKey(item)) {
+        expectedTimes.put(item, meanTime);
+      }
+    }
+    return expectedTimes;
+  }
+}
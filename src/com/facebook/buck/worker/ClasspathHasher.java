@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Hashes the contents of tool classpaths, so that workers started before the tool was changed
+ * aren't reused to run it. As the same classpath is hashed for every request, the hash of each
+ * file is kept, and the file is only read again once its size or modification time changes.
+ */
+class ClasspathHasher {
+
+  private final ConcurrentMap<Path, StampedHash> fileHashes = Maps.newConcurrentMap();
+
+  public HashCode hash(ImmutableList<Path> classpath) throws IOException {
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (Path entry : classpath) {
+      hasher.putString(entry.toString(), Charsets.UTF_8);
+      if (Files.isDirectory(entry)) {
+        final SortedMap<Path, BasicFileAttributes> files = Maps.newTreeMap();
+        Files.walkFileTree(entry, new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            files.put(file, attrs);
+            return FileVisitResult.CONTINUE;
+          }
+        });
+        for (Map.Entry<Path, BasicFileAttributes> file : files.entrySet()) {
+          hasher.putString(entry.relativize(file.getKey()).toString(), Charsets.UTF_8);
+          hasher.putBytes(hashFile(file.getKey(), file.getValue()).asBytes());
+        }
+      } else if (Files.isRegularFile(entry)) {
+        hasher.putBytes(
+            hashFile(entry, Files.readAttributes(entry, BasicFileAttributes.class)).asBytes());
+      }
+    }
+    return hasher.hash();
+  }
+
+  private HashCode hashFile(Path file, BasicFileAttributes attrs) throws IOException {
+    StampedHash cached = fileHashes.get(file);
+    if (cached != null &&
+        cached.size == attrs.size() &&
+        cached.lastModifiedTime.equals(attrs.lastModifiedTime())) {
+      return cached.hash;
+    }
+    HashCode hash = Hashing.sha1().hashBytes(Files.readAllBytes(file));
+    fileHashes.put(file, new StampedHash(attrs.size(), attrs.lastModifiedTime(), hash));
+    return hash;
+  }
+
+  private static class StampedHash {
+    private final long size;
+    private final FileTime lastModifiedTime;
+    private final HashCode hash;
+
+    public StampedHash(long size, FileTime lastModifiedTime, HashCode hash) {
+      this.size = size;
+      this.lastModifiedTime = lastModifiedTime;
+      this.hash = hash;
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import com.facebook.buck.util.immutables.BuckStyleImmutable;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+
+import org.immutables.value.Value;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Describes a kind of worker JVM: how to launch it, which tool it runs, and when it should be
+ * recycled. Workers are only reused for requests with an equal {@link WorkerJvm}.
+ */
+@Value.Immutable
+@BuckStyleImmutable
+public abstract class WorkerJvm {
+
+  /**
+   * The classpath containing the tool. The tool is loaded from this alone, and the worker JVM
+   * itself only has {@link WorkerMain} on its classpath.
+   */
+  public abstract ImmutableList<Path> getClasspath();
+
+  /**
+   * The class whose {@code main(String[])} method is invoked for each request.
+   */
+  public abstract String getMainClass();
+
+  /**
+   * Extra arguments to pass to the JVM, such as {@code -Xmx1024M}.
+   */
+  public abstract ImmutableList<String> getJvmArgs();
+
+  /**
+   * The working directory of the worker. As a worker can't change its working directory between
+   * requests, only requests which need the same one can share a worker.
+   */
+  public abstract Path getWorkingDirectory();
+
+  /**
+   * The number of requests a worker serves before it is replaced by a fresh JVM. A value of 1
+   * means that workers are never reused.
+   */
+  @Value.Default
+  public int getMaxRequestsPerWorker() {
+    return 100;
+  }
+
+  /**
+   * Once the worker reports using more than this many bytes of heap after a request, it is
+   * replaced by a fresh JVM. Zero disables this check.
+   */
+  @Value.Default
+  public long getMaxUsedHeapBytes() {
+    return 0;
+  }
+
+  /**
+   * The number of workers kept idle between requests. Any more are shut down as they finish their
+   * requests, so that a burst of concurrent requests doesn't leave as many JVMs behind.
+   */
+  @Value.Default
+  public int getMaxIdleWorkers() {
+    return 4;
+  }
+
+  /**
+   * How long a worker is kept idle before it is shut down, so that a Buck daemon doesn't hold on
+   * to the memory of workers once the builds which used them are over.
+   */
+  @Value.Default
+  public long getIdleTimeoutMillis() {
+    return TimeUnit.MINUTES.toMillis(5);
+  }
+
+  @Value.Check
+  protected void check() {
+    if (getMaxRequestsPerWorker() < 1) {
+      throw new IllegalArgumentException("A worker must serve at least one request.");
+    }
+    if (getMaxIdleWorkers() < 0) {
+      throw new IllegalArgumentException("The number of idle workers can't be negative.");
+    }
+  }
+
+  /**
+   * @return The command line used to start a worker.
+   */
+  public ImmutableList<String> getCommand() {
+    return ImmutableList.<String>builder()
+        .add(Paths.get(System.getProperty("java.home"), "bin", "java").toString())
+        .addAll(getJvmArgs())
+        .add("-classpath")
+        .add(getWorkerMainClasspath().toString())
+        .add(WorkerMain.class.getName())
+        .add(Joiner.on(File.pathSeparator).join(getClasspath()))
+        .add(getMainClass())
+        .build();
+  }
+
+  private static Path getWorkerMainClasspath() {
+    try {
+      return Paths.get(
+          WorkerMain.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    } catch (URISyntaxException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Paths;
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Entry point of a long-lived worker JVM. Invoked as
+ * {@code WorkerMain <classpath> <main class>}, it repeatedly reads a request from stdin, runs
+ * {@code <main class>.main()} with the request's arguments, and writes the exit code and captured
+ * output of the run to stdout, as described by {@link WorkerProtocol}.
+ * <p>
+ * The tool is loaded from {@code <classpath>} in a class loader of its own, which only shares the
+ * JDK with the worker, so that nothing else on the worker's classpath can shadow its classes.
+ * <p>
+ * Calls to {@link System#exit(int)} made by the tool are turned into the exit code of the request,
+ * rather than terminating the worker, wherever the JVM allows a {@link SecurityManager} to be
+ * installed. Where it doesn't, the worker exits with the tool, and Buck reads the exit code from
+ * the process instead.
+ * <p>
+ * IMPORTANT! This class is loaded in the worker JVM, so must only depend on the JDK.
+ */
+public final class WorkerMain {
+
+  private WorkerMain() {
+    // Entry point only.
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      System.err.println("Usage: WorkerMain <classpath> <main class>");
+      System.exit(1);
+    }
+
+    ClassLoader toolClassLoader = new URLClassLoader(
+        toUrls(args[0]),
+        ClassLoader.getSystemClassLoader().getParent());
+    Thread.currentThread().setContextClassLoader(toolClassLoader);
+    Method toolMain = Class.forName(args[1], true, toolClassLoader)
+        .getMethod("main", String[].class);
+
+    // Hold on to the real stdout for the protocol, and make sure that nothing else can write to it.
+    DataOutputStream protocolOut = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+    DataInputStream protocolIn = new DataInputStream(new BufferedInputStream(System.in));
+    PrintStream originalErr = System.err;
+    System.setOut(originalErr);
+
+    try {
+      System.setSecurityManager(new ExitTrappingSecurityManager());
+    } catch (UnsupportedOperationException | SecurityException e) {
+      originalErr.println("Unable to trap System.exit(); the worker will exit with the tool.");
+    }
+
+    for (List<String> request = WorkerProtocol.readRequest(protocolIn);
+         request != null;
+         request = WorkerProtocol.readRequest(protocolIn)) {
+      ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+      ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+      int exitCode = run(toolMain, request, stdout, stderr);
+      System.setOut(originalErr);
+      System.setErr(originalErr);
+
+      Runtime runtime = Runtime.getRuntime();
+      WorkerProtocol.writeResponse(
+          protocolOut,
+          new WorkerProtocol.Response(
+              exitCode,
+              runtime.totalMemory() - runtime.freeMemory(),
+              stdout.toByteArray(),
+              stderr.toByteArray()));
+    }
+  }
+
+  private static URL[] toUrls(String classpath) throws IOException {
+    List<URL> urls = new ArrayList<>();
+    for (String entry : classpath.split(File.pathSeparator)) {
+      if (!entry.isEmpty()) {
+        urls.add(Paths.get(entry).toUri().toURL());
+      }
+    }
+    return urls.toArray(new URL[urls.size()]);
+  }
+
+  private static int run(
+      Method toolMain,
+      List<String> args,
+      ByteArrayOutputStream stdout,
+      ByteArrayOutputStream stderr) throws IOException {
+    PrintStream out = new PrintStream(stdout, /* autoFlush */ true, "UTF-8");
+    PrintStream err = new PrintStream(stderr, /* autoFlush */ true, "UTF-8");
+    System.setOut(out);
+    System.setErr(err);
+    try {
+      toolMain.invoke(null, (Object) args.toArray(new String[args.size()]));
+      return 0;
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof ExitException) {
+        return ((ExitException) e.getCause()).status;
+      }
+      e.getCause().printStackTrace(err);
+      return 1;
+    } catch (IllegalAccessException e) {
+      e.printStackTrace(err);
+      return 1;
+    } finally {
+      out.flush();
+      err.flush();
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private static class ExitException extends SecurityException {
+    private final int status;
+
+    public ExitException(int status) {
+      super("System.exit(" + status + ") called by worker tool");
+      this.status = status;
+    }
+  }
+
+  private static class ExitTrappingSecurityManager extends SecurityManager {
+    @Override
+    public void checkExit(int status) {
+      throw new ExitException(status);
+    }
+
+    @Override
+    public void checkPermission(Permission perm) {
+      // Everything else is allowed.
+    }
+
+    @Override
+    public void checkPermission(Permission perm, Object context) {
+      // Everything else is allowed.
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Buck's side of a single worker JVM. Not thread-safe: a worker serves one request at a time, and
+ * {@link WorkerProcessPool} makes sure that only one thread uses it at once.
+ */
+class WorkerProcess implements Closeable {
+
+  private static final Logger LOG = Logger.get(WorkerProcess.class);
+
+  private final WorkerJvm jvm;
+  private final HashCode classpathHash;
+  private final Process process;
+  private final DataOutputStream toWorker;
+  private final DataInputStream fromWorker;
+  private int requestCount = 0;
+  private long usedHeapBytes = 0;
+  private long idleSinceNanos = 0;
+  private boolean alive = true;
+
+  private WorkerProcess(WorkerJvm jvm, HashCode classpathHash, Process process) {
+    this.jvm = jvm;
+    this.classpathHash = classpathHash;
+    this.process = process;
+    this.toWorker = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+    this.fromWorker = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+  }
+
+  public static WorkerProcess start(WorkerJvm jvm, HashCode classpathHash) throws IOException {
+    ImmutableList<String> command = jvm.getCommand();
+    LOG.debug("Starting worker: %s", command);
+    Process process = new ProcessBuilder(command)
+        .directory(jvm.getWorkingDirectory().toFile())
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+    return new WorkerProcess(jvm, classpathHash, process);
+  }
+
+  public WorkerResult run(ImmutableList<String> args) throws IOException, InterruptedException {
+    boolean reused = requestCount > 0;
+    requestCount++;
+
+    WorkerProtocol.Response response;
+    try {
+      WorkerProtocol.writeRequest(toWorker, args);
+      response = WorkerProtocol.readResponse(fromWorker);
+    } catch (IOException e) {
+      LOG.debug(e, "Lost connection to worker for %s", jvm.getMainClass());
+      response = null;
+    }
+
+    if (response == null) {
+      // The worker went away, most likely because the tool called System.exit() in a JVM where we
+      // couldn't trap it. The exit code of the tool is then the exit code of the worker.
+      alive = false;
+      int exitCode = process.waitFor();
+      return ImmutableWorkerResult.of(exitCode, "", "", reused);
+    }
+
+    usedHeapBytes = response.usedHeapBytes;
+    return ImmutableWorkerResult.of(
+        response.exitCode,
+        new String(response.stdout, Charsets.UTF_8),
+        new String(response.stderr, Charsets.UTF_8),
+        reused);
+  }
+
+  /**
+   * @return The hash of the contents of the classpath when this worker was started.
+   */
+  public HashCode getClasspathHash() {
+    return classpathHash;
+  }
+
+  /**
+   * @return When this worker was last returned to the pool, by {@link System#nanoTime()}.
+   */
+  public long getIdleSinceNanos() {
+    return idleSinceNanos;
+  }
+
+  public void setIdleSinceNanos(long idleSinceNanos) {
+    this.idleSinceNanos = idleSinceNanos;
+  }
+
+  /**
+   * @return Whether this worker may serve further requests.
+   */
+  public boolean isReusable() {
+    if (!alive || requestCount >= jvm.getMaxRequestsPerWorker()) {
+      return false;
+    }
+    long maxUsedHeapBytes = jvm.getMaxUsedHeapBytes();
+    return maxUsedHeapBytes == 0 || usedHeapBytes <= maxUsedHeapBytes;
+  }
+
+  @Override
+  public void close() {
+    alive = false;
+    try {
+      // Closing stdin asks the worker to exit, but don't rely on it doing so promptly.
+      toWorker.close();
+    } catch (IOException e) {
+      LOG.debug(e, "Unable to close worker stdin.");
+    }
+    process.destroy();
+  }
+}
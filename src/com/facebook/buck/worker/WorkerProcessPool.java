@@ -0,0 +1,292 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.timing.Clock;
+import com.facebook.buck.timing.DefaultClock;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+/**
+ * A pool of long-lived worker JVMs, so that tools which would otherwise pay for JVM startup and
+ * JIT warm-up on every invocation can be run repeatedly in an already warm JVM.
+ * <p>
+ * Workers are started on demand, one per concurrent request, and are kept idle between requests
+ * for reuse by later requests with an equal {@link WorkerJvm}, as long as the contents of its
+ * classpath haven't changed since they were started. The pool returned by
+ * {@link #getShared()} lives as long as the Buck process, so when running as a daemon, workers
+ * survive from one build to the next. Only up to {@link WorkerJvm#getMaxIdleWorkers()} are kept
+ * idle, though, and only for {@link WorkerJvm#getIdleTimeoutMillis()}.
+ */
+public class WorkerProcessPool implements Closeable {
+
+  private static final Logger LOG = Logger.get(WorkerProcessPool.class);
+
+  /** How often the shared pool looks for workers which have been idle for too long. */
+  private static final long REAP_INTERVAL_SECONDS = 30;
+
+  @Nullable private static WorkerProcessPool sharedPool;
+
+  private final Clock clock;
+  private final ClasspathHasher classpathHasher = new ClasspathHasher();
+  private final Map<WorkerJvm, Deque<WorkerProcess>> idleWorkers = Maps.newHashMap();
+  private final AtomicLong workersStarted = new AtomicLong();
+  private final AtomicLong workersRetired = new AtomicLong();
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong requestsOnReusedWorkers = new AtomicLong();
+  private boolean closed = false;
+
+  public WorkerProcessPool() {
+    this(new DefaultClock());
+  }
+
+  @VisibleForTesting
+  WorkerProcessPool(Clock clock) {
+    this.clock = clock;
+  }
+
+  /**
+   * @return The pool shared by everything in this Buck process. Its workers are shut down when the
+   *     process exits.
+   */
+  public static synchronized WorkerProcessPool getShared() {
+    if (sharedPool == null) {
+      final WorkerProcessPool pool = new WorkerProcessPool();
+      final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder()
+              .setNameFormat("worker-pool-reaper")
+              .setDaemon(true)
+              .build());
+      reaper.scheduleWithFixedDelay(
+          new Runnable() {
+            @Override
+            public void run() {
+              pool.reapIdleWorkers();
+            }
+          },
+          REAP_INTERVAL_SECONDS,
+          REAP_INTERVAL_SECONDS,
+          TimeUnit.SECONDS);
+      Runtime.getRuntime().addShutdownHook(new Thread("worker-pool-shutdown") {
+        @Override
+        public void run() {
+          reaper.shutdownNow();
+          pool.close();
+        }
+      });
+      sharedPool = pool;
+    }
+    return sharedPool;
+  }
+
+  /**
+   * Run the tool described by {@code jvm} with the given arguments, reusing an idle worker if
+   * there is one.
+   */
+  public WorkerResult run(WorkerJvm jvm, ImmutableList<String> args)
+      throws IOException, InterruptedException {
+    WorkerProcess worker = borrowWorker(jvm, classpathHasher.hash(jvm.getClasspath()));
+    boolean returned = false;
+    try {
+      WorkerResult result = worker.run(args);
+      requests.incrementAndGet();
+      if (result.isReusedWorker()) {
+        requestsOnReusedWorkers.incrementAndGet();
+      }
+      returned = returnWorker(jvm, worker);
+      LOG.info(
+          "Ran %s in a %s worker. Started %d workers for %d requests, %d of which reused a " +
+              "worker, and retired %d.",
+          jvm.getMainClass(),
+          result.isReusedWorker() ? "reused" : "new",
+          getWorkersStarted(),
+          getRequests(),
+          getRequestsOnReusedWorkers(),
+          getWorkersRetired());
+      return result;
+    } finally {
+      if (!returned) {
+        retireWorker(worker);
+      }
+    }
+  }
+
+  private WorkerProcess borrowWorker(WorkerJvm jvm, HashCode classpathHash) throws IOException {
+    List<WorkerProcess> stale = Lists.newArrayList();
+    try {
+      synchronized (this) {
+        if (closed) {
+          throw new IOException("Worker pool has been shut down.");
+        }
+        Deque<WorkerProcess> idle = idleWorkers.get(jvm);
+        if (idle != null) {
+          // Workers running an older version of the tool are of no further use.
+          for (Iterator<WorkerProcess> it = idle.iterator(); it.hasNext();) {
+            WorkerProcess worker = it.next();
+            if (!worker.getClasspathHash().equals(classpathHash)) {
+              it.remove();
+              stale.add(worker);
+            }
+          }
+          if (!idle.isEmpty()) {
+            // Prefer the most recently used worker, as it's the most likely to still be warm.
+            return idle.removeFirst();
+          }
+        }
+      }
+    } finally {
+      for (WorkerProcess worker : stale) {
+        retireWorker(worker);
+      }
+    }
+    workersStarted.incrementAndGet();
+    return WorkerProcess.start(jvm, classpathHash);
+  }
+
+  /**
+   * @return Whether the worker was put back in the pool.
+   */
+  private boolean returnWorker(WorkerJvm jvm, WorkerProcess worker) {
+    List<WorkerProcess> excess = Lists.newArrayList();
+    synchronized (this) {
+      if (closed || !worker.isReusable() || jvm.getMaxIdleWorkers() == 0) {
+        return false;
+      }
+      Deque<WorkerProcess> idle = idleWorkers.get(jvm);
+      if (idle == null) {
+        idle = Lists.newLinkedList();
+        idleWorkers.put(jvm, idle);
+      }
+      worker.setIdleSinceNanos(clock.nanoTime());
+      idle.addFirst(worker);
+      // Keep the most recently used workers, as they're the most likely to still be warm.
+      while (idle.size() > jvm.getMaxIdleWorkers()) {
+        excess.add(idle.removeLast());
+      }
+    }
+    for (WorkerProcess stale : excess) {
+      retireWorker(stale);
+    }
+    return true;
+  }
+
+  /**
+   * Shut down the workers which have been idle for longer than the timeout of their
+   * {@link WorkerJvm}.
+   */
+  @VisibleForTesting
+  void reapIdleWorkers() {
+    List<WorkerProcess> expired = Lists.newArrayList();
+    synchronized (this) {
+      long now = clock.nanoTime();
+      for (Iterator<Map.Entry<WorkerJvm, Deque<WorkerProcess>>> it =
+               idleWorkers.entrySet().iterator();
+           it.hasNext();) {
+        Map.Entry<WorkerJvm, Deque<WorkerProcess>> entry = it.next();
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(entry.getKey().getIdleTimeoutMillis());
+        Deque<WorkerProcess> idle = entry.getValue();
+        // The least recently used workers are at the end.
+        while (!idle.isEmpty() && now - idle.getLast().getIdleSinceNanos() > timeoutNanos) {
+          expired.add(idle.removeLast());
+        }
+        if (idle.isEmpty()) {
+          it.remove();
+        }
+      }
+    }
+    if (!expired.isEmpty()) {
+      LOG.debug("Shutting down %d workers which have been idle for too long.", expired.size());
+    }
+    for (WorkerProcess worker : expired) {
+      retireWorker(worker);
+    }
+  }
+
+  private void retireWorker(WorkerProcess worker) {
+    workersRetired.incrementAndGet();
+    worker.close();
+  }
+
+  /**
+   * @return The number of worker JVMs started by this pool.
+   */
+  public long getWorkersStarted() {
+    return workersStarted.get();
+  }
+
+  /**
+   * @return The number of worker JVMs shut down because they hit one of their limits, were idle
+   *     for too long, or failed.
+   */
+  public long getWorkersRetired() {
+    return workersRetired.get();
+  }
+
+  /**
+   * @return The number of requests served by this pool.
+   */
+  public long getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * @return The number of requests served by a worker which had already served another request.
+   */
+  public long getRequestsOnReusedWorkers() {
+    return requestsOnReusedWorkers.get();
+  }
+
+  @Override
+  public void close() {
+    List<WorkerProcess> toClose = Lists.newArrayList();
+    synchronized (this) {
+      closed = true;
+      for (Deque<WorkerProcess> idle : idleWorkers.values()) {
+        toClose.addAll(idle);
+      }
+      idleWorkers.clear();
+    }
+    LOG.info(
+        "Shutting down %d idle workers. Started %d workers for %d requests, %d of which reused " +
+            "a worker.",
+        toClose.size(),
+        getWorkersStarted(),
+        getRequests(),
+        getRequestsOnReusedWorkers());
+    for (WorkerProcess worker : toClose) {
+      worker.close();
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The wire format spoken between Buck and a worker JVM over the worker's stdin and stdout.
+ * <p>
+ * Every message is a frame consisting of a big-endian 32 bit length followed by that many bytes of
+ * payload. A request payload is the list of arguments to pass to the tool. A response payload is
+ * the tool's exit code, the number of heap bytes in use by the worker after the request, and the
+ * bytes the tool wrote to stdout and stderr.
+ * <p>
+ * IMPORTANT! This class is loaded in the worker JVM, so must only depend on the JDK.
+ */
+public final class WorkerProtocol {
+
+  private WorkerProtocol() {
+    // Utility class.
+  }
+
+  public static final class Response {
+    public final int exitCode;
+    public final long usedHeapBytes;
+    public final byte[] stdout;
+    public final byte[] stderr;
+
+    public Response(int exitCode, long usedHeapBytes, byte[] stdout, byte[] stderr) {
+      this.exitCode = exitCode;
+      this.usedHeapBytes = usedHeapBytes;
+      this.stdout = stdout;
+      this.stderr = stderr;
+    }
+  }
+
+  public static void writeRequest(DataOutputStream out, List<String> args) throws IOException {
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    DataOutputStream data = new DataOutputStream(payload);
+    data.writeInt(args.size());
+    for (String arg : args) {
+      writeBytes(data, arg.getBytes(StandardCharsets.UTF_8));
+    }
+    writeFrame(out, payload.toByteArray());
+  }
+
+  /**
+   * @return The arguments of the next request, or {@code null} if the stream has been closed.
+   */
+  public static List<String> readRequest(DataInputStream in) throws IOException {
+    byte[] frame = readFrame(in);
+    if (frame == null) {
+      return null;
+    }
+    DataInputStream data = new DataInputStream(new ByteArrayInputStream(frame));
+    int count = data.readInt();
+    List<String> args = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      args.add(new String(readBytes(data), StandardCharsets.UTF_8));
+    }
+    return args;
+  }
+
+  public static void writeResponse(DataOutputStream out, Response response) throws IOException {
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    DataOutputStream data = new DataOutputStream(payload);
+    data.writeInt(response.exitCode);
+    data.writeLong(response.usedHeapBytes);
+    writeBytes(data, response.stdout);
+    writeBytes(data, response.stderr);
+    writeFrame(out, payload.toByteArray());
+  }
+
+  /**
+   * @return The next response, or {@code null} if the stream has been closed.
+   */
+  public static Response readResponse(DataInputStream in) throws IOException {
+    byte[] frame = readFrame(in);
+    if (frame == null) {
+      return null;
+    }
+    DataInputStream data = new DataInputStream(new ByteArrayInputStream(frame));
+    int exitCode = data.readInt();
+    long usedHeapBytes = data.readLong();
+    byte[] stdout = readBytes(data);
+    byte[] stderr = readBytes(data);
+    return new Response(exitCode, usedHeapBytes, stdout, stderr);
+  }
+
+  private static void writeFrame(DataOutputStream out, byte[] payload) throws IOException {
+    out.writeInt(payload.length);
+    out.write(payload);
+    out.flush();
+  }
+
+  private static byte[] readFrame(DataInputStream in) throws IOException {
+    int length;
+    try {
+      length = in.readInt();
+    } catch (EOFException e) {
+      return null;
+    }
+    byte[] payload = new byte[length];
+    in.readFully(payload);
+    return payload;
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return bytes;
+  }
+}
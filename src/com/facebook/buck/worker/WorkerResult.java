@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import com.facebook.buck.util.immutables.BuckStyleImmutable;
+
+import org.immutables.value.Value;
+
+/**
+ * The outcome of a single request to a worker JVM.
+ */
+@Value.Immutable
+@BuckStyleImmutable
+public abstract class WorkerResult {
+
+  @Value.Parameter
+  public abstract int getExitCode();
+
+  @Value.Parameter
+  public abstract String getStdout();
+
+  @Value.Parameter
+  public abstract String getStderr();
+
+  /**
+   * @return Whether the request was served by a worker which had already served other requests.
+   */
+  @Value.Parameter
+  public abstract boolean isReusedWorker();
+}
@@ -67,12 +67,21 @@ class AppendingZipOutputStream extends CustomZipOutputStream {
 
   @Override
   protected void actuallyPutNextEntry(ZipEntry entry) throws IOException {
+    putEntry(entry, /* raw */ false);
+  }
+
+  @Override
+  protected void actuallyPutRawEntry(ZipEntry entry) throws IOException {
+    putEntry(entry, /* raw */ true);
+  }
+
+  private void putEntry(ZipEntry entry, boolean raw) throws IOException {
     if (throwExceptionsOnDuplicate && !seenNames.add(entry.getName())) {
       // Same exception as ZipOutputStream.
       throw new ZipException("duplicate entry: " + entry.getName());
     }
 
-    currentEntry = new EntryAccounting(clock, entry, currentOffset);
+    currentEntry = new EntryAccounting(clock, entry, currentOffset, raw);
     entries.add(currentEntry);
 
     currentOffset += currentEntry.writeLocalFileHeader(delegate);
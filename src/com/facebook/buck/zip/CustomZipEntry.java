@@ -28,6 +28,7 @@ public class CustomZipEntry extends ZipEntry {
 
   private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
   private long externalAttributes = 0;
+  private int alignment = 1;
 
   public CustomZipEntry(ZipEntry other) {
     super(other);
@@ -71,4 +72,19 @@ public class CustomZipEntry extends ZipEntry {
     this.externalAttributes = externalAttributes;
   }
 
+  public int getAlignment() {
+    return alignment;
+  }
+
+  /**
+   * If this entry is {@link #STORED}, make its data start at an offset in the zip that is a
+   * multiple of {@code alignment}, by padding the extra field of its local file header. This is
+   * what {@code zipalign} does, so that the data can be {@code mmap}ed straight out of the zip.
+   * Deflated entries are not aligned.
+   */
+  public void setAlignment(int alignment) {
+    Preconditions.checkArgument(alignment > 0);
+    this.alignment = alignment;
+  }
+
 }
@@ -17,8 +17,10 @@
 package com.facebook.buck.zip;
 
 import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
@@ -56,6 +58,43 @@ public abstract class CustomZipOutputStream extends OutputStream {
    */
   protected abstract void actuallyPutNextEntry(ZipEntry entry) throws IOException;
 
+  /**
+   * Write an entry whose data has already been compressed (or is stored), copying
+   * {@code compressedData} verbatim into the zip. This is considerably cheaper than
+   * {@link #putNextEntry(ZipEntry)} when moving entries between archives, since the data is
+   * neither inflated nor deflated again.
+   *
+   * @param entry The {@link ZipEntry} to write. Its method, CRC, size and compressed size must all
+   *     be set, and must describe {@code compressedData} accurately.
+   * @param compressedData The bytes of the entry, exactly as they should appear in the zip.
+   */
+  public final void putRawEntry(ZipEntry entry, InputStream compressedData) throws IOException {
+    Preconditions.checkState(state != State.CLOSED, "Stream has been closed.");
+    Preconditions.checkArgument(entry.getMethod() != -1, "Method of %s is unset", entry);
+    Preconditions.checkArgument(entry.getCrc() != -1, "CRC of %s is unset", entry);
+    Preconditions.checkArgument(entry.getSize() != -1, "Size of %s is unset", entry);
+    Preconditions.checkArgument(
+        entry.getCompressedSize() != -1,
+        "Compressed size of %s is unset",
+        entry);
+
+    state = State.OPEN;
+    closeEntry();
+    actuallyPutRawEntry(entry);
+    entryOpen = true;
+    ByteStreams.copy(compressedData, this);
+    closeEntry();
+  }
+
+  /**
+   * Called by {@link #putRawEntry(ZipEntry, InputStream)}. The same guarantees as for
+   * {@link #actuallyPutNextEntry(ZipEntry)} apply, but bytes subsequently written must be passed
+   * through to the zip as-is.
+   *
+   * @param entry The {@link ZipEntry} to write.
+   */
+  protected abstract void actuallyPutRawEntry(ZipEntry entry) throws IOException;
+
   public final void closeEntry() throws IOException {
     Preconditions.checkState(state != State.CLOSED, "Stream has been closed");
     if (!entryOpen) {
@@ -29,6 +29,7 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 
 /**
  * A wrapper containing the {@link ZipEntry} and additional book keeping information required to
@@ -42,9 +43,16 @@ class EntryAccounting {
 
   private final ZipEntry entry;
   private final Method method;
+  /**
+   * When true, the bytes written for this entry are already in their final (possibly compressed)
+   * form, and the CRC and sizes of the entry are known up front.
+   */
+  private final boolean raw;
+  private long rawBytesWritten = 0;
   private Hasher crc = Hashing.crc32().newHasher();
   private long offset;
   private long externalAttributes = 0;
+  private int alignment = 1;
 
   /*
    * General purpose bit flag:
@@ -69,9 +77,14 @@ class EntryAccounting {
   private final byte[] buffer = new byte[ARBITRARY_SIZE];
 
   public EntryAccounting(Clock clock, ZipEntry entry, long currentOffset) {
+    this(clock, entry, currentOffset, /* raw */ false);
+  }
+
+  public EntryAccounting(Clock clock, ZipEntry entry, long currentOffset, boolean raw) {
     this.entry = entry;
     this.method = Method.detect(entry.getMethod());
     this.offset = currentOffset;
+    this.raw = raw;
 
     if (entry.getTime() == -1) {
       entry.setTime(clock.currentTimeMillis());
@@ -80,6 +93,7 @@ class EntryAccounting {
     if (entry instanceof CustomZipEntry) {
       deflater.setLevel(((CustomZipEntry) entry).getCompressionLevel());
       externalAttributes = ((CustomZipEntry) entry).getExternalAttributes();
+      alignment = ((CustomZipEntry) entry).getAlignment();
     }
   }
 
@@ -211,9 +225,16 @@ class EntryAccounting {
       }
 
       byte[] nameBytes = entry.getName().getBytes(Charsets.UTF_8);
+      // Pad the extra field so that the data which follows it is aligned.
+      int padding = 0;
+      if (!isDeflated() && alignment > 1) {
+        long dataOffset = offset + stream.size() + 4 + nameBytes.length;
+        padding = (int) ((alignment - dataOffset % alignment) % alignment);
+      }
       ByteIo.writeShort(stream, nameBytes.length);
-      ByteIo.writeShort(stream, 0);
+      ByteIo.writeShort(stream, padding);
       stream.write(nameBytes);
+      stream.write(new byte[padding]);
 
       byte[] bytes = stream.toByteArray();
       out.write(bytes);
@@ -245,6 +266,13 @@ class EntryAccounting {
   }
 
   public long write(OutputStream out, byte[] b, int off, int len) throws IOException {
+    if (raw) {
+      out.write(b, off, len);
+      rawBytesWritten += len;
+      // As with regular entries, the bytes of deflated entries are accounted for on close.
+      return isDeflated() ? 0 : len;
+    }
+
     updateCrc(b, off, len);
 
     if (!isDeflated()) {
@@ -266,6 +294,10 @@ class EntryAccounting {
   }
 
   public long close(OutputStream out) throws IOException {
+    if (raw) {
+      return closeRaw(out);
+    }
+
     if (!isDeflated()) {
       // Nothing left to do.
       return 0;
@@ -287,6 +319,27 @@ class EntryAccounting {
     return entry.getCompressedSize() + closeBytes.length;
   }
 
+  private long closeRaw(OutputStream out) throws IOException {
+    deflater.end();
+
+    if (rawBytesWritten != entry.getCompressedSize()) {
+      throw new ZipException(String.format(
+          "Raw entry %s declared a compressed size of %d but %d bytes were written",
+          entry.getName(),
+          entry.getCompressedSize(),
+          rawBytesWritten));
+    }
+
+    if (!isDeflated()) {
+      return 0;
+    }
+
+    byte[] closeBytes = close();
+    out.write(closeBytes);
+
+    return entry.getCompressedSize() + closeBytes.length;
+  }
+
 
   private static enum Method {
     DEFLATE(ZipEntry.DEFLATED, 20, 8),
@@ -71,8 +71,17 @@ public class OverwritingZipOutputStream extends CustomZipOutputStream {
 
   @Override
   protected void actuallyPutNextEntry(ZipEntry entry) throws IOException {
+    putEntry(entry, /* raw */ false);
+  }
+
+  @Override
+  protected void actuallyPutRawEntry(ZipEntry entry) throws IOException {
+    putEntry(entry, /* raw */ true);
+  }
+
+  private void putEntry(ZipEntry entry, boolean raw) throws IOException {
     // We calculate the actual offset when closing the stream, so 0 is fine.
-    currentEntry = new EntryAccounting(clock, entry, /* currentOffset */ 0);
+    currentEntry = new EntryAccounting(clock, entry, /* currentOffset */ 0, raw);
 
     long md5 = Hashing.md5().hashUnencodedChars(entry.getName()).asLong();
     String name = String.valueOf(md5);
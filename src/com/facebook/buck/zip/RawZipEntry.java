@@ -0,0 +1,158 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.Calendar;
+import java.util.zip.ZipEntry;
+
+/**
+ * An entry read from the central directory of a zip by {@link RawZipFile}, together with the
+ * location of its local file header. Unlike {@link ZipEntry}, all of the values here are exactly
+ * as they appear on disk, so that the entry can be copied into another zip without inflating and
+ * deflating its data.
+ */
+public class RawZipEntry {
+
+  private final String name;
+  private final int method;
+  private final int flags;
+  private final long dosTime;
+  private final long crc;
+  private final long compressedSize;
+  private final long size;
+  private final long externalAttributes;
+  private final long localHeaderOffset;
+
+  RawZipEntry(
+      String name,
+      int method,
+      int flags,
+      long dosTime,
+      long crc,
+      long compressedSize,
+      long size,
+      long externalAttributes,
+      long localHeaderOffset) {
+    this.name = name;
+    this.method = method;
+    this.flags = flags;
+    this.dosTime = dosTime;
+    this.crc = crc;
+    this.compressedSize = compressedSize;
+    this.size = size;
+    this.externalAttributes = externalAttributes;
+    this.localHeaderOffset = localHeaderOffset;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return Either {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}.
+   */
+  public int getMethod() {
+    return method;
+  }
+
+  /**
+   * @return The general purpose bit flags of the entry.
+   */
+  public int getFlags() {
+    return flags;
+  }
+
+  /**
+   * @return The modification time of the entry in DOS format.
+   */
+  public long getDosTime() {
+    return dosTime;
+  }
+
+  /**
+   * @return The modification time of the entry in milliseconds since the epoch, in the local time
+   *     zone, as {@link ZipEntry#getTime()} would report it.
+   */
+  public long getTime() {
+    Calendar instance = Calendar.getInstance();
+    instance.clear();
+    instance.set(
+        (int) ((dosTime >> 25) & 0x7f) + 1980,
+        (int) ((dosTime >> 21) & 0x0f) - 1,
+        (int) ((dosTime >> 16) & 0x1f),
+        (int) ((dosTime >> 11) & 0x1f),
+        (int) ((dosTime >> 5) & 0x3f),
+        (int) ((dosTime << 1) & 0x3e));
+    return instance.getTimeInMillis();
+  }
+
+  public long getCrc() {
+    return crc;
+  }
+
+  public long getCompressedSize() {
+    return compressedSize;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public long getExternalAttributes() {
+    return externalAttributes;
+  }
+
+  /**
+   * @return The offset of this entry's local file header from the start of the zip.
+   */
+  public long getLocalHeaderOffset() {
+    return localHeaderOffset;
+  }
+
+  public boolean isDirectory() {
+    return name.endsWith("/");
+  }
+
+  /**
+   * @return A new {@link CustomZipEntry} describing this entry, suitable for passing to
+   *     {@link CustomZipOutputStream#putRawEntry(ZipEntry, java.io.InputStream)}.
+   */
+  public CustomZipEntry toZipEntry() {
+    CustomZipEntry entry = new CustomZipEntry(name);
+    entry.setMethod(method);
+    entry.setTime(getTime());
+    entry.setCrc(crc);
+    entry.setSize(size);
+    entry.setCompressedSize(compressedSize);
+    entry.setExternalAttributes(externalAttributes);
+    return entry;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("name", name)
+        .add("method", method)
+        .add("crc", crc)
+        .add("compressedSize", compressedSize)
+        .add("size", size)
+        .add("localHeaderOffset", localHeaderOffset)
+        .toString();
+  }
+}
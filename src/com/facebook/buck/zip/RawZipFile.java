@@ -0,0 +1,284 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A reader for zip files which exposes entries exactly as they are stored on disk. This is the
+ * counterpart of {@link CustomZipOutputStream#putRawEntry(ZipEntry, InputStream)}: entries can be
+ * moved from one archive to another without being inflated and deflated again, which makes
+ * merging, filtering and repacking zips an I/O bound operation.
+ * <p>
+ * Only the central directory is parsed when the file is opened. The data of each entry is read
+ * lazily, and multiple streams may be open at once.
+ * <p>
+ * Zip64 archives, encrypted entries and compression methods other than
+ * {@link ZipEntry#STORED} and {@link ZipEntry#DEFLATED} are not supported.
+ */
+public class RawZipFile implements Closeable {
+
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xffff;
+  private static final int ENCRYPTED_FLAG = 1;
+  private static final long ZIP64_MAGIC = 0xffffffffL;
+
+  private final Path path;
+  private final FileChannel channel;
+  private final ImmutableList<RawZipEntry> entries;
+
+  public RawZipFile(Path path) throws IOException {
+    this.path = path;
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      this.entries = readCentralDirectory();
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return The entries of the zip, in the order they appear in the central directory.
+   */
+  public ImmutableList<RawZipEntry> getEntries() {
+    return entries;
+  }
+
+  /**
+   * @return A stream of the bytes of {@code entry} exactly as they are stored in the zip. For
+   *     deflated entries, these are the raw deflate bytes without any zlib header.
+   */
+  public InputStream getCompressedInputStream(RawZipEntry entry) throws IOException {
+    ByteBuffer header = read(entry.getLocalHeaderOffset(), LOCAL_HEADER_SIZE);
+    if (header.getInt(0) != (int) ZipEntry.LOCSIG) {
+      throw new ZipException(
+          String.format("Bad local file header for %s in %s", entry.getName(), path));
+    }
+    int nameLength = header.getShort(26) & 0xffff;
+    int extraLength = header.getShort(28) & 0xffff;
+    long dataOffset = entry.getLocalHeaderOffset() + LOCAL_HEADER_SIZE + nameLength + extraLength;
+    return new ChannelInputStream(channel, dataOffset, entry.getCompressedSize());
+  }
+
+  /**
+   * @return A stream of the uncompressed bytes of {@code entry}.
+   */
+  public InputStream getInputStream(RawZipEntry entry) throws IOException {
+    InputStream compressed = getCompressedInputStream(entry);
+    if (entry.getMethod() == ZipEntry.STORED) {
+      return compressed;
+    }
+    final Inflater inflater = new Inflater(/* nowrap */ true);
+    // When inflating without a zlib header, the inflater may need an extra dummy byte at the end of
+    // the input. java.util.zip.ZipFile does the same.
+    InputStream padded =
+        new SequenceInputStream(compressed, new ByteArrayInputStream(new byte[1]));
+    return new InflaterInputStream(padded, inflater) {
+      private boolean closed = false;
+
+      @Override
+      public void close() throws IOException {
+        if (!closed) {
+          closed = true;
+          inflater.end();
+        }
+        super.close();
+      }
+    };
+  }
+
+  /**
+   * Copy {@code entry} into {@code out} without recompressing it. The name, method, time, CRC,
+   * sizes and external attributes of the entry are preserved.
+   */
+  public void copyEntry(RawZipEntry entry, CustomZipOutputStream out) throws IOException {
+    try (InputStream in = getCompressedInputStream(entry)) {
+      out.putRawEntry(entry.toZipEntry(), in);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private ImmutableList<RawZipEntry> readCentralDirectory() throws IOException {
+    long fileSize = channel.size();
+    if (fileSize < END_OF_CENTRAL_DIRECTORY_SIZE) {
+      throw new ZipException("Not a zip file: " + path);
+    }
+
+    // The end of central directory record is followed by a variable length comment, so search
+    // backwards for its signature.
+    int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+    ByteBuffer tail = read(fileSize - tailSize, tailSize);
+    int endOffset = -1;
+    for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+      if (tail.getInt(i) == (int) ZipEntry.ENDSIG) {
+        endOffset = i;
+        break;
+      }
+    }
+    if (endOffset == -1) {
+      throw new ZipException("Unable to find end of central directory in " + path);
+    }
+
+    int entryCount = tail.getShort(endOffset + 10) & 0xffff;
+    long directorySize = tail.getInt(endOffset + 12) & ZIP64_MAGIC;
+    long directoryOffset = tail.getInt(endOffset + 16) & ZIP64_MAGIC;
+    if (entryCount == 0xffff || directorySize == ZIP64_MAGIC || directoryOffset == ZIP64_MAGIC) {
+      throw new ZipException("Zip64 archives are not supported: " + path);
+    }
+
+    ByteBuffer directory = read(directoryOffset, (int) directorySize);
+    ImmutableList.Builder<RawZipEntry> builder = ImmutableList.builder();
+    int position = 0;
+    for (int i = 0; i < entryCount; i++) {
+      if (position + CENTRAL_HEADER_SIZE > directorySize ||
+          directory.getInt(position) != (int) ZipEntry.CENSIG) {
+        throw new ZipException("Corrupt central directory in " + path);
+      }
+
+      int flags = directory.getShort(position + 8) & 0xffff;
+      int method = directory.getShort(position + 10) & 0xffff;
+      long dosTime = directory.getInt(position + 12) & ZIP64_MAGIC;
+      long crc = directory.getInt(position + 16) & ZIP64_MAGIC;
+      long compressedSize = directory.getInt(position + 20) & ZIP64_MAGIC;
+      long size = directory.getInt(position + 24) & ZIP64_MAGIC;
+      int nameLength = directory.getShort(position + 28) & 0xffff;
+      int extraLength = directory.getShort(position + 30) & 0xffff;
+      int commentLength = directory.getShort(position + 32) & 0xffff;
+      long externalAttributes = directory.getInt(position + 38) & ZIP64_MAGIC;
+      long localHeaderOffset = directory.getInt(position + 42) & ZIP64_MAGIC;
+
+      byte[] nameBytes = new byte[nameLength];
+      directory.position(position + CENTRAL_HEADER_SIZE);
+      directory.get(nameBytes);
+      String name = new String(nameBytes, Charsets.UTF_8);
+
+      if ((flags & ENCRYPTED_FLAG) != 0) {
+        throw new ZipException(String.format("Encrypted entry %s in %s", name, path));
+      }
+      if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+        throw new ZipException(
+            String.format("Unsupported compression method %d for %s in %s", method, name, path));
+      }
+
+      builder.add(
+          new RawZipEntry(
+              name,
+              method,
+              flags,
+              dosTime,
+              crc,
+              compressedSize,
+              size,
+              externalAttributes,
+              localHeaderOffset));
+
+      position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+    }
+    return builder.build();
+  }
+
+  private ByteBuffer read(long offset, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, offset + buffer.position());
+      if (read == -1) {
+        throw new ZipException("Unexpected end of file in " + path);
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Reads a region of a {@link FileChannel} using positional reads, so that any number of these
+   * streams may share the channel.
+   */
+  private static class ChannelInputStream extends InputStream {
+    private final FileChannel channel;
+    private long position;
+    private long remaining;
+
+    public ChannelInputStream(FileChannel channel, long position, long length) {
+      Preconditions.checkArgument(length >= 0);
+      this.channel = channel;
+      this.position = position;
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      int read = read(b, 0, 1);
+      return read == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining == 0) {
+        return -1;
+      }
+      if (len == 0) {
+        return 0;
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, remaining));
+      int read = channel.read(buffer, position);
+      if (read == -1) {
+        throw new ZipException("Unexpected end of file");
+      }
+      position += read;
+      remaining -= read;
+      return read;
+    }
+
+    @Override
+    public long skip(long n) {
+      long skipped = Math.max(0, Math.min(n, remaining));
+      position += skipped;
+      remaining -= skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return (int) Math.min(Integer.MAX_VALUE, remaining);
+    }
+  }
+}
@@ -23,22 +23,22 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
 
-import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 /**
  * A command that creates a copy of a ZIP archive, making sure that certain user-specified entries
  * are packed with a certain compression level.
  *
  * Can be used, for instance, to force the resources.arsc file in an Android .apk to be compressed.
+ * All other entries are copied across as-is, without being inflated and deflated again. Stored
+ * entries can also be aligned as they are copied, as {@code zipalign} would, so that an APK can be
+ * repacked and aligned in a single pass.
  */
 public class RepackZipEntriesStep implements Step {
 
@@ -46,6 +46,7 @@ public class RepackZipEntriesStep implements Step {
   private final Path outputPath;
   private final ImmutableSet<String> entries;
   private final int compressionLevel;
+  private final int alignment;
 
   /**
    * Creates a {@link RepackZipEntriesStep}. A temporary directory will be created and used
@@ -73,10 +74,29 @@ public class RepackZipEntriesStep implements Step {
       Path outputPath,
       ImmutableSet<String> entries,
       int compressionLevel) {
+    this(inputPath, outputPath, entries, compressionLevel, /* alignment */ 1);
+  }
+
+  /**
+   * Creates a {@link RepackZipEntriesStep}.
+   * @param inputPath input archive
+   * @param outputPath destination archive
+   * @param entries files to repack (e.g. {@code ImmutableSet.of("resources.arsc")})
+   * @param compressionLevel 0 to 9
+   * @param alignment the data of every stored entry in the destination archive will start at a
+   *     multiple of this many bytes (e.g. 4, as {@code zipalign 4} would do)
+   */
+  public RepackZipEntriesStep(
+      Path inputPath,
+      Path outputPath,
+      ImmutableSet<String> entries,
+      int compressionLevel,
+      int alignment) {
     this.inputPath = inputPath;
     this.outputPath = outputPath;
     this.entries = entries;
     this.compressionLevel = compressionLevel;
+    this.alignment = alignment;
   }
 
   @Override
@@ -85,34 +105,46 @@ public class RepackZipEntriesStep implements Step {
     File inputFile = filesystem.getFileForRelativePath(inputPath);
     File outputFile = filesystem.getFileForRelativePath(outputPath);
     try (
-        ZipInputStream in =
-            new ZipInputStream(new BufferedInputStream(new FileInputStream(inputFile)));
+        RawZipFile in = new RawZipFile(inputFile.toPath());
         CustomZipOutputStream out = ZipOutputStreams.newOutputStream(outputFile)
     ) {
-      for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
-        CustomZipEntry customEntry = new CustomZipEntry(entry);
-        if (entries.contains(customEntry.getName())) {
-          customEntry.setCompressionLevel(compressionLevel);
+      for (RawZipEntry entry : in.getEntries()) {
+        // Entries which aren't being repacked are copied across without being recompressed.
+        if (!entries.contains(entry.getName())) {
+          CustomZipEntry rawEntry = entry.toZipEntry();
+          rawEntry.setAlignment(alignment);
+          try (InputStream compressedStream = in.getCompressedInputStream(entry)) {
+            out.putRawEntry(rawEntry, compressedStream);
+          }
+          continue;
         }
 
-        InputStream toUse;
-        // If we're using STORED files, we must pre-calculate the CRC.
-        if (customEntry.getMethod() == ZipEntry.STORED) {
-          try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-            ByteStreams.copy(in, bos);
-            byte[] bytes = bos.toByteArray();
-            customEntry.setCrc(Hashing.crc32().hashBytes(bytes).padToLong());
-            customEntry.setSize(bytes.length);
-            customEntry.setCompressedSize(bytes.length);
-            toUse = new ByteArrayInputStream(bytes);
+        CustomZipEntry customEntry = new CustomZipEntry(entry.getName());
+        customEntry.setTime(entry.getTime());
+        customEntry.setExternalAttributes(entry.getExternalAttributes());
+        customEntry.setCompressionLevel(compressionLevel);
+        customEntry.setAlignment(alignment);
+
+        try (InputStream entryStream = in.getInputStream(entry)) {
+          InputStream toUse;
+          // If we're using STORED files, we must pre-calculate the CRC.
+          if (customEntry.getMethod() == ZipEntry.STORED) {
+            try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
+              ByteStreams.copy(entryStream, bos);
+              byte[] bytes = bos.toByteArray();
+              customEntry.setCrc(Hashing.crc32().hashBytes(bytes).padToLong());
+              customEntry.setSize(bytes.length);
+              customEntry.setCompressedSize(bytes.length);
+              toUse = new ByteArrayInputStream(bytes);
+            }
+          } else {
+            toUse = entryStream;
           }
-        } else {
-          toUse = in;
-        }
 
-        out.putNextEntry(customEntry);
-        ByteStreams.copy(toUse, out);
-        out.closeEntry();
+          out.putNextEntry(customEntry);
+          ByteStreams.copy(toUse, out);
+          out.closeEntry();
+        }
       }
 
       return 0;
@@ -83,6 +83,16 @@ public class AndroidBinaryBuilder extends AbstractNodeBuilder<AndroidBinaryDescr
     return this;
   }
 
+  public AndroidBinaryBuilder setUseLinearAllocSplitDex(boolean useLinearAllocSplitDex) {
+    arg.useLinearAllocSplitDex = Optional.of(useLinearAllocSplitDex);
+    return this;
+  }
+
+  public AndroidBinaryBuilder setUseStableSecondaryDexes(boolean useStableSecondaryDexes) {
+    arg.useStableSecondaryDexes = Optional.of(useStableSecondaryDexes);
+    return this;
+  }
+
   public AndroidBinaryBuilder setPrimaryDexScenarioOverflowAllowed(boolean allowed) {
     arg.primaryDexScenarioOverflowAllowed = Optional.of(allowed);
     return this;
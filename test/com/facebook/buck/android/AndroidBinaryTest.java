@@ -122,8 +122,10 @@ public class AndroidBinaryTest {
     ImmutableList.Builder<Step> expectedSteps = ImmutableList.builder();
 
     ProGuardObfuscateStep.create(
+        binaryBuildTarget,
         Optional.<Path>absent(),
         "1024M",
+        /* proguardUseWorker */ false,
         GEN_PATH.resolve("java/src/com/facebook/base/__apk#aapt_package__proguard__/" +
                 "/.proguard/proguard.txt"),
         ImmutableSet.<Path>of(),
@@ -297,7 +299,8 @@ public class AndroidBinaryTest {
         Suppliers.<Map<String, HashCode>>ofInstance(ImmutableMap.<String, HashCode>of()),
         secondaryDexDirectories,
         commandsBuilder,
-        primaryDexPath);
+        primaryDexPath,
+        new FakeBuildableContext());
 
     assertEquals("Expected 2 new assets paths (one for metadata.txt and the other for the " +
         "secondary zips)", 2, secondaryDexDirectories.build().size());
@@ -307,6 +310,37 @@ public class AndroidBinaryTest {
         ImmutableList.<Class<?>>of(SplitZipStep.class, SmartDexingStep.class));
   }
 
+  @Test
+  public void testStableSecondaryDexAssignmentsAreRecordedAsAnArtifact() {
+    BuildRuleResolver ruleResolver = new BuildRuleResolver();
+    AndroidBinary splitDexRule = (AndroidBinary) AndroidBinaryBuilder.createBuilder(
+        BuildTargetFactory.newInstance("//:fbandroid_with_dash_debug_fbsign"))
+        .setManifest(new TestSourcePath("AndroidManifest.xml"))
+        .setKeystore(addKeystoreRule(ruleResolver).getBuildTarget())
+        .setTarget("Google Inc.:Google APIs:16")
+        .setShouldSplitDex(true)
+        .setUseLinearAllocSplitDex(true)
+        .setUseStableSecondaryDexes(true)
+        .setLinearAllocHardLimit(0)
+        .setPrimaryDexScenarioOverflowAllowed(true)
+        .setDexCompression(DexStore.JAR)
+        .build(ruleResolver);
+
+    FakeBuildableContext buildableContext = new FakeBuildableContext();
+    splitDexRule.addDexingSteps(
+        Sets.<Path>newHashSet(),
+        Suppliers.<Map<String, HashCode>>ofInstance(ImmutableMap.<String, HashCode>of()),
+        ImmutableSet.<Path>builder(),
+        ImmutableList.<Step>builder(),
+        BIN_PATH.resolve(".dex/classes.dex"),
+        buildableContext);
+
+    assertTrue(
+        buildableContext.getRecordedArtifacts().contains(
+            BIN_PATH.resolve(
+                "__fbandroid_with_dash_debug_fbsign_secondary_dex_assignments__.txt")));
+  }
+
   @Test
   public void testCreateFilterResourcesStep() {
     BuildRuleResolver resolver = new BuildRuleResolver();
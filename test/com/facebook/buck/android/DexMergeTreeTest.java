@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.rules.ImmutableSha1HashCode;
+import com.facebook.buck.rules.Sha1HashCode;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class DexMergeTreeTest {
+
+  private static final Path WORK_DIR = Paths.get("buck-out/bin/_app_output/merge_tree");
+  private static final int FAN_IN = 4;
+  private static final String SETTINGS = "dx 1.10";
+
+  @Test
+  public void fewInputsAreMergedDirectly() {
+    List<Path> inputs = createInputs(FAN_IN);
+
+    DexMergeTree tree =
+        DexMergeTree.plan(inputs, hashInputs(inputs, -1), WORK_DIR, FAN_IN, SETTINGS);
+
+    assertEquals(ImmutableList.of(), tree.getLevels());
+    assertEquals(inputs, tree.getRootInputs());
+  }
+
+  @Test
+  public void everyInputIsMergedExactlyOnce() {
+    List<Path> inputs = createInputs(200);
+
+    DexMergeTree tree =
+        DexMergeTree.plan(inputs, hashInputs(inputs, -1), WORK_DIR, FAN_IN, SETTINGS);
+
+    assertTrue(tree.getRootInputs().size() <= FAN_IN);
+    List<Path> merged = Lists.newArrayList();
+    Set<Path> intermediates = Sets.newHashSet();
+    for (Map<Path, ImmutableList<Path>> level : tree.getLevels()) {
+      for (Map.Entry<Path, ImmutableList<Path>> merge : level.entrySet()) {
+        assertTrue(merge.getValue().size() > 1);
+        for (Path input : merge.getValue()) {
+          if (!intermediates.remove(input)) {
+            merged.add(input);
+          }
+        }
+        intermediates.add(merge.getKey());
+      }
+    }
+    for (Path input : tree.getRootInputs()) {
+      if (!intermediates.remove(input)) {
+        merged.add(input);
+      }
+    }
+
+    assertEquals(ImmutableList.of(), ImmutableList.copyOf(intermediates));
+    assertEquals(Sets.newHashSet(inputs), Sets.newHashSet(merged));
+    assertEquals(inputs.size(), merged.size());
+  }
+
+  @Test
+  public void changingOneInputOnlyChangesTheMergesAboveIt() {
+    List<Path> inputs = createInputs(200);
+
+    DexMergeTree tree =
+        DexMergeTree.plan(inputs, hashInputs(inputs, -1), WORK_DIR, FAN_IN, SETTINGS);
+    DexMergeTree changedTree =
+        DexMergeTree.plan(inputs, hashInputs(inputs, 100), WORK_DIR, FAN_IN, SETTINGS);
+
+    Set<Path> changedIntermediates = Sets.difference(
+        changedTree.getIntermediateHashes().keySet(),
+        tree.getIntermediateHashes().keySet());
+    assertTrue(changedIntermediates.size() <= changedTree.getLevels().size());
+  }
+
+  @Test
+  public void changingTheSettingsChangesEveryMerge() {
+    List<Path> inputs = createInputs(200);
+
+    DexMergeTree tree =
+        DexMergeTree.plan(inputs, hashInputs(inputs, -1), WORK_DIR, FAN_IN, SETTINGS);
+    DexMergeTree changedTree =
+        DexMergeTree.plan(inputs, hashInputs(inputs, -1), WORK_DIR, FAN_IN, "dx 1.11");
+
+    assertFalse(changedTree.getIntermediateHashes().isEmpty());
+    assertEquals(
+        ImmutableSet.of(),
+        Sets.intersection(
+            changedTree.getIntermediateHashes().keySet(),
+            tree.getIntermediateHashes().keySet()));
+  }
+
+  private static List<Path> createInputs(int numInputs) {
+    List<Path> inputs = Lists.newArrayList();
+    for (int i = 0; i < numInputs; i++) {
+      inputs.add(Paths.get("buck-out/gen/lib" + i + "/lib" + i + ".dex.jar"));
+    }
+    return inputs;
+  }
+
+  /**
+   * @param changedIndex the index of an input to give a different hash, or -1.
+   */
+  private static ImmutableMap<Path, Sha1HashCode> hashInputs(List<Path> inputs, int changedIndex) {
+    Map<Path, Sha1HashCode> hashes = Maps.newLinkedHashMap();
+    for (int i = 0; i < inputs.size(); i++) {
+      String contents = inputs.get(i).toString() + (i == changedIndex ? " changed" : "");
+      hashes.put(
+          inputs.get(i),
+          ImmutableSha1HashCode.of(Hashing.sha1().hashString(contents, Charsets.UTF_8).toString()));
+    }
+    return ImmutableMap.copyOf(hashes);
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.android;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.android.DxStep.Option;
@@ -26,22 +27,32 @@ import com.facebook.buck.step.TestExecutionContext;
 import com.facebook.buck.testutil.MoreAsserts;
 import com.facebook.buck.testutil.TestConsole;
 import com.facebook.buck.util.Verbosity;
+import com.facebook.buck.worker.ImmutableWorkerResult;
+import com.facebook.buck.worker.WorkerJvm;
+import com.facebook.buck.worker.WorkerProcessPool;
 import com.google.common.base.Function;
+import com.google.common.base.Functions;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 
+import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.easymock.EasyMockSupport;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.EnumSet;
+import java.util.List;
 
 import java.io.IOException;
 
@@ -247,6 +258,59 @@ public class DxStepTest extends EasyMockSupport {
     }
   }
 
+  @Test
+  public void testRunInProcessUsesWorkerWhenEnabled() throws Exception {
+    Capture<WorkerJvm> jvm = new Capture<>();
+    Capture<ImmutableList<String>> args = new Capture<>();
+    WorkerProcessPool workerProcessPool = createMock(WorkerProcessPool.class);
+    EasyMock.expect(workerProcessPool.run(EasyMock.capture(jvm), EasyMock.capture(args)))
+        .andReturn(ImmutableWorkerResult.of(0, "", "", /* reusedWorker */ false));
+    EasyMock.replay(workerProcessPool);
+
+    Verbosity verbosity = VerbosityParser.getVerbosityForLevel(2);
+    try (ExecutionContext context = TestExecutionContext.newBuilder()
+             .setConsole(new TestConsole(verbosity))
+             .setAndroidPlatformTarget(androidPlatformTargetOptional)
+             .setWorkerProcessPool(workerProcessPool)
+             .build()) {
+      Function<Path, Path> pathAbsolutifier = context.getProjectFilesystem().getAbsolutifier();
+
+      DxStep dx = new DxStep(SAMPLE_OUTPUT_PATH,
+          SAMPLE_FILES_TO_DEX,
+          EnumSet.of(Option.USE_CUSTOM_DX_IF_AVAILABLE, Option.RUN_IN_PROCESS),
+          new Supplier<String>() {
+            @Override
+            public String get() {
+              return "/home/mbolin/dx";
+            }
+          },
+          /* useWorkers */ Suppliers.ofInstance(true));
+
+      assertEquals(0, dx.execute(context));
+      assertEquals("com.android.dx.command.dexer.Main", jvm.getValue().getMainClass());
+      // Workers only load the tool from its own classpath, so the dexer must be found there.
+      List<URL> classpath = Lists.newArrayList();
+      for (Path entry : jvm.getValue().getClasspath()) {
+        classpath.add(entry.toUri().toURL());
+      }
+      try (URLClassLoader loader = new URLClassLoader(
+               classpath.toArray(new URL[classpath.size()]),
+               ClassLoader.getSystemClassLoader().getParent())) {
+        loader.loadClass(jvm.getValue().getMainClass());
+      }
+      assertEquals(
+          ImmutableList.builder()
+              .add("--output", SAMPLE_OUTPUT_PATH.toString())
+              .addAll(Iterables.transform(
+                      Iterables.transform(SAMPLE_FILES_TO_DEX, pathAbsolutifier),
+                      Functions.toStringFunction()))
+              .build(),
+          args.getValue());
+      verifyAll();
+      EasyMock.verify(workerProcessPool);
+    }
+  }
+
   private ExecutionContext createExecutionContext(int verbosityLevel) throws IOException {
     Verbosity verbosity = VerbosityParser.getVerbosityForLevel(verbosityLevel);
     TestConsole console = new TestConsole(verbosity);
@@ -28,23 +28,32 @@ import com.facebook.buck.util.FilteredDirectoryCopier;
 import com.facebook.buck.util.Filters;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.Verbosity;
+import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.easymock.IAnswer;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class FilterResourcesStepTest {
 
@@ -64,6 +73,9 @@ public class FilterResourcesStepTest {
   private final Path scaleSource = getDrawableFile(first, "xhdpi", "other.png");
   private final Path scaleDest = getDrawableFile(first, "mdpi", "other.png");
 
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
   private Path getDrawableFile(String dir, String qualifier, String filename) {
     return Paths.get(dir, String.format("drawable-%s", qualifier), filename);
   }
@@ -95,6 +107,9 @@ public class FilterResourcesStepTest {
     EasyMock.expect(context.getProcessExecutor()).andReturn(processExecutor).anyTimes();
     EasyMock.expect(context.getVerbosity()).andReturn(Verbosity.SILENT).anyTimes();
     EasyMock.expect(context.getProjectFilesystem()).andReturn(filesystem).anyTimes();
+    EasyMock.expect(context.getHelperExecutor())
+        .andReturn(MoreExecutors.sameThreadExecutor())
+        .anyTimes();
     EasyMock.replay(context);
 
     // Create a mock DrawableFinder, just creates one drawable/density/resource dir.
@@ -278,6 +293,82 @@ public class FilterResourcesStepTest {
     assertTrue(matchesRegex("root/res/values-es-rUS/strings.xml"));
   }
 
+  @Test
+  public void testCachingImageScalerOnlyScalesAnImageOnce()
+      throws IOException, InterruptedException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmpDir.getRoot().toPath());
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(filesystem)
+        .build();
+    final AtomicInteger numScaled = new AtomicInteger();
+    final AtomicReference<String> version = new AtomicReference<>("1.0");
+    ImageScaler delegate = new ImageScaler() {
+      @Override
+      public boolean isAvailable(ExecutionContext context) {
+        return true;
+      }
+
+      @Override
+      public String getVersion(ExecutionContext context) {
+        return version.get();
+      }
+
+      @Override
+      public void scale(double factor, Path source, Path destination, ExecutionContext context)
+          throws IOException {
+        numScaled.incrementAndGet();
+        context.getProjectFilesystem().writeContentsToPath("scaled " + factor, destination);
+      }
+    };
+    ImageScaler scaler =
+        new FilterResourcesStep.CachingImageScaler(delegate, Paths.get("scaled_drawables"));
+    Path source = Paths.get("res/drawable-xhdpi/image.png");
+    filesystem.createParentDirs(source);
+    filesystem.writeContentsToPath("image", source);
+
+    Path firstDestination = Paths.get("first/res/drawable-mdpi/image.png");
+    filesystem.createParentDirs(firstDestination);
+    scaler.scale(0.5, source, firstDestination, context);
+    Path secondDestination = Paths.get("second/res/drawable-mdpi/image.png");
+    filesystem.createParentDirs(secondDestination);
+    scaler.scale(0.5, source, secondDestination, context);
+
+    assertEquals(1, numScaled.get());
+    assertEquals(Optional.of("scaled 0.5"), filesystem.readFileIfItExists(secondDestination));
+
+    // A different scale factor is a different image.
+    scaler.scale(0.75, source, secondDestination, context);
+    assertEquals(2, numScaled.get());
+
+    // So is the image made by a different version of the scaler.
+    version.set("2.0");
+    scaler.scale(0.75, source, secondDestination, context);
+    assertEquals(3, numScaled.get());
+  }
+
+  @Test
+  public void testCachingImageScalerDeletesImagesWhichHaveNotBeenUsedForALongTime()
+      throws IOException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmpDir.getRoot().toPath());
+    Path cacheDir = Paths.get("scaled_drawables");
+    filesystem.mkdirs(cacheDir);
+    Path recentImage = cacheDir.resolve("recent.png");
+    filesystem.writeContentsToPath("recent", recentImage);
+    Path oldImage = cacheDir.resolve("old.png");
+    filesystem.writeContentsToPath("old", oldImage);
+    Files.setLastModifiedTime(
+        filesystem.resolve(oldImage),
+        FileTime.fromMillis(
+            System.currentTimeMillis() -
+                TimeUnit.DAYS.toMillis(FilterResourcesStep.CachingImageScaler.MAX_AGE_DAYS + 1)));
+
+    new FilterResourcesStep.CachingImageScaler(EasyMock.createMock(ImageScaler.class), cacheDir)
+        .pruneUnusedImages(filesystem);
+
+    assertTrue(filesystem.exists(recentImage));
+    assertFalse(filesystem.exists(oldImage));
+  }
+
   private static boolean matchesRegex(String input) {
     return FilterResourcesStep.NON_ENGLISH_STRING_PATH.matcher(input).matches();
   }
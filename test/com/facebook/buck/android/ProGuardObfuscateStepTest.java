@@ -21,6 +21,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
+import com.facebook.buck.model.BuildTargetFactory;
 import com.facebook.buck.rules.FakeBuildableContext;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
@@ -96,8 +97,10 @@ public class ProGuardObfuscateStepTest extends EasyMockSupport {
 
     ImmutableList.Builder<Step> steps = ImmutableList.builder();
     ProGuardObfuscateStep.create(
+        BuildTargetFactory.newInstance("//:app"),
         /* proguardJarOverride */ Optional.<Path>absent(),
         "1024M",
+        /* proguardUseWorker */ false,
         Paths.get("generated/proguard.txt"),
         /* customProguardConfigs */ ImmutableSet.<Path>of(),
         ProGuardObfuscateStep.SdkProguardType.DEFAULT,
@@ -123,8 +126,10 @@ public class ProGuardObfuscateStepTest extends EasyMockSupport {
       String expectedPath) {
     ImmutableList.Builder<Step> steps = ImmutableList.builder();
     ProGuardObfuscateStep.create(
+        BuildTargetFactory.newInstance("//:app"),
         /* proguardJarOverride */ Optional.<Path>absent(),
         "1024M",
+        /* proguardUseWorker */ false,
         Paths.get("generated/proguard.txt"),
         /* customProguardConfigs */ ImmutableSet.<Path>of(),
         sdkProguardConfig,
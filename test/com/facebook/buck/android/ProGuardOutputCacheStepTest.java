@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class ProGuardOutputCacheStepTest {
+
+  private static final BuildTarget TARGET = BuildTargetFactory.newInstance("//:app");
+  private static final Path PROGUARD_JAR = Paths.get("proguard.jar");
+  private static final Path COMMAND_LINE = Paths.get("proguard/command-line.txt");
+  private static final Path INPUT_JAR = Paths.get("lib/lib.jar");
+  private static final Path OUTPUT_JAR = Paths.get("proguard/lib/lib-obfuscated.jar");
+  private static final Path MAPPING = Paths.get("proguard/mapping.txt");
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+  private ExecutionContext context;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = new ProjectFilesystem(tmpDir.getRoot().toPath());
+    context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(filesystem)
+        .build();
+    filesystem.createParentDirs(COMMAND_LINE);
+    filesystem.createParentDirs(INPUT_JAR);
+    filesystem.writeContentsToPath("proguard", PROGUARD_JAR);
+    filesystem.writeContentsToPath("-injars lib/lib.jar", COMMAND_LINE);
+    filesystem.writeContentsToPath("lib", INPUT_JAR);
+  }
+
+  @Test
+  public void proGuardOnlyRunsWhenItsInputsChange() throws IOException, InterruptedException {
+    assertTrue(checkAndRunProGuard("obfuscated"));
+
+    filesystem.rmdir(OUTPUT_JAR.getParent());
+    filesystem.deleteFileAtPath(MAPPING);
+    assertFalse(checkAndRunProGuard("should not run"));
+    assertEquals(Optional.of("obfuscated"), filesystem.readFileIfItExists(OUTPUT_JAR));
+    assertEquals(Optional.of("mapping"), filesystem.readFileIfItExists(MAPPING));
+
+    filesystem.writeContentsToPath("lib changed", INPUT_JAR);
+    assertTrue(checkAndRunProGuard("obfuscated again"));
+    assertEquals(Optional.of("obfuscated again"), filesystem.readFileIfItExists(OUTPUT_JAR));
+  }
+
+  @Test
+  public void onlyTheMostRecentlyUsedOutputsAreKept() throws IOException, InterruptedException {
+    for (int i = 0; i < 4; i++) {
+      filesystem.writeContentsToPath("lib " + i, INPUT_JAR);
+      assertTrue(checkAndRunProGuard("obfuscated " + i));
+    }
+
+    assertEquals(
+        2,
+        filesystem.getDirectoryContents(ProGuardOutputCacheStep.getCacheDir(TARGET)).size());
+    assertFalse(checkAndRunProGuard("should not run"));
+  }
+
+  @Test
+  public void eachTargetKeepsItsOwnOutputs() throws IOException, InterruptedException {
+    BuildTarget otherTarget = BuildTargetFactory.newInstance("//:other_app");
+    for (int i = 0; i < 2; i++) {
+      filesystem.writeContentsToPath("lib " + i, INPUT_JAR);
+      assertTrue(checkAndRunProGuard(TARGET, "obfuscated " + i));
+    }
+    for (int i = 2; i < 4; i++) {
+      filesystem.writeContentsToPath("lib " + i, INPUT_JAR);
+      assertTrue(checkAndRunProGuard(otherTarget, "obfuscated " + i));
+    }
+
+    filesystem.writeContentsToPath("lib 0", INPUT_JAR);
+    assertFalse(checkAndRunProGuard(TARGET, "should not run"));
+    assertEquals(Optional.of("obfuscated 0"), filesystem.readFileIfItExists(OUTPUT_JAR));
+  }
+
+  @Test
+  public void outputsWhichDisappearAreACacheMiss() throws IOException, InterruptedException {
+    assertTrue(checkAndRunProGuard("obfuscated"));
+
+    // As if another build evicted them.
+    filesystem.rmdir(ProGuardOutputCacheStep.getCacheDir(TARGET));
+    assertTrue(checkAndRunProGuard("obfuscated again"));
+    assertEquals(Optional.of("obfuscated again"), filesystem.readFileIfItExists(OUTPUT_JAR));
+    assertFalse(checkAndRunProGuard("should not run"));
+  }
+
+  /**
+   * Checks the cache, and if there are no cached outputs, "runs" ProGuard by writing
+   * {@code obfuscated} to the output jar, and saves the outputs in the cache.
+   *
+   * @return whether ProGuard had to run.
+   */
+  private boolean checkAndRunProGuard(String obfuscated) throws IOException, InterruptedException {
+    return checkAndRunProGuard(TARGET, obfuscated);
+  }
+
+  private boolean checkAndRunProGuard(BuildTarget target, String obfuscated)
+      throws IOException, InterruptedException {
+    ProGuardOutputCacheStep step = new ProGuardOutputCacheStep(
+        target,
+        COMMAND_LINE,
+        Optional.of(PROGUARD_JAR),
+        ImmutableList.of(INPUT_JAR),
+        ImmutableList.of(OUTPUT_JAR, MAPPING));
+    assertEquals(0, step.execute(context));
+    if (step.get()) {
+      filesystem.createParentDirs(OUTPUT_JAR);
+      filesystem.writeContentsToPath(obfuscated, OUTPUT_JAR);
+      filesystem.writeContentsToPath("mapping", MAPPING);
+    }
+    assertEquals(0, step.createSaveStep().execute(context));
+    return step.get();
+  }
+}
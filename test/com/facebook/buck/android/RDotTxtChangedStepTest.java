@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumSet;
+
+public class RDotTxtChangedStepTest {
+
+  private static final Path R_DOT_TXT = Paths.get("res_symbols/R.txt");
+  private static final Path STAMP = Paths.get("stamp/stamp");
+  private static final Path OUTPUT = Paths.get("rdotjava_bin/R.class");
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+  private ExecutionContext context;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = new ProjectFilesystem(tmpDir.getRoot().toPath());
+    context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(filesystem)
+        .build();
+    filesystem.createParentDirs(R_DOT_TXT);
+    filesystem.createParentDirs(STAMP);
+    filesystem.createParentDirs(OUTPUT);
+  }
+
+  @Test
+  public void outputsAreOnlyRegeneratedWhenRDotTxtChanges()
+      throws IOException, InterruptedException {
+    filesystem.writeContentsToPath("int string hello 0x7f010000\n", R_DOT_TXT);
+    assertTrue(checkAndGenerate("javac"));
+    assertFalse(checkAndGenerate("javac"));
+
+    filesystem.writeContentsToPath("int string hello 0x7f010001\n", R_DOT_TXT);
+    assertTrue(checkAndGenerate("javac"));
+    assertFalse(checkAndGenerate("javac"));
+  }
+
+  @Test
+  public void outputsAreRegeneratedWhenSettingsChange() throws IOException, InterruptedException {
+    filesystem.writeContentsToPath("int string hello 0x7f010000\n", R_DOT_TXT);
+    assertTrue(checkAndGenerate("javac"));
+
+    assertTrue(checkAndGenerate("javac -g"));
+  }
+
+  @Test
+  public void outputsAreRegeneratedWhenDexingChanges() throws IOException, InterruptedException {
+    filesystem.writeContentsToPath("int string hello 0x7f010000\n", R_DOT_TXT);
+    assertTrue(checkAndGenerate("javac"));
+
+    Optional<EnumSet<DxStep.Option>> dxOptions =
+        Optional.of(EnumSet.of(DxStep.Option.RUN_IN_PROCESS));
+    assertTrue(checkAndGenerate("javac", dxOptions));
+    assertFalse(checkAndGenerate("javac", dxOptions));
+
+    dxOptions = Optional.of(EnumSet.of(DxStep.Option.RUN_IN_PROCESS, DxStep.Option.NO_OPTIMIZE));
+    assertTrue(checkAndGenerate("javac", dxOptions));
+  }
+
+  @Test
+  public void outputsAreRegeneratedWhenMissing() throws IOException, InterruptedException {
+    filesystem.writeContentsToPath("int string hello 0x7f010000\n", R_DOT_TXT);
+    assertTrue(checkAndGenerate("javac"));
+
+    filesystem.deleteFileAtPath(OUTPUT);
+    assertTrue(checkAndGenerate("javac"));
+  }
+
+  @Test
+  public void stampIsRemovedUntilOutputsAreRegenerated() throws IOException, InterruptedException {
+    filesystem.writeContentsToPath("int string hello 0x7f010000\n", R_DOT_TXT);
+    assertTrue(checkAndGenerate("javac"));
+
+    filesystem.writeContentsToPath("int string hello 0x7f010001\n", R_DOT_TXT);
+    RDotTxtChangedStep step = createStep("javac");
+    assertEquals(0, step.execute(context));
+    assertTrue(step.get());
+    assertFalse(filesystem.exists(STAMP));
+  }
+
+  /**
+   * Runs the check, and if the outputs are out of date, generates them and writes the stamp.
+   *
+   * @return whether the outputs were out of date.
+   */
+  private boolean checkAndGenerate(String settings) throws IOException, InterruptedException {
+    return checkAndGenerate(settings, Optional.<EnumSet<DxStep.Option>>absent());
+  }
+
+  private boolean checkAndGenerate(String settings, Optional<EnumSet<DxStep.Option>> dxOptions)
+      throws IOException, InterruptedException {
+    RDotTxtChangedStep step = createStep(settings, dxOptions);
+    assertEquals(0, step.execute(context));
+    if (step.get()) {
+      filesystem.writeContentsToPath("class", OUTPUT);
+    }
+    assertEquals(0, step.createWriteStampStep().execute(context));
+    return step.get();
+  }
+
+  private RDotTxtChangedStep createStep(String settings) {
+    return createStep(settings, Optional.<EnumSet<DxStep.Option>>absent());
+  }
+
+  private RDotTxtChangedStep createStep(
+      String settings,
+      Optional<EnumSet<DxStep.Option>> dxOptions) {
+    return new RDotTxtChangedStep(
+        R_DOT_TXT,
+        ImmutableList.<HasAndroidResourceDeps>of(),
+        settings,
+        dxOptions,
+        STAMP,
+        ImmutableList.of(OUTPUT));
+  }
+}
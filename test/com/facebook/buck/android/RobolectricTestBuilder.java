@@ -18,6 +18,7 @@ package com.facebook.buck.android;
 
 import static com.facebook.buck.java.JavaCompilationConstants.ANDROID_JAVAC_OPTIONS;
 
+import com.facebook.buck.java.JUnitRunnerOptions;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.rules.AbstractNodeBuilder;
 import com.facebook.buck.rules.PathSourcePath;
@@ -32,7 +33,8 @@ public class RobolectricTestBuilder
     super(
         new RobolectricTestDescription(
             ANDROID_JAVAC_OPTIONS,
-            /* testRuleTimeoutMs */ Optional.<Long>absent()),
+            /* testRuleTimeoutMs */ Optional.<Long>absent(),
+            JUnitRunnerOptions.defaults()),
         target);
   }
 
@@ -21,6 +21,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.dalvik.ZipSplitter;
+import com.facebook.buck.dalvik.firstorder.FirstOrderIndex;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.TestSourcePath;
@@ -118,12 +119,14 @@ public class SplitZipStepTest {
             /* primaryDexScenarioFile */ Optional.<SourcePath>absent(),
             /* isPrimaryDexScenarioOverflowAllowed */ false,
             /* secondaryDexHeadClassesFile */ Optional.<SourcePath>absent(),
-            /* secondaryDexTailClassesFile */ Optional.<SourcePath>absent()),
+            /* secondaryDexTailClassesFile */ Optional.<SourcePath>absent(),
+            /* useStableSecondaryDexes */ false),
         Optional.<Path>absent(),
         Optional.of(Paths.get("the/manifest.txt")),
         Optional.<Path>absent(),
         Optional.<Path>absent(),
-        /* pathToReportDir */ Paths.get(""));
+        /* pathToReportDir */ Paths.get(""),
+        /* secondaryDexAssignmentsPath */ Paths.get(""));
     List<String> linesInManifestFile = ImmutableList.of(
         "com/google/common/collect/ImmutableSortedSet",
         "  com/google/common/collect/ImmutableSet",
@@ -140,7 +143,7 @@ public class SplitZipStepTest {
         .createRequiredInPrimaryZipPredicate(
             context,
             ProguardTranslatorFactory.createForTest(Optional.<Map<String, String>>absent()),
-            Suppliers.ofInstance(ImmutableList.<ClassNode>of()));
+            Suppliers.ofInstance(FirstOrderIndex.fromClassNodes(ImmutableList.<ClassNode>of())));
     assertTrue(
         "All non-.class files should be accepted.",
         requiredInPrimaryZipPredicate.apply("apples.txt"));
@@ -193,12 +196,14 @@ public class SplitZipStepTest {
             /* primaryDexScenarioFile */ Optional.<SourcePath>absent(),
             /* isPrimaryDexScenarioOverflowAllowed */ false,
             /* secondaryDexHeadClassesFile */ Optional.<SourcePath>absent(),
-            /* secondaryDexTailClassesFile */ Optional.<SourcePath>absent()),
+            /* secondaryDexTailClassesFile */ Optional.<SourcePath>absent(),
+            /* useStableSecondaryDexes */ false),
         Optional.<Path>absent(),
         Optional.of(Paths.get("the/manifest.txt")),
         Optional.<Path>absent(),
         Optional.<Path>absent(),
-        /* pathToReportDir */ Paths.get(""));
+        /* pathToReportDir */ Paths.get(""),
+        /* secondaryDexAssignmentsPath */ Paths.get(""));
     List<String> linesInMappingFile = ImmutableList.of(
         "foo.bar.MappedPrimary -> foo.bar.a:",
         "foo.bar.MappedSecondary -> foo.bar.b:",
@@ -233,7 +238,7 @@ public class SplitZipStepTest {
         .createRequiredInPrimaryZipPredicate(
             context,
             translatorFactory,
-            Suppliers.ofInstance(ImmutableList.<ClassNode>of()));
+            Suppliers.ofInstance(FirstOrderIndex.fromClassNodes(ImmutableList.<ClassNode>of())));
     assertTrue(
         "Mapped class from primary list should be in primary.",
         requiredInPrimaryZipPredicate.apply("foo/bar/a.class"));
@@ -282,12 +287,14 @@ public class SplitZipStepTest {
             /* primaryDexScenarioFile */ Optional.<SourcePath>absent(),
             /* isPrimaryDexScenarioOverflowAllowed */ false,
             /* secondaryDexHeadClassesFile */ Optional.<SourcePath>absent(),
-            /* secondaryDexTailClassesFile */ Optional.<SourcePath>absent()),
+            /* secondaryDexTailClassesFile */ Optional.<SourcePath>absent(),
+            /* useStableSecondaryDexes */ false),
         Optional.<Path>absent(),
         Optional.<Path>absent(),
         Optional.<Path>absent(),
         Optional.<Path>absent(),
-        /* pathToReportDir */ Paths.get(""));
+        /* pathToReportDir */ Paths.get(""),
+        /* secondaryDexAssignmentsPath */ Paths.get(""));
 
     ProjectFilesystem projectFilesystem = EasyMock.createMock(ProjectFilesystem.class);
     EasyMock.expect(projectFilesystem.readLines(proguardConfigFile))
@@ -303,7 +310,7 @@ public class SplitZipStepTest {
         .createRequiredInPrimaryZipPredicate(
             context,
             translatorFactory,
-            Suppliers.ofInstance(ImmutableList.<ClassNode>of()));
+            Suppliers.ofInstance(FirstOrderIndex.fromClassNodes(ImmutableList.<ClassNode>of())));
     assertTrue(
         "Primary class should be in primary.",
         requiredInPrimaryZipPredicate.apply("primary.class"));
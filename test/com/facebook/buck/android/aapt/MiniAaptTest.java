@@ -25,16 +25,23 @@ import static org.junit.Assert.fail;
 import com.facebook.buck.android.aapt.MiniAapt.ResourceParseException;
 import com.facebook.buck.android.aapt.RDotTxtEntry.IdType;
 import com.facebook.buck.android.aapt.RDotTxtEntry.RType;
+import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Set;
+import java.util.concurrent.Executors;
 
 import javax.xml.xpath.XPathExpressionException;
 
@@ -53,6 +60,9 @@ public class MiniAaptTest {
         "</LinearLayout>")
         .build();
 
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
   private final FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
 
   @Test
@@ -255,4 +265,51 @@ public class MiniAaptTest {
             new FakeRDotTxtEntry(IdType.INT, RType.DRAWABLE, "nine_patch")),
         aapt.getResourceCollector().getResources());
   }
+
+  @Test
+  public void testParsingInParallelKeepsTheOrderOfResourceIds() throws Exception {
+    ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    projectFilesystem.mkdirs(Paths.get("res/layout"));
+    for (int i = 0; i < 50; i++) {
+      projectFilesystem.writeLinesToPath(
+          ImmutableList.of(
+              "<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+              String.format("<TextView android:id=\"@+id/view%d\" />", i)),
+          Paths.get("res/layout/view" + i + ".xml"));
+    }
+
+    MiniAapt serialAapt =
+        new MiniAapt(Paths.get("res"), Paths.get("R.txt"), ImmutableSet.<Path>of());
+    for (Path xmlFile : projectFilesystem.getFilesUnderPath(Paths.get("res"))) {
+      serialAapt.processXmlFile(
+          projectFilesystem,
+          xmlFile,
+          ImmutableSet.<RDotTxtEntry>builder());
+    }
+
+    MiniAapt parallelAapt =
+        new MiniAapt(Paths.get("res"), Paths.get("R.txt"), ImmutableSet.<Path>of());
+    ListeningExecutorService executor =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+    try {
+      parallelAapt.processXmlFilesForIds(
+          projectFilesystem,
+          executor,
+          ImmutableSet.<RDotTxtEntry>builder());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(
+        getIdValues(serialAapt.getResourceCollector().getResources()),
+        getIdValues(parallelAapt.getResourceCollector().getResources()));
+  }
+
+  private static ImmutableMap<String, String> getIdValues(Set<RDotTxtEntry> resources) {
+    ImmutableMap.Builder<String, String> idValues = ImmutableMap.builder();
+    for (RDotTxtEntry resource : resources) {
+      idValues.put(resource.name, resource.idValue);
+    }
+    return idValues.build();
+  }
 }
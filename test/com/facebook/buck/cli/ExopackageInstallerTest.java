@@ -19,13 +19,16 @@ package com.facebook.buck.cli;
 import static com.facebook.buck.cli.ExopackageInstaller.NATIVE_LIB_PATTERN;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -34,6 +37,11 @@ import org.junit.rules.ExpectedException;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 
 @SuppressWarnings("PMD.AddEmptyString")
@@ -218,6 +226,78 @@ public class ExopackageInstallerTest {
     assertEquals(null, matchAndGetHash("secondary-123abc.so"));
   }
 
+  @Test
+  public void testEachDeviceGetsItsOwnPorts() {
+    AtomicInteger nextAgentPort = new AtomicInteger(2828);
+    int firstDevicePort = ExopackageInstaller.reserveAgentPorts(nextAgentPort);
+    int secondDevicePort = ExopackageInstaller.reserveAgentPorts(nextAgentPort);
+
+    ImmutableList<Integer> firstDevicePorts =
+        ExopackageInstaller.getAgentPorts(firstDevicePort, 100);
+    ImmutableList<Integer> secondDevicePorts =
+        ExopackageInstaller.getAgentPorts(secondDevicePort, 100);
+
+    assertEquals(ImmutableList.of(2828, 2829, 2830, 2831), firstDevicePorts);
+    assertTrue(Collections.disjoint(firstDevicePorts, secondDevicePorts));
+    // Only as many ports as there are files are used, but always one for the metadata.
+    assertEquals(ImmutableList.of(2832, 2833), ExopackageInstaller.getAgentPorts(2832, 2));
+    assertEquals(ImmutableList.of(2832), ExopackageInstaller.getAgentPorts(2832, 0));
+  }
+
+  @Test
+  public void testInstallingMoreFilesThanThereArePorts() throws Exception {
+    ImmutableMap.Builder<Path, Path> destinationToSource = ImmutableMap.builder();
+    for (int i = 0; i < 10; i++) {
+      destinationToSource.put(Paths.get("secondary-" + i + ".dex.jar"), Paths.get("in-" + i));
+    }
+    BlockingQueue<Integer> freePorts = new LinkedBlockingQueue<>(ImmutableList.of(2828, 2829));
+    final Set<Integer> portsInUse = Collections.synchronizedSet(Sets.<Integer>newHashSet());
+    final Set<Path> installed = Collections.synchronizedSet(Sets.<Path>newHashSet());
+    final AtomicInteger maxConcurrentInstalls = new AtomicInteger();
+
+    ExopackageInstaller.installInParallel(
+        destinationToSource.build(),
+        freePorts,
+        new ExopackageInstaller.FileInstaller() {
+          @Override
+          public void install(int port, Path destination, Path source) throws Exception {
+            assertTrue("Port used by two installs at once", portsInUse.add(port));
+            synchronized (portsInUse) {
+              maxConcurrentInstalls.set(Math.max(maxConcurrentInstalls.get(), portsInUse.size()));
+            }
+            Thread.sleep(10);
+            installed.add(destination);
+            portsInUse.remove(port);
+          }
+        });
+
+    assertEquals(destinationToSource.build().keySet(), installed);
+    assertTrue(maxConcurrentInstalls.get() <= 2);
+    assertEquals(ImmutableSet.of(2828, 2829), ImmutableSet.copyOf(freePorts));
+  }
+
+  @Test
+  public void testPortsAreFreedWhenAnInstallFails() throws Exception {
+    BlockingQueue<Integer> freePorts = new LinkedBlockingQueue<>(ImmutableList.of(2828));
+
+    try {
+      ExopackageInstaller.installInParallel(
+          ImmutableMap.of(Paths.get("secondary-1.dex.jar"), Paths.get("in-1")),
+          freePorts,
+          new ExopackageInstaller.FileInstaller() {
+            @Override
+            public void install(int port, Path destination, Path source) throws Exception {
+              throw new IOException("Device went away");
+            }
+          });
+      fail("The failure should have been passed on.");
+    } catch (IOException e) {
+      assertEquals("Device went away", e.getMessage());
+    }
+
+    assertEquals(ImmutableList.of(2828), ImmutableList.copyOf(freePorts));
+  }
+
   private String matchAndGetHash(String filename) {
     Matcher m = NATIVE_LIB_PATTERN.matcher(filename);
     if (m.matches()) {
@@ -52,8 +52,10 @@ import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.test.TestCaseSummary;
 import com.facebook.buck.test.TestResultSummary;
 import com.facebook.buck.test.TestResults;
+import com.facebook.buck.test.TestTimings;
 import com.facebook.buck.test.result.type.ResultType;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.util.HumanReadableException;
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
@@ -698,4 +700,65 @@ public class TestCommandTest {
 
     assertEquals(rule, Iterables.getOnlyElement(filtered));
   }
+
+  @Test
+  public void shardsTogetherRunEveryTestExactlyOnce() throws CmdLineException {
+    List<TestRule> testRules = Lists.newArrayList();
+    for (String name : ImmutableList.of("a", "b", "c", "d", "e")) {
+      testRules.add(
+          new FakeTestRule(
+              JavaTestDescription.TYPE,
+              ImmutableSet.<Label>of(),
+              BuildTargetFactory.newInstance("//:" + name),
+              new SourcePathResolver(new BuildRuleResolver()),
+              ImmutableSortedSet.<BuildRule>of()));
+    }
+
+    Iterable<TestRule> first = TestCommand.selectShard(
+        getOptions("--shard", "1/2"),
+        testRules,
+        TestTimings.empty());
+    Iterable<TestRule> second = TestCommand.selectShard(
+        getOptions("--shard", "2/2"),
+        testRules,
+        TestTimings.empty());
+
+    assertEquals(3, Iterables.size(first));
+    assertEquals(2, Iterables.size(second));
+    assertThat(Iterables.concat(first, second), containsInAnyOrder(testRules.toArray()));
+  }
+
+  @Test
+  public void shardsOnlyDependOnTheSetOfTestRules() throws CmdLineException {
+    List<TestRule> testRules = Lists.newArrayList();
+    for (String name : ImmutableList.of("a", "b", "c", "d", "e")) {
+      testRules.add(
+          new FakeTestRule(
+              JavaTestDescription.TYPE,
+              ImmutableSet.<Label>of(),
+              BuildTargetFactory.newInstance("//:" + name),
+              new SourcePathResolver(new BuildRuleResolver()),
+              ImmutableSortedSet.<BuildRule>of()));
+    }
+
+    // Separate machines may well come across the test rules in a different order.
+    Iterable<TestRule> first = TestCommand.selectShard(
+        getOptions("--shard", "1/2"),
+        testRules,
+        TestTimings.empty());
+    Iterable<TestRule> reversed = TestCommand.selectShard(
+        getOptions("--shard", "1/2"),
+        Lists.reverse(testRules),
+        TestTimings.empty());
+
+    assertEquals(ImmutableList.copyOf(first), ImmutableList.copyOf(reversed));
+  }
+
+  @Test(expected = HumanReadableException.class)
+  public void shardMustBeWithinTheNumberOfShards() throws CmdLineException {
+    TestCommand.selectShard(
+        getOptions("--shard", "3/2"),
+        ImmutableList.<TestRule>of(),
+        TestTimings.empty());
+  }
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.BuildEngine;
+import com.facebook.buck.rules.DirArtifactCache;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.TestRule;
+import com.facebook.buck.util.environment.Platform;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class TestResultsCacheTest {
+
+  private static final BuildTarget TARGET = BuildTargetFactory.newInstance("//foo:test");
+  private static final Path OUTPUT_DIR = Paths.get("buck-out/gen/foo/__java_test_test_output__");
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+  private DirArtifactCache artifactCache;
+  private TestRule testRule;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = new ProjectFilesystem(temporaryFolder.newFolder("project").toPath());
+    artifactCache = new DirArtifactCache(
+        temporaryFolder.newFolder("cache"),
+        /* doStore */ true,
+        Optional.<Long>absent());
+
+    testRule = createMock(TestRule.class);
+    expect(testRule.getBuildTarget()).andReturn(TARGET).anyTimes();
+    expect(testRule.getPathToTestOutputDirectory()).andReturn(OUTPUT_DIR).anyTimes();
+    replay(testRule);
+  }
+
+  @Test
+  public void storedResultsReplaceTheOutputDirectoryWhenFetched()
+      throws IOException, InterruptedException {
+    TestResultsCache cache = createCache("abcd", ImmutableMap.<String, String>of());
+    filesystem.mkdirs(OUTPUT_DIR);
+    filesystem.writeContentsToPath("<testcase/>", OUTPUT_DIR.resolve("com.example.FooTest.xml"));
+    cache.store(testRule);
+
+    filesystem.rmdir(OUTPUT_DIR);
+    filesystem.mkdirs(OUTPUT_DIR);
+    filesystem.writeContentsToPath("stale", OUTPUT_DIR.resolve("com.example.BarTest.xml"));
+
+    assertTrue(cache.fetch(testRule).isSuccess());
+    assertEquals(
+        Optional.of("<testcase/>"),
+        filesystem.readFileIfItExists(OUTPUT_DIR.resolve("com.example.FooTest.xml")));
+    assertFalse(filesystem.exists(OUTPUT_DIR.resolve("com.example.BarTest.xml")));
+  }
+
+  @Test
+  public void resultsForAnotherRuleKeyAreNotFetched() throws IOException, InterruptedException {
+    filesystem.mkdirs(OUTPUT_DIR);
+    filesystem.writeContentsToPath("<testcase/>", OUTPUT_DIR.resolve("com.example.FooTest.xml"));
+    createCache("abcd", ImmutableMap.<String, String>of()).store(testRule);
+
+    assertFalse(
+        createCache("ef01", ImmutableMap.<String, String>of()).fetch(testRule).isSuccess());
+  }
+
+  @Test
+  public void keyOnlyDependsOnTheConfiguredEnvironmentVariables() {
+    RuleKey key = createCache("abcd", ImmutableMap.of("LANG", "C", "HOME", "/a")).getKey(testRule);
+
+    assertEquals(
+        key,
+        createCache("abcd", ImmutableMap.of("LANG", "C", "HOME", "/b")).getKey(testRule));
+    assertNotEquals(
+        key,
+        createCache("abcd", ImmutableMap.of("LANG", "fr_FR", "HOME", "/a")).getKey(testRule));
+  }
+
+  private TestResultsCache createCache(String ruleKey, ImmutableMap<String, String> environment) {
+    BuildEngine buildEngine = createMock(BuildEngine.class);
+    expect(buildEngine.getRuleKey(TARGET)).andReturn(new RuleKey(ruleKey)).anyTimes();
+    replay(buildEngine);
+    return new TestResultsCache(
+        filesystem,
+        buildEngine,
+        artifactCache,
+        Platform.LINUX,
+        environment,
+        ImmutableSet.of("LANG"));
+  }
+}
@@ -62,6 +62,7 @@ public class ArchiveStepIntegrationTest {
     // Build an archive step.
     ArchiveStep archiveStep = new ArchiveStep(
         archiver,
+        "rcs",
         output,
         ImmutableList.of(input));
     ArchiveScrubberStep archiveScrubberStep = new ArchiveScrubberStep(output);
@@ -51,6 +51,7 @@ public class ArchiveStepTest {
     // Create and archive step.
     ArchiveStep archiveStep = new ArchiveStep(
         archiver,
+        "rcs",
         output,
         inputs);
 
@@ -16,7 +16,10 @@
 
 package com.facebook.buck.cxx;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargetFactory;
@@ -24,6 +27,9 @@ import com.facebook.buck.rules.AbstractBuildRule;
 import com.facebook.buck.rules.BuildRuleParams;
 import com.facebook.buck.rules.BuildRuleParamsFactory;
 import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.CacheMode;
+import com.facebook.buck.rules.FakeBuildContext;
+import com.facebook.buck.rules.FakeBuildableContext;
 import com.facebook.buck.rules.FakeRuleKeyBuilderFactory;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.rules.RuleKeyBuilderFactory;
@@ -31,9 +37,11 @@ import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.rules.TestSourcePath;
 import com.facebook.buck.testutil.FakeFileHashCache;
+import com.google.common.base.Predicates;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 
 import org.junit.Test;
 
@@ -83,6 +91,7 @@ public class ArchiveTest {
             params,
             pathResolver,
             DEFAULT_ARCHIVER,
+            ArchiveStyle.NORMAL,
             DEFAULT_OUTPUT,
             DEFAULT_INPUTS));
 
@@ -94,6 +103,7 @@ public class ArchiveTest {
             params,
             pathResolver,
             new SourcePathTool(new TestSourcePath("different")),
+            ArchiveStyle.NORMAL,
             DEFAULT_OUTPUT,
             DEFAULT_INPUTS));
     assertNotEquals(defaultRuleKey, archiverChange);
@@ -106,6 +116,7 @@ public class ArchiveTest {
             params,
             pathResolver,
             DEFAULT_ARCHIVER,
+            ArchiveStyle.NORMAL,
             Paths.get("different"),
             DEFAULT_INPUTS));
     assertNotEquals(defaultRuleKey, outputChange);
@@ -118,9 +129,59 @@ public class ArchiveTest {
             params,
             pathResolver,
             DEFAULT_ARCHIVER,
+            ArchiveStyle.NORMAL,
             DEFAULT_OUTPUT,
             ImmutableList.<SourcePath>of(new TestSourcePath("different"))));
     assertNotEquals(defaultRuleKey, inputChange);
+
+    // Verify that changing the archive style causes a rulekey change.
+    RuleKey.Builder.RuleKeyPair styleChange = generateRuleKey(
+        ruleKeyBuilderFactory,
+        pathResolver,
+        new Archive(
+            params,
+            pathResolver,
+            DEFAULT_ARCHIVER,
+            ArchiveStyle.THIN,
+            DEFAULT_OUTPUT,
+            DEFAULT_INPUTS));
+    assertNotEquals(defaultRuleKey, styleChange);
+  }
+
+  @Test
+  public void thinArchivesAreNotScrubbedOrCached() {
+    SourcePathResolver pathResolver = new SourcePathResolver(new BuildRuleResolver());
+    BuildRuleParams params =
+        BuildRuleParamsFactory.createTrivialBuildRuleParams(
+            BuildTargetFactory.newInstance("//foo:bar"));
+
+    Archive normal =
+        new Archive(
+            params,
+            pathResolver,
+            DEFAULT_ARCHIVER,
+            ArchiveStyle.NORMAL,
+            DEFAULT_OUTPUT,
+            DEFAULT_INPUTS);
+    assertEquals(CacheMode.ENABLED, normal.getCacheMode());
+    assertTrue(
+        Iterables.any(
+            normal.getBuildSteps(FakeBuildContext.NOOP_CONTEXT, new FakeBuildableContext()),
+            Predicates.instanceOf(ArchiveScrubberStep.class)));
+
+    Archive thin =
+        new Archive(
+            params,
+            pathResolver,
+            DEFAULT_ARCHIVER,
+            ArchiveStyle.THIN,
+            DEFAULT_OUTPUT,
+            DEFAULT_INPUTS);
+    assertEquals(CacheMode.DISABLED, thin.getCacheMode());
+    assertFalse(
+        Iterables.any(
+            thin.getBuildSteps(FakeBuildContext.NOOP_CONTEXT, new FakeBuildableContext()),
+            Predicates.instanceOf(ArchiveScrubberStep.class)));
   }
 
 }
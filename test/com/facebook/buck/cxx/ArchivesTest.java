@@ -72,6 +72,7 @@ public class ArchivesTest {
         target,
         params,
         DEFAULT_ARCHIVER,
+        ArchiveStyle.NORMAL,
         DEFAULT_OUTPUT,
         ImmutableList.<SourcePath>of(
             new TestSourcePath("simple.o"),
@@ -111,6 +112,7 @@ public class ArchivesTest {
         target,
         params,
         DEFAULT_ARCHIVER,
+        ArchiveStyle.NORMAL,
         DEFAULT_OUTPUT,
         DEFAULT_INPUTS);
 
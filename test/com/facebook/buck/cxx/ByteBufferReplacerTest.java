@@ -69,4 +69,34 @@ public class ByteBufferReplacerTest {
     }
   }
 
+  @Test
+  public void replacesAllStringsInOnePass() {
+    ByteBufferReplacer replacer = new ByteBufferReplacer(
+        ImmutableMap.of(
+            "/home/a".getBytes(Charsets.US_ASCII), "/AAAAAA".getBytes(Charsets.US_ASCII),
+            "/home/b/c".getBytes(Charsets.US_ASCII), "/BBBBBBBB".getBytes(Charsets.US_ASCII),
+            "me/b".getBytes(Charsets.US_ASCII), "XXXX".getBytes(Charsets.US_ASCII)));
+    byte[] rawBytes = "x/home/a/y\0/home/b/c\0/home/b/d\0/home/a".getBytes(Charsets.US_ASCII);
+
+    assertEquals(4, replacer.replace(ByteBuffer.wrap(rawBytes)));
+    assertEquals(
+        "x/AAAAAA/y\0/hoXXXX/c\0/hoXXXX/d\0/AAAAAA",
+        new String(rawBytes, Charsets.US_ASCII));
+  }
+
+  @Test
+  public void onlyReplacesWithinBoundsAndUpToTheMaximum() {
+    ByteBufferReplacer replacer = new ByteBufferReplacer(
+        ImmutableMap.of("ab".getBytes(Charsets.US_ASCII), "XY".getBytes(Charsets.US_ASCII)));
+    byte[] rawBytes = "ab ab ab ab".getBytes(Charsets.US_ASCII);
+    ByteBuffer buffer = ByteBuffer.wrap(rawBytes);
+    buffer.position(1);
+    buffer.limit(10);
+
+    assertEquals(1, replacer.replace(buffer, 1));
+    assertEquals("ab XY ab ab", new String(rawBytes, Charsets.US_ASCII));
+    assertEquals(1, replacer.replace(buffer));
+    assertEquals("ab XY XY ab", new String(rawBytes, Charsets.US_ASCII));
+  }
+
 }
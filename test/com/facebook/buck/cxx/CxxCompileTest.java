@@ -16,28 +16,47 @@
 
 package com.facebook.buck.cxx;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertThat;
 
+import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargetFactory;
 import com.facebook.buck.rules.AbstractBuildRule;
 import com.facebook.buck.rules.BuildRuleParams;
 import com.facebook.buck.rules.BuildRuleParamsFactory;
 import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.BuildTargetSourcePath;
+import com.facebook.buck.rules.FakeBuildContext;
+import com.facebook.buck.rules.FakeBuildRule;
+import com.facebook.buck.rules.FakeBuildRuleParamsBuilder;
+import com.facebook.buck.rules.FakeBuildableContext;
 import com.facebook.buck.rules.FakeRuleKeyBuilderFactory;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.rules.RuleKeyBuilderFactory;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.rules.TestSourcePath;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.TestExecutionContext;
 import com.facebook.buck.testutil.FakeFileHashCache;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 
+import org.hamcrest.Matchers;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
@@ -47,6 +66,7 @@ public class CxxCompileTest {
   private static final ImmutableList<String> DEFAULT_FLAGS =
       ImmutableList.of("-fsanitize=address");
   private static final Path DEFAULT_OUTPUT = Paths.get("test.o");
+  private static final Path OUTPUT_IN_DIR = Paths.get("foo/test.o");
   private static final SourcePath DEFAULT_INPUT = new TestSourcePath("test.cpp");
   private static final Optional<CxxCompile.Plugin> DEFAULT_PLUGIN =
       Optional.of(new CxxCompile.Plugin(
@@ -55,6 +75,9 @@ public class CxxCompileTest {
               ImmutableList.of("-abcde")));
   private static final Optional<DebugPathSanitizer> DEBUG_PATH_SANITIZER = Optional.absent();
 
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
   private RuleKey.Builder.RuleKeyPair generateRuleKey(
       RuleKeyBuilderFactory factory,
       SourcePathResolver resolver,
@@ -95,6 +118,8 @@ public class CxxCompileTest {
             DEFAULT_FLAGS,
             DEFAULT_OUTPUT,
             DEFAULT_INPUT,
+            Optional.<SourcePath>absent(),
+            /* splitDwarf */ false,
             DEBUG_PATH_SANITIZER));
 
     // Verify that changing the compiler causes a rulekey change.
@@ -109,6 +134,8 @@ public class CxxCompileTest {
             DEFAULT_FLAGS,
             DEFAULT_OUTPUT,
             DEFAULT_INPUT,
+            Optional.<SourcePath>absent(),
+            /* splitDwarf */ false,
             DEBUG_PATH_SANITIZER));
     assertNotEquals(defaultRuleKey, compilerChange);
 
@@ -124,6 +151,8 @@ public class CxxCompileTest {
             ImmutableList.of("-different"),
             DEFAULT_OUTPUT,
             DEFAULT_INPUT,
+            Optional.<SourcePath>absent(),
+            /* splitDwarf */ false,
             DEBUG_PATH_SANITIZER));
     assertNotEquals(defaultRuleKey, flagsChange);
 
@@ -139,6 +168,8 @@ public class CxxCompileTest {
             DEFAULT_FLAGS,
             DEFAULT_OUTPUT,
             new TestSourcePath("different"),
+            Optional.<SourcePath>absent(),
+            /* splitDwarf */ false,
             DEBUG_PATH_SANITIZER));
     assertNotEquals(defaultRuleKey, inputChange);
 
@@ -154,6 +185,8 @@ public class CxxCompileTest {
             DEFAULT_FLAGS,
             DEFAULT_OUTPUT,
             DEFAULT_INPUT,
+            Optional.<SourcePath>absent(),
+            /* splitDwarf */ false,
             DEBUG_PATH_SANITIZER));
     assertNotEquals(defaultRuleKey, pluginAbsentChange);
 
@@ -172,6 +205,8 @@ public class CxxCompileTest {
             DEFAULT_FLAGS,
             DEFAULT_OUTPUT,
             DEFAULT_INPUT,
+            Optional.<SourcePath>absent(),
+            /* splitDwarf */ false,
             DEBUG_PATH_SANITIZER));
     assertNotEquals(defaultRuleKey, pluginPathChange);
 
@@ -190,6 +225,8 @@ public class CxxCompileTest {
             DEFAULT_FLAGS,
             DEFAULT_OUTPUT,
             DEFAULT_INPUT,
+            Optional.<SourcePath>absent(),
+            /* splitDwarf */ false,
             DEBUG_PATH_SANITIZER));
     assertNotEquals(defaultRuleKey, pluginFlagsChange);
 
@@ -208,8 +245,162 @@ public class CxxCompileTest {
             DEFAULT_FLAGS,
             DEFAULT_OUTPUT,
             DEFAULT_INPUT,
+            Optional.<SourcePath>absent(),
+            /* splitDwarf */ false,
             DEBUG_PATH_SANITIZER));
     assertNotEquals(defaultRuleKey, pluginNameChange);
   }
 
+  @Test
+  public void inputBasedRuleKeyOnlyDependsOnTheContentsOfThePreprocessedSource()
+      throws IOException {
+    BuildRuleResolver resolver = new BuildRuleResolver();
+    SourcePathResolver pathResolver = new SourcePathResolver(resolver);
+    FakeBuildRule preprocess = new FakeBuildRule("//foo:preprocess", pathResolver);
+    preprocess.setOutputFile("test.ii");
+    resolver.addToIndex(preprocess);
+
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    filesystem.writeContentsToPath("int main() {}", Paths.get("test.ii"));
+    BuildRuleParams params = new FakeBuildRuleParamsBuilder("//foo:bar")
+        .setProjectFilesystem(filesystem)
+        .setFileHashCache(
+            FakeFileHashCache.createFromStrings(
+                ImmutableMap.of(
+                    "compiler", Strings.repeat("a", 40),
+                    "path/to/a/plugin.so", Strings.repeat("f", 40))))
+        .build();
+    CxxCompile compile = new CxxCompile(
+        params,
+        pathResolver,
+        DEFAULT_COMPILER,
+        DEFAULT_PLUGIN,
+        DEFAULT_FLAGS,
+        DEFAULT_OUTPUT,
+        new BuildTargetSourcePath(preprocess.getBuildTarget()),
+        Optional.<SourcePath>absent(),
+        /* splitDwarf */ false,
+        DEBUG_PATH_SANITIZER);
+
+    // Preprocessing differently, but with the same result, doesn't change the key.
+    preprocess.setRuleKey(new RuleKey(Strings.repeat("a", 40)));
+    RuleKey inputBasedRuleKey = compile.getInputBasedRuleKey();
+    preprocess.setRuleKey(new RuleKey(Strings.repeat("b", 40)));
+    assertEquals(inputBasedRuleKey, compile.getInputBasedRuleKey());
+
+    // But a different preprocessed source does.
+    filesystem.writeContentsToPath("int main() { return 1; }", Paths.get("test.ii"));
+    assertNotEquals(inputBasedRuleKey, compile.getInputBasedRuleKey());
+  }
+
+  @Test
+  public void splitDwarfKeepsTheDebugInfoNextToTheObject()
+      throws IOException, InterruptedException {
+    SourcePathResolver pathResolver = new SourcePathResolver(new BuildRuleResolver());
+    BuildTarget target = BuildTargetFactory.newInstance("//foo:bar");
+    BuildRuleParams params = BuildRuleParamsFactory.createTrivialBuildRuleParams(target);
+    RuleKeyBuilderFactory ruleKeyBuilderFactory =
+        new FakeRuleKeyBuilderFactory(
+            FakeFileHashCache.createFromStrings(
+                ImmutableMap.of(
+                    "compiler", Strings.repeat("a", 40),
+                    "test.cpp", Strings.repeat("c", 40))));
+    CxxCompile withoutSplitDwarf = new CxxCompile(
+        params,
+        pathResolver,
+        DEFAULT_COMPILER,
+        Optional.<CxxCompile.Plugin>absent(),
+        DEFAULT_FLAGS,
+        OUTPUT_IN_DIR,
+        DEFAULT_INPUT,
+        Optional.<SourcePath>absent(),
+        /* splitDwarf */ false,
+        DEBUG_PATH_SANITIZER);
+    CxxCompile withSplitDwarf = new CxxCompile(
+        params,
+        pathResolver,
+        DEFAULT_COMPILER,
+        Optional.<CxxCompile.Plugin>absent(),
+        DEFAULT_FLAGS,
+        OUTPUT_IN_DIR,
+        DEFAULT_INPUT,
+        Optional.<SourcePath>absent(),
+        /* splitDwarf */ true,
+        DEBUG_PATH_SANITIZER);
+    assertNotEquals(
+        generateRuleKey(ruleKeyBuilderFactory, pathResolver, withoutSplitDwarf),
+        generateRuleKey(ruleKeyBuilderFactory, pathResolver, withSplitDwarf));
+
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    filesystem.createParentDirs(Paths.get("foo/test.dwo"));
+    filesystem.writeContentsToPath("stale", Paths.get("foo/test.dwo"));
+    FakeBuildableContext buildableContext = new FakeBuildableContext();
+    CxxCompileStep step = runAllButTheCompile(withSplitDwarf, filesystem, buildableContext);
+    assertThat(step.getCommand(), Matchers.hasItem("-gsplit-dwarf"));
+    // The .dwo from before was deleted, so there's nothing to record.
+    assertEquals(ImmutableSet.of(OUTPUT_IN_DIR), buildableContext.getRecordedArtifacts());
+
+    // As if the compiler wrote it.
+    filesystem.writeContentsToPath("debug info", Paths.get("foo/test.dwo"));
+    Iterables.getLast(withSplitDwarf.getBuildSteps(FakeBuildContext.NOOP_CONTEXT, buildableContext))
+        .execute(TestExecutionContext.newBuilder().setProjectFilesystem(filesystem).build());
+    assertEquals(
+        ImmutableSet.of(OUTPUT_IN_DIR, Paths.get("foo/test.dwo")),
+        buildableContext.getRecordedArtifacts());
+    assertEquals(
+        Paths.get("foo/test.cpp.dwo"),
+        CxxCompile.getSplitDwarfOutput(Paths.get("foo/test.cpp.o")));
+  }
+
+  @Test
+  public void splitDwarfWithoutDebugInfoOnlyKeepsTheObject()
+      throws IOException, InterruptedException {
+    SourcePathResolver pathResolver = new SourcePathResolver(new BuildRuleResolver());
+    BuildTarget target = BuildTargetFactory.newInstance("//foo:bar");
+    CxxCompile withSplitDwarf = new CxxCompile(
+        BuildRuleParamsFactory.createTrivialBuildRuleParams(target),
+        pathResolver,
+        DEFAULT_COMPILER,
+        Optional.<CxxCompile.Plugin>absent(),
+        ImmutableList.of("-O2"),
+        OUTPUT_IN_DIR,
+        DEFAULT_INPUT,
+        Optional.<SourcePath>absent(),
+        /* splitDwarf */ true,
+        DEBUG_PATH_SANITIZER);
+
+    // Without -g, the compiler doesn't write a .dwo.
+    FakeBuildableContext buildableContext = new FakeBuildableContext();
+    CxxCompileStep step =
+        runAllButTheCompile(
+            withSplitDwarf,
+            new ProjectFilesystem(tmp.getRoot().toPath()),
+            buildableContext);
+
+    assertThat(step.getCommand(), Matchers.not(Matchers.hasItem("-g")));
+    assertEquals(ImmutableSet.of(OUTPUT_IN_DIR), buildableContext.getRecordedArtifacts());
+  }
+
+  /**
+   * Runs the build steps of {@code cxxCompile}, other than the one that runs the compiler.
+   *
+   * @return the step that runs the compiler.
+   */
+  private static CxxCompileStep runAllButTheCompile(
+      CxxCompile cxxCompile,
+      ProjectFilesystem filesystem,
+      FakeBuildableContext buildableContext) throws IOException, InterruptedException {
+    ExecutionContext context =
+        TestExecutionContext.newBuilder().setProjectFilesystem(filesystem).build();
+    CxxCompileStep compileStep = null;
+    for (Step step : cxxCompile.getBuildSteps(FakeBuildContext.NOOP_CONTEXT, buildableContext)) {
+      if (step instanceof CxxCompileStep) {
+        compileStep = (CxxCompileStep) step;
+      } else {
+        assertEquals(0, step.execute(context));
+      }
+    }
+    return Preconditions.checkNotNull(compileStep);
+  }
+
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import com.facebook.buck.apple.clang.HeaderMap;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.AbstractBuildRule;
+import com.facebook.buck.rules.BuildRuleParams;
+import com.facebook.buck.rules.BuildRuleParamsFactory;
+import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.CacheMode;
+import com.facebook.buck.rules.FakeBuildContext;
+import com.facebook.buck.rules.FakeBuildableContext;
+import com.facebook.buck.rules.FakeRuleKeyBuilderFactory;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.RuleKeyBuilderFactory;
+import com.facebook.buck.rules.SourcePath;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.rules.SymlinkTree;
+import com.facebook.buck.rules.TestSourcePath;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.FakeFileHashCache;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class CxxHeaderMapTest {
+
+  private static final Path OUTPUT = Paths.get("foo/headers.hmap");
+  private static final ImmutableMap<Path, SourcePath> LINKS =
+      ImmutableMap.<Path, SourcePath>of(
+          Paths.get("foo/bar.h"), new TestSourcePath("lib/bar.h"),
+          Paths.get("baz.h"), new TestSourcePath("baz.h"));
+
+  @Rule
+  public final TemporaryFolder tmpDir = new TemporaryFolder();
+
+  @Test
+  public void headerMapMapsEachNameToItsHeader() throws Exception {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmpDir.getRoot().toPath());
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(filesystem)
+        .build();
+    SourcePathResolver pathResolver = new SourcePathResolver(new BuildRuleResolver());
+    CxxHeaderMap headerMap = createHeaderMap(pathResolver, LINKS);
+
+    for (Step step : headerMap.getBuildSteps(
+             FakeBuildContext.NOOP_CONTEXT,
+             new FakeBuildableContext())) {
+      assertEquals(0, step.execute(context));
+    }
+
+    HeaderMap written = HeaderMap.loadFromFile(filesystem.resolve(OUTPUT).toFile());
+    assertEquals(2, written.getNumEntries());
+    assertEquals("lib/bar.h", written.lookup("foo/bar.h"));
+    assertEquals("baz.h", written.lookup("baz.h"));
+    assertNull(written.lookup("bar.h"));
+  }
+
+  @Test
+  public void namesWhichOnlyDifferInCaseAreAnError() {
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(new ProjectFilesystem(tmpDir.getRoot().toPath()))
+        .build();
+    HeaderMapStep step = new HeaderMapStep(
+        OUTPUT,
+        ImmutableMap.of(
+            Paths.get("foo.h"), Paths.get("a/foo.h"),
+            Paths.get("FOO.h"), Paths.get("b/FOO.h")));
+    assertEquals(1, step.execute(context));
+  }
+
+  @Test
+  public void headerMapIsCachedAndTakesThePlaceOfTheTreeRoot() {
+    SourcePathResolver pathResolver = new SourcePathResolver(new BuildRuleResolver());
+    CxxHeaderMap headerMap = createHeaderMap(pathResolver, LINKS);
+
+    assertEquals(CacheMode.ENABLED, headerMap.getCacheMode());
+    assertEquals(OUTPUT, headerMap.getRoot());
+    assertEquals(OUTPUT, headerMap.getPathToOutputFile());
+    // There are no symlinks whose paths the preprocessor would need to map back to the headers.
+    assertEquals(ImmutableMap.<Path, SourcePath>of(), headerMap.getFullLinks());
+
+    ImmutableList<Step> steps =
+        headerMap.getBuildSteps(FakeBuildContext.NOOP_CONTEXT, new FakeBuildableContext());
+    assertEquals(
+        new HeaderMapStep(OUTPUT, pathResolver.getMappedPaths(LINKS)),
+        Iterables.getLast(steps));
+  }
+
+  @Test
+  public void ruleKeyDiffersFromTheSymlinkTreeForTheSameHeaders() {
+    SourcePathResolver pathResolver = new SourcePathResolver(new BuildRuleResolver());
+    BuildTarget target = BuildTargetFactory.newInstance("//foo:bar#header-symlink-tree");
+    BuildRuleParams params = BuildRuleParamsFactory.createTrivialBuildRuleParams(target);
+    RuleKeyBuilderFactory ruleKeyBuilderFactory =
+        new FakeRuleKeyBuilderFactory(
+            FakeFileHashCache.createFromStrings(
+                ImmutableMap.of(
+                    "lib/bar.h", Strings.repeat("a", 40),
+                    "baz.h", Strings.repeat("b", 40),
+                    "different.h", Strings.repeat("c", 40))));
+
+    RuleKey.Builder.RuleKeyPair headerMapKey = generateRuleKey(
+        ruleKeyBuilderFactory,
+        pathResolver,
+        createHeaderMap(pathResolver, LINKS));
+    RuleKey.Builder.RuleKeyPair symlinkTreeKey = generateRuleKey(
+        ruleKeyBuilderFactory,
+        pathResolver,
+        new SymlinkTree(params, pathResolver, Paths.get("foo/headers"), LINKS));
+    assertNotEquals(headerMapKey, symlinkTreeKey);
+
+    RuleKey.Builder.RuleKeyPair retargetedKey = generateRuleKey(
+        ruleKeyBuilderFactory,
+        pathResolver,
+        createHeaderMap(
+            pathResolver,
+            ImmutableMap.<Path, SourcePath>of(
+                Paths.get("foo/bar.h"), new TestSourcePath("different.h"),
+                Paths.get("baz.h"), new TestSourcePath("baz.h"))));
+    assertNotEquals(headerMapKey, retargetedKey);
+  }
+
+  private static CxxHeaderMap createHeaderMap(
+      SourcePathResolver pathResolver,
+      ImmutableMap<Path, SourcePath> links) {
+    BuildTarget target = BuildTargetFactory.newInstance("//foo:bar#header-symlink-tree");
+    return new CxxHeaderMap(
+        BuildRuleParamsFactory.createTrivialBuildRuleParams(target),
+        pathResolver,
+        OUTPUT,
+        links);
+  }
+
+  private static RuleKey.Builder.RuleKeyPair generateRuleKey(
+      RuleKeyBuilderFactory factory,
+      SourcePathResolver resolver,
+      AbstractBuildRule rule) {
+    RuleKey.Builder builder = factory.newInstance(rule, resolver);
+    rule.appendToRuleKey(builder);
+    return builder.build();
+  }
+
+}
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.cxx;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 
 import com.facebook.buck.model.BuildTarget;
@@ -24,16 +25,23 @@ import com.facebook.buck.rules.AbstractBuildRule;
 import com.facebook.buck.rules.BuildRuleParams;
 import com.facebook.buck.rules.BuildRuleParamsFactory;
 import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.FakeBuildContext;
+import com.facebook.buck.rules.FakeBuildableContext;
 import com.facebook.buck.rules.FakeRuleKeyBuilderFactory;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.rules.RuleKeyBuilderFactory;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.rules.TestSourcePath;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.TestExecutionContext;
 import com.facebook.buck.testutil.FakeFileHashCache;
+import com.google.common.base.Optional;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
 import org.junit.Test;
 
@@ -71,12 +79,14 @@ public class CxxLinkTest {
     RuleKeyBuilderFactory ruleKeyBuilderFactory =
         new FakeRuleKeyBuilderFactory(
             FakeFileHashCache.createFromStrings(
-                ImmutableMap.of(
-                    "ld", Strings.repeat("0", 40),
-                    "a.o", Strings.repeat("a", 40),
-                    "b.o", Strings.repeat("b", 40),
-                    "libc.a", Strings.repeat("c", 40),
-                    "different", Strings.repeat("d", 40))));
+                ImmutableMap.<String, String>builder()
+                    .put("ld", Strings.repeat("0", 40))
+                    .put("a.o", Strings.repeat("a", 40))
+                    .put("b.o", Strings.repeat("b", 40))
+                    .put("libc.a", Strings.repeat("c", 40))
+                    .put("different", Strings.repeat("d", 40))
+                    .put("objcopy", Strings.repeat("e", 40))
+                    .build()));
 
     // Generate a rule key for the defaults.
     RuleKey.Builder.RuleKeyPair defaultRuleKey = generateRuleKey(
@@ -88,7 +98,8 @@ public class CxxLinkTest {
             DEFAULT_LINKER,
             DEFAULT_OUTPUT,
             DEFAULT_INPUTS,
-            DEFAULT_ARGS));
+            DEFAULT_ARGS,
+            Optional.<SourcePath>absent()));
 
     // Verify that changing the archiver causes a rulekey change.
     RuleKey.Builder.RuleKeyPair linkerChange = generateRuleKey(
@@ -100,7 +111,8 @@ public class CxxLinkTest {
             new SourcePathTool(new TestSourcePath("different")),
             DEFAULT_OUTPUT,
             DEFAULT_INPUTS,
-            DEFAULT_ARGS));
+            DEFAULT_ARGS,
+            Optional.<SourcePath>absent()));
     assertNotEquals(defaultRuleKey, linkerChange);
 
     // Verify that changing the output path causes a rulekey change.
@@ -113,7 +125,8 @@ public class CxxLinkTest {
             DEFAULT_LINKER,
             Paths.get("different"),
             DEFAULT_INPUTS,
-            DEFAULT_ARGS));
+            DEFAULT_ARGS,
+            Optional.<SourcePath>absent()));
     assertNotEquals(defaultRuleKey, outputChange);
 
     // Verify that changing the inputs causes a rulekey change.
@@ -126,7 +139,8 @@ public class CxxLinkTest {
             DEFAULT_LINKER,
             DEFAULT_OUTPUT,
             ImmutableList.<SourcePath>of(new TestSourcePath("different")),
-            DEFAULT_ARGS));
+            DEFAULT_ARGS,
+            Optional.<SourcePath>absent()));
     assertNotEquals(defaultRuleKey, inputChange);
 
     // Verify that changing the flags causes a rulekey change.
@@ -139,9 +153,64 @@ public class CxxLinkTest {
             DEFAULT_LINKER,
             DEFAULT_OUTPUT,
             DEFAULT_INPUTS,
-            ImmutableList.of("-different")));
+            ImmutableList.of("-different"),
+            Optional.<SourcePath>absent()));
     assertNotEquals(defaultRuleKey, flagsChange);
 
+    // Verify that moving the debug info out causes a rulekey change.
+    RuleKey.Builder.RuleKeyPair debugInfoChange = generateRuleKey(
+        ruleKeyBuilderFactory,
+        pathResolver,
+        new CxxLink(
+            params,
+            pathResolver,
+            DEFAULT_LINKER,
+            DEFAULT_OUTPUT,
+            DEFAULT_INPUTS,
+            DEFAULT_ARGS,
+            Optional.<SourcePath>of(new TestSourcePath("objcopy"))));
+    assertNotEquals(defaultRuleKey, debugInfoChange);
+
+  }
+
+  @Test
+  public void debugInfoIsMovedIntoAFileOfItsOwnWhichIsAlsoCached() {
+    SourcePathResolver pathResolver = new SourcePathResolver(new BuildRuleResolver());
+    BuildTarget target = BuildTargetFactory.newInstance("//foo:bar");
+    BuildRuleParams params = BuildRuleParamsFactory.createTrivialBuildRuleParams(target);
+    ExecutionContext context = TestExecutionContext.newInstance();
+    CxxLink link = new CxxLink(
+        params,
+        pathResolver,
+        DEFAULT_LINKER,
+        DEFAULT_OUTPUT,
+        DEFAULT_INPUTS,
+        DEFAULT_ARGS,
+        Optional.<SourcePath>of(new TestSourcePath("objcopy")));
+
+    FakeBuildableContext buildableContext = new FakeBuildableContext();
+    ImmutableList<Step> steps =
+        link.getBuildSteps(FakeBuildContext.NOOP_CONTEXT, buildableContext);
+
+    assertEquals(
+        ImmutableSet.of(DEFAULT_OUTPUT, Paths.get("test.exe.debug")),
+        buildableContext.getRecordedArtifacts());
+    ImmutableList.Builder<ImmutableList<String>> objcopyCommands = ImmutableList.builder();
+    for (Step step : steps) {
+      if (step instanceof ObjcopyStep) {
+        objcopyCommands.add(((ObjcopyStep) step).getShellCommand(context));
+      }
+    }
+    assertEquals(
+        ImmutableList.of(
+            ImmutableList.of("objcopy", "--only-keep-debug", "test.exe", "test.exe.debug"),
+            ImmutableList.of(
+                "objcopy",
+                "--strip-debug",
+                "--add-gnu-debuglink=test.exe.debug",
+                "test.exe",
+                "test.exe")),
+        objcopyCommands.build());
   }
 
 }
@@ -40,6 +40,7 @@ public class CxxPreprocessStepTest {
     ImmutableList<String> flags =
         ImmutableList.of("-Dtest=blah");
     Path output = Paths.get("test.ii");
+    Path depFile = Paths.get("test.ii.dep");
     Path input = Paths.get("test.cpp");
     ImmutableList<Path> includes = ImmutableList.of(
         Paths.get("foo/bar"),
@@ -57,6 +58,7 @@ public class CxxPreprocessStepTest {
         compiler,
         flags,
         output,
+        Optional.of(depFile),
         input,
         includes,
         systemIncludes,
@@ -68,6 +70,7 @@ public class CxxPreprocessStepTest {
     ImmutableList<String> expected = ImmutableList.<String>builder()
         .addAll(compiler)
         .add("-E")
+        .add("-MD", "-MF", depFile.toString())
         .addAll(flags)
         .add("-I", "foo/bar")
         .add("-I", "test")
@@ -82,7 +85,7 @@ public class CxxPreprocessStepTest {
   }
 
   @Test
-  public void outputProcessor() {
+  public void lineMarkerPathProcessor() {
     Path original = Paths.get("buck-out/foo#bar/world.h");
     ImmutableMap<Path, Path> replacementPaths =
         ImmutableMap.of(original, Paths.get("hello/////world.h"));
@@ -94,24 +97,16 @@ public class CxxPreprocessStepTest {
         "PWD",
         ImmutableBiMap.of(Paths.get("hello"), "SANITIZED"));
     Function<String, String> processor =
-        CxxPreprocessStep.createOutputLineProcessor(
+        CxxPreprocessStep.createLineMarkerPathProcessor(
             Paths.get("PWD"),
             replacementPaths,
             Optional.of(sanitizer));
 
-    // Fixup line marker lines properly.
-    assertEquals(
-        String.format("# 12 \"%s\"", finalPath),
-        processor.apply(String.format("# 12 \"%s\"", original)));
-    assertEquals(
-        String.format("# 12 \"%s\" 2 1", finalPath),
-        processor.apply(String.format("# 12 \"%s\" 2 1", original)));
+    // Replace and sanitize paths in line markers.
+    assertEquals(finalPath.toString(), processor.apply(original.toString()));
 
     // test.h isn't in the replacement map, so shouldn't be replaced.
-    assertEquals("# 4 \"test.h\"", processor.apply("# 4 \"test.h\""));
-
-    // Don't modify non-line-marker lines.
-    assertEquals("int main() {", processor.apply("int main() {"));
+    assertEquals("test.h", processor.apply("test.h"));
   }
 
   @Test
@@ -134,6 +129,7 @@ public class CxxPreprocessStepTest {
         compiler,
         flags,
         output,
+        Optional.<Path>absent(),
         input,
         includes,
         systemIncludes,
@@ -17,6 +17,7 @@
 package com.facebook.buck.cxx;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 
 import com.facebook.buck.model.BuildTarget;
@@ -25,6 +26,7 @@ import com.facebook.buck.rules.AbstractBuildRule;
 import com.facebook.buck.rules.BuildRuleParams;
 import com.facebook.buck.rules.BuildRuleParamsFactory;
 import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.FakeBuildRuleParamsBuilder;
 import com.facebook.buck.rules.FakeRuleKeyBuilderFactory;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.rules.RuleKeyBuilderFactory;
@@ -32,6 +34,7 @@ import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.rules.TestSourcePath;
 import com.facebook.buck.testutil.FakeFileHashCache;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableBiMap;
@@ -41,6 +44,7 @@ import com.google.common.collect.ImmutableMap;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
@@ -103,6 +107,7 @@ public class CxxPreprocessTest {
             DEFAULT_FLAGS,
             DEFAULT_OUTPUT,
             DEFAULT_INPUT,
+            Optional.<SourcePath>absent(),
             DEFAULT_INCLUDE_ROOTS,
             DEFAULT_SYSTEM_INCLUDE_ROOTS,
             DEFAULT_FRAMEWORK_ROOTS,
@@ -120,6 +125,7 @@ public class CxxPreprocessTest {
             DEFAULT_FLAGS,
             DEFAULT_OUTPUT,
             DEFAULT_INPUT,
+            Optional.<SourcePath>absent(),
             DEFAULT_INCLUDE_ROOTS,
             DEFAULT_SYSTEM_INCLUDE_ROOTS,
             DEFAULT_FRAMEWORK_ROOTS,
@@ -138,6 +144,7 @@ public class CxxPreprocessTest {
             ImmutableList.of("-different"),
             DEFAULT_OUTPUT,
             DEFAULT_INPUT,
+            Optional.<SourcePath>absent(),
             DEFAULT_INCLUDE_ROOTS,
             DEFAULT_SYSTEM_INCLUDE_ROOTS,
             DEFAULT_FRAMEWORK_ROOTS,
@@ -156,6 +163,7 @@ public class CxxPreprocessTest {
             DEFAULT_FLAGS,
             DEFAULT_OUTPUT,
             new TestSourcePath("different"),
+            Optional.<SourcePath>absent(),
             DEFAULT_INCLUDE_ROOTS,
             DEFAULT_SYSTEM_INCLUDE_ROOTS,
             DEFAULT_FRAMEWORK_ROOTS,
@@ -175,6 +183,7 @@ public class CxxPreprocessTest {
             DEFAULT_FLAGS,
             DEFAULT_OUTPUT,
             DEFAULT_INPUT,
+            Optional.<SourcePath>absent(),
             ImmutableList.of(Paths.get("different")),
             DEFAULT_SYSTEM_INCLUDE_ROOTS,
             DEFAULT_FRAMEWORK_ROOTS,
@@ -194,6 +203,7 @@ public class CxxPreprocessTest {
             DEFAULT_FLAGS,
             DEFAULT_OUTPUT,
             DEFAULT_INPUT,
+            Optional.<SourcePath>absent(),
             DEFAULT_INCLUDE_ROOTS,
             ImmutableList.of(Paths.get("different")),
             DEFAULT_FRAMEWORK_ROOTS,
@@ -212,6 +222,7 @@ public class CxxPreprocessTest {
             DEFAULT_FLAGS,
             DEFAULT_OUTPUT,
             DEFAULT_INPUT,
+            Optional.<SourcePath>absent(),
             DEFAULT_INCLUDE_ROOTS,
             DEFAULT_SYSTEM_INCLUDE_ROOTS,
             ImmutableList.of(Paths.get("different")),
@@ -263,6 +274,7 @@ public class CxxPreprocessTest {
             flags1,
             DEFAULT_OUTPUT,
             DEFAULT_INPUT,
+            Optional.<SourcePath>absent(),
             DEFAULT_INCLUDE_ROOTS,
             DEFAULT_SYSTEM_INCLUDE_ROOTS,
             DEFAULT_FRAMEWORK_ROOTS,
@@ -281,6 +293,7 @@ public class CxxPreprocessTest {
             flags2,
             DEFAULT_OUTPUT,
             DEFAULT_INPUT,
+            Optional.<SourcePath>absent(),
             DEFAULT_INCLUDE_ROOTS,
             DEFAULT_SYSTEM_INCLUDE_ROOTS,
             DEFAULT_FRAMEWORK_ROOTS,
@@ -290,4 +303,119 @@ public class CxxPreprocessTest {
     assertEquals(ruleKey1, ruleKey2);
   }
 
+  @Test
+  public void depFileRuleKeyOnlyCoversTheHeadersWhichWereUsed() throws IOException {
+    SourcePathResolver pathResolver = new SourcePathResolver(new BuildRuleResolver());
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    filesystem.writeContentsToPath("", Paths.get("test.cpp"));
+    filesystem.writeContentsToPath("", Paths.get("foo/test.h"));
+    filesystem.writeContentsToPath("", Paths.get("foo/other.h"));
+    filesystem.writeContentsToPath(
+        "test.o: test.cpp \\\n foo/test.h /usr/include/stdio.h\n",
+        Paths.get("test.o.dep"));
+    ImmutableCxxHeaders includes =
+        ImmutableCxxHeaders.builder()
+            .putNameToPathMap(Paths.get("test.h"), new TestSourcePath("foo/test.h"))
+            .putNameToPathMap(Paths.get("other.h"), new TestSourcePath("foo/other.h"))
+            .build();
+
+    CxxPreprocess defaultRule = createDepFileRule(
+        pathResolver,
+        filesystem,
+        includes,
+        ImmutableMap.of("foo/test.h", Strings.repeat("e", 40)));
+    ImmutableList<Path> usedInputs = defaultRule.getInputsAfterBuildingLocally();
+    assertEquals(ImmutableList.of(Paths.get("foo/test.h"), Paths.get("test.cpp")), usedInputs);
+    Optional<RuleKey> defaultKey = defaultRule.getDependencyFileRuleKey(usedInputs);
+
+    // A header which wasn't used doesn't matter.
+    Optional<RuleKey> otherHeaderChange = createDepFileRule(
+        pathResolver,
+        filesystem,
+        includes,
+        ImmutableMap.of(
+            "foo/test.h", Strings.repeat("e", 40),
+            "foo/other.h", Strings.repeat("d", 40)))
+        .getDependencyFileRuleKey(usedInputs);
+    assertEquals(defaultKey, otherHeaderChange);
+
+    // But one which was does.
+    Optional<RuleKey> usedHeaderChange = createDepFileRule(
+        pathResolver,
+        filesystem,
+        includes,
+        ImmutableMap.of("foo/test.h", Strings.repeat("f", 40)))
+        .getDependencyFileRuleKey(usedInputs);
+    assertNotEquals(defaultKey, usedHeaderChange);
+
+    // As does adding a new header, which could hide the ones that were used.
+    Optional<RuleKey> newHeader = createDepFileRule(
+        pathResolver,
+        filesystem,
+        ImmutableCxxHeaders.builder()
+            .putAllNameToPathMap(includes.getNameToPathMap())
+            .putNameToPathMap(Paths.get("new.h"), new TestSourcePath("foo/new.h"))
+            .build(),
+        ImmutableMap.of("foo/test.h", Strings.repeat("e", 40)))
+        .getDependencyFileRuleKey(usedInputs);
+    assertNotEquals(defaultKey, newHeader);
+
+    // Or pointing a name at a different header, which a dep file written through a header map
+    // wouldn't show.
+    Optional<RuleKey> retargetedHeader = createDepFileRule(
+        pathResolver,
+        filesystem,
+        ImmutableCxxHeaders.builder()
+            .putNameToPathMap(Paths.get("test.h"), new TestSourcePath("foo/test.h"))
+            .putNameToPathMap(Paths.get("other.h"), new TestSourcePath("foo/test.h"))
+            .build(),
+        ImmutableMap.of("foo/test.h", Strings.repeat("e", 40)))
+        .getDependencyFileRuleKey(usedInputs);
+    assertNotEquals(defaultKey, retargetedHeader);
+
+    // And a used header which has gone away means the rule has to be built.
+    filesystem.deleteFileAtPath(Paths.get("foo/test.h"));
+    assertFalse(defaultRule.getDependencyFileRuleKey(usedInputs).isPresent());
+  }
+
+  @Test
+  public void parseDepFileHandlesContinuationsAndEscapes() {
+    assertEquals(
+        ImmutableList.of("test.cpp", "buck-out/foo#bar/a b.h", "$.h"),
+        CxxPreprocess.parseDepFile(
+            ImmutableList.of(
+                "buck-out/foo\\#bar/test.o: test.cpp \\",
+                "  buck-out/foo\\#bar/a\\ b.h $$.h")));
+  }
+
+  private CxxPreprocess createDepFileRule(
+      SourcePathResolver pathResolver,
+      FakeProjectFilesystem filesystem,
+      CxxHeaders includes,
+      ImmutableMap<String, String> headerHashes) {
+    BuildRuleParams params = new FakeBuildRuleParamsBuilder("//foo:bar")
+        .setProjectFilesystem(filesystem)
+        .setFileHashCache(
+            FakeFileHashCache.createFromStrings(
+                ImmutableMap.<String, String>builder()
+                    .put("compiler", Strings.repeat("a", 40))
+                    .put("test.cpp", Strings.repeat("c", 40))
+                    .putAll(headerHashes)
+                    .build()))
+        .build();
+    return new CxxPreprocess(
+        params,
+        pathResolver,
+        DEFAULT_COMPILER,
+        DEFAULT_FLAGS,
+        DEFAULT_OUTPUT,
+        DEFAULT_INPUT,
+        Optional.<SourcePath>absent(),
+        DEFAULT_INCLUDE_ROOTS,
+        DEFAULT_SYSTEM_INCLUDE_ROOTS,
+        DEFAULT_FRAMEWORK_ROOTS,
+        includes,
+        DEFAULT_SANITIZER);
+  }
+
 }
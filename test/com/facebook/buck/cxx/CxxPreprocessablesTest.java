@@ -41,7 +41,9 @@ import com.facebook.buck.rules.TestSourcePath;
 import com.facebook.buck.shell.Genrule;
 import com.facebook.buck.shell.GenruleBuilder;
 import com.facebook.buck.testutil.AllExistingProjectFilesystem;
+import com.facebook.buck.util.HumanReadableException;
 import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -58,6 +60,10 @@ import java.util.Map;
 public class CxxPreprocessablesTest {
 
   private static final CxxPlatform CXX_PLATFORM = DefaultCxxPlatforms.build(new FakeBuckConfig());
+  private static final CxxPlatform CLANG_CXX_PLATFORM = DefaultCxxPlatforms.build(
+      new FakeBuckConfig(
+          ImmutableMap.<String, Map<String, String>>of(
+              "cxx", ImmutableMap.of("compiler_type", "clang"))));
 
   private static <T> void assertContains(ImmutableList<T> container, Iterable<T> items) {
     for (T item : items) {
@@ -216,7 +222,8 @@ public class CxxPreprocessablesTest {
         target,
         params,
         root,
-        links);
+        links,
+        HeaderMode.SYMLINK_TREE);
 
     // Verify that the symlink tree has no deps.  This is by design, since setting symlinks can
     // be done completely independently from building the source that the links point to and
@@ -224,6 +231,28 @@ public class CxxPreprocessablesTest {
     assertTrue(symlinkTree.getDeps().isEmpty());
   }
 
+  @Test
+  public void headerMapModeWritesAHeaderMapNextToTheRootOfTheTree() {
+    SourcePathResolver pathResolver = new SourcePathResolver(new BuildRuleResolver());
+    BuildTarget target = BuildTargetFactory.newInstance("//foo:bar");
+    BuildRuleParams params = BuildRuleParamsFactory.createTrivialBuildRuleParams(target);
+    ImmutableMap<Path, SourcePath> links = ImmutableMap.<Path, SourcePath>of(
+        Paths.get("link1"), new TestSourcePath("hello"));
+
+    SymlinkTree headerMap = CxxPreprocessables.createHeaderSymlinkTreeBuildRule(
+        pathResolver,
+        target,
+        params,
+        Paths.get("some/root"),
+        links,
+        HeaderMode.HEADER_MAP);
+
+    assertThat(headerMap, Matchers.instanceOf(CxxHeaderMap.class));
+    assertEquals(Paths.get("some/root.hmap"), headerMap.getRoot());
+    assertEquals(links, headerMap.getLinks());
+    assertTrue(headerMap.getDeps().isEmpty());
+  }
+
   @Test
   public void getTransitiveNativeLinkableInputDoesNotTraversePastNonNativeLinkables() {
     SourcePathResolver pathResolver = new SourcePathResolver(new BuildRuleResolver());
@@ -493,4 +522,94 @@ public class CxxPreprocessablesTest {
     assertThat(cxxPreprocess.getFlags(), Matchers.contains("-x", "c"));
   }
 
+  @Test
+  public void precompiledHeaderIsSharedBySourcesOfTheSameLanguage() {
+    BuildTarget target = BuildTargetFactory.newInstance("//foo:bar");
+    BuildRuleParams params = BuildRuleParamsFactory.createTrivialBuildRuleParams(target);
+    BuildRuleResolver resolver = new BuildRuleResolver();
+    SourcePathResolver pathResolver = new SourcePathResolver(resolver);
+
+    ImmutableMap<String, CxxSource> sources =
+        ImmutableMap.<String, CxxSource>of(
+            "a.cpp", ImmutableCxxSource.of(CxxSource.Type.CXX, new TestSourcePath("a.cpp")),
+            "b.cpp", ImmutableCxxSource.of(CxxSource.Type.CXX, new TestSourcePath("b.cpp")),
+            "c.c", ImmutableCxxSource.of(CxxSource.Type.C, new TestSourcePath("c.c")),
+            "d.S",
+            ImmutableCxxSource.of(CxxSource.Type.ASSEMBLER_WITH_CPP, new TestSourcePath("d.S")));
+    ImmutableMap<String, CxxSource> withPrecompiledHeader =
+        CxxPreprocessables.addPrecompiledHeader(
+            params,
+            resolver,
+            CLANG_CXX_PLATFORM,
+            CxxPreprocessorInput.EMPTY,
+            ImmutableList.of("-compiler-flag"),
+            /* pic */ false,
+            new TestSourcePath("prefix.h"),
+            sources);
+
+    SourcePath cxxPrecompiledHeader =
+        withPrecompiledHeader.get("a.cpp").getPrecompiledHeader().get();
+    assertEquals(
+        Optional.of(cxxPrecompiledHeader),
+        withPrecompiledHeader.get("b.cpp").getPrecompiledHeader());
+    assertNotEquals(
+        Optional.of(cxxPrecompiledHeader),
+        withPrecompiledHeader.get("c.c").getPrecompiledHeader());
+    assertFalse(withPrecompiledHeader.get("d.S").getPrecompiledHeader().isPresent());
+
+    // It's built with the flags used to compile the sources it's for.
+    CxxPrecompiledHeader precompiledHeaderRule =
+        (CxxPrecompiledHeader) pathResolver.getRule(cxxPrecompiledHeader).get();
+    assertThat(precompiledHeaderRule.getFlags(), Matchers.hasItem("-compiler-flag"));
+    assertEquals(
+        ImmutableList.of("-x", "c++-header"),
+        precompiledHeaderRule.getFlags().subList(0, 2));
+
+    // Both preprocessing and compiling the source depend on it.
+    Map.Entry<String, CxxSource> preprocessed =
+        CxxPreprocessables.createPreprocessBuildRule(
+            params,
+            resolver,
+            CLANG_CXX_PLATFORM,
+            CxxPreprocessorInput.EMPTY,
+            /* pic */ false,
+            "a.cpp",
+            withPrecompiledHeader.get("a.cpp"));
+    BuildRule cxxPreprocess = pathResolver.getRule(preprocessed.getValue().getPath()).get();
+    assertThat(cxxPreprocess.getDeps(), Matchers.<BuildRule>hasItem(precompiledHeaderRule));
+    assertEquals(
+        Optional.of(cxxPrecompiledHeader),
+        preprocessed.getValue().getPrecompiledHeader());
+
+    CxxCompile cxxCompile =
+        CxxCompilableEnhancer.createCompileBuildRule(
+            params,
+            resolver,
+            CLANG_CXX_PLATFORM,
+            ImmutableList.<String>of(),
+            /* pic */ false,
+            "a.cpp",
+            preprocessed.getValue());
+    assertThat(cxxCompile.getDeps(), Matchers.<BuildRule>hasItem(precompiledHeaderRule));
+    assertEquals(Optional.of(cxxPrecompiledHeader), cxxCompile.getPrecompiledHeader());
+  }
+
+  @Test(expected = HumanReadableException.class)
+  public void precompiledHeaderNeedsClang() {
+    BuildTarget target = BuildTargetFactory.newInstance("//foo:bar");
+    CxxPreprocessables.addPrecompiledHeader(
+        BuildRuleParamsFactory.createTrivialBuildRuleParams(target),
+        new BuildRuleResolver(),
+        DefaultCxxPlatforms.build(
+            new FakeBuckConfig(
+                ImmutableMap.<String, Map<String, String>>of(
+                    "cxx", ImmutableMap.of("compiler_type", "gcc")))),
+        CxxPreprocessorInput.EMPTY,
+        ImmutableList.<String>of(),
+        /* pic */ false,
+        new TestSourcePath("prefix.h"),
+        ImmutableMap.<String, CxxSource>of(
+            "a.cpp", ImmutableCxxSource.of(CxxSource.Type.CXX, new TestSourcePath("a.cpp"))));
+  }
+
 }
@@ -18,6 +18,7 @@ package com.facebook.buck.cxx;
 
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.FlavorDomain;
+import com.google.common.base.Optional;
 
 public class CxxTestBuilder extends AbstractCxxSourceBuilder<CxxTestDescription.Arg> {
 
@@ -33,4 +34,9 @@ public class CxxTestBuilder extends AbstractCxxSourceBuilder<CxxTestDescription.
     this(target, createDefaultConfig(), createDefaultPlatform(), createDefaultPlatforms());
   }
 
+  public CxxTestBuilder setLinkStyle(Linker.LinkableDepType linkStyle) {
+    arg.linkStyle = Optional.of(linkStyle);
+    return this;
+  }
+
 }
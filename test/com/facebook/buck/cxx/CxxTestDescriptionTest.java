@@ -16,6 +16,9 @@
 
 package com.facebook.buck.cxx;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.cli.FakeBuckConfig;
@@ -23,14 +26,26 @@ import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargetFactory;
 import com.facebook.buck.model.Flavor;
 import com.facebook.buck.model.FlavorDomain;
+import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.BuildTargetSourcePath;
 import com.facebook.buck.rules.SourcePath;
+import com.facebook.buck.rules.SymlinkTree;
+import com.facebook.buck.rules.TargetGraph;
+import com.facebook.buck.rules.TestSourcePath;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.testutil.TargetGraphFactory;
+import com.facebook.buck.util.environment.Platform;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 
 import org.junit.Test;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.Map;
 
 public class CxxTestDescriptionTest {
@@ -60,4 +75,235 @@ public class CxxTestDescriptionTest {
     assertTrue(Iterables.contains(implicit, gtest));
   }
 
+  @Test
+  public void sharedLinkStyleLinksAgainstSharedLibrariesFoundThroughASymlinkTree() {
+    BuildRuleResolver resolver = new BuildRuleResolver();
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    CxxPlatform cxxPlatform = CxxTestBuilder.createDefaultPlatform();
+
+    BuildTarget gtestTarget = BuildTargetFactory.newInstance("//:gtest");
+    CxxLibraryBuilder gtestBuilder = new CxxLibraryBuilder(gtestTarget);
+    gtestBuilder.setSrcs(ImmutableList.<SourcePath>of(new TestSourcePath("gtest.cpp")));
+    BuildTarget depTarget = BuildTargetFactory.newInstance("//:dep");
+    CxxLibraryBuilder depBuilder = new CxxLibraryBuilder(depTarget);
+    depBuilder.setSrcs(ImmutableList.<SourcePath>of(new TestSourcePath("dep.cpp")));
+    BuildTarget libTarget = BuildTargetFactory.newInstance("//:lib");
+    CxxLibraryBuilder libBuilder = new CxxLibraryBuilder(libTarget);
+    libBuilder
+        .setSrcs(ImmutableList.<SourcePath>of(new TestSourcePath("lib.cpp")))
+        .setDeps(ImmutableSortedSet.of(depTarget));
+    BuildTarget target = BuildTargetFactory.newInstance("//:test");
+    CxxTestBuilder testBuilder =
+        new CxxTestBuilder(
+            target,
+            createCxxBuckConfig(gtestTarget),
+            cxxPlatform,
+            CxxTestBuilder.createDefaultPlatforms())
+            .setLinkStyle(Linker.LinkableDepType.SHARED);
+    testBuilder
+        .setSrcs(ImmutableList.<SourcePath>of(new TestSourcePath("test.cpp")))
+        .setDeps(ImmutableSortedSet.of(libTarget));
+    TargetGraph targetGraph =
+        TargetGraphFactory.newInstance(
+            gtestBuilder.build(),
+            depBuilder.build(),
+            libBuilder.build(),
+            testBuilder.build());
+
+    gtestBuilder.build(resolver, filesystem, targetGraph);
+    depBuilder.build(resolver, filesystem, targetGraph);
+    libBuilder.build(resolver, filesystem, targetGraph);
+    CxxTest test = (CxxTest) testBuilder.build(resolver, filesystem, targetGraph);
+
+    // The test depends on a tree linking in the shared libraries of its transitive deps by their
+    // sonames.
+    BuildTarget sharedLibraryTarget =
+        CxxDescriptionEnhancer.createSharedLibraryBuildTarget(libTarget, cxxPlatform.getFlavor());
+    SymlinkTree symlinkTree = (SymlinkTree) resolver.getRule(
+        CxxDescriptionEnhancer.createSharedLibrarySymlinkTreeTarget(target));
+    assertTrue(test.getDeps().contains(symlinkTree));
+    assertEquals(
+        new BuildTargetSourcePath(sharedLibraryTarget),
+        symlinkTree.getLinks().get(
+            Paths.get(CxxDescriptionEnhancer.getSharedLibrarySoname(libTarget, cxxPlatform))));
+    assertTrue(
+        symlinkTree.getLinks().containsKey(
+            Paths.get(CxxDescriptionEnhancer.getSharedLibrarySoname(depTarget, cxxPlatform))));
+
+    // The test binary is linked against the shared library, and looks for it in the tree.
+    CxxLink cxxLink = (CxxLink) resolver.getRule(
+        CxxDescriptionEnhancer.createCxxLinkTarget(target));
+    assertTrue(cxxLink.getDeps().contains(resolver.getRule(sharedLibraryTarget)));
+    Path output = CxxDescriptionEnhancer.getOutputPath(target);
+    Iterable<String> origin = cxxPlatform.getLd().origin(
+        output.getParent().relativize(symlinkTree.getRoot()).toString());
+    assertNotEquals(
+        -1,
+        Collections.indexOfSubList(
+            cxxLink.getArgs(),
+            ImmutableList.copyOf(CxxLinkableEnhancer.iXlinker(origin))));
+  }
+
+  @Test
+  public void sharedLinkStyleOnDarwinFindsLibrariesThroughTheRunPath() {
+    BuildRuleResolver resolver = new BuildRuleResolver();
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    CxxPlatform cxxPlatform = DefaultCxxPlatforms.build(Platform.MACOS, new FakeBuckConfig());
+    FlavorDomain<CxxPlatform> cxxPlatforms = new FlavorDomain<>(
+        "C/C++ Platform",
+        ImmutableMap.of(cxxPlatform.getFlavor(), cxxPlatform));
+
+    BuildTarget gtestTarget = BuildTargetFactory.newInstance("//:gtest");
+    CxxLibraryBuilder gtestBuilder =
+        new CxxLibraryBuilder(gtestTarget, createCxxBuckConfig(gtestTarget), cxxPlatforms);
+    BuildTarget libTarget = BuildTargetFactory.newInstance("//:lib");
+    CxxLibraryBuilder libBuilder =
+        new CxxLibraryBuilder(libTarget, createCxxBuckConfig(gtestTarget), cxxPlatforms);
+    libBuilder.setSrcs(ImmutableList.<SourcePath>of(new TestSourcePath("lib.cpp")));
+    BuildTarget target = BuildTargetFactory.newInstance("//:test");
+    CxxTestBuilder testBuilder =
+        new CxxTestBuilder(target, createCxxBuckConfig(gtestTarget), cxxPlatform, cxxPlatforms)
+            .setLinkStyle(Linker.LinkableDepType.SHARED);
+    testBuilder
+        .setSrcs(ImmutableList.<SourcePath>of(new TestSourcePath("test.cpp")))
+        .setDeps(ImmutableSortedSet.of(libTarget));
+    TargetGraph targetGraph =
+        TargetGraphFactory.newInstance(
+            gtestBuilder.build(),
+            libBuilder.build(),
+            testBuilder.build());
+
+    gtestBuilder.build(resolver, filesystem, targetGraph);
+    libBuilder.build(resolver, filesystem, targetGraph);
+    testBuilder.build(resolver, filesystem, targetGraph);
+
+    // The library is named relative to the run path of whatever loads it...
+    String soname = CxxDescriptionEnhancer.getSharedLibrarySoname(libTarget, cxxPlatform);
+    assertEquals("liblib.dylib", soname);
+    CxxLink sharedLibraryLink = (CxxLink) resolver.getRule(
+        CxxDescriptionEnhancer.createSharedLibraryBuildTarget(libTarget, cxxPlatform.getFlavor()));
+    assertNotEquals(
+        -1,
+        Collections.indexOfSubList(
+            sharedLibraryLink.getArgs(),
+            ImmutableList.of(
+                "-Xlinker", "-install_name",
+                "-Xlinker", "@rpath/liblib.dylib")));
+
+    // ... and the test binary's run path is the tree of libraries, relative to the binary.
+    CxxLink testLink = (CxxLink) resolver.getRule(
+        CxxDescriptionEnhancer.createCxxLinkTarget(target));
+    Path treeFromBinary = CxxDescriptionEnhancer.getOutputPath(target).getParent().relativize(
+        CxxDescriptionEnhancer.getSharedLibrarySymlinkTreePath(target));
+    assertNotEquals(
+        -1,
+        Collections.indexOfSubList(
+            testLink.getArgs(),
+            ImmutableList.of(
+                "-Xlinker", "-rpath",
+                "-Xlinker", "@executable_path/" + treeFromBinary)));
+  }
+
+  @Test
+  public void staticLinkStyleIsTheDefault() {
+    BuildRuleResolver resolver = new BuildRuleResolver();
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+
+    BuildTarget gtestTarget = BuildTargetFactory.newInstance("//:gtest");
+    CxxLibraryBuilder gtestBuilder = new CxxLibraryBuilder(gtestTarget);
+    BuildTarget target = BuildTargetFactory.newInstance("//:test");
+    CxxTestBuilder testBuilder =
+        new CxxTestBuilder(
+            target,
+            createCxxBuckConfig(gtestTarget),
+            CxxTestBuilder.createDefaultPlatform(),
+            CxxTestBuilder.createDefaultPlatforms());
+    testBuilder.setSrcs(ImmutableList.<SourcePath>of(new TestSourcePath("test.cpp")));
+    TargetGraph targetGraph =
+        TargetGraphFactory.newInstance(gtestBuilder.build(), testBuilder.build());
+
+    gtestBuilder.build(resolver, filesystem, targetGraph);
+    testBuilder.build(resolver, filesystem, targetGraph);
+
+    assertFalse(
+        resolver.getRuleOptional(
+            CxxDescriptionEnhancer.createSharedLibrarySymlinkTreeTarget(target)).isPresent());
+  }
+
+  @Test
+  public void sharedLinkStyleDoesNotRelinkWhenOnlyALibraryImplementationChanges() {
+    CxxLink original = createSharedLinkStyleTestBinary(
+        ImmutableList.of("-O0"),
+        ImmutableList.<String>of());
+
+    // Building the library's objects differently changes the library, but not how the test binary
+    // links against it, so the test binary is left alone.
+    CxxLink compilerFlagsChange = createSharedLinkStyleTestBinary(
+        ImmutableList.of("-O2"),
+        ImmutableList.<String>of());
+    assertNotEquals(original.getRuleKey(), compilerFlagsChange.getRuleKey());
+    assertEquals(original.getRuleKeyWithoutDeps(), compilerFlagsChange.getRuleKeyWithoutDeps());
+    assertEquals(original.getAbiKeyForDeps(), compilerFlagsChange.getAbiKeyForDeps());
+
+    // Changing how the library is linked does relink the test binary.
+    CxxLink linkerFlagsChange = createSharedLinkStyleTestBinary(
+        ImmutableList.of("-O0"),
+        ImmutableList.of("-Wl,--as-needed"));
+    assertNotEquals(original.getAbiKeyForDeps(), linkerFlagsChange.getAbiKeyForDeps());
+  }
+
+  /**
+   * @return the link rule of a test binary linked as shared against a library built with the
+   *     given flags.
+   */
+  private static CxxLink createSharedLinkStyleTestBinary(
+      ImmutableList<String> libCompilerFlags,
+      ImmutableList<String> libLinkerFlags) {
+    BuildRuleResolver resolver = new BuildRuleResolver();
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    Path testdata = Paths.get("test/com/facebook/buck/cxx/testdata/resolved");
+
+    BuildTarget gtestTarget = BuildTargetFactory.newInstance("//:gtest");
+    CxxLibraryBuilder gtestBuilder = new CxxLibraryBuilder(gtestTarget);
+    BuildTarget libTarget = BuildTargetFactory.newInstance("//:lib");
+    CxxLibraryBuilder libBuilder = new CxxLibraryBuilder(libTarget);
+    libBuilder
+        .setSrcs(
+            ImmutableList.<SourcePath>of(
+                new TestSourcePath(testdata.resolve("lib1.cpp").toString())))
+        .setCompilerFlags(libCompilerFlags)
+        .setLinkerFlags(libLinkerFlags);
+    BuildTarget target = BuildTargetFactory.newInstance("//:test");
+    CxxTestBuilder testBuilder =
+        new CxxTestBuilder(
+            target,
+            createCxxBuckConfig(gtestTarget),
+            CxxTestBuilder.createDefaultPlatform(),
+            CxxTestBuilder.createDefaultPlatforms())
+            .setLinkStyle(Linker.LinkableDepType.SHARED);
+    testBuilder
+        .setSrcs(
+            ImmutableList.<SourcePath>of(
+                new TestSourcePath(testdata.resolve("bin.cpp").toString())))
+        .setDeps(ImmutableSortedSet.of(libTarget));
+    TargetGraph targetGraph =
+        TargetGraphFactory.newInstance(
+            gtestBuilder.build(),
+            libBuilder.build(),
+            testBuilder.build());
+
+    gtestBuilder.build(resolver, filesystem, targetGraph);
+    libBuilder.build(resolver, filesystem, targetGraph);
+    testBuilder.build(resolver, filesystem, targetGraph);
+    return (CxxLink) resolver.getRule(CxxDescriptionEnhancer.createCxxLinkTarget(target));
+  }
+
+  private static CxxBuckConfig createCxxBuckConfig(BuildTarget gtest) {
+    return new CxxBuckConfig(
+        new FakeBuckConfig(
+            ImmutableMap.<String, Map<String, String>>of(
+                "cxx",
+                ImmutableMap.of("gtest_dep", gtest.toString()))));
+  }
+
 }
@@ -19,6 +19,8 @@ package com.facebook.buck.cxx;
 import static org.junit.Assert.assertEquals;
 
 import com.facebook.buck.cli.FakeBuckConfig;
+import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.environment.Platform;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
@@ -40,4 +42,45 @@ public class DefaultCxxPlatformsTest {
     assertEquals(ImmutableList.of("-yacc", "-yacc"), cxxPlatform.getYaccFlags());
   }
 
+  @Test
+  public void compilerTypeDefaultsToWhatThePlatformsCompilersAre() {
+    assertEquals(
+        CompilerType.GCC,
+        DefaultCxxPlatforms.build(Platform.LINUX, new FakeBuckConfig()).getCompilerType());
+    assertEquals(
+        CompilerType.CLANG,
+        DefaultCxxPlatforms.build(Platform.MACOS, new FakeBuckConfig()).getCompilerType());
+  }
+
+  @Test
+  public void compilerTypeCanBeSet() {
+    CxxPlatform cxxPlatform = DefaultCxxPlatforms.build(
+        Platform.LINUX,
+        new FakeBuckConfig(
+            ImmutableMap.<String, Map<String, String>>of(
+                "cxx", ImmutableMap.of("compiler_type", "clang"))));
+    assertEquals(CompilerType.CLANG, cxxPlatform.getCompilerType());
+  }
+
+  @Test(expected = HumanReadableException.class)
+  public void headerMapNeedsClang() {
+    DefaultCxxPlatforms.build(
+        Platform.LINUX,
+        new FakeBuckConfig(
+            ImmutableMap.<String, Map<String, String>>of(
+                "cxx", ImmutableMap.of("header_mode", "header_map"))));
+  }
+
+  @Test
+  public void headerMapWithClang() {
+    CxxPlatform cxxPlatform = DefaultCxxPlatforms.build(
+        Platform.LINUX,
+        new FakeBuckConfig(
+            ImmutableMap.<String, Map<String, String>>of(
+                "cxx", ImmutableMap.of(
+                    "header_mode", "header_map",
+                    "compiler_type", "clang"))));
+    assertEquals(HeaderMode.HEADER_MAP, cxxPlatform.getHeaderMode());
+  }
+
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.cli.FakeBuckConfig;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TestConsole;
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.google.common.collect.ImmutableList;
+
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+
+public class IncrementalArchiveStepIntegrationTest {
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+  private ExecutionContext executionContext;
+  private ImmutableList<String> archiver;
+
+  private static final ImmutableList<Path> INPUTS =
+      ImmutableList.of(Paths.get("a/first.dat"), Paths.get("b/second.dat"), Paths.get("c.dat"));
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    executionContext =
+        TestExecutionContext.newBuilder()
+            .setProjectFilesystem(filesystem)
+            .build();
+    archiver =
+        DefaultCxxPlatforms.build(new FakeBuckConfig()).getAr()
+            .getCommandPrefix(new SourcePathResolver(new BuildRuleResolver()));
+    for (Path input : INPUTS) {
+      filesystem.mkdirs(input.getParent() == null ? Paths.get("") : input.getParent());
+      filesystem.writeContentsToPath("contents of " + input, input);
+    }
+  }
+
+  @Test
+  public void updatedArchiveIsTheSameAsOneBuiltFromScratch() throws Exception {
+    Path updated = Paths.get("updated.a");
+    run(new IncrementalArchiveStep(archiver, updated, INPUTS));
+
+    filesystem.writeContentsToPath("new and longer contents", INPUTS.get(1));
+    IncrementalArchiveStep step = new IncrementalArchiveStep(archiver, updated, INPUTS);
+    run(step);
+    assertThat(
+        filesystem.readLines(step.getStateFile()),
+        Matchers.hasItem(Matchers.endsWith(" " + INPUTS.get(1))));
+
+    Path fromScratch = Paths.get("from-scratch.a");
+    run(new IncrementalArchiveStep(archiver, fromScratch, INPUTS));
+
+    byte[] updatedBytes = Files.readAllBytes(filesystem.resolve(updated));
+    assertArrayEquals(updatedBytes, Files.readAllBytes(filesystem.resolve(fromScratch)));
+    String contents = new String(updatedBytes, "US-ASCII");
+    assertThat(contents, Matchers.containsString("contents of a/first.dat"));
+    assertThat(contents, Matchers.containsString("new and longer contents"));
+  }
+
+  @Test
+  public void inputsAreUpdatedWhenTheirContentsChangeButNotTheirSizeOrTimestamp()
+      throws Exception {
+    Path output = Paths.get("output.a");
+    run(new IncrementalArchiveStep(archiver, output, INPUTS));
+
+    Path input = INPUTS.get(2);
+    FileTime lastModified = Files.getLastModifiedTime(filesystem.resolve(input));
+    filesystem.writeContentsToPath("CONTENTS OF " + input, input);
+    Files.setLastModifiedTime(filesystem.resolve(input), lastModified);
+    run(new IncrementalArchiveStep(archiver, output, INPUTS));
+
+    String contents = new String(Files.readAllBytes(filesystem.resolve(output)), "US-ASCII");
+    assertThat(contents, Matchers.containsString("CONTENTS OF c.dat"));
+    assertThat(contents, Matchers.not(Matchers.containsString("contents of c.dat")));
+  }
+
+  @Test
+  public void archiveIsRebuiltWhenItsInputsAreReordered() throws Exception {
+    Path output = Paths.get("output.a");
+    run(new IncrementalArchiveStep(archiver, output, INPUTS));
+    ImmutableList<Path> reordered = INPUTS.reverse();
+    run(new IncrementalArchiveStep(archiver, output, reordered));
+
+    Path fromScratch = Paths.get("from-scratch.a");
+    run(new IncrementalArchiveStep(archiver, fromScratch, reordered));
+    assertArrayEquals(
+        Files.readAllBytes(filesystem.resolve(fromScratch)),
+        Files.readAllBytes(filesystem.resolve(output)));
+  }
+
+  @Test
+  public void archiveWithInputsOfTheSameNameIsRebuiltFromScratch() throws Exception {
+    ImmutableList<Path> inputs = ImmutableList.of(INPUTS.get(0), Paths.get("b/first.dat"));
+    filesystem.writeContentsToPath("contents of b/first.dat", inputs.get(1));
+    Path output = Paths.get("output.a");
+    run(new IncrementalArchiveStep(archiver, output, inputs));
+
+    filesystem.writeContentsToPath("new and longer contents", inputs.get(1));
+    run(new IncrementalArchiveStep(archiver, output, inputs));
+
+    String contents = new String(Files.readAllBytes(filesystem.resolve(output)), "US-ASCII");
+    assertThat(contents, Matchers.containsString("contents of a/first.dat"));
+    assertThat(contents, Matchers.containsString("new and longer contents"));
+    assertThat(contents, Matchers.not(Matchers.containsString("contents of b/first.dat")));
+  }
+
+  private void run(IncrementalArchiveStep step) throws InterruptedException {
+    TestConsole console = (TestConsole) executionContext.getConsole();
+    assertEquals(
+        "archive step failed: " + console.getTextWrittenToStdErr(),
+        0,
+        step.execute(executionContext));
+  }
+
+}
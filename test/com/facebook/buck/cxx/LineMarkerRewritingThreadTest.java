@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.util.ManagedThread;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableBiMap;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+public class LineMarkerRewritingThreadTest {
+
+  private static final Path WORKING_DIR = Paths.get("PWD");
+  private static final ImmutableMap<Path, Path> REPLACEMENT_PATHS = ImmutableMap.of(
+      Paths.get("buck-out/foo#bar/world.h"), Paths.get("hello/////world.h"));
+  private static final Optional<DebugPathSanitizer> SANITIZER = Optional.of(
+      new DebugPathSanitizer(
+          9,
+          File.separatorChar,
+          "PWD",
+          ImmutableBiMap.of(Paths.get("hello"), "SANITIZED")));
+
+  private static final String SANITIZED_WORLD_H = Paths.get("SANITIZED/world.h").toString();
+
+  /**
+   * Outputs of the preprocessor, each with what it should be rewritten to.
+   */
+  private static final ImmutableMap<String, String> OUTPUTS =
+      ImmutableMap.<String, String>builder()
+          .put("", "")
+          .put("\n", lines(""))
+          .put("int main() {}", lines("int main() {}"))
+          .put(
+              "# 1 \"buck-out/foo#bar/world.h\"\nint x;\n# 12 \"buck-out/foo#bar/world.h\" 2 1\n",
+              lines(
+                  "# 1 \"" + SANITIZED_WORLD_H + "\"",
+                  "int x;",
+                  "# 12 \"" + SANITIZED_WORLD_H + "\" 2 1"))
+          .put(
+              "# 1 \"buck-out/foo#bar//world.h\"\r\nint x;\r\n# 4 \"test.h\"\r# 5 \"hello/a.h\"",
+              lines(
+                  "# 1 \"" + SANITIZED_WORLD_H + "\"",
+                  "int x;",
+                  "# 4 \"test.h\"",
+                  "# 5 \"" + Paths.get("SANITIZED/a.h") + "\""))
+          .put(
+              "#pragma once\n#define X \"buck-out/foo#bar/world.h\"\n" +
+                  "# \"world.h\"\n# 3 \"\"\n# 3 \"unclosed\n",
+              lines(
+                  "#pragma once",
+                  "#define X \"buck-out/foo#bar/world.h\"",
+                  "# \"world.h\"",
+                  "# 3 \"\"",
+                  "# 3 \"unclosed"))
+          .put(
+              "  # 1 \"buck-out/foo#bar/world.h\"\n#\n# 1\n\n\r\n",
+              lines("  # 1 \"buck-out/foo#bar/world.h\"", "#", "# 1", "", ""))
+          .build();
+
+  @Test
+  public void rewritesOnlyLineMarkersAndLineTerminators() throws Exception {
+    for (Map.Entry<String, String> output : OUTPUTS.entrySet()) {
+      byte[] bytes = output.getKey().getBytes();
+      assertEquals(output.getKey(), output.getValue(), rewrite(new ByteArrayInputStream(bytes)));
+      // Split everything across reads too.
+      assertEquals(
+          output.getKey(),
+          output.getValue(),
+          rewrite(new OneByteAtATimeInputStream(bytes)));
+    }
+  }
+
+  @Test
+  public void rewritesThePathsInLineMarkers() throws Exception {
+    assertEquals(
+        String.format(
+            "# 12 \"%s\" 2 1%nint x;%n",
+            Paths.get("SANITIZED/world.h")),
+        rewrite(
+            new ByteArrayInputStream(
+                "# 12 \"buck-out/foo#bar/world.h\" 2 1\nint x;".getBytes())));
+  }
+
+  private static String rewrite(InputStream in) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    runToCompletion(
+        new LineMarkerRewritingThread(
+            in,
+            out,
+            CxxPreprocessStep.createLineMarkerPathProcessor(
+                WORKING_DIR,
+                REPLACEMENT_PATHS,
+                SANITIZER)));
+    return out.toString();
+  }
+
+  private static String lines(String... lines) {
+    StringBuilder builder = new StringBuilder();
+    for (String line : lines) {
+      builder.append(line).append(System.lineSeparator());
+    }
+    return builder.toString();
+  }
+
+  private static void runToCompletion(ManagedThread thread) throws Exception {
+    try (ManagedThread running = thread) {
+      running.start();
+    }
+  }
+
+  private static class OneByteAtATimeInputStream extends ByteArrayInputStream {
+
+    OneByteAtATimeInputStream(byte[] bytes) {
+      super(bytes);
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+      return super.read(b, off, Math.min(len, 1));
+    }
+  }
+
+}
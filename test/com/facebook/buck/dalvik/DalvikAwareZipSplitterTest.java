@@ -0,0 +1,199 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.dalvik;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.google.common.base.Optional;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class DalvikAwareZipSplitterTest {
+
+  private static final int SMALL_CLASS_METHODS = 10;
+  private static final int BIG_CLASS_METHODS = 15;
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  private File secondaryDir;
+  private File reportDir;
+  private File assignmentsFile;
+  private long linearAllocLimit;
+
+  @Before
+  public void setUp() throws IOException {
+    secondaryDir = tmpDir.newFolder("secondary");
+    reportDir = tmpDir.newFolder("report");
+    assignmentsFile = new File(tmpDir.getRoot(), "assignments.txt");
+
+    // Room for a canary and exactly two small classes in each secondary zip.
+    try (InputStream canary = CanaryFactory.create(1).getInput()) {
+      linearAllocLimit = DalvikStatsTool.getEstimate(canary).estimatedLinearAllocSize +
+          2 * DalvikStatsTool.getEstimate(
+              new ByteArrayInputStream(createClass("Sizer", SMALL_CLASS_METHODS)))
+              .estimatedLinearAllocSize;
+    }
+  }
+
+  @Test
+  public void classesStayInTheirSecondaryZipWhenAnotherClassGrows() throws IOException {
+    assertEquals(
+        ImmutableList.of(
+            ImmutableList.of("A", "B"),
+            ImmutableList.of("C", "D"),
+            ImmutableList.of("E", "F")),
+        split(ImmutableMap.<String, Integer>builder()
+            .put("A", SMALL_CLASS_METHODS)
+            .put("B", SMALL_CLASS_METHODS)
+            .put("C", SMALL_CLASS_METHODS)
+            .put("D", SMALL_CLASS_METHODS)
+            .put("E", SMALL_CLASS_METHODS)
+            .put("F", SMALL_CLASS_METHODS)
+            .build()));
+
+    // B no longer fits alongside A. Without the previous assignments, every class after B would
+    // move to another secondary zip.
+    assertEquals(
+        ImmutableList.of(
+            ImmutableList.of("A"),
+            ImmutableList.of("C", "D"),
+            ImmutableList.of("E", "F"),
+            ImmutableList.of("B")),
+        split(ImmutableMap.<String, Integer>builder()
+            .put("A", SMALL_CLASS_METHODS)
+            .put("B", BIG_CLASS_METHODS)
+            .put("C", SMALL_CLASS_METHODS)
+            .put("D", SMALL_CLASS_METHODS)
+            .put("E", SMALL_CLASS_METHODS)
+            .put("F", SMALL_CLASS_METHODS)
+            .build()));
+  }
+
+  @Test
+  public void newClassesGoInTheFirstSecondaryZipWithRoom() throws IOException {
+    split(ImmutableMap.of(
+        "A", SMALL_CLASS_METHODS,
+        "B", SMALL_CLASS_METHODS,
+        "C", SMALL_CLASS_METHODS,
+        "D", SMALL_CLASS_METHODS,
+        "E", SMALL_CLASS_METHODS));
+
+    assertEquals(
+        ImmutableList.of(
+            ImmutableList.of("B", "AA"),
+            ImmutableList.of("C", "D"),
+            ImmutableList.of("E")),
+        split(ImmutableMap.of(
+            "AA", SMALL_CLASS_METHODS,
+            "B", SMALL_CLASS_METHODS,
+            "C", SMALL_CLASS_METHODS,
+            "D", SMALL_CLASS_METHODS,
+            "E", SMALL_CLASS_METHODS)));
+  }
+
+  /**
+   * @return the simple names of the classes in each secondary zip.
+   */
+  private List<List<String>> split(Map<String, Integer> classesToNumMethods) throws IOException {
+    File inputJar = new File(tmpDir.getRoot(), "input.jar");
+    try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(inputJar))) {
+      for (Map.Entry<String, Integer> entry : classesToNumMethods.entrySet()) {
+        zip.putNextEntry(new ZipEntry("com/example/" + entry.getKey() + ".class"));
+        zip.write(createClass(entry.getKey(), entry.getValue()));
+        zip.closeEntry();
+      }
+    }
+
+    List<File> secondaryZips = DalvikAwareZipSplitter.splitZip(
+        new ProjectFilesystem(tmpDir.getRoot().toPath()),
+        ImmutableSet.<Path>of(inputJar.toPath()),
+        new File(tmpDir.getRoot(), "primary.jar"),
+        secondaryDir,
+        "secondary-%d.jar",
+        linearAllocLimit,
+        Predicates.<String>alwaysFalse(),
+        ImmutableSet.<String>of(),
+        ImmutableSet.<String>of(),
+        ImmutableSet.<String>of(),
+        ZipSplitter.DexSplitStrategy.MINIMIZE_PRIMARY_DEX_SIZE,
+        ZipSplitter.CanaryStrategy.INCLUDE_CANARIES,
+        reportDir,
+        Optional.of(assignmentsFile))
+        .execute();
+
+    ImmutableList.Builder<List<String>> result = ImmutableList.builder();
+    for (File secondaryZip : secondaryZips) {
+      ImmutableList.Builder<String> classes = ImmutableList.builder();
+      try (ZipFile zip = new ZipFile(secondaryZip)) {
+        for (ZipEntry entry : Collections.list(zip.entries())) {
+          String name = entry.getName();
+          if (name.startsWith("com/example/")) {
+            classes.add(name.substring("com/example/".length(), name.length() - ".class".length()));
+          }
+        }
+      }
+      result.add(classes.build());
+    }
+    return result.build();
+  }
+
+  private static byte[] createClass(String simpleName, int numMethods) {
+    ClassWriter writer = new ClassWriter(0);
+    writer.visit(
+        Opcodes.V1_6,
+        Opcodes.ACC_PUBLIC,
+        "com/example/" + simpleName,
+        null,
+        "java/lang/Object",
+        null);
+    for (int i = 0; i < numMethods; i++) {
+      MethodVisitor method =
+          writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "m" + i, "()V", null, null);
+      method.visitCode();
+      method.visitInsn(Opcodes.RETURN);
+      method.visitMaxs(0, 0);
+      method.visitEnd();
+    }
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.dalvik;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class SharedDalvikStatsCacheTest {
+
+  private static final long MAX_WEIGHT = 1000;
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  @Test
+  public void statsAreLookedUpByTheContentsOfTheClass() throws IOException {
+    SharedDalvikStatsCache cache = new SharedDalvikStatsCache(MAX_WEIGHT);
+
+    DalvikStatsTool.Stats stats = cache.getStats(createClass("A"));
+
+    assertSame(stats, cache.getStats(createClass("A")));
+    assertEquals(1, cache.size());
+    cache.getStats(createClass("B"));
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void savedStatsAreTheSameWhenLoaded() throws IOException {
+    Path path = tmpDir.getRoot().toPath().resolve("buck-out/dalvik_stats_cache");
+    SharedDalvikStatsCache cache = new SharedDalvikStatsCache(MAX_WEIGHT);
+    DalvikStatsTool.Stats stats = cache.getStats(createClass("A"));
+    cache.saveIfNeeded(path);
+
+    SharedDalvikStatsCache loadedCache = new SharedDalvikStatsCache(MAX_WEIGHT);
+    loadedCache.loadIfNeeded(path);
+
+    assertEquals(1, loadedCache.size());
+    DalvikStatsTool.Stats loadedStats = loadedCache.getStats(createClass("A"));
+    assertEquals(stats.estimatedLinearAllocSize, loadedStats.estimatedLinearAllocSize);
+    assertEquals(stats.methodReferences, loadedStats.methodReferences);
+    assertEquals(1, loadedCache.size());
+  }
+
+  @Test
+  public void unreadableCacheFilesAreIgnored() throws IOException {
+    Path path = tmpDir.newFile("dalvik_stats_cache").toPath();
+    Files.write(path, new byte[] {1, 2, 3});
+
+    SharedDalvikStatsCache cache = new SharedDalvikStatsCache(MAX_WEIGHT);
+    cache.loadIfNeeded(path);
+
+    assertEquals(0, cache.size());
+    byte[] rawClass = createClass("A");
+    assertEquals(
+        DalvikStatsTool.getEstimate(new ByteArrayInputStream(rawClass)).estimatedLinearAllocSize,
+        cache.getStats(rawClass).estimatedLinearAllocSize);
+  }
+
+  @Test
+  public void cacheIsOnlySavedWhenItHasChanged() throws IOException {
+    Path path = tmpDir.getRoot().toPath().resolve("dalvik_stats_cache");
+    SharedDalvikStatsCache cache = new SharedDalvikStatsCache(MAX_WEIGHT);
+
+    cache.saveIfNeeded(path);
+    assertFalse(Files.exists(path));
+  }
+
+  private static byte[] createClass(String simpleName) {
+    ClassWriter writer = new ClassWriter(0);
+    writer.visit(
+        Opcodes.V1_6,
+        Opcodes.ACC_PUBLIC,
+        "com/example/" + simpleName,
+        null,
+        "java/lang/Object",
+        null);
+    MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, "run", "()V", null, null);
+    method.visitCode();
+    method.visitVarInsn(Opcodes.ALOAD, 0);
+    method.visitMethodInsn(
+        Opcodes.INVOKEVIRTUAL,
+        "java/lang/Object",
+        "hashCode",
+        "()I",
+        /* itf */ false);
+    method.visitInsn(Opcodes.POP);
+    method.visitInsn(Opcodes.RETURN);
+    method.visitMaxs(1, 1);
+    method.visitEnd();
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.dalvik.firstorder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+public class FirstOrderIndexTest {
+
+  interface Base {}
+  static class Dependency implements Base {}
+  static class Scenario {
+    @SuppressWarnings("unused")
+    Dependency dependency;
+  }
+  static class Unrelated {}
+
+  private static final ImmutableList<Class<?>> CLASSES = ImmutableList.<Class<?>>of(
+      Base.class,
+      Dependency.class,
+      Scenario.class,
+      Unrelated.class);
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void indexGivesTheSameDependenciesAsTheClasses() throws IOException {
+    Path jar = createJar();
+    Path indexDir = tmp.getRoot().toPath().resolve("index");
+    ImmutableList<Type> scenario = ImmutableList.of(Type.getType(Scenario.class));
+
+    ImmutableSet.Builder<String> fromClasses = ImmutableSet.builder();
+    FirstOrderHelper.addTypesAndDependencies(scenario, loadClassNodes(), fromClasses);
+    ImmutableSet.Builder<String> fromNewIndex = ImmutableSet.builder();
+    FirstOrderHelper.addTypesAndDependencies(
+        scenario,
+        FirstOrderIndex.load(ImmutableList.of(jar), indexDir),
+        fromNewIndex);
+    ImmutableSet.Builder<String> fromSavedIndex = ImmutableSet.builder();
+    FirstOrderHelper.addTypesAndDependencies(
+        scenario,
+        FirstOrderIndex.load(ImmutableList.of(jar), indexDir),
+        fromSavedIndex);
+
+    assertTrue(fromClasses.build().contains(Type.getInternalName(Base.class)));
+    assertEquals(fromClasses.build(), fromNewIndex.build());
+    assertEquals(fromClasses.build(), fromSavedIndex.build());
+  }
+
+  @Test
+  public void eachJarIsOnlyIndexedOnce() throws IOException {
+    Path jar = createJar();
+    Path indexDir = tmp.getRoot().toPath().resolve("index");
+
+    FirstOrderIndex.load(ImmutableList.of(jar), indexDir);
+    Path indexFile = getOnlyFile(indexDir);
+    // Writing the index again would replace the file with a new one.
+    Object fileKey = Files.readAttributes(indexFile, BasicFileAttributes.class).fileKey();
+    FirstOrderIndex index = FirstOrderIndex.load(ImmutableList.of(jar), indexDir);
+
+    assertEquals(fileKey, Files.readAttributes(indexFile, BasicFileAttributes.class).fileKey());
+    assertEquals(CLASSES.size(), index.getTypes().size());
+  }
+
+  @Test
+  public void corruptIndexIsIndexedAgain() throws IOException {
+    Path jar = createJar();
+    Path indexDir = tmp.getRoot().toPath().resolve("index");
+
+    FirstOrderIndex.load(ImmutableList.of(jar), indexDir);
+    Path indexFile = getOnlyFile(indexDir);
+    byte[] index = Files.readAllBytes(indexFile);
+    // Flip a bit in the last byte before the checksum.
+    byte[] corruptIndex = index.clone();
+    corruptIndex[corruptIndex.length - 9] ^= 1;
+    Files.write(indexFile, corruptIndex);
+    FirstOrderIndex reindexed = FirstOrderIndex.load(ImmutableList.of(jar), indexDir);
+
+    assertEquals(CLASSES.size(), reindexed.getTypes().size());
+    assertEquals(indexFile, getOnlyFile(indexDir));
+    assertArrayEquals(index, Files.readAllBytes(indexFile));
+  }
+
+  @Test
+  public void leastRecentlyUsedIndexesAreEvicted() throws IOException {
+    Path jar = createJar();
+    Path indexDir = tmp.newFolder("index").toPath();
+    Path recent = indexDir.resolve("recent.first_order");
+    Path old = indexDir.resolve("old.first_order");
+    Path unrelated = indexDir.resolve("unrelated.txt");
+    for (Path path : ImmutableList.of(recent, old, unrelated)) {
+      Files.write(path, new byte[0]);
+      Files.setLastModifiedTime(path, FileTime.fromMillis(2000));
+    }
+    Files.setLastModifiedTime(old, FileTime.fromMillis(1000));
+    FirstOrderIndex.load(ImmutableList.of(jar), indexDir);
+    Path index = getOnlyIndex(indexDir, recent, old);
+    // Even an index which was last used long ago is kept while in use.
+    Files.setLastModifiedTime(index, FileTime.fromMillis(0));
+
+    FirstOrderIndex.load(ImmutableList.of(jar), indexDir, /* maxIndexes */ 2);
+
+    assertTrue(Files.exists(index));
+    assertTrue(Files.exists(recent));
+    assertFalse(Files.exists(old));
+    assertTrue(Files.exists(unrelated));
+  }
+
+  @Test
+  public void failingToSaveTheIndexIsNotAnError() throws IOException {
+    Path jar = createJar();
+    // The index can't be saved, as its directory would have to be created inside a file.
+    Path indexDir = tmp.newFile("index").toPath().resolve("index");
+
+    FirstOrderIndex index = FirstOrderIndex.load(ImmutableList.of(jar), indexDir);
+
+    assertEquals(CLASSES.size(), index.getTypes().size());
+  }
+
+  private Path createJar() throws IOException {
+    Path jar = tmp.getRoot().toPath().resolve("classes.jar");
+    try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+      for (Class<?> clazz : CLASSES) {
+        out.putNextEntry(new ZipEntry(Type.getInternalName(clazz) + ".class"));
+        copyClass(clazz, out);
+        out.closeEntry();
+      }
+    }
+    return jar;
+  }
+
+  private static void copyClass(Class<?> clazz, OutputStream out) throws IOException {
+    try (InputStream in =
+             clazz.getResourceAsStream("/" + Type.getInternalName(clazz) + ".class")) {
+      ByteStreams.copy(in, out);
+    }
+  }
+
+  private static ImmutableList<ClassNode> loadClassNodes() throws IOException {
+    ImmutableList.Builder<ClassNode> nodes = ImmutableList.builder();
+    for (Class<?> clazz : CLASSES) {
+      ClassNode node = new ClassNode();
+      new ClassReader(clazz.getName())
+          .accept(node, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+      nodes.add(node);
+    }
+    return nodes.build();
+  }
+
+  private static Path getOnlyIndex(Path dir, Path... otherIndexes) throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.first_order")) {
+      ImmutableSet<Path> paths = ImmutableSet.copyOf(files);
+      ImmutableSet<Path> newPaths = Sets.difference(paths, ImmutableSet.copyOf(otherIndexes))
+          .immutableCopy();
+      assertEquals(1, newPaths.size());
+      return newPaths.iterator().next();
+    }
+  }
+
+  private static Path getOnlyFile(Path dir) throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+      ImmutableList<Path> paths = ImmutableList.copyOf(files);
+      assertEquals(1, paths.size());
+      return paths.get(0);
+    }
+  }
+}
@@ -24,6 +24,9 @@ import com.facebook.buck.step.TestExecutionContext;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.HashCode;
 import com.google.common.io.Files;
 
 import org.junit.Rule;
@@ -34,6 +37,7 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.jar.JarOutputStream;
 import java.util.zip.ZipEntry;
@@ -117,4 +121,47 @@ public class AccumulateClassNamesStepTest {
             "com/example/subpackage/Baz" + separator + SHA1_FOR_EMPTY_STRING) + '\n',
         contents);
   }
+
+  @Test
+  public void testCalculateClassHashesOnlyReadsEachJarOnce() throws IOException {
+    File jarFile = tmp.newFile("example.jar");
+    try (JarOutputStream out = new JarOutputStream(
+        new BufferedOutputStream(
+            new FileOutputStream(jarFile)))) {
+      out.putNextEntry(new ZipEntry("com/example/Foo.class"));
+      out.closeEntry();
+    }
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    ExecutionContext context = TestExecutionContext
+        .newBuilder()
+        .setProjectFilesystem(filesystem)
+        .build();
+    Path indexDir = Paths.get("index");
+
+    assertEquals(
+        ImmutableSortedMap.of("com/example/Foo", HashCode.fromString(SHA1_FOR_EMPTY_STRING)),
+        AccumulateClassNamesStep.calculateClassHashes(context, jarFile.toPath(), indexDir).get());
+
+    // Change what is saved for the jar, to check that the saved class names are used.
+    Path indexFile = indexDir.resolve(filesystem.computeSha1(jarFile.toPath()) + ".classes");
+    String separator = AccumulateClassNamesStep.CLASS_NAME_HASH_CODE_SEPARATOR;
+    String bar = "com/example/Bar" + separator + SHA1_FOR_EMPTY_STRING + '\n';
+    filesystem.writeContentsToPath(
+        bar + AccumulateClassNamesStep.CLASS_INDEX_TRAILER + "1\n",
+        indexFile);
+    assertEquals(
+        ImmutableSortedMap.of("com/example/Bar", HashCode.fromString(SHA1_FOR_EMPTY_STRING)),
+        AccumulateClassNamesStep.calculateClassHashes(context, jarFile.toPath(), indexDir).get());
+
+    // An index that was cut short is ignored, and written again.
+    filesystem.writeContentsToPath(bar, indexFile);
+    assertEquals(
+        ImmutableSortedMap.of("com/example/Foo", HashCode.fromString(SHA1_FOR_EMPTY_STRING)),
+        AccumulateClassNamesStep.calculateClassHashes(context, jarFile.toPath(), indexDir).get());
+    assertEquals(
+        ImmutableList.of(
+            "com/example/Foo" + separator + SHA1_FOR_EMPTY_STRING,
+            AccumulateClassNamesStep.CLASS_INDEX_TRAILER + "1"),
+        filesystem.readLines(indexFile));
+  }
 }
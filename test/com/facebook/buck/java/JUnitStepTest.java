@@ -77,7 +77,8 @@ public class JUnitStepTest {
         /* isDryRun */ false,
         TestType.JUNIT,
         testRunnerClasspath,
-        /* testRuleTimeoutMs*/ Optional.<Long>absent());
+        /* testRuleTimeoutMs*/ Optional.<Long>absent(),
+        JUnitRunnerOptions.defaults());
 
     ExecutionContext executionContext = EasyMock.createMock(ExecutionContext.class);
     EasyMock.expect(executionContext.getVerbosity()).andReturn(Verbosity.ALL);
@@ -144,7 +145,8 @@ public class JUnitStepTest {
         /* isDryRun */ false,
         TestType.JUNIT,
         testRunnerClasspath,
-        /* testRuleTimeoutMs*/ Optional.<Long>absent());
+        /* testRuleTimeoutMs*/ Optional.<Long>absent(),
+        JUnitRunnerOptions.defaults());
 
     TestConsole console = new TestConsole(Verbosity.ALL);
     ExecutionContext executionContext = TestExecutionContext.newBuilder()
@@ -178,4 +180,65 @@ public class JUnitStepTest {
     assertEquals("Debugging. Suspending JVM. Connect a JDWP debugger to port 5005 to proceed.",
         console.getTextWrittenToStdErr().trim());
   }
+
+  @Test
+  public void runningTestClassesInParallelUsesTheParallelLauncher() {
+    Set<Path> classpathEntries = ImmutableSet.of(Paths.get("foo"));
+    String testClass1 = "com.facebook.buck.shell.JUnitCommandTest";
+    String testClass2 = "com.facebook.buck.shell.InstrumentCommandTest";
+    BuildId pretendBuildId = new BuildId("pretend-build-id");
+    Path directoryForTestResults = Paths.get("buck-out/gen/theresults/");
+    Path directoryForTemp = Paths.get("buck-out/gen/thetmp/");
+    Path testRunnerClasspath = Paths.get("build/classes/junit");
+
+    JUnitStep junit = new JUnitStep(
+        classpathEntries,
+        ImmutableList.of(testClass1, testClass2),
+        ImmutableList.of("-Dname1=value1", "-Xmx1g"),
+        directoryForTestResults,
+        directoryForTemp,
+        /* isCodeCoverageEnabled */ false,
+        /* isDebugEnabled */ false,
+        pretendBuildId,
+        TestSelectorList.empty(),
+        /* isDryRun */ false,
+        TestType.JUNIT,
+        testRunnerClasspath,
+        /* testRuleTimeoutMs*/ Optional.<Long>absent(),
+        ImmutableJUnitRunnerOptions.builder().setThreadsPerJvm(4).build());
+
+    ExecutionContext executionContext = EasyMock.createMock(ExecutionContext.class);
+    EasyMock.expect(executionContext.getVerbosity()).andReturn(Verbosity.STANDARD_INFORMATION);
+    EasyMock.expect(executionContext.getDefaultTestTimeoutMillis()).andReturn(5000L);
+    EasyMock.replay(executionContext);
+
+    List<String> observedArgs = junit.getShellCommand(executionContext);
+    MoreAsserts.assertListEquals(
+        ImmutableList.of(
+            "java",
+            "-Djava.io.tmpdir=" + directoryForTemp,
+            "-Dbuck.testrunner_classes=" + testRunnerClasspath,
+            String.format("-D%s=%s", JUnitStep.BUILD_ID_PROPERTY, pretendBuildId),
+            "-Dname1=value1",
+            "-Xmx1g",
+            "-classpath",
+            Joiner.on(File.pathSeparator).join("foo", "build/classes/junit"),
+            JUnitStep.PARALLEL_JUNIT_TEST_RUNNER_CLASS_NAME,
+            "4",
+            Joiner.on(File.pathSeparator).join("foo", "build/classes/junit"),
+            String.format(
+                "java.io.tmpdir=%s\n%s=%s\nname1=value1\n",
+                directoryForTemp,
+                JUnitStep.BUILD_ID_PROPERTY,
+                pretendBuildId),
+            directoryForTestResults.toString(),
+            "5000",
+            "",
+            "",
+            testClass1,
+            testClass2),
+        observedArgs);
+
+    EasyMock.verify(executionContext);
+  }
 }
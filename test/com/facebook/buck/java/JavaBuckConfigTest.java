@@ -169,6 +169,33 @@ public class JavaBuckConfigTest {
     assertTrue(isOptionContaining(jse7, "-bootclasspath two.jar"));
   }
 
+  @Test
+  public void shouldReadJUnitRunnerOptionsFromTheTestSection() throws IOException {
+    JavaBuckConfig config = createWithDefaultFilesystem(new StringReader(
+        "[test]\njunit_threads = 4\njunit_use_workers = true\njunit_shards = 2"));
+
+    JUnitRunnerOptions options = config.getJUnitRunnerOptions();
+
+    assertEquals(4, options.getThreadsPerJvm());
+    assertTrue(options.isUsingWorkers());
+    assertEquals(2, options.getShardsPerRule());
+  }
+
+  @Test
+  public void shouldRunJUnitTestsOneAtATimeInAFreshJvmByDefault() throws IOException {
+    JavaBuckConfig config = createWithDefaultFilesystem(new StringReader(""));
+
+    assertEquals(JUnitRunnerOptions.defaults(), config.getJUnitRunnerOptions());
+  }
+
+  @Test(expected = HumanReadableException.class)
+  public void shouldRejectZeroJUnitThreads() throws IOException {
+    JavaBuckConfig config = createWithDefaultFilesystem(new StringReader(
+        "[test]\njunit_threads = 0"));
+
+    config.getJUnitRunnerOptions();
+  }
+
   private boolean isOptionContaining(JavacOptions options, String expectedParameter) {
     ImmutableList.Builder<String> builder = ImmutableList.builder();
     options.appendOptionsToList(builder, Functions.<Path>identity());
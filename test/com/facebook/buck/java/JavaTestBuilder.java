@@ -34,7 +34,8 @@ public class JavaTestBuilder extends AbstractNodeBuilder<JavaTestDescription.Arg
     super(
         new JavaTestDescription(
             DEFAULT_JAVAC_OPTIONS,
-            /* testRuleTimeoutMs */ Optional.<Long>absent()),
+            /* testRuleTimeoutMs */ Optional.<Long>absent(),
+            JUnitRunnerOptions.defaults()),
         target);
   }
 
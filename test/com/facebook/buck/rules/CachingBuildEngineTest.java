@@ -210,6 +210,7 @@ public class CachingBuildEngineTest extends EasyMockSupport {
             /* ruleKeyWithoutDepsForRecorder */ anyObject(RuleKey.class)))
         .andReturn(buildInfoRecorder);
     expect(buildInfoRecorder.fetchArtifactForBuildable(
+            anyObject(RuleKey.class),
             anyObject(File.class),
             eq(artifactCache)))
         .andReturn(CacheResult.MISS);
@@ -238,7 +239,10 @@ public class CachingBuildEngineTest extends EasyMockSupport {
     // These methods should be invoked after the rule is built locally.
     buildInfoRecorder.recordArtifact(Paths.get(pathToOutputFile));
     buildInfoRecorder.writeMetadataToDisk(/* clearExistingMetadata */ true);
-    buildInfoRecorder.performUploadToArtifactCache(artifactCache, buckEventBus);
+    buildInfoRecorder.performUploadToArtifactCache(
+        eq(ImmutableSet.of(new RuleKey(expectedRuleKeyHash))),
+        eq(artifactCache),
+        eq(buckEventBus));
 
     // Attempting to build the rule should force a rebuild due to a cache miss.
     replayAll();
@@ -416,6 +420,119 @@ public class CachingBuildEngineTest extends EasyMockSupport {
     verifyAll();
   }
 
+  /**
+   * Rebuild a rule whose RuleKey has changed, because a header it could have included has changed,
+   * but where none of the inputs it actually used last time have.
+   */
+  @Test
+  public void testDepFileRuleKeyCanAvoidRebuild()
+      throws InterruptedException, ExecutionException, IOException {
+    BuildRuleParams buildRuleParams = new FakeBuildRuleParamsBuilder(buildTarget).build();
+    TestDepFileBuildRule buildRule =
+        new TestDepFileBuildRule(
+            buildRuleParams,
+            new SourcePathResolver(new BuildRuleResolver()));
+
+    BuckEventBus buckEventBus = BuckEventBusFactory.newInstance();
+    BuildContext buildContext = createMock(BuildContext.class);
+
+    BuildInfoRecorder buildInfoRecorder = createMock(BuildInfoRecorder.class);
+    expect(buildContext.createBuildInfoRecorder(
+           eq(buildTarget),
+           /* ruleKey */ anyObject(RuleKey.class),
+           /* ruleKeyWithoutDeps */ anyObject(RuleKey.class)))
+        .andReturn(buildInfoRecorder);
+
+    // The RuleKeys on disk are both out of date, but the dep file RuleKey is not.
+    OnDiskBuildInfo onDiskBuildInfo = new FakeOnDiskBuildInfo()
+        .setRuleKey(reverse(buildRule.getRuleKey()))
+        .setRuleKeyWithoutDeps(reverse(buildRule.getRuleKeyWithoutDeps()))
+        .putMetadata(
+            CachingBuildEngine.DEP_FILE_ON_DISK_METADATA,
+            ImmutableList.of(TestDepFileBuildRule.USED_INPUT.toString()))
+        .putMetadata(
+            CachingBuildEngine.DEP_FILE_RULE_KEY_ON_DISK_METADATA,
+            TestDepFileBuildRule.DEP_FILE_RULE_KEY_HASH);
+
+    // The dep file should be kept along with the new RuleKeys.
+    buildInfoRecorder.addMetadata(
+        CachingBuildEngine.DEP_FILE_ON_DISK_METADATA,
+        ImmutableList.of(TestDepFileBuildRule.USED_INPUT.toString()));
+    buildInfoRecorder.addMetadata(
+        CachingBuildEngine.DEP_FILE_RULE_KEY_ON_DISK_METADATA,
+        TestDepFileBuildRule.DEP_FILE_RULE_KEY_HASH);
+    buildInfoRecorder.writeMetadataToDisk(/* clearExistingMetadata */ false);
+
+    expect(buildContext.createOnDiskBuildInfoFor(buildTarget)).andReturn(onDiskBuildInfo);
+    expect(buildContext.getStepRunner()).andReturn(createSameThreadStepRunner());
+    expect(buildContext.getEventBus()).andReturn(buckEventBus).anyTimes();
+
+    replayAll();
+    CachingBuildEngine cachingBuildEngine = new CachingBuildEngine();
+
+    ListenableFuture<BuildRuleSuccess> result = cachingBuildEngine.build(buildContext, buildRule);
+    assertTrue("We expect build() to be synchronous in this case, " +
+               "so the future should already be resolved.",
+               MoreFutures.isSuccess(result));
+    buckEventBus.post(CommandEvent.finished("build", ImmutableList.<String>of(), false, 0));
+
+    assertEquals(BuildRuleSuccess.Type.MATCHING_DEP_FILE_RULE_KEY, result.get().getType());
+
+    verifyAll();
+  }
+
+  /**
+   * Rebuild a rule whose RuleKey has changed, because one of its deps was rebuilt, but where the
+   * contents of its inputs are the same.
+   */
+  @Test
+  public void testInputBasedRuleKeyCanAvoidRebuild()
+      throws InterruptedException, ExecutionException, IOException {
+    BuildRuleParams buildRuleParams = new FakeBuildRuleParamsBuilder(buildTarget).build();
+    TestInputBasedBuildRule buildRule =
+        new TestInputBasedBuildRule(
+            buildRuleParams,
+            new SourcePathResolver(new BuildRuleResolver()));
+
+    BuckEventBus buckEventBus = BuckEventBusFactory.newInstance();
+    BuildContext buildContext = createMock(BuildContext.class);
+
+    BuildInfoRecorder buildInfoRecorder = createMock(BuildInfoRecorder.class);
+    expect(buildContext.createBuildInfoRecorder(
+           eq(buildTarget),
+           /* ruleKey */ anyObject(RuleKey.class),
+           /* ruleKeyWithoutDeps */ anyObject(RuleKey.class)))
+        .andReturn(buildInfoRecorder);
+
+    OnDiskBuildInfo onDiskBuildInfo = new FakeOnDiskBuildInfo()
+        .setRuleKey(reverse(buildRule.getRuleKey()))
+        .putMetadata(
+            CachingBuildEngine.INPUT_BASED_RULE_KEY_ON_DISK_METADATA,
+            TestInputBasedBuildRule.INPUT_BASED_RULE_KEY_HASH);
+
+    buildInfoRecorder.addMetadata(
+        CachingBuildEngine.INPUT_BASED_RULE_KEY_ON_DISK_METADATA,
+        TestInputBasedBuildRule.INPUT_BASED_RULE_KEY_HASH);
+    buildInfoRecorder.writeMetadataToDisk(/* clearExistingMetadata */ false);
+
+    expect(buildContext.createOnDiskBuildInfoFor(buildTarget)).andReturn(onDiskBuildInfo);
+    expect(buildContext.getStepRunner()).andReturn(createSameThreadStepRunner());
+    expect(buildContext.getEventBus()).andReturn(buckEventBus).anyTimes();
+
+    replayAll();
+    CachingBuildEngine cachingBuildEngine = new CachingBuildEngine();
+
+    ListenableFuture<BuildRuleSuccess> result = cachingBuildEngine.build(buildContext, buildRule);
+    assertTrue("We expect build() to be synchronous in this case, " +
+               "so the future should already be resolved.",
+               MoreFutures.isSuccess(result));
+    buckEventBus.post(CommandEvent.finished("build", ImmutableList.<String>of(), false, 0));
+
+    assertEquals(BuildRuleSuccess.Type.MATCHING_INPUT_BASED_RULE_KEY, result.get().getType());
+
+    verifyAll();
+  }
+
   private StepRunner createSameThreadStepRunner() {
     return createSameThreadStepRunner(null);
   }
@@ -461,7 +578,10 @@ public class CachingBuildEngineTest extends EasyMockSupport {
            /* ruleKeyWithoutDeps */ anyObject(RuleKey.class)))
         .andReturn(buildInfoRecorder);
 
-    expect(buildInfoRecorder.fetchArtifactForBuildable(anyObject(File.class), eq(artifactCache)))
+    expect(buildInfoRecorder.fetchArtifactForBuildable(
+            anyObject(RuleKey.class),
+            anyObject(File.class),
+            eq(artifactCache)))
         .andReturn(CacheResult.MISS);
 
     // Populate the metadata that should be read from disk.
@@ -829,6 +949,99 @@ public class CachingBuildEngineTest extends EasyMockSupport {
     }
   }
 
+  /**
+   * {@link AbstractBuildRule} that implements {@link SupportsDependencyFileRuleKey}.
+   */
+  private static class TestDepFileBuildRule extends AbstractBuildRule
+      implements SupportsDependencyFileRuleKey {
+
+    private static final Path USED_INPUT = Paths.get("used.h");
+    private static final String DEP_FILE_RULE_KEY_HASH =
+        "3e7d5d9b3b1e9b3f7a4a2e54f4b0d2e4c7b1a9f0";
+
+    TestDepFileBuildRule(BuildRuleParams buildRuleParams, SourcePathResolver resolver) {
+      super(buildRuleParams, resolver);
+    }
+
+    @Override
+    public ImmutableCollection<Path> getInputsToCompareToOutput() {
+      return ImmutableSet.of();
+    }
+
+    @Override
+    public ImmutableList<Step> getBuildSteps(
+        BuildContext context,
+        BuildableContext buildableContext) {
+      throw new UnsupportedOperationException("method should not be called");
+    }
+
+    @Override
+    public RuleKey.Builder appendDetailsToRuleKey(RuleKey.Builder builder) {
+      return builder;
+    }
+
+    @Nullable
+    @Override
+    public Path getPathToOutputFile() {
+      return null;
+    }
+
+    @Override
+    public Optional<RuleKey> getDependencyFileRuleKey(ImmutableList<Path> inputs) {
+      if (!inputs.equals(ImmutableList.of(USED_INPUT))) {
+        return Optional.absent();
+      }
+      return Optional.of(new RuleKey(DEP_FILE_RULE_KEY_HASH));
+    }
+
+    @Override
+    public ImmutableList<Path> getInputsAfterBuildingLocally() {
+      return ImmutableList.of(USED_INPUT);
+    }
+  }
+
+  /**
+   * {@link AbstractBuildRule} that implements {@link SupportsInputBasedRuleKey}.
+   */
+  private static class TestInputBasedBuildRule extends AbstractBuildRule
+      implements SupportsInputBasedRuleKey {
+
+    private static final String INPUT_BASED_RULE_KEY_HASH =
+        "8d1a0ab6fd3b1b3f5a0c7c1e2b7e94d1d9e6f0c2";
+
+    TestInputBasedBuildRule(BuildRuleParams buildRuleParams, SourcePathResolver resolver) {
+      super(buildRuleParams, resolver);
+    }
+
+    @Override
+    public ImmutableCollection<Path> getInputsToCompareToOutput() {
+      return ImmutableSet.of();
+    }
+
+    @Override
+    public ImmutableList<Step> getBuildSteps(
+        BuildContext context,
+        BuildableContext buildableContext) {
+      throw new UnsupportedOperationException("method should not be called");
+    }
+
+    @Override
+    public RuleKey.Builder appendDetailsToRuleKey(RuleKey.Builder builder) {
+      return builder;
+    }
+
+    @Nullable
+    @Override
+    public Path getPathToOutputFile() {
+      return null;
+    }
+
+    @Override
+    public RuleKey getInputBasedRuleKey() {
+      return new RuleKey(INPUT_BASED_RULE_KEY_HASH);
+    }
+  }
+
   private static class LocallyBuiltTestAbstractCachingBuildRule
       extends TestAbstractCachingBuildRule {
     LocallyBuiltTestAbstractCachingBuildRule(
@@ -23,7 +23,6 @@ import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargetFactory;
 import com.facebook.buck.model.BuildTargets;
 import com.facebook.buck.step.Step;
-import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
 import com.facebook.buck.step.fs.SymlinkTreeStep;
 import com.facebook.buck.testutil.FakeFileHashCache;
 import com.google.common.base.Charsets;
@@ -92,8 +91,7 @@ public class SymlinkTreeTest {
     FakeBuildableContext buildableContext = new FakeBuildableContext();
 
     // Verify the build steps are as expected.
-    ImmutableList<Step> expectedBuildSteps = ImmutableList.of(
-        new MakeCleanDirectoryStep(outputPath),
+    ImmutableList<Step> expectedBuildSteps = ImmutableList.<Step>of(
         new SymlinkTreeStep(
             outputPath,
             new SourcePathResolver(new BuildRuleResolver()).getMappedPaths(links)));
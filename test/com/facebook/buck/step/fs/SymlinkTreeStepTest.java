@@ -17,6 +17,7 @@
 package com.facebook.buck.step.fs;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.io.ProjectFilesystem;
@@ -30,8 +31,11 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 
 public class SymlinkTreeStepTest {
 
@@ -77,4 +81,62 @@ public class SymlinkTreeStepTest {
 
   }
 
+  @Test
+  public void updatesAnExistingTreeInPlace() throws IOException {
+    ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmpDir.getRoot().toPath());
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(projectFilesystem)
+        .build();
+
+    Path root = Paths.get("symlink-tree-root");
+    Path source1 = Paths.get("source1");
+    projectFilesystem.writeContentsToPath("foo", source1);
+    Path source2 = Paths.get("source2");
+    projectFilesystem.writeContentsToPath("bar", source2);
+
+    Path unchanged = Paths.get("unchanged");
+    Path retargeted = Paths.get("dir", "retargeted");
+    Path removed = Paths.get("removed", "link");
+    Path added = Paths.get("added", "link");
+    Path junk = root.resolve("junk");
+
+    assertEquals(
+        0,
+        new SymlinkTreeStep(
+            root,
+            ImmutableMap.of(
+                unchanged, source1,
+                retargeted, source1,
+                removed, source2)).execute(context));
+    projectFilesystem.writeContentsToPath("junk", junk);
+    Object unchangedKey = getLinkFileKey(projectFilesystem.resolve(root.resolve(unchanged)));
+
+    assertEquals(
+        0,
+        new SymlinkTreeStep(
+            root,
+            ImmutableMap.of(
+                unchanged, source1,
+                retargeted, source2,
+                added, source2)).execute(context));
+
+    assertEquals(Optional.of("foo"), projectFilesystem.readFirstLine(root.resolve(unchanged)));
+    assertEquals(Optional.of("bar"), projectFilesystem.readFirstLine(root.resolve(retargeted)));
+    assertEquals(Optional.of("bar"), projectFilesystem.readFirstLine(root.resolve(added)));
+    assertFalse(projectFilesystem.exists(root.resolve(removed)));
+    assertFalse(
+        "Directories left empty should be removed.",
+        projectFilesystem.exists(root.resolve(removed).getParent()));
+    assertFalse(projectFilesystem.exists(junk));
+    assertEquals(
+        "Links which are already up to date should be left alone.",
+        unchangedKey,
+        getLinkFileKey(projectFilesystem.resolve(root.resolve(unchanged))));
+  }
+
+  private static Object getLinkFileKey(Path link) throws IOException {
+    return Files.readAttributes(link, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS)
+        .fileKey();
+  }
+
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.test.result.type.ResultType;
+import com.facebook.buck.util.Ansi;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+public class TestCaseSummaryTest {
+
+  private static final TestCaseSummary SUMMARY = new TestCaseSummary(
+      "com.example.FooTest",
+      ImmutableList.of(
+          new TestResultSummary(
+              "com.example.FooTest",
+              "testFoo",
+              ResultType.SUCCESS,
+              123L,
+              null /* message */,
+              null /* stacktrace */,
+              null /* stdOut */,
+              null /* stdErr */)));
+
+  @Test
+  public void resultsFromLocalAndRemoteCachesAreToldApart() {
+    TestCaseSummary local = TestCaseSummary.TO_CACHED_TRANSFORMATION.apply(SUMMARY);
+    TestCaseSummary remote = TestCaseSummary.TO_REMOTELY_CACHED_TRANSFORMATION.apply(SUMMARY);
+
+    assertTrue(local.isCached());
+    assertFalse(local.isCachedRemotely());
+    assertTrue(remote.isCached());
+    assertTrue(remote.isCachedRemotely());
+
+    assertEquals(
+        "PASS    CACHED  1 Passed   0 Skipped   0 Failed   com.example.FooTest",
+        local.getOneLineSummary(/* hasPassingDependencies */ true, Ansi.withoutTty()));
+    assertEquals(
+        "PASS    REMOTE  1 Passed   0 Skipped   0 Failed   com.example.FooTest",
+        remote.getOneLineSummary(/* hasPassingDependencies */ true, Ansi.withoutTty()));
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.test.result.type.ResultType;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Functions;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.Map;
+
+public class TestTimingsTest {
+
+  @Test
+  public void longestFirstGuessesTheMeanTimeForUnknownItems() {
+    Map<String, Optional<Long>> times = ImmutableMap.of(
+        "fast", Optional.of(10L),
+        "unknown", Optional.<Long>absent(),
+        "slow", Optional.of(30L),
+        "alsoFast", Optional.of(10L));
+
+    assertEquals(
+        ImmutableList.of("slow", "unknown", "fast", "alsoFast"),
+        TestTimings.longestFirst(times.keySet(), Functions.forMap(times)));
+  }
+
+  @Test
+  public void balanceGivesEachItemToTheLeastLoadedShard() {
+    Map<String, Optional<Long>> times = ImmutableMap.of(
+        "a", Optional.of(50L),
+        "b", Optional.of(40L),
+        "c", Optional.of(30L),
+        "d", Optional.of(20L),
+        "e", Optional.of(10L));
+
+    assertEquals(
+        ImmutableList.of(
+            ImmutableList.of("a", "d", "e"),
+            ImmutableList.of("b", "c")),
+        TestTimings.balance(times.keySet(), Functions.forMap(times), 2));
+  }
+
+  @Test
+  public void balanceDealsOutItemsWithNoTimings() {
+    ImmutableList<String> items = ImmutableList.of("a", "b", "c", "d", "e");
+
+    assertEquals(
+        ImmutableList.of(
+            ImmutableList.of("a", "c", "e"),
+            ImmutableList.of("b", "d")),
+        TestTimings.balance(
+            items,
+            Functions.constant(Optional.<Long>absent()),
+            2));
+  }
+
+  @Test
+  public void recordedTimingsSurviveASaveAndLoad() throws IOException {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    ObjectMapper mapper = new ObjectMapper();
+    BuildTarget target = BuildTargetFactory.newInstance("//foo:test");
+
+    TestTimings timings = TestTimings.load(filesystem, mapper);
+    assertFalse(timings.getRuleTimeMillis(target).isPresent());
+    timings.record(createResults(target, 100L, 200L));
+    timings.save(filesystem, mapper);
+
+    TestTimings loaded = TestTimings.load(filesystem, mapper);
+    assertEquals(Optional.of(300L), loaded.getRuleTimeMillis(target));
+    assertEquals(Optional.of(100L), loaded.getTestCaseTimeMillis("com.example.Test0"));
+    assertEquals(Optional.of(200L), loaded.getTestCaseTimeMillis("com.example.Test1"));
+
+    // New timings are averaged with old ones.
+    loaded.record(createResults(target, 300L, 0L));
+    assertEquals(Optional.of(300L), loaded.getRuleTimeMillis(target));
+    assertEquals(Optional.of(200L), loaded.getTestCaseTimeMillis("com.example.Test0"));
+  }
+
+  @Test
+  public void sharedTimingsAreReadFromTheGivenFile() throws IOException {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    ObjectMapper mapper = new ObjectMapper();
+    BuildTarget target = BuildTargetFactory.newInstance("//foo:test");
+
+    TestTimings timings = TestTimings.load(filesystem, mapper);
+    timings.record(createResults(target, 100L, 200L));
+    timings.save(filesystem, mapper);
+    filesystem.copyFile(TestTimings.PATH, Paths.get("shared-timings.json"));
+
+    TestTimings shared = TestTimings.read(filesystem, mapper, Paths.get("shared-timings.json"));
+    assertEquals(Optional.of(300L), shared.getRuleTimeMillis(target));
+  }
+
+  @Test(expected = NoSuchFileException.class)
+  public void sharedTimingsMustExist() throws IOException {
+    TestTimings.read(
+        new FakeProjectFilesystem(),
+        new ObjectMapper(),
+        Paths.get("shared-timings.json"));
+  }
+
+  @Test
+  public void cachedResultsAreNotRecorded() {
+    BuildTarget target = BuildTargetFactory.newInstance("//foo:test");
+    TestResults results = createResults(target, 100L);
+    TestResults cachedResults = new TestResults(
+        target,
+        ImmutableList.copyOf(
+            Iterables.transform(
+                results.getTestCases(),
+                TestCaseSummary.TO_CACHED_TRANSFORMATION)),
+        ImmutableSet.<String>of());
+
+    TestTimings timings = TestTimings.empty();
+    timings.record(cachedResults);
+
+    assertFalse(timings.getRuleTimeMillis(target).isPresent());
+  }
+
+  private static TestResults createResults(BuildTarget target, long... testCaseTimes) {
+    ImmutableList.Builder<TestCaseSummary> testCases = ImmutableList.builder();
+    for (int i = 0; i < testCaseTimes.length; i++) {
+      String testCaseName = "com.example.Test" + i;
+      testCases.add(
+          new TestCaseSummary(
+              testCaseName,
+              ImmutableList.of(
+                  new TestResultSummary(
+                      testCaseName,
+                      "test",
+                      ResultType.SUCCESS,
+                      testCaseTimes[i],
+                      null,
+                      null,
+                      null,
+                      null))));
+    }
+    return new TestResults(target, testCases.build(), ImmutableSet.<String>of());
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+public class ClasspathHasherTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void filesAreOnlyReadAgainOnceTheirSizeOrTimestampChanges() throws Exception {
+    Path dir = tmp.newFolder().toPath();
+    Path jar = tmp.newFile("tool.jar").toPath();
+    Files.write(dir.resolve("Tool.class"), new byte[] {1, 2});
+    Files.write(jar, new byte[] {3});
+    FileTime timestamp = FileTime.fromMillis(1000);
+    Files.setLastModifiedTime(dir.resolve("Tool.class"), timestamp);
+    Files.setLastModifiedTime(jar, timestamp);
+    ImmutableList<Path> classpath = ImmutableList.of(dir, jar);
+    ClasspathHasher hasher = new ClasspathHasher();
+
+    HashCode original = hasher.hash(classpath);
+
+    // A change which keeps both the size and the timestamp goes unnoticed, which shows that the
+    // file isn't read again.
+    Files.write(jar, new byte[] {4});
+    Files.setLastModifiedTime(jar, timestamp);
+    assertEquals(original, hasher.hash(classpath));
+
+    Files.setLastModifiedTime(jar, FileTime.fromMillis(2000));
+    HashCode touched = hasher.hash(classpath);
+    assertNotEquals(original, touched);
+
+    Files.write(dir.resolve("Tool.class"), new byte[] {1, 2, 3});
+    Files.setLastModifiedTime(dir.resolve("Tool.class"), timestamp);
+    assertNotEquals(touched, hasher.hash(classpath));
+  }
+
+  @Test
+  public void filesAddedToADirectoryChangeTheHash() throws Exception {
+    Path dir = tmp.newFolder().toPath();
+    Files.write(dir.resolve("Tool.class"), new byte[] {1});
+    ClasspathHasher hasher = new ClasspathHasher();
+
+    HashCode original = hasher.hash(ImmutableList.of(dir));
+    Files.write(dir.resolve("Extra.class"), new byte[] {1});
+
+    assertNotEquals(original, hasher.hash(ImmutableList.of(dir)));
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.timing.SettableFakeClock;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+public class WorkerProcessPoolTest {
+
+  /**
+   * The tool run by the workers in these tests: echoes its arguments, and exits with the code given
+   * by the first argument if it is a number. Given {@code --load <class>}, it prints whether it can
+   * load the class instead.
+   */
+  public static class EchoTool {
+    public static void main(String[] args) {
+      if (args.length == 2 && args[0].equals("--load")) {
+        try {
+          Class.forName(args[1]);
+          System.out.print("loaded");
+        } catch (ClassNotFoundException e) {
+          System.out.print("not found");
+        }
+        return;
+      }
+      StringBuilder builder = new StringBuilder();
+      for (String arg : args) {
+        builder.append(arg).append(' ');
+      }
+      System.out.print(builder.toString().trim());
+      System.err.print("stderr");
+      if (args.length > 0 && args[0].matches("\\d+")) {
+        System.exit(Integer.parseInt(args[0]));
+      }
+    }
+  }
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private SettableFakeClock clock;
+  private WorkerProcessPool pool;
+
+  @Before
+  public void createPool() {
+    clock = new SettableFakeClock(0, 0);
+    pool = new WorkerProcessPool(clock);
+  }
+
+  @After
+  public void closePool() {
+    pool.close();
+  }
+
+  @Test
+  public void workersAreReusedBetweenRequests() throws Exception {
+    WorkerJvm jvm = createJvm(/* maxRequestsPerWorker */ 10);
+
+    WorkerResult first = pool.run(jvm, ImmutableList.of("hello", "world"));
+    WorkerResult second = pool.run(jvm, ImmutableList.of("goodbye"));
+
+    assertEquals(0, first.getExitCode());
+    assertEquals("hello world", first.getStdout());
+    assertEquals("stderr", first.getStderr());
+    assertFalse(first.isReusedWorker());
+
+    assertEquals(0, second.getExitCode());
+    assertEquals("goodbye", second.getStdout());
+    assertTrue(second.isReusedWorker());
+
+    assertEquals(1, pool.getWorkersStarted());
+    assertEquals(2, pool.getRequests());
+    assertEquals(1, pool.getRequestsOnReusedWorkers());
+  }
+
+  @Test
+  public void callsToSystemExitBecomeTheExitCode() throws Exception {
+    WorkerJvm jvm = createJvm(/* maxRequestsPerWorker */ 10);
+
+    WorkerResult failed = pool.run(jvm, ImmutableList.of("3"));
+    WorkerResult succeeded = pool.run(jvm, ImmutableList.of("0"));
+
+    assertEquals(3, failed.getExitCode());
+    assertEquals("3", failed.getStdout());
+    assertEquals(0, succeeded.getExitCode());
+    assertEquals(1, pool.getWorkersStarted());
+  }
+
+  @Test
+  public void workersAreRecycledAfterMaxRequests() throws Exception {
+    WorkerJvm jvm = createJvm(/* maxRequestsPerWorker */ 1);
+
+    pool.run(jvm, ImmutableList.of("a"));
+    WorkerResult second = pool.run(jvm, ImmutableList.of("b"));
+
+    assertFalse(second.isReusedWorker());
+    assertEquals(2, pool.getWorkersStarted());
+    assertEquals(2, pool.getWorkersRetired());
+  }
+
+  @Test
+  public void workersAreNotReusedOnceTheToolHasChanged() throws Exception {
+    Path classpath = tmp.newFolder().toPath();
+    Path toolClass = Paths.get(EchoTool.class.getName().replace('.', '/') + ".class");
+    Files.createDirectories(classpath.resolve(toolClass).getParent());
+    Files.copy(getTestClasspath().resolve(toolClass), classpath.resolve(toolClass));
+    WorkerJvm jvm = createJvm(/* maxRequestsPerWorker */ 10, classpath);
+
+    pool.run(jvm, ImmutableList.of("a"));
+    assertTrue(pool.run(jvm, ImmutableList.of("b")).isReusedWorker());
+
+    Files.write(classpath.resolve("extra.txt"), new byte[] {1});
+    WorkerResult changed = pool.run(jvm, ImmutableList.of("c"));
+
+    assertFalse(changed.isReusedWorker());
+    assertEquals("c", changed.getStdout());
+    assertEquals(2, pool.getWorkersStarted());
+    assertEquals(1, pool.getWorkersRetired());
+  }
+
+  @Test
+  public void theToolOnlySeesItsOwnClasspath() throws Exception {
+    WorkerJvm jvm = createJvm(/* maxRequestsPerWorker */ 10);
+
+    WorkerResult result =
+        pool.run(jvm, ImmutableList.of("--load", ImmutableList.class.getName()));
+
+    assertEquals("not found", result.getStdout());
+  }
+
+  @Test
+  public void workersBeyondTheMaximumIdleAreShutDown() throws Exception {
+    WorkerJvm jvm = ImmutableWorkerJvm.copyOf(createJvm(/* maxRequestsPerWorker */ 10))
+        .withMaxIdleWorkers(0);
+
+    pool.run(jvm, ImmutableList.of("a"));
+    WorkerResult second = pool.run(jvm, ImmutableList.of("b"));
+
+    assertFalse(second.isReusedWorker());
+    assertEquals(2, pool.getWorkersStarted());
+    assertEquals(2, pool.getWorkersRetired());
+  }
+
+  @Test
+  public void workersAreShutDownOnceIdleForTooLong() throws Exception {
+    WorkerJvm jvm = ImmutableWorkerJvm.copyOf(createJvm(/* maxRequestsPerWorker */ 10))
+        .withIdleTimeoutMillis(1000);
+
+    pool.run(jvm, ImmutableList.of("a"));
+    clock.setNanos(TimeUnit.MILLISECONDS.toNanos(1000));
+    pool.reapIdleWorkers();
+    assertTrue(pool.run(jvm, ImmutableList.of("b")).isReusedWorker());
+
+    clock.setNanos(TimeUnit.MILLISECONDS.toNanos(2001));
+    pool.reapIdleWorkers();
+    assertEquals(1, pool.getWorkersRetired());
+    assertFalse(pool.run(jvm, ImmutableList.of("c")).isReusedWorker());
+    assertEquals(2, pool.getWorkersStarted());
+  }
+
+  private static WorkerJvm createJvm(int maxRequestsPerWorker) throws URISyntaxException {
+    return createJvm(maxRequestsPerWorker, getTestClasspath());
+  }
+
+  private static WorkerJvm createJvm(int maxRequestsPerWorker, Path classpath) {
+    Path workingDirectory = Paths.get(".").toAbsolutePath().normalize();
+    return ImmutableWorkerJvm.builder()
+        .setClasspath(ImmutableList.of(classpath))
+        .setMainClass(EchoTool.class.getName())
+        .setJvmArgs(ImmutableList.of("-Xmx64m"))
+        .setWorkingDirectory(workingDirectory)
+        .setMaxRequestsPerWorker(maxRequestsPerWorker)
+        .build();
+  }
+
+  private static Path getTestClasspath() throws URISyntaxException {
+    return Paths.get(EchoTool.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+  }
+}
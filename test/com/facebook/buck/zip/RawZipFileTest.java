@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import static com.facebook.buck.zip.ZipOutputStreams.HandleDuplicates.OVERWRITE_EXISTING;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+public class RawZipFileTest {
+
+  private static final byte[] DEFLATED_BYTES =
+      "Double, double toil and trouble; fire burn and cauldron bubble".getBytes(UTF_8);
+  private static final byte[] STORED_BYTES = "By the pricking of my thumbs".getBytes(UTF_8);
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+  private File input;
+
+  @Before
+  public void createInputZip() throws IOException {
+    input = tmp.newFile("input.zip");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(input))) {
+      out.putNextEntry(new ZipEntry("deflated.txt"));
+      out.write(DEFLATED_BYTES);
+
+      ZipEntry stored = new ZipEntry("dir/stored.txt");
+      stored.setMethod(ZipEntry.STORED);
+      stored.setSize(STORED_BYTES.length);
+      stored.setCrc(Hashing.crc32().hashBytes(STORED_BYTES).padToLong());
+      out.putNextEntry(stored);
+      out.write(STORED_BYTES);
+    }
+  }
+
+  @Test
+  public void shouldReadEntryMetadataFromTheCentralDirectory() throws IOException {
+    try (RawZipFile zip = new RawZipFile(input.toPath())) {
+      assertEquals(2, zip.getEntries().size());
+
+      RawZipEntry deflated = zip.getEntries().get(0);
+      assertEquals("deflated.txt", deflated.getName());
+      assertEquals(ZipEntry.DEFLATED, deflated.getMethod());
+      assertEquals(DEFLATED_BYTES.length, deflated.getSize());
+      assertEquals(Hashing.crc32().hashBytes(DEFLATED_BYTES).padToLong(), deflated.getCrc());
+
+      RawZipEntry stored = zip.getEntries().get(1);
+      assertEquals("dir/stored.txt", stored.getName());
+      assertEquals(ZipEntry.STORED, stored.getMethod());
+      assertEquals(STORED_BYTES.length, stored.getCompressedSize());
+    }
+  }
+
+  @Test
+  public void shouldInflateEntries() throws IOException {
+    try (RawZipFile zip = new RawZipFile(input.toPath())) {
+      for (RawZipEntry entry : zip.getEntries()) {
+        byte[] expected = entry.getName().equals("deflated.txt") ? DEFLATED_BYTES : STORED_BYTES;
+        try (InputStream in = zip.getInputStream(entry)) {
+          assertArrayEquals(expected, ByteStreams.toByteArray(in));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void copiedEntriesShouldBeReadableAndUnchanged() throws IOException {
+    File output = tmp.newFile("output.zip");
+    try (
+        RawZipFile zip = new RawZipFile(input.toPath());
+        CustomZipOutputStream out = ZipOutputStreams.newOutputStream(output)) {
+      for (RawZipEntry entry : zip.getEntries()) {
+        zip.copyEntry(entry, out);
+      }
+    }
+
+    assertCopiedZipMatchesInput(output);
+  }
+
+  @Test
+  public void copiedEntriesShouldSurviveAnOverwritingStream() throws IOException {
+    File output = tmp.newFile("output.zip");
+    try (
+        RawZipFile zip = new RawZipFile(input.toPath());
+        CustomZipOutputStream out =
+            ZipOutputStreams.newOutputStream(output, OVERWRITE_EXISTING)) {
+      for (RawZipEntry entry : zip.getEntries()) {
+        zip.copyEntry(entry, out);
+      }
+      // The second copy of each entry should replace the first.
+      for (RawZipEntry entry : zip.getEntries()) {
+        zip.copyEntry(entry, out);
+      }
+    }
+
+    assertCopiedZipMatchesInput(output);
+  }
+
+  @Test(expected = ZipException.class)
+  public void shouldRejectRawDataOfTheWrongSize() throws IOException {
+    File output = tmp.newFile("output.zip");
+    try (CustomZipOutputStream out = ZipOutputStreams.newOutputStream(output)) {
+      CustomZipEntry entry = new CustomZipEntry("bad.txt");
+      entry.setMethod(ZipEntry.STORED);
+      entry.setCrc(Hashing.crc32().hashBytes(STORED_BYTES).padToLong());
+      entry.setSize(STORED_BYTES.length + 1);
+      entry.setCompressedSize(STORED_BYTES.length + 1);
+      out.putRawEntry(entry, new ByteArrayInputStream(STORED_BYTES));
+    }
+  }
+
+  private void assertCopiedZipMatchesInput(File output) throws IOException {
+    try (RawZipFile original = new RawZipFile(input.toPath());
+         RawZipFile copy = new RawZipFile(output.toPath())) {
+      assertEquals(original.getEntries().size(), copy.getEntries().size());
+      for (int i = 0; i < original.getEntries().size(); i++) {
+        RawZipEntry expected = original.getEntries().get(i);
+        RawZipEntry actual = copy.getEntries().get(i);
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getMethod(), actual.getMethod());
+        assertEquals(expected.getCrc(), actual.getCrc());
+        assertEquals(expected.getCompressedSize(), actual.getCompressedSize());
+        assertEquals(expected.getDosTime(), actual.getDosTime());
+        try (InputStream expectedStream = original.getCompressedInputStream(expected);
+             InputStream actualStream = copy.getCompressedInputStream(actual)) {
+          assertArrayEquals(
+              ByteStreams.toByteArray(expectedStream),
+              ByteStreams.toByteArray(actualStream));
+        }
+      }
+    }
+
+    // And make sure the JDK, which validates CRCs and sizes, agrees.
+    try (ZipInputStream in = new ZipInputStream(new FileInputStream(output))) {
+      assertEquals("deflated.txt", in.getNextEntry().getName());
+      assertArrayEquals(DEFLATED_BYTES, ByteStreams.toByteArray(in));
+      assertEquals("dir/stored.txt", in.getNextEntry().getName());
+      assertArrayEquals(STORED_BYTES, ByteStreams.toByteArray(in));
+      assertNull(in.getNextEntry());
+    }
+  }
+}
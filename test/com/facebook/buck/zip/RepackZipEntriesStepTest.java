@@ -17,10 +17,14 @@
 package com.facebook.buck.zip;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.step.TestExecutionContext;
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Resources;
 
 import org.junit.Before;
@@ -31,9 +35,13 @@ import org.junit.rules.TemporaryFolder;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
 public class RepackZipEntriesStepTest {
@@ -99,4 +107,56 @@ public class RepackZipEntriesStepTest {
 
     assertTrue(expected.length < actual.length);
   }
+
+  @Test
+  public void storedEntriesAreAlignedWithoutChangingTheirContents() throws IOException {
+    File storedZip = new File(parent, "stored.zip");
+    try (ZipOutputStream stream = new ZipOutputStream(new FileOutputStream(storedZip))) {
+      for (String name : ImmutableSet.of("a", "bb", "ccc", "resources.arsc")) {
+        byte[] bytes = ("contents of " + name).getBytes(Charsets.UTF_8);
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(bytes.length);
+        entry.setCrc(Hashing.crc32().hashBytes(bytes).padToLong());
+        stream.putNextEntry(entry);
+        stream.write(bytes);
+      }
+    }
+
+    File out = new File(parent, "output.zip");
+    RepackZipEntriesStep step = new RepackZipEntriesStep(
+        storedZip.toPath(),
+        out.toPath(),
+        ImmutableSet.of("resources.arsc"),
+        ZipStep.MAX_COMPRESSION_LEVEL,
+        /* alignment */ 4);
+    step.execute(TestExecutionContext.newInstance());
+
+    ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(out.toPath()))
+        .order(ByteOrder.LITTLE_ENDIAN);
+    try (RawZipFile zip = new RawZipFile(out.toPath())) {
+      for (RawZipEntry entry : zip.getEntries()) {
+        if (entry.getMethod() != ZipEntry.STORED) {
+          continue;
+        }
+        int offset = (int) entry.getLocalHeaderOffset();
+        int dataOffset = offset + 30 + bytes.getShort(offset + 26) + bytes.getShort(offset + 28);
+        assertEquals(entry.getName(), 0, dataOffset % 4);
+      }
+    }
+
+    try (ZipFile zip = new ZipFile(out)) {
+      for (String name : ImmutableSet.of("a", "bb", "ccc", "resources.arsc")) {
+        ZipEntry entry = zip.getEntry(name);
+        assertEquals(
+            name.equals("resources.arsc") ? ZipEntry.DEFLATED : ZipEntry.STORED,
+            entry.getMethod());
+        try (InputStream in = zip.getInputStream(entry)) {
+          assertEquals(
+              "contents of " + name,
+              new String(ByteStreams.toByteArray(in), Charsets.UTF_8));
+        }
+      }
+    }
+  }
 }